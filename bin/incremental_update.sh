@@ -4,4 +4,4 @@ cd ..
 
 source ./bin/get_java.sh
 
-$DEC_JAVA -classpath ./config/extract.properties:./lib/dataExtraction-2.0.2-SNAPSHOT-jar-with-dependencies.jar:./target/dataExtraction-2.0.2-SNAPSHOT-jar-with-dependencies.jar com.guidewire.tools.benchmarking.DataExtractionRunner -onlineupdate $@
+exec $DEC_JAVA -classpath ./config/extract.properties:./lib/dataExtraction-2.0.2-SNAPSHOT-jar-with-dependencies.jar:./target/dataExtraction-2.0.2-SNAPSHOT-jar-with-dependencies.jar com.guidewire.tools.benchmarking.DataExtractionRunner -onlineupdate $@
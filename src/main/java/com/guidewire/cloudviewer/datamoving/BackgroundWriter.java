@@ -0,0 +1,116 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A writer that hands what's written to it to a thread of its own, which writes it out, so that writing a lot - such as
+ * every row of a dirty csv file to its bad file - doesn't hold up the reading.  Meant to be wrapped in a BufferedWriter,
+ * so that it's handed whole buffers.
+ * <p/>
+ * flush() doesn't wait for what's been handed over to be written; close() does, and closes the writer underneath.  A
+ * failure to write is thrown by the next call after it happens.
+ */
+class BackgroundWriter extends Writer {
+  // How many chunks can be waiting to be written before writing waits for the thread to catch up
+  static final int MAX_PENDING_CHUNKS = 64;
+  private static final char[] END = new char[0];
+
+  private final Writer out;
+  private final BlockingQueue<char[]> chunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+  private final Thread writerThread;
+  private volatile IOException failure;
+  private boolean closed = false;
+
+  BackgroundWriter(Writer out, String name) {
+    this.out = out;
+    writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeChunks();
+      }
+    }, "Writing " + name);
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  private void writeChunks() {
+    try {
+      char[] chunk;
+      // After a write fails, the rest are still taken, and dropped, so that a caller waiting to hand one over (or to
+      // hand over the end, in close()) doesn't wait forever
+      while ((chunk = chunks.take()) != END) {
+        if (failure == null) {
+          try {
+            out.write(chunk);
+          } catch (IOException e) {
+            failure = e;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      failure = new InterruptedIOException("Interrupted while writing");
+    } finally {
+      try {
+        out.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void write(char[] buffer, int offset, int length) throws IOException {
+    checkWritable();
+    if (length > 0) {
+      hand(Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    checkWritable();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    hand(END);
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the writes to finish");
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void hand(char[] chunk) throws IOException {
+    try {
+      chunks.put(chunk);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while handing over a write");
+    }
+  }
+
+  private void checkWritable() throws IOException {
+    if (closed) {
+      throw new IOException("Writer closed");
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
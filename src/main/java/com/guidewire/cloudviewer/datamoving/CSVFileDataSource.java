@@ -8,14 +8,13 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -28,8 +27,8 @@ public class CSVFileDataSource implements RowDataSource {
   BufferedReader reader;
   CSVParser parser;
   boolean wasNull = false;
-  Map<String, String> latestRow;
-  Map<String, ColumnDef> columnMap = new HashMap<>();
+  // The current row, by column; see ColumnSlots
+  ColumnSlots<ColumnDef> latestRow;
   DataExtractor extractor = null;
   long currentRow = 0;
   long expectedRows = -1;
@@ -66,9 +65,9 @@ public class CSVFileDataSource implements RowDataSource {
       if (names.get(i) != null && names.get(i).length() > 0) {
         ColumnDef column = ColumnDef.createDefinition(types.get(i), names.get(i));
         queryDefinition.addColumn(column);
-        columnMap.put(column.getName(), column);
       }
     }
+    latestRow = new ColumnSlots<>(getColumns());
   }
 
 
@@ -99,9 +98,9 @@ public class CSVFileDataSource implements RowDataSource {
       row = csvRecordIterator.next();
       if (row.get(0).contains("<data end>")) return false;
       columns = getColumns();
-      latestRow = new HashMap<>(columns.size());
-      for (int i = 0; i < columns.size(); i++) {
-        latestRow.put(columns.get(i).getName(), row.get(i));
+      String[] values = latestRow.startRow();
+      for (int i = 0; i < values.length; i++) {
+        values[i] = row.get(i);
       }
       currentRow++;
       return true;
@@ -136,32 +135,51 @@ public class CSVFileDataSource implements RowDataSource {
 
   @Override
   public Date getDate(String columnLabel) throws SQLException, ParseException {
-    wasNull = wasNull(columnLabel);
-    return columnMap.get(columnLabel).getDate(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getDate(latestRow.value(slot));
   }
 
   @Override
   public Timestamp getTimestamp(String columnLabel) throws SQLException, ParseException {
-    wasNull = wasNull(columnLabel);
-    return columnMap.get(columnLabel).getTimestamp(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getTimestamp(latestRow.value(slot));
   }
 
   @Override
   public Double getDouble(String columnLabel) throws SQLException, ParseException {
-    wasNull = wasNull(columnLabel);
-    return columnMap.get(columnLabel).getDouble(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getDouble(latestRow.value(slot));
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String columnLabel) throws SQLException, ParseException {
+    int slot = latestRow.slotOf(columnLabel);
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getBigDecimal(latestRow.value(slot));
   }
 
   @Override
   public Integer getInt(String columnLabel) throws SQLException, ParseException {
-    wasNull = wasNull(columnLabel);
-    return columnMap.get(columnLabel).getInt(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getInt(latestRow.value(slot));
+  }
+
+  @Override
+  public Long getLong(String columnLabel) throws SQLException, ParseException {
+    int slot = latestRow.slotOf(columnLabel);
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getLong(latestRow.value(slot));
   }
 
   @Override
   public String getString(String columnLabel) throws SQLException, ParseException {
-    wasNull = wasNull(columnLabel);
-    return columnMap.get(columnLabel).getString(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getString(latestRow.value(slot));
   }
 
   @Override
@@ -180,7 +198,8 @@ public class CSVFileDataSource implements RowDataSource {
   }
 
   public boolean wasNull(String columnLabel) throws SQLException {
-    return columnMap.get(columnLabel).wasNull(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    return latestRow.column(slot).wasNull(latestRow.value(slot));
   }
 
   // returns true iff the implementation knows how many rows should be returning.
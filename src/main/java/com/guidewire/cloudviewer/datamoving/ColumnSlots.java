@@ -0,0 +1,91 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import com.guidewire.tools.benchmarking.ColumnDef;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values of the current row of a csv file, one slot for each of the columns it's read as, in the order of the
+ * columns.  The column names are resolved to slots once, from the header, and the same slots are reused for every row.
+ * <p/>
+ * The columns' values are asked for by name (see ColumnDef.getOutputResults()), but in the order of the columns and
+ * with the names from the columns themselves, so the slot after the last one asked for is checked first, by identity,
+ * before looking the name up.
+ * <p/>
+ * The slots are either filled in from each row as it's read, or taken from a MappedCSVParser.Record, so that a field is
+ * only decoded when its column is asked for.
+ */
+class ColumnSlots<C extends ColumnDef> {
+  private final ColumnDef[] columns;
+  private final String[] names;
+  private final Map<String, Integer> slotsByName;
+  private final String[] values;
+  private int nextSlot = 0;
+  // The record the values are taken from, and the field of the record for each slot (-1 for none)
+  private MappedCSVParser.Record record;
+  private int[] fields;
+
+  ColumnSlots(List<? extends ColumnDef> columns) {
+    this.columns = columns.toArray(new ColumnDef[0]);
+    names = new String[this.columns.length];
+    slotsByName = new HashMap<>(this.columns.length * 2);
+    for (int i = 0; i < this.columns.length; i++) {
+      names[i] = this.columns[i].getName();
+      slotsByName.put(names[i], i);
+    }
+    values = new String[this.columns.length];
+  }
+
+  /**
+   * Returns the slot of the column with this name, or -1 if there isn't one.
+   */
+  int slotOf(String columnName) {
+    if (nextSlot < names.length && names[nextSlot] == columnName) {
+      return nextSlot++;
+    }
+    Integer slot = slotsByName.get(columnName);
+    if (slot == null) {
+      return -1;
+    }
+    nextSlot = slot + 1;
+    return slot;
+  }
+
+  @SuppressWarnings("unchecked")
+  C column(int slot) {
+    return (C) columns[slot];
+  }
+
+  String value(int slot) {
+    if (values[slot] == null && record != null && fields[slot] >= 0) {
+      values[slot] = record.get(fields[slot]);
+    }
+    return values[slot];
+  }
+
+  int size() {
+    return values.length;
+  }
+
+  /**
+   * Starts a new row: clears the slots and returns them to be filled in.
+   */
+  String[] startRow() {
+    Arrays.fill(values, null);
+    nextSlot = 0;
+    record = null;
+    return values;
+  }
+
+  /**
+   * Starts a new row whose values are taken from the record, as they're asked for.
+   */
+  void startRow(MappedCSVParser.Record record, int[] fields) {
+    startRow();
+    this.record = record;
+    this.fields = fields;
+  }
+}
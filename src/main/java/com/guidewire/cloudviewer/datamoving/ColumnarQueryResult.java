@@ -0,0 +1,359 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.guidewire.tools.benchmarking.ColumnDef;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes and reads a QueryResult in the columnar format used from DataExtractionRunner.COLUMNAR_PROTOCOL_VERSION on.
+ * Instead of a list of rows that each hold a list of strings, the payload holds one entry per column under "data":
+ * <ul>
+ *   <li>nulls - a base 64 bitmap with bit i set if row i is null (empty) in this column.  Left out if there are no
+ *   nulls.  Only the non-null values appear in the values array, and nulls read back as empty strings, which is
+ *   what the columns output for a null.</li>
+ *   <li>PLAIN - values is an array of the strings.</li>
+ *   <li>DICTIONARY - used for TYPECODE columns.  dictionary holds each distinct string once and values holds indexes
+ *   into it.</li>
+ *   <li>DELTA - used for ID and integer columns.  values holds the first number followed by the difference from the
+ *   previous one.</li>
+ *   <li>TIMESTAMP_DELTA - used for DATETIME columns.  values holds the epoch milliseconds of the first timestamp
+ *   followed by differences, offsets holds the distinct UTC offsets in minutes, and offsetIndexes says which offset
+ *   each value had, left out if there's only one.</li>
+ * </ul>
+ * Every encoding reproduces exactly the strings that were encoded; a column falls back to PLAIN if any of its values
+ * wouldn't survive the trip.  The other QueryResult fields are written the same way as in the row format.
+ */
+public class ColumnarQueryResult {
+  public static final String PLAIN = "PLAIN";
+  public static final String DICTIONARY = "DICTIONARY";
+  public static final String DELTA = "DELTA";
+  public static final String TIMESTAMP_DELTA = "TIMESTAMP_DELTA";
+
+  // Matches the format DateTimeColumn uses for its output, yyyyMMdd HH:mm:ss.SSSZ
+  private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss.SSSxx");
+
+  private ColumnarQueryResult() {
+  }
+
+  public static String toJson(QueryResult result) {
+    StringWriter writer = new StringWriter();
+    try {
+      JsonWriter out = JsonCodecs.gson().newJsonWriter(writer);
+      write(out, result);
+      out.flush();
+    } catch (IOException e) {
+      // A StringWriter doesn't throw
+      throw new IllegalStateException(e);
+    }
+    return writer.toString();
+  }
+
+  public static void write(JsonWriter out, QueryResult result) throws IOException {
+    out.beginObject();
+    if (result.getName() != null) {
+      out.name("name").value(result.getName());
+    }
+    List<ColumnDef> columns = result.getColumns();
+    if (columns != null) {
+      TypeAdapter<ColumnDef> columnAdapter = JsonCodecs.gson().getAdapter(ColumnDef.class);
+      out.name("columns").beginArray();
+      for (ColumnDef column : columns) {
+        columnAdapter.write(out, column);
+      }
+      out.endArray();
+    }
+    if (result.getChecksum() != null) {
+      out.name("checksum").value(result.getChecksum());
+    }
+    out.name("rowCount").value(result.getRows() == null ? 0 : result.getRows().size());
+    out.name("wasCutShort").value(result.wasCutShort());
+    out.name("lakeOnly").value(result.isLakeOnly());
+    if (result.getQueryTime() != null) {
+      out.name("queryTime").value(result.getQueryTime());
+    }
+    if (result.getBatchId() != null) {
+      out.name("batchId").value(result.getBatchId());
+    }
+    if (result.getContentHash() != null) {
+      out.name("contentHash").value(result.getContentHash());
+    }
+    if (result.getIdRanges() != null) {
+      out.name("idRanges").beginArray();
+      for (long[] range : result.getIdRanges()) {
+        out.beginArray().value(range[0]).value(range[1]).endArray();
+      }
+      out.endArray();
+    }
+    if (columns != null && result.getRows() != null) {
+      out.name("data").beginArray();
+      for (int i = 0; i < columns.size(); i++) {
+        writeColumn(out, columns.get(i), columnValues(result.getRows(), i));
+      }
+      out.endArray();
+    }
+    out.endObject();
+  }
+
+  public static QueryResult fromJson(String json) {
+    JsonObject object = JsonParser.parseString(json).getAsJsonObject();
+    QueryResult result = new QueryResult();
+    if (object.has("name")) {
+      result.setName(object.get("name").getAsString());
+    }
+    List<ColumnDef> columns = new ArrayList<ColumnDef>();
+    if (object.has("columns")) {
+      for (JsonElement column : object.getAsJsonArray("columns")) {
+        columns.add(JsonCodecs.gson().fromJson(column, ColumnDef.class));
+      }
+    }
+    result.setColumns(columns);
+    if (object.has("checksum")) {
+      result.setChecksum(object.get("checksum").getAsLong());
+    }
+    int rowCount = object.get("rowCount").getAsInt();
+    result.setRowCount(rowCount);
+    result.setWasCutShort(object.get("wasCutShort").getAsBoolean());
+    result.setLakeOnly(object.get("lakeOnly").getAsBoolean());
+    if (object.has("queryTime")) {
+      result.setQueryTime(object.get("queryTime").getAsLong());
+    }
+    if (object.has("batchId")) {
+      result.setBatchId(object.get("batchId").getAsString());
+    }
+    if (object.has("contentHash")) {
+      result.setContentHash(object.get("contentHash").getAsString());
+    }
+    if (object.has("idRanges")) {
+      List<long[]> ranges = new ArrayList<long[]>();
+      for (JsonElement range : object.getAsJsonArray("idRanges")) {
+        ranges.add(new long[] {range.getAsJsonArray().get(0).getAsLong(), range.getAsJsonArray().get(1).getAsLong()});
+      }
+      result.setIdRanges(ranges);
+    }
+
+    List<QueryResult.ResultRow> rows = new ArrayList<QueryResult.ResultRow>(rowCount);
+    for (int i = 0; i < rowCount; i++) {
+      rows.add(QueryResult.newResultRow(columns.size()));
+    }
+    if (object.has("data")) {
+      for (JsonElement column : object.getAsJsonArray("data")) {
+        List<String> values = readColumn(column.getAsJsonObject(), rowCount);
+        for (int i = 0; i < rowCount; i++) {
+          rows.get(i).add(values.get(i));
+        }
+      }
+    }
+    result.setRows(rows);
+    return result;
+  }
+
+  private static List<String> columnValues(List<QueryResult.ResultRow> rows, int column) {
+    List<String> values = new ArrayList<String>(rows.size());
+    for (QueryResult.ResultRow row : rows) {
+      List<String> results = row.getResults();
+      values.add(results != null && column < results.size() ? results.get(column) : null);
+    }
+    return values;
+  }
+
+  private static boolean isNull(String value) {
+    return value == null || value.isEmpty();
+  }
+
+  private static void writeColumn(JsonWriter out, ColumnDef column, List<String> values) throws IOException {
+    byte[] nulls = new byte[(values.size() + 7) / 8];
+    List<String> present = new ArrayList<String>(values.size());
+    boolean anyNulls = false;
+    for (int i = 0; i < values.size(); i++) {
+      if (isNull(values.get(i))) {
+        nulls[i / 8] |= (byte) (1 << (i % 8));
+        anyNulls = true;
+      } else {
+        present.add(values.get(i));
+      }
+    }
+
+    out.beginObject();
+    if (anyNulls) {
+      out.name("nulls").value(Base64.getEncoder().encodeToString(nulls));
+    }
+    String type = column.getType();
+    if (ColumnDef.TYPECODE.equals(type)) {
+      writeDictionary(out, present);
+    } else if ((ColumnDef.ID.equals(type) || ColumnDef.INTEGER.equals(type) || ColumnDef.TYPECODEID.equals(type)) &&
+      writeDelta(out, present)) {
+      // written
+    } else if (ColumnDef.DATETIME.equals(type) && writeTimestampDelta(out, present)) {
+      // written
+    } else {
+      out.name("encoding").value(PLAIN);
+      out.name("values").beginArray();
+      for (String value : present) {
+        out.value(value);
+      }
+      out.endArray();
+    }
+    out.endObject();
+  }
+
+  private static void writeDictionary(JsonWriter out, List<String> values) throws IOException {
+    Map<String, Integer> indexes = new HashMap<String, Integer>();
+    List<String> dictionary = new ArrayList<String>();
+    int[] encoded = new int[values.size()];
+    for (int i = 0; i < values.size(); i++) {
+      Integer index = indexes.get(values.get(i));
+      if (index == null) {
+        index = dictionary.size();
+        indexes.put(values.get(i), index);
+        dictionary.add(values.get(i));
+      }
+      encoded[i] = index;
+    }
+    out.name("encoding").value(DICTIONARY);
+    out.name("dictionary").beginArray();
+    for (String value : dictionary) {
+      out.value(value);
+    }
+    out.endArray();
+    out.name("values").beginArray();
+    for (int index : encoded) {
+      out.value(index);
+    }
+    out.endArray();
+  }
+
+  private static boolean writeDelta(JsonWriter out, List<String> values) throws IOException {
+    long[] numbers = new long[values.size()];
+    for (int i = 0; i < values.size(); i++) {
+      Long number = parseCanonicalLong(values.get(i));
+      if (number == null) {
+        return false;
+      }
+      numbers[i] = number;
+    }
+    out.name("encoding").value(DELTA);
+    writeDeltas(out, numbers);
+    return true;
+  }
+
+  private static boolean writeTimestampDelta(JsonWriter out, List<String> values) throws IOException {
+    long[] millis = new long[values.size()];
+    int[] offsetIndexes = new int[values.size()];
+    List<Integer> offsets = new ArrayList<Integer>(2);
+    for (int i = 0; i < values.size(); i++) {
+      OffsetDateTime timestamp;
+      try {
+        timestamp = OffsetDateTime.parse(values.get(i), TIMESTAMP_FORMAT);
+      } catch (DateTimeParseException e) {
+        return false;
+      }
+      if (!TIMESTAMP_FORMAT.format(timestamp).equals(values.get(i))) {
+        return false;
+      }
+      millis[i] = timestamp.toInstant().toEpochMilli();
+      int offsetMinutes = timestamp.getOffset().getTotalSeconds() / 60;
+      int offsetIndex = offsets.indexOf(offsetMinutes);
+      if (offsetIndex < 0) {
+        offsetIndex = offsets.size();
+        offsets.add(offsetMinutes);
+      }
+      offsetIndexes[i] = offsetIndex;
+    }
+    out.name("encoding").value(TIMESTAMP_DELTA);
+    writeDeltas(out, millis);
+    out.name("offsets").beginArray();
+    for (int offset : offsets) {
+      out.value(offset);
+    }
+    out.endArray();
+    if (offsets.size() > 1) {
+      out.name("offsetIndexes").beginArray();
+      for (int offsetIndex : offsetIndexes) {
+        out.value(offsetIndex);
+      }
+      out.endArray();
+    }
+    return true;
+  }
+
+  private static void writeDeltas(JsonWriter out, long[] numbers) throws IOException {
+    out.name("values").beginArray();
+    long previous = 0;
+    for (long number : numbers) {
+      out.value(number - previous);
+      previous = number;
+    }
+    out.endArray();
+  }
+
+  /**
+   * Returns the value as a long, or null if it isn't one or if writing the long back out wouldn't give the same
+   * string, e.g. for "007" or "+1".
+   */
+  private static Long parseCanonicalLong(String value) {
+    try {
+      long number = Long.parseLong(value);
+      return Long.toString(number).equals(value) ? number : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static List<String> readColumn(JsonObject column, int rowCount) {
+    byte[] nulls = column.has("nulls") ? Base64.getDecoder().decode(column.get("nulls").getAsString()) : new byte[0];
+    JsonArray values = column.getAsJsonArray("values");
+    String encoding = column.get("encoding").getAsString();
+    List<String> present = new ArrayList<String>(values.size());
+    if (DICTIONARY.equals(encoding)) {
+      JsonArray dictionary = column.getAsJsonArray("dictionary");
+      for (JsonElement index : values) {
+        present.add(dictionary.get(index.getAsInt()).getAsString());
+      }
+    } else if (DELTA.equals(encoding)) {
+      long previous = 0;
+      for (JsonElement delta : values) {
+        previous += delta.getAsLong();
+        present.add(Long.toString(previous));
+      }
+    } else if (TIMESTAMP_DELTA.equals(encoding)) {
+      JsonArray offsets = column.getAsJsonArray("offsets");
+      JsonArray offsetIndexes = column.has("offsetIndexes") ? column.getAsJsonArray("offsetIndexes") : null;
+      long previous = 0;
+      for (int i = 0; i < values.size(); i++) {
+        previous += values.get(i).getAsLong();
+        int offsetMinutes = offsets.get(offsetIndexes == null ? 0 : offsetIndexes.get(i).getAsInt()).getAsInt();
+        OffsetDateTime timestamp = OffsetDateTime.ofInstant(Instant.ofEpochMilli(previous), ZoneOffset.ofTotalSeconds(offsetMinutes * 60));
+        present.add(TIMESTAMP_FORMAT.format(timestamp));
+      }
+    } else {
+      for (JsonElement value : values) {
+        present.add(value.getAsString());
+      }
+    }
+
+    List<String> result = new ArrayList<String>(rowCount);
+    int next = 0;
+    for (int i = 0; i < rowCount; i++) {
+      boolean isNull = i / 8 < nulls.length && (nulls[i / 8] & (1 << (i % 8))) != 0;
+      result.add(isNull ? "" : present.get(next++));
+    }
+    return result;
+  }
+}
@@ -1,53 +1,75 @@
 package com.guidewire.cloudviewer.datamoving;
 
+import com.guidewire.tools.benchmarking.CSVFileColumnDef;
 import com.guidewire.tools.benchmarking.CSVFileDefinition;
 import com.guidewire.tools.benchmarking.ColumnDef;
 import com.guidewire.tools.benchmarking.DataExtractor;
 import com.guidewire.tools.benchmarking.QueryDefinition;
 import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
-import org.apache.commons.csv.CSVRecord;
-import org.apache.commons.io.input.BOMInputStream;
+import org.apache.commons.io.IOUtils;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * A data source definition for customer csv data files. It reads a csv data file and constructs data to be sent to the server
  * It also outputs appropriate error messages to allow customers to clean up their data
+ * <p/>
+ * The file can also be read in parts, on separate threads (see ranges()).  Each part holds on to its messages and bad rows
+ * until appendRange() writes them out, in the order of the parts in the file.
  */
 public class CustomerCSVFileDataSource implements RowDataSource {
-  BufferedReader reader;
   BufferedWriter badFileWriter;
   private boolean headersWrittenToBadFile = false;
-  CSVParser csvParser;
+  MappedCSVParser csvParser;
   boolean wasNull = false;
   CSVFileDefinition csvFileDefinition;
-  Iterator<CSVRecord> csvRecordIterator;
-  Map<String, String> latestRow;
+  // The current row, by column; see ColumnSlots
+  ColumnSlots<CSVFileColumnDef> latestRow;
+  // Whether the current row could be parsed into latestRow
+  boolean rowRead = false;
   DataExtractor extractor = null;
   long currentRow = 0;
   // successfulHeaders will be set to false if we cannot match up the header row with the list of expected columns
   boolean successfulHeaders = true;
   boolean dataSourceClosed = false;
-  private CSVRecord currentRecord;
+  private MappedCSVParser.Record currentRecord;
+  // For a part of the file: the part ends with the first consistent record that ends at or after this offset (-1 for
+  // none), and what it would have logged is held until appendRange()
+  long rangeEnd = -1;
+  boolean rangeEnded = false;
+  private List<HeldMessage> heldMessages;
+  private int heldErrors = 0;
+  private StringWriter heldBadRows;
+  // Set to find where the parts of the file start, without logging anything
+  private boolean quiet = false;
+
+  private static final class HeldMessage {
+    private final boolean error;
+    private final String text;
+
+    private HeldMessage(boolean error, String text) {
+      this.error = error;
+      this.text = text;
+    }
+  }
 
   public CustomerCSVFileDataSource(File customerCsvFile, DataExtractor extractor, CSVFileDefinition csvFileDefinition) throws IOException {
     // for now I'm setting this to always write the badfile. We can reevaluate after customers use it for a while - we could add a parameter to this to turn it off.
@@ -62,11 +84,26 @@ public class CustomerCSVFileDataSource implements RowDataSource {
   public CustomerCSVFileDataSource(InputStream inputStream, DataExtractor extractor, CSVFileDefinition csvFileDefinition) throws IOException {
     this.extractor = extractor;
     this.csvFileDefinition = csvFileDefinition;
-    initializeCsvParser(inputStream);
+    csvParser = MappedCSVParser.parse(IOUtils.toByteArray(inputStream));
     successfulHeaders = readHeader();
     badFileWriter = null;
   }
 
+  // A part of the file read by another: carries on from the mark, as row firstRow
+  private CustomerCSVFileDataSource(CustomerCSVFileDataSource whole, MappedCSVParser.Mark mark, long firstRow, CSVFileDefinition csvFileDefinition) {
+    extractor = whole.extractor;
+    this.csvFileDefinition = csvFileDefinition;
+    csvParser = whole.csvParser.startingAt(mark);
+    currentRow = firstRow;
+    latestRow = createRowSlots();
+    heldMessages = new ArrayList<>();
+    if (whole.badFileWriter != null) {
+      heldBadRows = new StringWriter();
+      badFileWriter = new BufferedWriter(heldBadRows);
+      headersWrittenToBadFile = true;
+    }
+  }
+
   public boolean successfullyReadHeaders() {
     return successfulHeaders;
   }
@@ -93,37 +130,58 @@ public class CustomerCSVFileDataSource implements RowDataSource {
 
   @Override
   public Date getDate(String columnLabel) throws SQLException, ParseException {
-    if (isColumnNotInFile(columnLabel)) return null;
-    wasNull = wasNull(columnLabel);
-    return csvFileDefinition.getColumnDefForColumnName(columnLabel).getDate(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    if (isColumnNotInFile(slot)) return null;
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getDate(latestRow.value(slot));
   }
 
   @Override
   public Timestamp getTimestamp(String columnLabel) throws SQLException, ParseException {
-    if (isColumnNotInFile(columnLabel)) return null;
-    wasNull = wasNull(columnLabel);
-    return csvFileDefinition.getColumnDefForColumnName(columnLabel).getTimestamp(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    if (isColumnNotInFile(slot)) return null;
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getTimestamp(latestRow.value(slot));
   }
 
   @Override
   public Double getDouble(String columnLabel) throws SQLException, ParseException {
-    if (isColumnNotInFile(columnLabel)) return null;
-    wasNull = wasNull(columnLabel);
-    return csvFileDefinition.getColumnDefForColumnName(columnLabel).getDouble(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    if (isColumnNotInFile(slot)) return null;
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getDouble(latestRow.value(slot));
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String columnLabel) throws SQLException, ParseException {
+    int slot = latestRow.slotOf(columnLabel);
+    if (isColumnNotInFile(slot)) return null;
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getBigDecimal(latestRow.value(slot));
   }
 
   @Override
   public Integer getInt(String columnLabel) throws SQLException, ParseException {
-    if (isColumnNotInFile(columnLabel)) return null;
-    wasNull = wasNull(columnLabel);
-    return csvFileDefinition.getColumnDefForColumnName(columnLabel).getInt(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    if (isColumnNotInFile(slot)) return null;
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getInt(latestRow.value(slot));
+  }
+
+  @Override
+  public Long getLong(String columnLabel) throws SQLException, ParseException {
+    int slot = latestRow.slotOf(columnLabel);
+    if (isColumnNotInFile(slot)) return null;
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getLong(latestRow.value(slot));
   }
 
   @Override
   public String getString(String columnLabel) throws SQLException, ParseException {
-    if (isColumnNotInFile(columnLabel)) return "";
-    wasNull = wasNull(columnLabel);
-    return csvFileDefinition.getColumnDefForColumnName(columnLabel).getString(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    if (isColumnNotInFile(slot)) return "";
+    wasNull = latestRow.column(slot).wasNull(latestRow.value(slot));
+    return latestRow.column(slot).getString(latestRow.value(slot));
   }
 
   @Override
@@ -142,11 +200,13 @@ public class CustomerCSVFileDataSource implements RowDataSource {
   }
 
   public boolean columnNotIncludedInFiile(String columnLabel) {
-    return latestRow.get(columnLabel) == null;
+    int slot = latestRow.slotOf(columnLabel);
+    return slot < 0 || latestRow.value(slot) == null;
   }
 
   public boolean wasNull(String columnLabel) throws SQLException {
-    return csvFileDefinition.getColumnDefForColumnName(columnLabel).wasNull(latestRow.get(columnLabel));
+    int slot = latestRow.slotOf(columnLabel);
+    return latestRow.column(slot).wasNull(latestRow.value(slot));
   }
 
   // returns true iff the implementation knows how many rows should be returned.
@@ -157,7 +217,7 @@ public class CustomerCSVFileDataSource implements RowDataSource {
   private void initialize(File customerCsvFile, DataExtractor extractor, CSVFileDefinition csvFileDefinition, boolean writeBadData) throws IOException {
     this.extractor = extractor;
     this.csvFileDefinition = csvFileDefinition;
-    initializeCsvParserFromFile(customerCsvFile, extractor);
+    csvParser = openCustomerCsvFileForRead(customerCsvFile, extractor);
     successfulHeaders = readHeader();
     if (writeBadData) {
       badFileWriter = openBadFileForWrite(createBadDataFile(customerCsvFile));
@@ -166,16 +226,6 @@ public class CustomerCSVFileDataSource implements RowDataSource {
     }
   }
 
-  private void initializeCsvParserFromFile(File customerCsvFile, DataExtractor extractor) throws IOException {
-    InputStream inputStream = openCustomerCsvFileForRead(customerCsvFile, extractor);
-    initializeCsvParser(inputStream);
-  }
-
-  private void initializeCsvParser(InputStream inputStream) throws IOException {
-    reader = new BufferedReader(new InputStreamReader(new BOMInputStream(inputStream), "UTF-8"));
-    csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withHeader().withIgnoreSurroundingSpaces());
-  }
-
   // Returns the number of rows we expect to find in this RowDataSet.  For implementations that don't have
   // access to this information, return -1.
   public Long getExpectedRows() {
@@ -195,7 +245,7 @@ public class CustomerCSVFileDataSource implements RowDataSource {
 
   @Override
   public boolean rowSuccessfullyRead() {
-    return latestRow != null;
+    return rowRead;
   }
 
   private void writeRawRowToBadFile(DataExtractor extractor, String rawRow) {
@@ -207,17 +257,93 @@ public class CustomerCSVFileDataSource implements RowDataSource {
       badFileWriter.write(rawRow);
       badFileWriter.newLine();
     } catch (IOException e) {
-      extractor.getDataExtractorLog().info("Failed to write badfile row for : " + rawRow);
+      info("Failed to write badfile row for : " + rawRow);
+    }
+  }
+
+  /**
+   * Splits the rest of the file into parts of about rangeSize bytes, at the ends of records, that can be read at the same
+   * time on separate threads; each has its own copy of the file definition.  The ends of the parts are found by reading
+   * through the file, without parsing the columns, as the parts are asked for.  Reading all of the parts reads the same
+   * rows, with the same errors and row numbers, as reading the whole file, once what they've held on to is written out
+   * with appendRange(), in order.
+   */
+  public Iterator<CustomerCSVFileDataSource> ranges(final long rangeSize) {
+    final CustomerCSVFileDataSource scanner = new CustomerCSVFileDataSource(this, csvParser.mark(), currentRow, csvFileDefinition);
+    scanner.quiet = true;
+    scanner.badFileWriter = null;
+    return new Iterator<CustomerCSVFileDataSource>() {
+      private MappedCSVParser.Mark nextStart = csvParser.mark();
+      private long nextRow = currentRow;
+
+      @Override
+      public boolean hasNext() {
+        return nextStart != null;
+      }
+
+      @Override
+      public CustomerCSVFileDataSource next() {
+        if (nextStart == null) {
+          throw new NoSuchElementException();
+        }
+        CustomerCSVFileDataSource range = new CustomerCSVFileDataSource(CustomerCSVFileDataSource.this, nextStart, nextRow, csvFileDefinition.copyForAnotherThread());
+        range.rangeEnd = nextStart.getPosition() + rangeSize;
+        // Read as far as the range will, to find where the next one starts
+        scanner.rangeEnd = range.rangeEnd;
+        try {
+          while (scanner.readNextRow()) {
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        if (scanner.rangeEnded) {
+          scanner.rangeEnded = false;
+          nextStart = scanner.csvParser.mark();
+          nextRow = scanner.currentRow;
+        } else {
+          nextStart = null;
+        }
+        return range;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Writes out the messages and bad rows held by a part of the file (see ranges()), once it has been closed.
+   */
+  public void appendRange(CustomerCSVFileDataSource range) throws IOException {
+    for (HeldMessage message : range.heldMessages) {
+      if (message.error) {
+        error(message.text);
+      } else {
+        info(message.text);
+      }
+    }
+    if (badFileWriter != null && range.heldBadRows != null && range.heldBadRows.getBuffer().length() > 0) {
+      writeHeadersToBadFile();
+      badFileWriter.write(range.heldBadRows.toString());
     }
   }
 
+  /**
+   * Returns the number of errors a part of the file is holding on to (see ranges()).
+   */
+  public int getHeldErrorCount() {
+    return heldErrors;
+  }
+
   @Override
   public void close() throws SQLException, IOException {
     if (badFileWriter != null) {
       badFileWriter.close();
     }
-    if (reader == null) return;
-    reader.close();
+    if (csvParser == null) return;
+    csvParser.close();
     dataSourceClosed = true;
   }
 
@@ -243,20 +369,30 @@ public class CustomerCSVFileDataSource implements RowDataSource {
     // increment the current row for the header row as well as data rows because we want to display the actual row
     // number in the file for any data rows that contain errors.
     currentRow++;
-    csvRecordIterator = csvParser.iterator();
 
-    return csvFileDefinition.validateHeaderRow(headerMap, extractor);
+    boolean validHeaders = csvFileDefinition.validateHeaderRow(headerMap, extractor);
+    latestRow = createRowSlots();
+    return validHeaders;
+  }
+
+  private ColumnSlots<CSVFileColumnDef> createRowSlots() {
+    List<CSVFileColumnDef> columns = new ArrayList<>(getColumns().size());
+    for (ColumnDef column : getColumns()) {
+      columns.add(csvFileDefinition.getColumnDefForColumnName(column.getName()));
+    }
+    return new ColumnSlots<>(columns);
   }
 
   private boolean readNextRow() throws IOException {
     currentRecord = null;
     List<ColumnDef> columns = getColumns();
-    if (dataSourceClosed) return false;
+    if (dataSourceClosed || rangeEnded) return false;
     try {
-      if (!csvRecordIterator.hasNext()) {
+      MappedCSVParser.Record record = csvParser.nextRecord();
+      if (record == null) {
         return false;
       }
-      currentRecord = csvRecordIterator.next();
+      currentRecord = record;
       while (!currentRecord.isConsistent()) {
         int expected = csvFileDefinition.getNumberOfColumnsInHeaderRow();
         int actual = currentRecord.size();
@@ -278,10 +414,13 @@ public class CustomerCSVFileDataSource implements RowDataSource {
         sb.append(constructErrorMessageForRow(currentRecord));
         error(sb.toString());
         writeRawRowToBadFile(extractor, constructRawRow());
-        if (!csvRecordIterator.hasNext()) {
+        // The record is reused for the next one, so it's no good if reading the next one fails
+        currentRecord = null;
+        record = csvParser.nextRecord();
+        if (record == null) {
           return false;
         }
-        currentRecord = csvRecordIterator.next();
+        currentRecord = record;
         currentRow++;
       }
     } catch (RuntimeException re) {
@@ -296,20 +435,23 @@ public class CustomerCSVFileDataSource implements RowDataSource {
     try {
       if (currentRecord == null) {
         // the parser didn't parse the row, but it will try to parse the next row so we want to return true
-        latestRow = null;
+        rowRead = false;
         return true;
       }
 
-      latestRow = new HashMap<>(columns.size());
-      csvFileDefinition.parseRow(latestRow, currentRecord);
+      rowRead = true;
+      latestRow.startRow(currentRecord, csvFileDefinition.getFieldIndexesForColumns());
       currentRow++;
+      if (rangeEnd >= 0 && csvParser.getPosition() >= rangeEnd) {
+        rangeEnded = true;
+      }
       return true;
     }  catch (Exception e) {
       return writeExceptionMessage(currentRecord, columns, e);
     }
   }
 
-  private boolean writeExceptionMessage(CSVRecord next, List<ColumnDef> columns, Exception e) {
+  private boolean writeExceptionMessage(MappedCSVParser.Record next, List<ColumnDef> columns, Exception e) {
     info(e.toString());
     if (next != null && columns != null) {
       StringBuilder sb = constructErrorMessageForRow(next);
@@ -322,16 +464,31 @@ public class CustomerCSVFileDataSource implements RowDataSource {
     return true;
   }
 
-  private void error (String message) {
-    if (extractor != null) {
-      extractor.getDataExtractorLog().error(message);
+  /**
+   * Logs an error about a row of the file (see DataExtractorLog.rowError()), or holds on to it for a part of the file;
+   * see ranges().
+   */
+  public void error(String message) {
+    if (quiet) {
+      return;
+    }
+    if (heldMessages != null) {
+      heldMessages.add(new HeldMessage(true, message));
+      heldErrors++;
+    } else if (extractor != null) {
+      extractor.getDataExtractorLog().rowError(message);
     } else {
       System.out.println(message);
     }
   }
 
   private void info(String message) {
-    if (extractor != null) {
+    if (quiet) {
+      return;
+    }
+    if (heldMessages != null) {
+      heldMessages.add(new HeldMessage(false, message));
+    } else if (extractor != null) {
       extractor.getDataExtractorLog().info(message);
     } else {
       System.out.println(message);
@@ -339,7 +496,7 @@ public class CustomerCSVFileDataSource implements RowDataSource {
   }
 
 
-  private StringBuilder constructErrorMessageForRow(CSVRecord row) {
+  private StringBuilder constructErrorMessageForRow(MappedCSVParser.Record row) {
     int maxMismatchedQuoteStringLength = 100;
     int maxFieldLength = 20;
     StringBuilder sb = new StringBuilder();
@@ -354,7 +511,7 @@ public class CustomerCSVFileDataSource implements RowDataSource {
         if (row.get(i).length() > maxMismatchedQuoteStringLength) {
           trimmedField = row.get(i).substring(0, maxMismatchedQuoteStringLength) + "...";
         }
-        extractor.getDataExtractorLog().error("Row may contain mismatched quotes - field contains carriage returns [" + trimmedField + "]");
+        error("Row may contain mismatched quotes - field contains carriage returns [" + trimmedField + "]");
       }
       if (row.get(i).length() < maxFieldLength) {
         sb.append(row.get(i));
@@ -379,7 +536,7 @@ public class CustomerCSVFileDataSource implements RowDataSource {
       badFileWriter.newLine();
       headersWrittenToBadFile = true;
     } catch (IOException e) {
-      extractor.getDataExtractorLog().info("Failed to write badfile column headers " );
+      info("Failed to write badfile column headers " );
     }
   }
 
@@ -394,8 +551,8 @@ public class CustomerCSVFileDataSource implements RowDataSource {
     return sb.toString();
   }
 
-  private boolean isColumnNotInFile(String columnLabel) {
-    if (columnNotIncludedInFiile(columnLabel) && !csvFileDefinition.getColumnDefForColumnName(columnLabel).isRequired()) {
+  private boolean isColumnNotInFile(int slot) {
+    if (latestRow.value(slot) == null && !latestRow.column(slot).isRequired()) {
       wasNull = true;
       return true;
     }
@@ -405,20 +562,21 @@ public class CustomerCSVFileDataSource implements RowDataSource {
   private BufferedWriter openBadFileForWrite(File badFile) {
     BufferedWriter bufferedWriter = null;
     try {
-      bufferedWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(badFile)));
+      // Written on a thread of its own, so that a file with a lot of bad rows doesn't read any slower
+      bufferedWriter = new BufferedWriter(new BackgroundWriter(new OutputStreamWriter(new FileOutputStream(badFile)), badFile.getName()));
     } catch (IOException e) {
       extractor.getDataExtractorLog().info("Policy bad file [" + badFile.getName() + "] could not be created, or could not be written.");
     }
     return bufferedWriter;
   }
 
-  private static InputStream openCustomerCsvFileForRead(File customerCsvFile, DataExtractor extractor) throws FileNotFoundException {
+  private static MappedCSVParser openCustomerCsvFileForRead(File customerCsvFile, DataExtractor extractor) throws IOException {
     extractor.getDataExtractorLog().info("Verifying policy csv file [" + customerCsvFile.getName() + "] exists and is readable");
     if (!customerCsvFile.exists() || !customerCsvFile.canRead() || !customerCsvFile.isFile()) {
       extractor.getDataExtractorLog().info("Customer csv file [" + customerCsvFile.getName() + "] does not exist, or cannot be read.");
-      return null;
+      throw new FileNotFoundException(customerCsvFile.getPath());
     }
-    return new BOMInputStream(new FileInputStream(customerCsvFile));
+    return MappedCSVParser.open(customerCsvFile);
   }
 
   private static File createBadDataFile(File policyFile) {
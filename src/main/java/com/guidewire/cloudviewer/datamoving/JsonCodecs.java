@@ -0,0 +1,332 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.guidewire.tools.benchmarking.ColumnDef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the Gson instance used for everything we send to and receive from the server.  Gson instances are thread safe
+ * and expensive to build, so we build one and share it.
+ * <p/>
+ * The types that go back and forth for every batch of data (QueryResult, its rows and column definitions, and the
+ * UploadAcknowledge the server returns) have hand-written streaming adapters rather than going through reflection.
+ * They produce the same json as reflection would, so the server doesn't need to know the difference.
+ */
+public final class JsonCodecs {
+  private static final ColumnDefAdapter COLUMN_DEF_ADAPTER = new ColumnDefAdapter();
+  private static final ResultRowAdapter RESULT_ROW_ADAPTER = new ResultRowAdapter();
+
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(QueryResult.class, new QueryResultAdapter())
+    .registerTypeAdapter(QueryResult.ResultRow.class, RESULT_ROW_ADAPTER)
+    .registerTypeAdapter(ColumnDef.class, COLUMN_DEF_ADAPTER)
+    .registerTypeAdapter(UploadAcknowledge.class, new UploadAcknowledgeAdapter())
+    .create();
+
+  private JsonCodecs() {
+  }
+
+  public static Gson gson() {
+    return GSON;
+  }
+
+  /**
+   * The adapter for column definitions, for a Gson of its own that reads them, such as the one for csv file definitions.
+   */
+  public static TypeAdapter<ColumnDef> columnDefAdapter() {
+    return COLUMN_DEF_ADAPTER;
+  }
+
+  static class QueryResultAdapter extends TypeAdapter<QueryResult> {
+    @Override
+    public void write(JsonWriter out, QueryResult result) throws IOException {
+      if (result == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      if (result.getName() != null) {
+        out.name("name").value(result.getName());
+      }
+      if (result.getColumns() != null) {
+        out.name("columns").beginArray();
+        for (ColumnDef column : result.getColumns()) {
+          COLUMN_DEF_ADAPTER.write(out, column);
+        }
+        out.endArray();
+      }
+      if (result.getRows() != null) {
+        out.name("rows").beginArray();
+        for (QueryResult.ResultRow row : result.getRows()) {
+          RESULT_ROW_ADAPTER.write(out, row);
+        }
+        out.endArray();
+      }
+      if (result.getChecksum() != null) {
+        out.name("checksum").value(result.getChecksum());
+      }
+      out.name("rowCount").value(result.getRowCount());
+      out.name("wasCutShort").value(result.wasCutShort());
+      out.name("lakeOnly").value(result.isLakeOnly());
+      if (result.getQueryTime() != null) {
+        out.name("queryTime").value(result.getQueryTime());
+      }
+      if (result.getBatchId() != null) {
+        out.name("batchId").value(result.getBatchId());
+      }
+      if (result.getContentHash() != null) {
+        out.name("contentHash").value(result.getContentHash());
+      }
+      if (result.getIdRanges() != null) {
+        out.name("idRanges").beginArray();
+        for (long[] range : result.getIdRanges()) {
+          out.beginArray().value(range[0]).value(range[1]).endArray();
+        }
+        out.endArray();
+      }
+      out.endObject();
+    }
+
+    @Override
+    public QueryResult read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      QueryResult result = new QueryResult();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case "name":
+            result.setName(in.nextString());
+            break;
+          case "columns":
+            List<ColumnDef> columns = new ArrayList<ColumnDef>();
+            in.beginArray();
+            while (in.hasNext()) {
+              columns.add(COLUMN_DEF_ADAPTER.read(in));
+            }
+            in.endArray();
+            result.setColumns(columns);
+            break;
+          case "rows":
+            List<QueryResult.ResultRow> rows = new ArrayList<QueryResult.ResultRow>();
+            in.beginArray();
+            while (in.hasNext()) {
+              rows.add(RESULT_ROW_ADAPTER.read(in));
+            }
+            in.endArray();
+            result.setRows(rows);
+            break;
+          case "checksum":
+            result.setChecksum(in.nextLong());
+            break;
+          case "rowCount":
+            result.setRowCount(in.nextInt());
+            break;
+          case "wasCutShort":
+            result.setWasCutShort(in.nextBoolean());
+            break;
+          case "lakeOnly":
+            result.setLakeOnly(in.nextBoolean());
+            break;
+          case "queryTime":
+            result.setQueryTime(in.nextLong());
+            break;
+          case "batchId":
+            result.setBatchId(in.nextString());
+            break;
+          case "contentHash":
+            result.setContentHash(in.nextString());
+            break;
+          case "idRanges":
+            List<long[]> ranges = new ArrayList<long[]>();
+            in.beginArray();
+            while (in.hasNext()) {
+              in.beginArray();
+              ranges.add(new long[] {in.nextLong(), in.nextLong()});
+              in.endArray();
+            }
+            in.endArray();
+            result.setIdRanges(ranges);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return result;
+    }
+  }
+
+  static class ResultRowAdapter extends TypeAdapter<QueryResult.ResultRow> {
+    @Override
+    public void write(JsonWriter out, QueryResult.ResultRow row) throws IOException {
+      if (row == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      if (row.getResults() != null) {
+        out.name("results").beginArray();
+        for (String value : row.getResults()) {
+          out.value(value);
+        }
+        out.endArray();
+      }
+      out.endObject();
+    }
+
+    @Override
+    public QueryResult.ResultRow read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      QueryResult.ResultRow row = new QueryResult.ResultRow(0);
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if ("results".equals(name) && in.peek() == JsonToken.BEGIN_ARRAY) {
+          List<String> results = new ArrayList<String>();
+          in.beginArray();
+          while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+              in.nextNull();
+              results.add(null);
+            } else {
+              results.add(in.nextString());
+            }
+          }
+          in.endArray();
+          row.setResults(results);
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      return row;
+    }
+  }
+
+  /**
+   * Column definitions go over the wire as their name, type and, for date columns, format string.  Reading one
+   * creates the matching ColumnDef subclass for the type (see ColumnDef.createDefinition()), and fails with a
+   * JsonParseException if there isn't one.
+   */
+  static class ColumnDefAdapter extends TypeAdapter<ColumnDef> {
+    @Override
+    public void write(JsonWriter out, ColumnDef column) throws IOException {
+      if (column == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      if (column.getFormatString() != null) {
+        out.name("formatString").value(column.getFormatString());
+      }
+      if (column.getName() != null) {
+        out.name("name").value(column.getName());
+      }
+      if (column.getType() != null) {
+        out.name("type").value(column.getType());
+      }
+      out.endObject();
+    }
+
+    @Override
+    public ColumnDef read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      String type = null;
+      String name = null;
+      String formatting = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        String field = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+        } else if ("type".equals(field)) {
+          type = in.nextString();
+        } else if ("name".equals(field)) {
+          name = in.nextString();
+        } else if ("formatString".equals(field)) {
+          formatting = in.nextString();
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      try {
+        return ColumnDef.createDefinition(type, name, formatting);
+      } catch (RuntimeException e) {
+        throw new JsonParseException("Cannot read column definition [" + name + "] of type [" + type + "]", e);
+      }
+    }
+  }
+
+  static class UploadAcknowledgeAdapter extends TypeAdapter<UploadAcknowledge> {
+    @Override
+    public void write(JsonWriter out, UploadAcknowledge acknowledge) throws IOException {
+      if (acknowledge == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      if (acknowledge.getMessage() != null) {
+        out.name("message").value(acknowledge.getMessage());
+      }
+      out.name("rowsUploaded").value(acknowledge.getRowsUploaded());
+      out.name("success").value(acknowledge.isSuccess());
+      out.endObject();
+    }
+
+    @Override
+    public UploadAcknowledge read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      UploadAcknowledge acknowledge = new UploadAcknowledge();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case "message":
+            acknowledge.setMessage(in.nextString());
+            break;
+          case "rowsUploaded":
+            acknowledge.setRowsUploaded(in.nextInt());
+            break;
+          case "success":
+            acknowledge.setSuccess(in.nextBoolean());
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return acknowledge;
+    }
+  }
+}
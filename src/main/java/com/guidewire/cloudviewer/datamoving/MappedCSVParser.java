@@ -0,0 +1,514 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a customer csv file the way CSVFormat.DEFAULT.withHeader().withIgnoreSurroundingSpaces() does, but on the
+ * UTF-8 bytes of the file rather than on decoded characters: the file is memory-mapped, the delimiters, quotes and line
+ * ends are found in the bytes, and a field is only decoded into a String when it's asked for.  None of those
+ * characters can appear inside a multi-byte UTF-8 sequence, so the fields are the same as when the decoded text is
+ * parsed.  A UTF-8 byte order mark at the start of the file is skipped.
+ * <p/>
+ * The rules are commons-csv's, down to the messages of the errors, since CustomerCSVFileDataSource reports them to the
+ * customer and stops at an unfinished quote: quoted fields can hold delimiters, line ends and doubled quotes; spaces
+ * around fields are dropped, outside of quotes; empty lines are skipped; and anything but spaces between a closing
+ * quote and the next delimiter is an error.  After an error, reading carries on just past the character in error, as
+ * CSVParser's iterator does.  The spaces dropped are the ASCII ones; other Unicode spaces are kept.
+ * <p/>
+ * The file is mapped a window at a time, so files of any size can be read.  A record that runs past the end of the
+ * window gets a new window starting at the record.  The Record returned by nextRecord() is reused for the next one.
+ * <p/>
+ * A parser can mark where it is between records, and another parser of the same file can carry on from the mark, on
+ * another thread, so that parts of a file can be read at the same time.
+ */
+class MappedCSVParser implements Closeable {
+  // How much of the file is mapped at a time
+  static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private static final int COMMA = ',';
+  private static final int QUOTE = '"';
+  private static final int CR = '\r';
+  private static final int LF = '\n';
+  // What read() returns at the end of the data, and what the last byte read is before anything has been read
+  private static final int END_OF_DATA = -1;
+  private static final int UNDEFINED = -2;
+
+  private static final int TOKEN = 0;
+  private static final int END_OF_RECORD = 1;
+  private static final int END_OF_FILE = 2;
+
+  /**
+   * The fields of a record, as where they are in the file until they are asked for.
+   */
+  static final class Record implements Iterable<String> {
+    private final MappedCSVParser parser;
+    private long[] starts = new long[32];
+    private int[] lengths = new int[32];
+    // Whether the field was quoted and holds doubled quotes
+    private boolean[] doubledQuotes = new boolean[32];
+    private String[] values = new String[32];
+    private int size = 0;
+
+    private Record(MappedCSVParser parser) {
+      this.parser = parser;
+    }
+
+    int size() {
+      return size;
+    }
+
+    String get(int i) {
+      if (i >= size) {
+        throw new ArrayIndexOutOfBoundsException(i);
+      }
+      if (values[i] == null) {
+        values[i] = parser.decode(starts[i], lengths[i], doubledQuotes[i]);
+      }
+      return values[i];
+    }
+
+    /**
+     * Returns true if the record has as many fields as the header.
+     */
+    boolean isConsistent() {
+      return parser.headerMap == null || parser.headerMap.size() == size;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return new Iterator<String>() {
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+          return next < size;
+        }
+
+        @Override
+        public String next() {
+          if (next >= size) {
+            throw new NoSuchElementException();
+          }
+          return get(next++);
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("[");
+      for (int i = 0; i < size; i++) {
+        sb.append(i > 0 ? ", " : "").append(get(i));
+      }
+      return sb.append("]").toString();
+    }
+
+    private void clear() {
+      Arrays.fill(values, 0, size, null);
+      size = 0;
+    }
+
+    private void add(long start, int length, boolean quotes) {
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        lengths = Arrays.copyOf(lengths, size * 2);
+        doubledQuotes = Arrays.copyOf(doubledQuotes, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      starts[size] = start;
+      lengths[size] = length;
+      doubledQuotes[size] = quotes;
+      size++;
+    }
+  }
+
+  /**
+   * Where a parser is in the file, between two records.
+   */
+  static final class Mark {
+    private final long position;
+    private final int lastByte;
+    private final long lineEnds;
+
+    private Mark(long position, int lastByte, long lineEnds) {
+      this.position = position;
+      this.lastByte = lastByte;
+      this.lineEnds = lineEnds;
+    }
+
+    long getPosition() {
+      return position;
+    }
+  }
+
+  // Null for data that's already in memory
+  private final FileChannel channel;
+  // False for a parser that carries on from another's mark, and shares its channel
+  private final boolean ownsChannel;
+  private final long length;
+  private final int windowSize;
+  private ByteBuffer window;
+  private long windowStart = 0;
+
+  private long position = 0;
+  private int lastByte = UNDEFINED;
+  // Line ends read so far, for the line numbers in errors
+  private long lineEnds = 0;
+  private long recordStart = 0;
+
+  // The token just read
+  private long tokenStart;
+  private int tokenLength;
+  private boolean tokenDoubledQuotes;
+  private boolean tokenReady;
+
+  private final Record record = new Record(this);
+  private Map<String, Integer> headerMap;
+
+  /**
+   * Maps the file and reads its header.
+   */
+  static MappedCSVParser open(File file) throws IOException {
+    return open(file, WINDOW_SIZE);
+  }
+
+  static MappedCSVParser open(File file, int windowSize) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      MappedCSVParser parser = new MappedCSVParser(channel, null, channel.size(), windowSize);
+      parser.readHeader();
+      return parser;
+    } catch (IOException | RuntimeException e) {
+      randomAccessFile.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads csv data that's already in memory.
+   */
+  static MappedCSVParser parse(byte[] data) throws IOException {
+    MappedCSVParser parser = new MappedCSVParser(null, ByteBuffer.wrap(data), data.length, data.length);
+    parser.readHeader();
+    return parser;
+  }
+
+  private MappedCSVParser(FileChannel channel, ByteBuffer data, long length, int windowSize) throws IOException {
+    this.channel = channel;
+    ownsChannel = true;
+    this.length = length;
+    this.windowSize = windowSize;
+    window = data != null ? data : channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, windowSize));
+    skipByteOrderMark();
+  }
+
+  private MappedCSVParser(MappedCSVParser parser, Mark mark) {
+    channel = parser.channel;
+    ownsChannel = false;
+    length = parser.length;
+    windowSize = parser.windowSize;
+    headerMap = parser.headerMap;
+    if (channel == null) {
+      window = parser.window.duplicate();
+    } else {
+      // Mapped from the mark when the first record is read
+      window = ByteBuffer.allocate(0);
+      windowStart = mark.position;
+    }
+    position = mark.position;
+    recordStart = mark.position;
+    lastByte = mark.lastByte;
+    lineEnds = mark.lineEnds;
+  }
+
+  /**
+   * Returns where the parser is: at the end of the record last read, or of the header.
+   */
+  Mark mark() {
+    return new Mark(position, lastByte, lineEnds);
+  }
+
+  /**
+   * Returns the offset in the file of the end of the record last read.
+   */
+  long getPosition() {
+    return position;
+  }
+
+  /**
+   * Returns a parser of the same file, with the same header, that reads the records after the mark.  It can be used on
+   * another thread, until this parser is closed.
+   */
+  MappedCSVParser startingAt(Mark mark) {
+    return new MappedCSVParser(this, mark);
+  }
+
+  /**
+   * Returns the index of each column name in the header, in the order they're in the header.
+   */
+  Map<String, Integer> getHeaderMap() {
+    return new LinkedHashMap<>(headerMap);
+  }
+
+  /**
+   * Returns the next record, or null at the end of the file.  Errors in the csv are thrown as a RuntimeException
+   * wrapping an IOException, as CSVParser's iterator does.
+   */
+  Record nextRecord() {
+    try {
+      return readRecord();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    if (channel != null && ownsChannel) {
+      channel.close();
+    }
+  }
+
+  private void readHeader() throws IOException {
+    headerMap = new LinkedHashMap<>();
+    Record header = readRecord();
+    if (header == null) {
+      return;
+    }
+    String[] names = new String[header.size()];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = header.get(i);
+    }
+    for (int i = 0; i < names.length; i++) {
+      if (headerMap.containsKey(names[i])) {
+        throw new IllegalArgumentException("The header contains a duplicate name: \"" + names[i] + "\" in " + Arrays.toString(names));
+      }
+      headerMap.put(names[i], i);
+    }
+  }
+
+  private void skipByteOrderMark() throws IOException {
+    if (length >= 3 && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB && byteAt(2) == (byte) 0xBF) {
+      position = 3;
+      recordStart = 3;
+    }
+  }
+
+  private Record readRecord() throws IOException {
+    record.clear();
+    recordStart = position;
+    int type;
+    do {
+      type = nextToken();
+      if (type != END_OF_FILE || tokenReady) {
+        record.add(tokenStart, tokenLength, tokenDoubledQuotes);
+      }
+    } while (type == TOKEN);
+    return record.size() == 0 ? null : record;
+  }
+
+  private int nextToken() throws IOException {
+    tokenStart = position;
+    tokenLength = 0;
+    tokenDoubledQuotes = false;
+    tokenReady = false;
+
+    int last = lastByte;
+    int c = read();
+    boolean endOfLine = readEndOfLine(c);
+    // Skip empty lines
+    while (endOfLine && isStartOfLine(last)) {
+      last = c;
+      c = read();
+      endOfLine = readEndOfLine(c);
+      if (c == END_OF_DATA) {
+        return END_OF_FILE;
+      }
+    }
+    if (last == END_OF_DATA || (last != COMMA && c == END_OF_DATA)) {
+      return END_OF_FILE;
+    }
+
+    while (isWhitespace(c) && !endOfLine) {
+      c = read();
+      endOfLine = readEndOfLine(c);
+    }
+    tokenStart = position;
+    if (c == COMMA) {
+      return TOKEN;
+    } else if (endOfLine) {
+      return END_OF_RECORD;
+    } else if (c == QUOTE) {
+      return parseQuotedToken();
+    } else if (c == END_OF_DATA) {
+      tokenReady = true;
+      return END_OF_FILE;
+    }
+    return parseSimpleToken(c);
+  }
+
+  private int parseSimpleToken(int c) throws IOException {
+    tokenStart = position - 1;
+    long end = tokenStart;
+    int type;
+    while (true) {
+      if (readEndOfLine(c)) {
+        type = END_OF_RECORD;
+        break;
+      } else if (c == END_OF_DATA) {
+        tokenReady = true;
+        type = END_OF_FILE;
+        break;
+      } else if (c == COMMA) {
+        type = TOKEN;
+        break;
+      }
+      end = position;
+      c = read();
+    }
+    while (end > tokenStart && isWhitespace(byteAt(end - 1))) {
+      end--;
+    }
+    tokenLength = fieldLength(end - tokenStart);
+    return type;
+  }
+
+  private int parseQuotedToken() throws IOException {
+    long startLine = getCurrentLineNumber();
+    tokenStart = position;
+    while (true) {
+      int c = read();
+      if (c == QUOTE) {
+        if (lookAhead() == QUOTE) {
+          read();
+          tokenDoubledQuotes = true;
+        } else {
+          tokenLength = fieldLength(position - 1 - tokenStart);
+          // The closing quote: only spaces until the delimiter
+          while (true) {
+            c = read();
+            if (c == COMMA) {
+              return TOKEN;
+            } else if (c == END_OF_DATA) {
+              tokenReady = true;
+              return END_OF_FILE;
+            } else if (readEndOfLine(c)) {
+              return END_OF_RECORD;
+            } else if (!isWhitespace(c)) {
+              throw new IOException("(line " + getCurrentLineNumber() + ") invalid char between encapsulated token and delimiter");
+            }
+          }
+        }
+      } else if (c == END_OF_DATA) {
+        throw new IOException("(startline " + startLine + ") EOF reached before encapsulated token finished");
+      }
+    }
+  }
+
+  private int read() throws IOException {
+    int current = END_OF_DATA;
+    if (position < length) {
+      current = byteAt(position++) & 0xff;
+      if (current == CR || (current == LF && lastByte != CR)) {
+        lineEnds++;
+      }
+    }
+    lastByte = current;
+    return current;
+  }
+
+  private int lookAhead() throws IOException {
+    return position < length ? byteAt(position) & 0xff : END_OF_DATA;
+  }
+
+  private boolean readEndOfLine(int c) throws IOException {
+    if (c == CR && lookAhead() == LF) {
+      c = read();
+    }
+    return c == LF || c == CR;
+  }
+
+  private long getCurrentLineNumber() {
+    if (lastByte == CR || lastByte == LF || lastByte == UNDEFINED || lastByte == END_OF_DATA) {
+      return lineEnds;
+    }
+    return lineEnds + 1;
+  }
+
+  private static boolean isStartOfLine(int c) {
+    return c == LF || c == CR || c == UNDEFINED;
+  }
+
+  // The ASCII characters Character.isWhitespace() is true for, other than the line ends
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\t' || c == 0x0B || c == '\f' || (c >= 0x1C && c <= 0x1F);
+  }
+
+  private static int fieldLength(long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("A field is longer than " + Integer.MAX_VALUE + " bytes");
+    }
+    return (int) length;
+  }
+
+  private byte byteAt(long at) throws IOException {
+    long offset = at - windowStart;
+    if (offset >= window.limit()) {
+      mapWindowFor(at);
+      offset = at - windowStart;
+    }
+    return window.get((int) offset);
+  }
+
+  // Maps a new window, starting at the record being read, that reaches past the given position
+  private void mapWindowFor(long at) throws IOException {
+    long needed = at - recordStart + 1;
+    if (needed > Integer.MAX_VALUE) {
+      throw new IOException("A record is longer than " + Integer.MAX_VALUE + " bytes");
+    }
+    long size = Math.max(windowSize, Math.min(Integer.MAX_VALUE, needed * 2));
+    window = channel.map(FileChannel.MapMode.READ_ONLY, recordStart, Math.min(size, length - recordStart));
+    windowStart = recordStart;
+  }
+
+  private String decode(long start, int fieldLength, boolean doubledQuotes) {
+    int offset = (int) (start - windowStart);
+    if (window.hasArray() && !doubledQuotes) {
+      return new String(window.array(), window.arrayOffset() + offset, fieldLength, StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[fieldLength];
+    ByteBuffer field = window.duplicate();
+    field.position(offset);
+    field.get(bytes);
+    if (!doubledQuotes) {
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+    // Each quote in a quoted field is doubled
+    int length = 0;
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[length++] = bytes[i];
+      if (bytes[i] == QUOTE) {
+        i++;
+      }
+    }
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+}
@@ -10,6 +10,7 @@ import java.util.Map;
  * This class encapsulates information about a single client interaction with the dataExtractionServer.  It is
  * intended to collect information which will then be sent to the
  *
+ * Queries can be uploaded from several threads at once, so the methods that touch the totals are synchronized.
  */
 public class QueryConnectionSummary {
   protected String username;
@@ -41,15 +42,15 @@ public class QueryConnectionSummary {
     return username;
   }
 
-  public Long getConnectionDuration() {
+  public synchronized Long getConnectionDuration() {
     return endtime - starttime;
   }
 
-  public Map<String, Integer> getQueryInfo() {
+  public synchronized Map<String, Integer> getQueryInfo() {
     return queryInfo;
   }
 
-  public void addQueryInfo(String query, Integer rows) {
+  public synchronized void addQueryInfo(String query, Integer rows) {
     int currentTotal = 0;
     if (queryInfo.get(query) != null) {
       currentTotal = queryInfo.get(query);
@@ -59,23 +60,23 @@ public class QueryConnectionSummary {
     totalRowsSent += rows;
   }
 
-  public Integer getTotalRowsSent() {
+  public synchronized Integer getTotalRowsSent() {
     return totalRowsSent;
   }
 
-  public void setTotalRowsSent(Integer totalRowsSent) {
+  public synchronized void setTotalRowsSent(Integer totalRowsSent) {
     this.totalRowsSent = totalRowsSent;
   }
 
-  public void setEndtime(Long endtime) {
+  public synchronized void setEndtime(Long endtime) {
     this.endtime = endtime;
   }
 
-  public List<String> getMessages() {
+  public synchronized List<String> getMessages() {
     return messages;
   }
 
-  public void addMessage(String message) {
+  public synchronized void addMessage(String message) {
       messages.add(message);
   }
 }
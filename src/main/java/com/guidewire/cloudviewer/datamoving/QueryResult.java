@@ -17,6 +17,11 @@ public class QueryResult {
   private boolean wasCutShort = false;
   private boolean lakeOnly = true;
   private Long queryTime;
+  // Identify the batch to the server, so that it can recognize a batch it has already been sent; see UploadLedger
+  private String batchId;
+  private String contentHash;
+  // The ranges of IDs, low and high, whose rows the server should replace with these, rather than the whole table
+  private List<long[]> idRanges;
 
   public String getName() {
     return name;
@@ -76,6 +81,30 @@ public class QueryResult {
     queryTime = val;
   }
 
+  public String getBatchId() {
+    return batchId;
+  }
+
+  public void setBatchId(String batchId) {
+    this.batchId = batchId;
+  }
+
+  public String getContentHash() {
+    return contentHash;
+  }
+
+  public void setContentHash(String contentHash) {
+    this.contentHash = contentHash;
+  }
+
+  public List<long[]> getIdRanges() {
+    return idRanges;
+  }
+
+  public void setIdRanges(List<long[]> idRanges) {
+    this.idRanges = idRanges;
+  }
+
   public static ResultRow newResultRow(int columns) {
     return new ResultRow(columns);
   }
@@ -4,6 +4,7 @@ import com.guidewire.tools.benchmarking.ColumnDef;
 import com.guidewire.tools.benchmarking.DataExtractor;
 import com.guidewire.tools.benchmarking.QueryDefinition;
 
+import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
@@ -64,11 +65,21 @@ public class ResultSetDataSource implements RowDataSource {
     return resultSet.getDouble(columnLabel);
   }
 
+  @Override
+  public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+    return resultSet.getBigDecimal(columnLabel);
+  }
+
   @Override
   public Integer getInt(String columnLabel) throws SQLException {
     return resultSet.getInt(columnLabel);
   }
 
+  @Override
+  public Long getLong(String columnLabel) throws SQLException {
+    return resultSet.getLong(columnLabel);
+  }
+
   @Override
   public String getString(String columnLabel) throws SQLException {
     return resultSet.getString(columnLabel);
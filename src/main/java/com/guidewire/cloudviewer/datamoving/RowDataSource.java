@@ -5,6 +5,7 @@ import com.guidewire.tools.benchmarking.DataExtractor;
 import com.guidewire.tools.benchmarking.QueryDefinition;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.ParseException;
@@ -30,7 +31,9 @@ public interface RowDataSource {
   Date getDate(String date) throws SQLException, ParseException;
   Timestamp getTimestamp(String timestamp) throws SQLException, ParseException;
   Double getDouble(String value) throws SQLException, ParseException;
+  BigDecimal getBigDecimal(String value) throws SQLException, ParseException;
   Integer getInt(String integer) throws SQLException, ParseException;
+  Long getLong(String value) throws SQLException, ParseException;
   String getString(String s) throws SQLException, ParseException;
 
   boolean wasNull() throws SQLException;
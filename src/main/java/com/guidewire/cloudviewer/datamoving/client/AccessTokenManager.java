@@ -0,0 +1,256 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.guidewire.cloudviewer.datamoving.JsonCodecs;
+import com.guidewire.tools.benchmarking.DataExtractionRunner;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out the bearer token for requests to the Guidewire server.
+ * <p/>
+ * The token is kept in a local file, encrypted with a key derived from the client secret, so a new process can use a
+ * token that an earlier one fetched instead of going back to Okta.  A background thread fetches a new token shortly
+ * before the current one expires, and when the server rejects a token anyway, refresh() fetches a new one for a
+ * single retry.
+ */
+class AccessTokenManager {
+  // Fetch a new token this long before the current one expires
+  static final long REFRESH_AHEAD = 5 * 60 * 1000;
+  // Don't use a token this close to expiring, even if the background refresh hasn't replaced it yet
+  static final long EXPIRY_MARGIN = 30 * 1000;
+  // Used when the token response doesn't say how long the token lasts
+  static final long DEFAULT_LIFETIME = 30 * 60 * 1000;
+  private static final long MIN_REFRESH_DELAY = 10 * 1000;
+  private static final int IV_LENGTH = 12;
+
+  /**
+   * Where tokens come from; normally Okta, by way of DESAuthorizer.
+   */
+  interface TokenSource {
+    AccessToken fetch() throws Exception;
+  }
+
+  static class AccessToken {
+    private final String value;
+    private final long expiresAt;
+
+    AccessToken(String value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @param expiresIn the lifetime in seconds from the token response, or null if it didn't say
+     */
+    static AccessToken expiringIn(String value, Integer expiresIn) {
+      long lifetime = expiresIn == null ? DEFAULT_LIFETIME : expiresIn * 1000L;
+      return new AccessToken(value, System.currentTimeMillis() + lifetime);
+    }
+
+    String getValue() {
+      return value;
+    }
+
+    long getExpiresAt() {
+      return expiresAt;
+    }
+
+    boolean isUsable() {
+      return System.currentTimeMillis() < expiresAt - EXPIRY_MARGIN;
+    }
+  }
+
+  // What goes in the cache file, before encryption.  The client id and host are there so that a cache written for a
+  // different configuration isn't used.
+  private static class CachedToken {
+    private String clientId;
+    private String host;
+    private String accessToken;
+    private long expiresAt;
+  }
+
+  private final TokenSource source;
+  private final File cacheFile;
+  private final String passphrase;
+  private final String clientId;
+  private final String host;
+  private final ScheduledExecutorService refresher;
+  private AccessToken token = null;
+  private ScheduledFuture<?> scheduledRefresh = null;
+
+  AccessTokenManager(TokenSource source, File cacheFile, String passphrase, String clientId, String host) {
+    this.source = source;
+    this.cacheFile = cacheFile;
+    this.passphrase = passphrase == null ? DataExtractionRunner.PHRASE : passphrase;
+    this.clientId = clientId;
+    this.host = host;
+    refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "access-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Returns a token that isn't about to expire, reading it from the cache file or fetching a new one if the one we
+   * have won't do.
+   */
+  synchronized String getToken() throws Exception {
+    if (token == null) {
+      AccessToken cached = readCache();
+      if (cached != null && cached.isUsable()) {
+        setToken(cached, false);
+      }
+    }
+    if (token == null || !token.isUsable()) {
+      setToken(source.fetch(), true);
+    }
+    return token.getValue();
+  }
+
+  /**
+   * Called when the server rejects a token.  Fetches a new one, unless another thread already replaced the rejected
+   * token, in which case that one is returned.
+   */
+  synchronized String refresh(String rejectedToken) throws Exception {
+    if (token != null && !token.getValue().equals(rejectedToken) && token.isUsable()) {
+      return token.getValue();
+    }
+    setToken(source.fetch(), true);
+    return token.getValue();
+  }
+
+  void shutdown() {
+    refresher.shutdownNow();
+  }
+
+  /**
+   * Fetches a new token without holding the lock, so that threads asking for the current token meanwhile aren't held
+   * up by the round trip to Okta, and then swaps it in, unless refresh() has already put in one that lasts as long.
+   */
+  void refreshInBackground() {
+    AccessToken newToken;
+    try {
+      newToken = source.fetch();
+    } catch (Exception e) {
+      // Leave the current token in place; getToken() will fetch synchronously, and report the problem, once the
+      // current token is no longer usable.
+      return;
+    }
+    synchronized (this) {
+      if (token == null || newToken.getExpiresAt() > token.getExpiresAt()) {
+        setToken(newToken, true);
+      }
+    }
+  }
+
+  private void setToken(AccessToken newToken, boolean writeCache) {
+    token = newToken;
+    if (writeCache) {
+      writeCache(newToken);
+    }
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+    }
+    long delay = Math.max(MIN_REFRESH_DELAY, newToken.getExpiresAt() - REFRESH_AHEAD - System.currentTimeMillis());
+    scheduledRefresh = refresher.schedule(new Runnable() {
+      @Override
+      public void run() {
+        refreshInBackground();
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Reads the cached token, or returns null if there isn't one we can use.  A file that can't be decrypted (because the
+   * client secret changed, or the file is damaged) is treated the same as no file.
+   */
+  private AccessToken readCache() {
+    if (!cacheFile.exists()) {
+      return null;
+    }
+    try {
+      ByteBuffer byteBuffer = ByteBuffer.wrap(Files.readAllBytes(cacheFile.toPath()));
+      int ivLength = byteBuffer.getInt();
+      if (ivLength != IV_LENGTH) {
+        return null;
+      }
+      byte[] iv = new byte[ivLength];
+      byteBuffer.get(iv);
+      byte[] encrypted = new byte[byteBuffer.remaining()];
+      byteBuffer.get(encrypted);
+
+      Cipher aes = createCipher(Cipher.DECRYPT_MODE, iv);
+      String json = new String(aes.doFinal(encrypted), StandardCharsets.UTF_8);
+      CachedToken cached = JsonCodecs.gson().fromJson(json, CachedToken.class);
+      if (cached == null || cached.accessToken == null || !equal(cached.clientId, clientId) || !equal(cached.host, host)) {
+        return null;
+      }
+      return new AccessToken(cached.accessToken, cached.expiresAt);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes the token to the cache file, readable only by the current user where the file system allows it.  If the
+   * file can't be written, the next process will just have to fetch its own token.
+   */
+  private void writeCache(AccessToken newToken) {
+    CachedToken cached = new CachedToken();
+    cached.clientId = clientId;
+    cached.host = host;
+    cached.accessToken = newToken.getValue();
+    cached.expiresAt = newToken.getExpiresAt();
+    File tempFile = new File(cacheFile.getPath() + ".tmp");
+    try {
+      byte[] iv = new byte[IV_LENGTH];
+      new SecureRandom().nextBytes(iv);
+      Cipher aes = createCipher(Cipher.ENCRYPT_MODE, iv);
+      byte[] encrypted = aes.doFinal(JsonCodecs.gson().toJson(cached).getBytes(StandardCharsets.UTF_8));
+
+      ByteBuffer byteBuffer = ByteBuffer.allocate(4 + iv.length + encrypted.length);
+      byteBuffer.putInt(iv.length);
+      byteBuffer.put(iv);
+      byteBuffer.put(encrypted);
+
+      Files.deleteIfExists(tempFile.toPath());
+      tempFile.createNewFile();
+      tempFile.setReadable(false, false);
+      tempFile.setReadable(true, true);
+      tempFile.setWritable(false, false);
+      tempFile.setWritable(true, true);
+      Files.write(tempFile.toPath(), byteBuffer.array());
+      Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (Exception e) {
+      tempFile.delete();
+    }
+  }
+
+  private Cipher createCipher(int mode, byte[] iv) throws Exception {
+    SecretKey secretKey = DataExtractionRunner.generateSecretKey(passphrase, iv);
+    Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+    aes.init(mode, secretKey, new GCMParameterSpec(128, iv));
+    return aes;
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
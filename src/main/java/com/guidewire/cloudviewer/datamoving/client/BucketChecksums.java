@@ -0,0 +1,174 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.google.gson.reflect.TypeToken;
+import com.guidewire.cloudviewer.datamoving.JsonCodecs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the checksums of each bucket of IDs of the tables that are checksummed that way, so that when a table's
+ * checksum changes, the buckets that changed can be found and only their rows sent.  The checksums are kept in a file
+ * in the output directory between runs.
+ * <p/>
+ * The buckets are laid out from the table's lowest and highest IDs the first time, and kept the same after that; the
+ * first and last buckets are open-ended, so rows added past either end still fall in a bucket.  The checksums taken
+ * for a table only replace the kept ones once the table has been completely sent, and the kept ones are only compared
+ * against while their whole-table checksum is the one the server has.  Otherwise the server doesn't have the rows the
+ * checksums were taken from, and the whole table has to go.
+ */
+class BucketChecksums {
+  // How many buckets a table is split into
+  static final int BUCKETS = 32;
+
+  /**
+   * The checksum of each bucket of a table, along with the checksum of the whole table they were taken with.
+   */
+  static class Buckets {
+    private long checksum;
+    private long min;
+    private long width;
+    private long[] sums;
+
+    private Buckets(long min, long width, int count) {
+      this.min = min;
+      this.width = width;
+      sums = new long[count];
+    }
+
+    /**
+     * Lays out up to BUCKETS buckets of equal width over the IDs from min to max.
+     */
+    static Buckets layOut(long min, long max) {
+      long span = max - min + 1;
+      long width = Math.max(1, (span + BUCKETS - 1) / BUCKETS);
+      return new Buckets(min, width, (int) ((span + width - 1) / width));
+    }
+
+    // The same layout, without any checksums yet
+    Buckets copyLayout() {
+      return new Buckets(min, width, sums.length);
+    }
+
+    int count() {
+      return sums.length;
+    }
+
+    long low(int bucket) {
+      return bucket == 0 ? Long.MIN_VALUE : min + bucket * width;
+    }
+
+    long high(int bucket) {
+      return bucket == sums.length - 1 ? Long.MAX_VALUE : min + (bucket + 1) * width - 1;
+    }
+
+    void setSum(int bucket, long sum) {
+      sums[bucket] = sum;
+    }
+
+    void setChecksum(long checksum) {
+      this.checksum = checksum;
+    }
+
+    long getChecksum() {
+      return checksum;
+    }
+  }
+
+  private static final Type BUCKETS_TYPE = new TypeToken<Map<String, Buckets>>() {}.getType();
+
+  private final File checksumFile;
+  private final Map<String, Buckets> kept;
+  // Checksums taken during this run, waiting for their table to be completely sent
+  private final Map<String, Buckets> taken = new HashMap<>();
+
+  BucketChecksums(File checksumFile) {
+    this.checksumFile = checksumFile;
+    kept = readChecksums();
+  }
+
+  /**
+   * Returns the kept layout of the table's buckets, without checksums, if the kept checksums can be compared against:
+   * their whole-table checksum is the one the server has.  Otherwise returns null.
+   */
+  synchronized Buckets getLayout(String name, Long serverChecksum) {
+    Buckets buckets = kept.get(name);
+    if (buckets == null || buckets.sums == null || serverChecksum == null || buckets.checksum != serverChecksum) {
+      return null;
+    }
+    return buckets.copyLayout();
+  }
+
+  /**
+   * Compares checksums just taken, in the kept layout, with the kept ones and returns the ranges of IDs of the buckets
+   * that changed, each as its low and high ID.  Neighbouring buckets that changed make one range.
+   */
+  synchronized List<long[]> changedRanges(String name, Buckets latest) {
+    Buckets previous = kept.get(name);
+    List<long[]> ranges = new ArrayList<>();
+    long[] range = null;
+    for (int i = 0; i < latest.count(); i++) {
+      if (previous.sums[i] == latest.sums[i]) {
+        range = null;
+      } else if (range == null) {
+        range = new long[] {latest.low(i), latest.high(i)};
+        ranges.add(range);
+      } else {
+        range[1] = latest.high(i);
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Holds on to checksums taken during this run until the table has been completely sent.
+   */
+  synchronized void taken(String name, Buckets latest) {
+    taken.put(name, latest);
+  }
+
+  /**
+   * Records that the table has been completely sent, so the checksums taken for it are the ones to compare against
+   * from now on.
+   */
+  synchronized void completed(String name) {
+    Buckets latest = taken.remove(name);
+    if (latest != null) {
+      kept.put(name, latest);
+    }
+  }
+
+  synchronized void save() throws IOException {
+    File tempFile = new File(checksumFile.getPath() + ".tmp");
+    Files.write(tempFile.toPath(), JsonCodecs.gson().toJson(kept, BUCKETS_TYPE).getBytes(StandardCharsets.UTF_8));
+    Files.move(tempFile.toPath(), checksumFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Reads the checksum file.  A missing or damaged file just means the next change to each table sends all of it.
+   */
+  private Map<String, Buckets> readChecksums() {
+    if (checksumFile.exists()) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checksumFile), StandardCharsets.UTF_8))) {
+        Map<String, Buckets> read = JsonCodecs.gson().fromJson(reader, BUCKETS_TYPE);
+        if (read != null) {
+          return new HashMap<>(read);
+        }
+      } catch (IOException | RuntimeException e) {
+        // Start over
+      }
+    }
+    return new HashMap<>();
+  }
+}
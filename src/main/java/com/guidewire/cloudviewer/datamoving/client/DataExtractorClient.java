@@ -1,7 +1,7 @@
 package com.guidewire.cloudviewer.datamoving.client;
 
+import com.github.scribejava.core.model.OAuth2AccessToken;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.guidewire.cloudviewer.datamoving.*;
 import com.guidewire.tools.DataExtractionUtils;
 import com.guidewire.tools.benchmarking.*;
@@ -19,11 +19,22 @@ import java.io.*;
 import java.net.ConnectException;
 import java.net.URLEncoder;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,7 +59,12 @@ public class DataExtractorClient {
   private static final int DEFAULT_MAX_ROWS_TO_SEND_PER_POST = 1000;
   private static final int DEFAULT_MAX_ROWS_TO_SEND_PER_FILE_UPLOAD = 1000;
   private static final int DEFAULT_MAX_ERROR_ROWS_BEFORE_FAILURE = 10000;
+  // The size of the parts of a customer csv file that are validated at the same time
+  private static final long CSV_VALIDATION_RANGE_SIZE = 16 * 1024 * 1024;
   private static final int NUMBER_OF_LOG_FILES_TO_UPLOAD = 3;
+  // How long to wait before sending again when the server says it's busy, doubling with each attempt in a row
+  private static final long SERVICE_UNAVAILABLE_BACKOFF = 1000;
+  private static final long MAX_SERVICE_UNAVAILABLE_BACKOFF = 60000;
   protected static final String AUTHENTICATION_FAILED = "authentication failed";
   public static final String UPLOAD_DISABLED = "The Guidewire server is temporarily not accepting data.  Please try again later.";
 
@@ -82,27 +98,49 @@ public class DataExtractorClient {
 
   private final DataExtractor _dataExtractor;
 
-  private int maxRowsToSend = DEFAULT_MAX_ROWS_TO_SEND_PER_POST;
-  private int totalRowsSent = 0;
-  private int rowsForCurrentTable = 0;
+  // Caps the size of each upload by rows and by encoded bytes, adapting to what the server accepts.
+  private UploadBatchSizer batchSizer = new UploadBatchSizer(DEFAULT_MAX_ROWS_TO_SEND_PER_POST);
+  // Uploads can run on several threads at once, so the counters are atomic.  rowsForCurrentTable counts the rows of
+  // the table being sent on each thread, which only means anything when a thread sends one table at a time, as it
+  // does for CSV files.
+  private final AtomicInteger totalRowsSent = new AtomicInteger();
+  private final ThreadLocal<AtomicInteger> rowsForCurrentTable = new ThreadLocal<AtomicInteger>() {
+    @Override
+    protected AtomicInteger initialValue() {
+      return new AtomicInteger();
+    }
+  };
+  // The spool's uploaders each take whichever table is next, so the rows sent from the spool are counted by table,
+  // along with the rows each table should have, where the data source knows.
+  private final Map<String, AtomicInteger> spooledRowsSent = new ConcurrentHashMap<>();
+  private final Map<String, Long> spooledRowsExpected = new ConcurrentHashMap<>();
 
   // We may enforce a maximum time restriction.  If the current time is ever larger than maxCurrentTime, we should halt
   // whatever we are doing and return.
-  private final boolean enforceMaxTime;
-  private final long maxCurrentTime;
-  private final long maxRunTime;
+  private boolean enforceMaxTime;
+  private long maxCurrentTime;
+  private long maxRunTime;
+
+  // Set when the process has been asked to stop.  The run in progress winds down as it would at the max run time.
+  private volatile boolean stopRequested = false;
 
   private QueryConnectionSummary querySummary;
 
   // This boolean will be set to true if we have made an attempt to connect to the Guidewire server and have
   // failed with an exception, or with a server error.  Essentially, this is an indicator that we are unlikely
   // to be able to correctly connect and may want to stop attempting to.
-  private boolean unsuccessfulConnectAttempt = false;
+  private volatile boolean unsuccessfulConnectAttempt = false;
 
   // We may get a response from which we can know that no further requests to the server will succeed.  In these cases,
   // we need to know that there's no point in continuing with other queries.
-  private boolean serverAcceptingData =  true;
+  private volatile boolean serverAcceptingData =  true;
   private Map<String, String> queryDerivedParameters = new HashMap<>();
+  // The derived parameters describe the database, so a client that does one run after another only retrieves them once.
+  private boolean derivedParametersRetrieved = false;
+
+  // The protocol version we and the server both understand.  We start with the oldest, and logClientInfo() moves it
+  // up to the newest version the server says it accepts.
+  private Integer protocolVersion = DataExtractionRunner.LEGACY_PROTOCOL_VERSION;
 
   // Instructs the DataExtractorClient about whether to print full queries or just the names of queries when
   // a test connection pulls queries from the server.
@@ -118,9 +156,32 @@ public class DataExtractorClient {
 
   private String gwAuth = null;
 
-  // When we first connect, we set up a client with the auth token in it and then use the same client for
-  // all subsequent connections.
-  private HttpClient desClient = null;
+  // When we first connect, we set up the transport and then use the same one, and its pool of connections, for
+  // all subsequent requests.
+  private HttpTransport transport = null;
+
+  // Supplies the bearer token for each request, and caches it between runs.
+  private AccessTokenManager tokens = null;
+
+  // Names of the queries whose results have been completely read during this run, so a later pass can skip them.
+  private final Set<String> completedQueries = Collections.synchronizedSet(new HashSet<String>());
+
+  // Identifies each batch we send, and remembers which ones the server has acknowledged, across retries.
+  private final UploadLedger ledger = new UploadLedger();
+
+  // Orders the queries in run(), and keeps track of how long each one takes from run to run.
+  private QueryScheduler scheduler = null;
+
+  // Checksums taken during this run, by query name.  A null value means the checksum couldn't be taken.
+  // The checksum of each query's data, taken once a run, by the first thread to ask for it
+  private final ConcurrentMap<String, FutureTask<Long>> checksums = new ConcurrentHashMap<>();
+
+  // Checksums of the buckets of IDs of the tables that are checksummed that way, kept from run to run.
+  private BucketChecksums bucketChecksums = null;
+
+  // The ranges of IDs each query is extracting, when it's only extracting the ones that changed.  They go to the
+  // server with the query's first result package.
+  private final Map<String, List<long[]>> idRanges = Collections.synchronizedMap(new HashMap<String, List<long[]>>());
 
 
   public enum UploadType {
@@ -143,7 +204,14 @@ public class DataExtractorClient {
 
   public DataExtractorClient(DataExtractor dataExtractor, long start, long maxRunTime) {
     this._dataExtractor = dataExtractor;
+    setMaxRunTime(start, maxRunTime);
+
+    totalRowsSent.set(0);
+    rowsForCurrentTable.get().set(0);
+    querySummary = new QueryConnectionSummary(getUsername());
+  }
 
+  private void setMaxRunTime(long start, long maxRunTime) {
     if (maxRunTime > 0) {
       enforceMaxTime = true;
       maxCurrentTime = start + maxRunTime;
@@ -154,10 +222,42 @@ public class DataExtractorClient {
       maxCurrentTime = -1;
       this.maxRunTime = -1;
     }
+  }
 
-    totalRowsSent = 0;
-    rowsForCurrentTable = 0;
-    querySummary = new QueryConnectionSummary(getUsername());
+  /**
+   * Gets ready for another run by a client that does one run after another, as DataExtractionRunner does in daemon
+   * mode.  The max run time counts from the new start, and the counts and summary of the last run are cleared.  The
+   * connections to the server, the access token and the derived parameters are kept.
+   */
+  public void startNextRun(long start) {
+    setMaxRunTime(start, maxRunTime);
+    serverAcceptingData = true;
+    unsuccessfulConnectAttempt = false;
+    totalRowsSent.set(0);
+    rowsForCurrentTable.get().set(0);
+    clearConnectionSummary();
+  }
+
+  /**
+   * Asks the run in progress to stop as soon as it can.  Whatever has been read but not sent stays in the spool for
+   * the next run.
+   */
+  public void stop() {
+    stopRequested = true;
+  }
+
+  /**
+   * Closes the connections to the server and stops refreshing the access token, once the client is done with.
+   */
+  public synchronized void shutdown() {
+    if (transport != null) {
+      transport.shutdown();
+      transport = null;
+    }
+    if (tokens != null) {
+      tokens.shutdown();
+      tokens = null;
+    }
   }
 
 
@@ -202,28 +302,94 @@ public class DataExtractorClient {
    * This method will contact the dataExtractionServer and request a set of queries.  It will then run
    * those queries and post the results back to the dataExtractionServer.  The expected use will be for
    * incremental updates from a customer running the client from a cron job or some similar mechanism.
+   * <p/>
+   * Results go through an UploadSpool on disk: the queries are read into the spool as fast as the database returns
+   * them while separate threads upload from it.  The threads attribute of the database element sets how many
+   * queries run, and how many uploads go out, at once.  Anything left in the spool by a previous run or pass is
+   * uploaded first, and if it can't all be, the queries aren't run again until the next run.  If the spool can't be opened, results are sent straight from the result sets one query at a time.
+   * <p/>
+   * When some queries can't send everything in one pass, another pass gets fresh query definitions from the server
+   * and runs only the queries that haven't finished; the ones that did aren't run, or checksummed, again.  Within a
+   * pass, QueryScheduler decides the order, and with a max run time, gives the biggest tables turns.
+   * <p/>
+   * A table whose checksum has changed, and that can be checksummed by ranges of IDs, only has the ranges that
+   * changed extracted, when the server takes ranged uploads; see BucketChecksums.
    */
   public void run() throws IOException, SQLException {
     boolean needToRerun = true;
     int iterations = 0;
     info("Sending logs");
     sendLogs(NUMBER_OF_LOG_FILES_TO_UPLOAD);
-    while (needToRerun && iterations++ < MAX_ITERATIONS_FOR_RUNNING && continueSendingData()) {
-      needToRerun = false;
+
+    UploadSpool spool = openSpool();
+    startQueries();
+    try {
+      while (needToRerun && iterations++ < MAX_ITERATIONS_FOR_RUNNING && continueSendingData()) {
+        needToRerun = false;
+        if (spool != null && spool.pendingCount() > 0) {
+          // Upload these before asking for queries, so the server's idea of what it already has is up to date.
+          info("Uploading [" + spool.pendingCount() + "] result packages with [" + spool.pendingRows() + "] rows left in the spool");
+          uploadSpooledResults(spool);
+          if (spool.pendingCount() > 0) {
+            // Running the queries again would spool the same rows a second time, so leave these for the next run.
+            info("Stopping with [" + spool.pendingCount() + "] result packages still in the spool");
+            break;
+          }
+        }
+        try {
+          // should send the previous logs first, then clear and restart them
+          info("updating queries");
+          if (iterations == 1) {
+            prepareToRun();
+          } else {
+            prepareToRerun();
+          }
+        } catch (IOException e) {
+          error("Error in getting queries", e);
+          throw e;  // rethrow the error after logging it
+        }
+        List<QueryDefinition> queries = queriesForPass();
+        if (spool != null) {
+          int previousRowsSent = totalRowsSent.get();
+          if (wasNotAbleToSendEntireResultSet(extractToSpool(spool, queries))) {
+            needToRerun = true;
+            if (previousRowsSent == totalRowsSent.get()) {
+              // If a whole pass sends nothing, there's something going on and it's time to kill the upload.
+              error("Error uploading data.  TotalRowsSent was the same value for two passes [" + totalRowsSent.get() + "]");
+              serverAcceptingData = false;
+            }
+          }
+          continue;
+        }
+        for (QueryDefinition queryDefinition : queries) {
+          if (wasNotAbleToSendEntireResultSet(send(queryDefinition))) {
+            needToRerun = true;
+          } else {
+            markCompleted(queryDefinition);
+          }
+          if (!continueSendingData())
+            break;
+        }
+      }
+    } catch (IOException | SQLException | RuntimeException e) {
+      // Still tell the server how far the run got
+      try {
+        sendSummary(UploadType.INCREMENTAL_QUERY_LOAD);
+      } catch (RuntimeException summaryFailure) {
+        e.addSuppressed(summaryFailure);
+      }
+      throw e;
+    } finally {
+      _dataExtractor.closeWorkerDBConnections();
       try {
-        // should send the previous logs first, then clear and restart them
-        info("updating queries");
-        prepareToRun();
+        scheduler.save();
       } catch (IOException e) {
-        error("Error in getting queries", e);
-        throw e;  // rethrow the error after logging it
+        error("Unable to save the query history", e, false);
       }
-      for (QueryDefinition queryDefinition : _dataExtractor.getQueries()) {
-        if (wasNotAbleToSendEntireResultSet(send(queryDefinition))) {
-          needToRerun = true;
-        }
-        if (!continueSendingData())
-          break;
+      try {
+        bucketChecksums.save();
+      } catch (IOException e) {
+        error("Unable to save the bucket checksums", e, false);
       }
     }
 
@@ -267,9 +433,70 @@ public class DataExtractorClient {
     } else {
       csvCheckComplete = true;
     }
+    ledger.startTable(name);
     send(name, stream);
   }
 
+  /**
+   * Posts csv files to the tables they're for, as runFromFile() does, with up to the given number of tables being sent
+   * at once.  Each file is read by a data source of its own; the files for the same table are sent one after another,
+   * with their batches numbered as if they were one file.
+   * The csv check is only done once, before anything is sent, and, as with runFromFile(), the summary is left to the
+   * caller.  If a table can't be sent, the others are still waited for before the failure is rethrown.
+   *
+   * @param filesByTable The files to send to each table, in the order they should be sent
+   * @param threads      The most tables to send at once
+   */
+  public void runFromFiles(Map<String, List<File>> filesByTable, int threads) {
+    setMaxRowsToSend(DEFAULT_MAX_ROWS_TO_SEND_PER_FILE_UPLOAD);
+    if (!csvCheckComplete && !doCSVCheck()) {
+      throw new DataExtractorServerException("CSV check failed, check server tables to make sure they are clean");
+    } else {
+      csvCheckComplete = true;
+    }
+    int tablesAtOnce = Math.max(1, Math.min(threads, filesByTable.size()));
+    // One connection for each table being sent, and one for the other requests made meanwhile
+    getTransport().reserveConnections(tablesAtOnce + 1);
+    ExecutorService uploaders = Executors.newFixedThreadPool(tablesAtOnce);
+    List<Future<?>> uploads = new ArrayList<>();
+    try {
+      for (final Map.Entry<String, List<File>> table : filesByTable.entrySet()) {
+        uploads.add(uploaders.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            // The table's batches are numbered in one sequence across its files, so no two files share a batch id
+            ledger.startTable(table.getKey());
+            for (File file : table.getValue()) {
+              if (!continueSendingData()) {
+                break;
+              }
+              try (InputStream stream = new FileInputStream(file)) {
+                send(table.getKey(), stream);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+    } finally {
+      uploaders.shutdown();
+    }
+
+    RuntimeException failure = null;
+    for (Future<?> upload : uploads) {
+      try {
+        waitFor(upload);
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
   public boolean sendCustomerCsvFileDefinition(CSVFileDefinition fileDefinition) {
     String name = fileDefinition.getName();
     info("Sending data for [" + name + "]");
@@ -281,9 +508,9 @@ public class DataExtractorClient {
       boolean sent = sendData(result, 1, UploadType.CUSTOMER_CSV_FILEDEF);
       if (wasNotAbleToSendEntireResultSet(sent)) {
         needToRerun = true;
-        info("Continuing to send data for [" + name + "] - total rows sent: " + totalRowsSent);
+        info("Continuing to send data for [" + name + "] - total rows sent: " + totalRowsSent.get());
       } else {
-        info("Completed sending data for [" + name + "] - total rows sent: " + totalRowsSent);
+        info("Completed sending data for [" + name + "] - total rows sent: " + totalRowsSent.get());
       }
     }
     return true;
@@ -295,7 +522,7 @@ public class DataExtractorClient {
     CSVFileDefinitionJSON csvFileDefinitionJSON = new CSVFileDefinitionJSON();
     csvFileDefinitionJSON.setFileDefinitions(csvFileDefinitions);
     NameValuePair[] result = new NameValuePair[1];
-    Gson gson = new Gson();
+    Gson gson = JsonCodecs.gson();
     String queryResultGson = gson.toJson(csvFileDefinitionJSON);
     result[0] = new NameValuePair("results", queryResultGson);
     return result;
@@ -304,51 +531,187 @@ public class DataExtractorClient {
   public boolean sendCustomerCsvFile(CustomerCSVFileDataSource policyDataSource) {
     String name = policyDataSource.getName();
     info("Sending data for [" + name + "]");
+    ledger.startTable(name);
     boolean needToRerun = true;
     int iterations = 0;
     while (needToRerun && iterations++ < MAX_ITERATIONS_FOR_RUNNING && continueSendingData()) {
       needToRerun = false;
       if (wasNotAbleToSendEntireResultSet(sendData(policyDataSource, UploadType.CUSTOMER_CSV))) {
         needToRerun = true;
-        info("Continuing to send data for [" + name + "] - total rows sent: " + totalRowsSent);
+        info("Continuing to send data for [" + name + "] - total rows sent: " + totalRowsSent.get());
       } else {
-        info("Completed sending data for [" + name + "] - total rows sent: " + totalRowsSent);
+        info("Completed sending data for [" + name + "] - total rows sent: " + totalRowsSent.get());
       }
     }
     return true;
   }
 
   public boolean validateCustomerCsvFile(CustomerCSVFileDataSource csvFileDataSource) {
+    return validateCustomerCsvFile(csvFileDataSource, null);
+  }
+
+  /**
+   * Checks each row of a customer csv file against the file definition, without sending anything.  The file is split
+   * into parts that are checked on separate threads, one for each processor, and the errors and bad rows are written
+   * out in the order of the file.  Only a few parts are read ahead of the one being written out, so that what they
+   * hold on to doesn't grow with the file, and no more are started once the file has too many errors.  If
+   * statisticsFile isn't null, statistics on each column of the file (see ValidationStatistics) are written to it as
+   * json.
+   */
+  public boolean validateCustomerCsvFile(CustomerCSVFileDataSource csvFileDataSource, File statisticsFile) {
     String name = csvFileDataSource.getName();
     info("Validating data for [" + name + "]");
-    int iterations = 0;
-    while (iterations++ < MAX_ITERATIONS_FOR_RUNNING && continueSendingData()) {
+    ValidationStatistics statistics = new ValidationStatistics(name, csvFileDataSource.getColumns());
+    int threads = Runtime.getRuntime().availableProcessors();
+    int maxRangesInFlight = 2 * threads;
+    ExecutorService validators = Executors.newFixedThreadPool(threads);
+    Deque<Future<ValidatedRange>> validations = new ArrayDeque<>();
+    DataExtractorLog log = _dataExtractor.getDataExtractorLog();
+    int errorsBefore = log.getErrorCount();
+    try {
+      Iterator<CustomerCSVFileDataSource> ranges = csvFileDataSource.ranges(CSV_VALIDATION_RANGE_SIZE);
+      while (!validations.isEmpty() || (ranges.hasNext() && continueSendingData())) {
+        boolean canSubmit = ranges.hasNext() && continueSendingData() && validations.size() < maxRangesInFlight;
+        if (!validations.isEmpty() && (!canSubmit || validations.peekFirst().isDone())) {
+          // Write out the first part as soon as it's done, and wait for it when no more can be started
+          ValidatedRange validated = waitFor(validations.removeFirst());
+          csvFileDataSource.appendRange(validated.range);
+          statistics.merge(validated.statistics);
+          if (log.getErrorCount() - errorsBefore > DEFAULT_MAX_ERROR_ROWS_BEFORE_FAILURE) {
+            writeStatistics(statistics, statisticsFile);
+            log.displayErrorSummary();
+            log.displayToStdOut("Too many errors - exiting.  Please check the log file for more details.");
+            return true;
+          }
+          continue;
+        }
+        final CustomerCSVFileDataSource range = ranges.next();
+        validations.addLast(validators.submit(new Callable<ValidatedRange>() {
+          @Override
+          public ValidatedRange call() throws SQLException, IOException {
+            ValidationStatistics rangeStatistics = new ValidationStatistics(name, range.getColumns());
+            try {
+              validateRows(range, rangeStatistics);
+            } finally {
+              range.close();
+            }
+            return new ValidatedRange(range, rangeStatistics);
+          }
+        }));
+      }
+    } catch (SQLExceptionWrapper e) {
+      // this will never happen for this data source because the source reads a file, but the method throws it
+      error("Error reading from database", e.getCause());
+      return false;
+    } catch (IOException e) {
+      error("Error reading data source", e);
+      return false;
+    } finally {
+      validators.shutdownNow();
       try {
-        QueryResult data = buildResultPackage(csvFileDataSource);
-        if (data.getRowCount() == 0) return true;
-      } catch (SQLException e) {
-        // this will never happen for this data source because the source reads a file, but the method throws it
-        error("Error reading from database", e);
-        return false;
-      } catch (ParseException e) {
-        error("Error reading parsing data", e);
-        return false;
-      } catch (IOException e) {
-        error("Error reading data source", e);
-        return false;
+        csvFileDataSource.close();
+      } catch (SQLException | IOException e) {
+        error("Error closing data source", e);
       }
     }
+    writeStatistics(statistics, statisticsFile);
+    _dataExtractor.getDataExtractorLog().displayErrorSummary();
     return true;
   }
 
+  private void writeStatistics(ValidationStatistics statistics, File statisticsFile) {
+    if (statisticsFile == null) {
+      return;
+    }
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(statisticsFile), StandardCharsets.UTF_8))) {
+      statistics.write(out);
+      info("Wrote statistics on the columns to [" + statisticsFile.getPath() + "]");
+    } catch (IOException e) {
+      error("Error writing statistics on the columns to [" + statisticsFile.getPath() + "]", e);
+    }
+  }
+
+  /**
+   * Checks the rows of a part of a customer csv file, gathering statistics on its columns, and stopping if it has too
+   * many errors.
+   */
+  private void validateRows(CustomerCSVFileDataSource range, ValidationStatistics statistics) throws SQLException, IOException {
+    List<ColumnDef> columns = range.getColumns();
+    while (continueSendingData() && !Thread.currentThread().isInterrupted() && range.next()) {
+      if (range.rowSuccessfullyRead()) {
+        StringBuilder rowErrorMessage = readRow(range, columns, QueryResult.newResultRow(columns.size()), statistics);
+        statistics.row(rowErrorMessage != null);
+        if (rowErrorMessage != null) {
+          range.writeToBadFile(_dataExtractor);
+          range.error(rowErrorMessage.toString());
+          if (range.getHeldErrorCount() > DEFAULT_MAX_ERROR_ROWS_BEFORE_FAILURE) {
+            return;
+          }
+        }
+      }
+    }
+  }
+
 
 
   public void prepareToRun() throws IOException {
-    updateDBMSParameter();
-    updateQueryDerivedParameters();
+    if (!derivedParametersRetrieved) {
+      updateDBMSParameter();
+      updateQueryDerivedParameters();
+      derivedParametersRetrieved = true;
+    }
     updateQueries(false);
   }
 
+  /**
+   * Gets fresh query definitions for another pass, so the queries that didn't finish start from where the server
+   * says the last pass left off.  The derived parameters don't change during a run, so their queries aren't run again.
+   */
+  private void prepareToRerun() throws IOException {
+    updateQueries(false);
+  }
+
+  /**
+   * Forgets which queries the last run completed and the checksums it took, and reads what's kept between runs.
+   */
+  void startQueries() {
+    completedQueries.clear();
+    checksums.clear();
+    scheduler = new QueryScheduler(_dataExtractor.getQueryHistoryFile());
+    bucketChecksums = new BucketChecksums(_dataExtractor.getBucketChecksumFile());
+    idRanges.clear();
+  }
+
+  /**
+   * Returns the queries to run in this pass, in order: the ones not completed yet this run whose data may have changed.
+   */
+  List<QueryDefinition> queriesForPass() {
+    return scheduler.schedule(skipUnchangedQueries(incompleteQueries()), remainingRunTime(),
+      _dataExtractor.getDBThreads());
+  }
+
+  void markCompleted(QueryDefinition queryDefinition) {
+    completedQueries.add(queryDefinition.getName());
+    scheduler.completed(queryDefinition.getName());
+    bucketChecksums.completed(queryDefinition.getName());
+  }
+
+  /**
+   * Returns the queries that haven't been completely sent during this run.
+   */
+  private List<QueryDefinition> incompleteQueries() {
+    List<QueryDefinition> queries = new ArrayList<>();
+    for (QueryDefinition queryDefinition : _dataExtractor.getQueries()) {
+      if (!completedQueries.contains(queryDefinition.getName())) {
+        queries.add(queryDefinition);
+      }
+    }
+    if (!completedQueries.isEmpty()) {
+      info("Skipping [" + completedQueries.size() + "] queries already completed, running [" + queries.size() + "]");
+    }
+    return queries;
+  }
+
   public List<CSVFileDefinition> prepareToRunCustomerCSVFile(boolean isTestConnection) throws IOException {
     info("Retrieving csv file definition from [" + getDataExtractionServerURL() + "]");
     HttpMethod httpMethod;
@@ -397,15 +760,32 @@ public class DataExtractorClient {
     sendRequest(httpMethod);
     InputStream inputStream = httpMethod.getResponseBodyAsStream();
     String clientInfoJson = restoreDoubleQuotes(IOUtils.toString(inputStream));
-    ClientInfo clientInfo = new Gson().fromJson(clientInfoJson, ClientInfo.class);
+    ClientInfo clientInfo = JsonCodecs.gson().fromJson(clientInfoJson, ClientInfo.class);
     String message = "Running for client: " + clientInfo.displayName + "(" + clientInfo.cbsclientid + ")";
     _dataExtractor.getDataExtractorLog().info(message);
+    negotiateProtocolVersion(clientInfo.maxProtocolVersion);
   }
 
   // todo: share with DES
   private static class ClientInfo {
     private long cbsclientid = -1;
     private String displayName = null;
+    // Servers that predate protocol negotiation don't send this
+    private Integer maxProtocolVersion = null;
+  }
+
+  void negotiateProtocolVersion(Integer serverMaxProtocolVersion) {
+    if (serverMaxProtocolVersion == null) {
+      protocolVersion = DataExtractionRunner.LEGACY_PROTOCOL_VERSION;
+    } else {
+      protocolVersion = Math.max(DataExtractionRunner.LEGACY_PROTOCOL_VERSION,
+        Math.min(DataExtractionRunner.PROTOCOL_VERSION, serverMaxProtocolVersion));
+    }
+    info("Using protocol version [" + protocolVersion + "]");
+  }
+
+  Integer getProtocolVersion() {
+    return protocolVersion;
   }
 
 
@@ -454,59 +834,31 @@ public class DataExtractorClient {
     // This keeps track of rows that we did not get an error for.  This is used primarily for .csv files that
     // we are reading, where we return results for rows that succeed and omit rows that fail.
     int successfulRows = 0;
+    // Estimated size of the rows once they are encoded for sending, so that wide rows don't make the payload too big
+    long estimatedBytes = 0;
     while (dataSource.next()) {
       if (dataSource.rowSuccessfullyRead()) {
-        StringBuilder rowErrorMessage = null;
         // We want to limit the number of rows to ensure the data payload is not too big
         // At the same time, we want to get to a new update time so we don't send the same data
         // repeatedly
         QueryResult.ResultRow resultRow = QueryResult.newResultRow(columnsPerResult);
-        ColumnDef currentColumn;
-        for (ColumnDef column : columns) {
-          currentColumn = column;
-          try {
-            resultRow.add(column.getOutputResults(dataSource));
-          } catch (Exception e) {
-            // This is the heart of how we manage handling bad data, particularly for .csv files.  When parsing
-            // data that we expect to be of a certain type (usually date or numeric fields), we may get a parse
-            // error.  This is often because of some problem in the data that we're reading.  If this happens,
-            // we want to give the customer the most information possible about the problem info so they can
-            // find the problem and fix it. We can also get errors if required values are missing. We do minimal checks for these;
-            // mostly insure that string lengths are greater than zero. For data types that require parsing an input string there is
-            // an additional check that the value must parse correctly, but for STRING values we only check for a non-empty string.
-
-            // Note that we don't stop processing immediately - we want to record all of the errors for every column in the row
-            if (rowErrorMessage == null) {
-              rowErrorMessage = new StringBuilder("Error handling data source row [")
-                .append( dataSource.getCurrentRowNumber()).append( "] with data [");
-              StringBuilder sb = constructRawRow(resultRow);
-              rowErrorMessage.append(sb.toString())
-                .append("]");
-            }
-            rowErrorMessage.append(", column [")
-              .append(currentColumn.getName())
-              .append("], error is [")
-              .append(e.getLocalizedMessage())
-              .append("]");
-          }
-        }
+        StringBuilder rowErrorMessage = readRow(dataSource, columns, resultRow, null);
         if (rowErrorMessage == null) {
           result.addRow(resultRow);
           successfulRows++;
+          for (String value : resultRow.getResults()) {
+            estimatedBytes += UploadBatchSizer.estimateEncodedLength(value);
+          }
         } else {
           dataSource.writeToBadFile(_dataExtractor);
-          _dataExtractor.getDataExtractorLog().error(rowErrorMessage.toString());
-          List<String> errors = _dataExtractor.getDataExtractorLog().getErrorMessages();
-          if (errors.size() > DEFAULT_MAX_ERROR_ROWS_BEFORE_FAILURE) {
-            _dataExtractor.getDataExtractorLog().displayToStdOut("The following errors occurred during execution.  Please check the log file for more details.");
-            for (String error : errors) {
-              _dataExtractor.getDataExtractorLog().displayToStdOut("ERROR: " + error);
-            }
+          _dataExtractor.getDataExtractorLog().rowError(rowErrorMessage.toString());
+          if (_dataExtractor.getDataExtractorLog().getErrorCount() > DEFAULT_MAX_ERROR_ROWS_BEFORE_FAILURE) {
+            _dataExtractor.getDataExtractorLog().displayErrorSummary();
             _dataExtractor.getDataExtractorLog().displayToStdOut("Too many errors - exiting.  Please check the log file for more details.");
             return result;
           }
         }
-        if (successfulRows >= getMaxRowsToSend()) {
+        if (batchSizer.isFull(successfulRows, estimatedBytes)) {
           result.setWasCutShort(true);
           break;
         }
@@ -518,16 +870,60 @@ public class DataExtractorClient {
       result.setChecksum(getChecksum(dataSource.getQueryDefinition()));
     }
     result.setQueryTime(dataSource.getTimeToRun());
+    return result;
+  }
 
-    List<String> errors = _dataExtractor.getDataExtractorLog().getErrorMessages();
-    if (errors.size() > 0) {
-      _dataExtractor.getDataExtractorLog().displayToStdOut("The following errors occurred during execution.  Please check the log file for more details.");
-      for (String error : errors) {
-        _dataExtractor.getDataExtractorLog().displayToStdOut("ERROR: " + error);
+  /**
+   * Reads the current row of the data source into the result row, column by column, counting its values in statistics
+   * if that isn't null.  Returns the message for the errors in the row, or null if there weren't any.
+   */
+  private StringBuilder readRow(RowDataSource dataSource, List<ColumnDef> columns, QueryResult.ResultRow resultRow,
+                                ValidationStatistics statistics) throws SQLException {
+    StringBuilder rowErrorMessage = null;
+    ColumnDef currentColumn;
+    for (int i = 0; i < columns.size(); i++) {
+      ColumnDef column = columns.get(i);
+      currentColumn = column;
+      try {
+        String value;
+        if (statistics == null) {
+          value = column.getOutputResults(dataSource);
+        } else {
+          // The value is read once, for both its text and the statistics
+          Object typedValue = column.getValue(dataSource);
+          value = column.formatValue(typedValue);
+          statistics.value(i, value, typedValue);
+        }
+        resultRow.add(value);
+      } catch (Exception e) {
+        if (statistics != null) {
+          statistics.error(i, e);
+        }
+        // This is the heart of how we manage handling bad data, particularly for .csv files.  When parsing
+        // data that we expect to be of a certain type (usually date or numeric fields), we may get a parse
+        // error.  This is often because of some problem in the data that we're reading.  If this happens,
+        // we want to give the customer the most information possible about the problem info so they can
+        // find the problem and fix it. We can also get errors if required values are missing. We do minimal checks for these;
+        // mostly insure that string lengths are greater than zero. For data types that require parsing an input string there is
+        // an additional check that the value must parse correctly, but for STRING values we only check for a non-empty string.
+
+        // Note that we don't stop processing immediately - we want to record all of the errors for every column in the row
+        if (rowErrorMessage == null) {
+          rowErrorMessage = new StringBuilder("Error handling data source row [")
+            .append( dataSource.getCurrentRowNumber()).append( "] with data [");
+          StringBuilder sb = constructRawRow(resultRow);
+          rowErrorMessage.append(sb.toString())
+            .append("]");
+        }
+        _dataExtractor.getDataExtractorLog().columnError(dataSource.getName(), currentColumn.getName());
+        rowErrorMessage.append(", column [")
+          .append(currentColumn.getName())
+          .append("], error is [")
+          .append(e.getLocalizedMessage())
+          .append("]");
       }
     }
-
-    return result;
+    return rowErrorMessage;
   }
 
 
@@ -555,11 +951,11 @@ public class DataExtractorClient {
 
 
   private int getMaxRowsToSend() {
-    return maxRowsToSend;
+    return batchSizer.getMaxRows();
   }
 
   private void setMaxRowsToSend(int rows) {
-    maxRowsToSend = rows;
+    batchSizer = new UploadBatchSizer(rows);
   }
 
 
@@ -572,7 +968,7 @@ public class DataExtractorClient {
    * @return true iff we should continue contacting the server and sending data
    */
   private boolean continueSendingData() {
-    if (!serverAcceptingData) {
+    if (!serverAcceptingData || stopRequested) {
       return false;
     }
 
@@ -605,7 +1001,38 @@ public class DataExtractorClient {
       if (maxTimeLimitPassed()) {
         querySummary.addMessage("Max time limit has expired.  Max time limit was [" + maxRunTime + "]");
       }
+
+      if (stopRequested) {
+        querySummary.addMessage("The client was stopped, sending has stopped.");
+      }
+    }
+  }
+
+  /**
+   * Returns the milliseconds left before the max run time passes, or 0 if there's no max run time.
+   */
+  private long remainingRunTime() {
+    if (!enforceMaxTime) {
+      return 0;
     }
+    return Math.max(1, maxCurrentTime - System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the time a query starting now has to stop by, if the scheduler gave it a slice, or 0 if it can run until
+   * it's done.
+   */
+  private long sliceEnd(QueryDefinition queryDefinition) {
+    long slice = scheduler.getSlice(queryDefinition.getName());
+    return slice == 0 ? 0 : System.currentTimeMillis() + slice;
+  }
+
+  private boolean sliceOver(long sliceEnd, QueryDefinition queryDefinition) {
+    if (sliceEnd != 0 && System.currentTimeMillis() > sliceEnd) {
+      info("Time slice for [" + queryDefinition.getName() + "] is over; it continues on the next pass");
+      return true;
+    }
+    return false;
   }
 
   private boolean wasNotAbleToSendEntireResultSet(boolean send) {
@@ -631,7 +1058,7 @@ public class DataExtractorClient {
   }
 
   private boolean convertCSVCheckResult(String json) throws IOException {
-    Gson gson = new Gson();
+    Gson gson = JsonCodecs.gson();
     return gson.fromJson(restoreDoubleQuotes(json), Boolean.class);
   }
 
@@ -645,6 +1072,9 @@ public class DataExtractorClient {
    */
   private boolean send(QueryDefinition queryDefinition) throws SQLException {
     ResultSetDataSource resultSetDataSource = null;
+    long start = System.currentTimeMillis();
+    long sliceEnd = sliceEnd(queryDefinition);
+    rowsForCurrentTable.get().set(0);
     try {
       String query = _dataExtractor.getPreparedStatementQuery(queryDefinition);
       List<String> params = _dataExtractor.getPreparedStatementArguments(queryDefinition);
@@ -665,26 +1095,25 @@ public class DataExtractorClient {
       info("Sending data from query [" + query + "]");
       resultSetDataSource = new ResultSetDataSource(queryRun.getResultSet(), queryDefinition);
       resultSetDataSource.setTimeToRun(queryRun.getTimeToRun());
-      rowsForCurrentTable = 0;
       int iterations = 0;
       boolean result = false;
       int previousRowsSent = 0;
-      while (iterations++ < MAX_ITERATIONS_FOR_RUNNING && continueSendingData() && result == false) {
+      while (iterations++ < MAX_ITERATIONS_FOR_RUNNING && continueSendingData() && result == false && !sliceOver(sliceEnd, queryDefinition)) {
         result = sendData(resultSetDataSource, UploadType.INCREMENTAL_QUERY_LOAD);
         if (result) {
-          info("Completed sending data - total rows sent: " + totalRowsSent);
+          info("Completed sending data - total rows sent: " + totalRowsSent.get());
         } else {
-          info("Continuing to send data - total rows sent: " + totalRowsSent);
+          info("Continuing to send data - total rows sent: " + totalRowsSent.get());
         }
 
-        if (previousRowsSent == totalRowsSent && result == false) {
+        if (previousRowsSent == totalRowsSent.get() && result == false) {
           // If we get the same numbers twice in a row, there's something going on and it's time to kill
           // the upload.
-          error("Error uploading data.  TotalRowsSent was the same value for two sends [" + totalRowsSent + "]");
+          error("Error uploading data.  TotalRowsSent was the same value for two sends [" + totalRowsSent.get() + "]");
           serverAcceptingData = false;
           break;
         }
-        previousRowsSent = totalRowsSent;
+        previousRowsSent = totalRowsSent.get();
       }
       return result;
     } catch (SQLException e) {
@@ -694,6 +1123,344 @@ public class DataExtractorClient {
       if (resultSetDataSource != null) {
         resultSetDataSource.close();
       }
+      scheduler.record(queryDefinition.getName(), rowsForCurrentTable.get().get(), System.currentTimeMillis() - start);
+    }
+  }
+
+  private UploadSpool openSpool() {
+    try {
+      return new UploadSpool(_dataExtractor.getSpoolDir());
+    } catch (IOException | RuntimeException e) {
+      error("Unable to open the upload spool, sending results directly", e, false);
+      return null;
+    }
+  }
+
+  /**
+   * Runs each query into the spool while separate threads upload what has been spooled so far.  With more than one
+   * database thread configured, the queries themselves also run in parallel, each on its own database connection.
+   * Returns once everything extracted has been uploaded, or the upload has stopped.  Returns true iff every result
+   * set was read to the end.
+   */
+  private boolean extractToSpool(final UploadSpool spool, List<QueryDefinition> queries) throws SQLException {
+    int threads = _dataExtractor.getDBThreads();
+    boolean allExtracted;
+    spool.startWriting();
+    // One connection for each uploader, and one for the other requests made meanwhile
+    getTransport().reserveConnections(threads + 1);
+    ExecutorService uploader = Executors.newFixedThreadPool(threads);
+    final List<Future<?>> uploads = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      uploads.add(uploader.submit(new Runnable() {
+        @Override
+        public void run() {
+          uploadSpooledResults(spool);
+        }
+      }));
+    }
+    try {
+      if (threads > 1) {
+        allExtracted = spoolQueriesInParallel(spool, queries, uploads, threads);
+      } else {
+        allExtracted = true;
+        for (QueryDefinition queryDefinition : queries) {
+          if (wasNotAbleToSendEntireResultSet(spoolQuery(queryDefinition, spool, uploads))) {
+            allExtracted = false;
+          } else {
+            markCompleted(queryDefinition);
+          }
+          if (!continueSendingData() || uploadStopped(uploads))
+            break;
+        }
+      }
+    } catch (SQLException | RuntimeException e) {
+      // Let the uploaders finish with what was spooled, rather than leave them running on their own
+      spool.finishWriting();
+      uploader.shutdown();
+      try {
+        waitForAll(uploads);
+      } catch (SQLException | RuntimeException uploadFailure) {
+        e.addSuppressed(uploadFailure);
+      }
+      throw e;
+    }
+
+    spool.finishWriting();
+    uploader.shutdown();
+    waitForAll(uploads);
+    return allExtracted && spool.pendingCount() == 0;
+  }
+
+  /**
+   * Runs the queries on a pool of worker threads, each with a database connection of its own.  Returns true iff
+   * every result set was read to the end.  Once a query fails, the ones that haven't started aren't run, and the
+   * failure is thrown when the ones that had started are done.
+   */
+  private boolean spoolQueriesInParallel(final UploadSpool spool, List<QueryDefinition> queries, final List<Future<?>> uploads, int threads) throws SQLException {
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    List<Future<Boolean>> extractions = new ArrayList<>();
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    try {
+      for (final QueryDefinition queryDefinition : queries) {
+        extractions.add(workers.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws SQLException {
+            if (failed.get() || !continueSendingData() || uploadStopped(uploads)) {
+              return false;
+            }
+            _dataExtractor.borrowDBConnection();
+            try {
+              boolean extracted = spoolQuery(queryDefinition, spool, uploads);
+              if (extracted) {
+                markCompleted(queryDefinition);
+              }
+              return extracted;
+            } catch (SQLException | RuntimeException e) {
+              failed.set(true);
+              throw e;
+            } finally {
+              _dataExtractor.returnDBConnection();
+            }
+          }
+        }));
+      }
+    } finally {
+      workers.shutdown();
+    }
+
+    boolean allExtracted = true;
+    for (Boolean extracted : waitForAll(extractions)) {
+      if (!extracted) {
+        allExtracted = false;
+      }
+    }
+    return allExtracted;
+  }
+
+  private boolean uploadStopped(List<Future<?>> uploads) {
+    for (Future<?> upload : uploads) {
+      if (upload.isDone()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Waits for every one of the tasks, rather than just until one fails, so that none is left running on its own, and
+   * returns their results.  The first failure is thrown once they're all done, with any others suppressed in it; a
+   * SQLException is thrown as itself.
+   */
+  private <T> List<T> waitForAll(List<? extends Future<? extends T>> tasks) throws SQLException {
+    List<T> results = new ArrayList<>();
+    Exception failure = null;
+    for (Future<? extends T> task : tasks) {
+      try {
+        results.add(waitFor(task));
+      } catch (RuntimeException e) {
+        Exception cause = e instanceof SQLExceptionWrapper ? ((SQLExceptionWrapper) e).getCause() : e;
+        if (failure == null) {
+          failure = cause;
+        } else {
+          failure.addSuppressed(cause);
+        }
+      }
+    }
+    if (failure instanceof SQLException) {
+      throw (SQLException) failure;
+    }
+    if (failure != null) {
+      throw (RuntimeException) failure;
+    }
+    return results;
+  }
+
+  /**
+   * Waits for a task on another thread and returns its result.  Runtime exceptions from the task are rethrown here,
+   * and a SQLException comes back wrapped in a SQLExceptionWrapper.
+   */
+  private <T> T waitFor(Future<T> task) {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DataExtractorServerException("Interrupted while waiting for queries and uploads to finish");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof SQLException) {
+        throw new SQLExceptionWrapper((SQLException) e.getCause());
+      }
+      throw new DataExtractorServerException("Error on worker thread: " + e.getCause());
+    }
+  }
+
+  /**
+   * Executes the query and writes its results to the spool, then closes the result set without waiting for the
+   * uploads.  Returns true iff the whole result set was read.
+   */
+  private boolean spoolQuery(QueryDefinition queryDefinition, UploadSpool spool, List<Future<?>> uploads) throws SQLException {
+    ResultSetDataSource resultSetDataSource = null;
+    long start = System.currentTimeMillis();
+    long sliceEnd = sliceEnd(queryDefinition);
+    int rowsSpooled = 0;
+    try {
+      info("Running query [" + _dataExtractor.getPreparedStatementQuery(queryDefinition) + "] with params " + _dataExtractor.getPreparedStatementArguments(queryDefinition));
+      DataExtractor.QueryRun queryRun = runQuery(queryDefinition);
+      if (queryRun == null) {
+        info("No data to send from query");
+        return true;
+      }
+
+      resultSetDataSource = new ResultSetDataSource(queryRun.getResultSet(), queryDefinition);
+      resultSetDataSource.setTimeToRun(queryRun.getTimeToRun());
+      String table = resultSetDataSource.getName();
+      // Run from the same watermark and ranges as on an earlier pass, the query's batches get the same ids; from an
+      // advanced watermark they're new rows, and get new ids
+      ledger.startTable(table, queryStart(queryDefinition));
+      spooledRowsSent.put(table, new AtomicInteger());
+      spooledRowsExpected.remove(table);
+      int iterations = 0;
+      while (iterations++ < DEFAULT_MAX_ATTEMPTS_TO_SEND_RESULTS * MAX_ITERATIONS_FOR_RUNNING && continueSendingData() && !uploadStopped(uploads)
+        && !sliceOver(sliceEnd, queryDefinition)) {
+        QueryResult data = buildResultPackage(resultSetDataSource);
+        attachIdRanges(data);
+        if (data.getRowCount() == 0 && data.getIdRanges() == null) {
+          return true;
+        }
+        if (!data.wasCutShort() && resultSetDataSource.expectedRowsKnown()) {
+          spooledRowsExpected.put(table, resultSetDataSource.getExpectedRows());
+        }
+        stamp(data);
+        if (ledger.isAcknowledged(data)) {
+          // The server acknowledged this batch on an earlier pass
+          countAcknowledgedBatch(data);
+          spooledRowsSent.get(table).addAndGet(data.getRowCount());
+        } else {
+          spool.append(data);
+        }
+        rowsSpooled += data.getRowCount();
+        if (!data.wasCutShort()) {
+          info("Spooled [" + rowsSpooled + "] rows for [" + resultSetDataSource.getName() + "]");
+          return true;
+        }
+      }
+      return false;
+    } catch (SQLException e) {
+      error("SQL problem with sending data", e);
+      throw e;
+    } catch (ParseException e) {
+      error("Error reading parsing data", e);
+      return false;
+    } catch (IOException e) {
+      error("Error writing to the upload spool", e);
+      return false;
+    } finally {
+      if (resultSetDataSource != null) {
+        resultSetDataSource.close();
+      }
+      scheduler.record(queryDefinition.getName(), rowsSpooled, System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * Uploads segments from the spool, removing each one once the server has it.  Several of these can run at once;
+   * the spool makes sure each table's segments still go up in order.  Returns when the spool is empty and nothing
+   * more is being written, or when the server stops accepting data, in which case whatever is left stays in the spool
+   * for the next run.
+   */
+  private void uploadSpooledResults(UploadSpool spool) {
+    int attempts = 0;
+    while (continueSendingData()) {
+      UploadSpool.Segment segment;
+      try {
+        segment = spool.next();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      if (segment == null) {
+        return;
+      }
+
+      boolean acknowledged = false;
+      try {
+        if (!continueSendingData()) {
+          return;
+        }
+        QueryResult data = spool.read(segment);
+        rowsForCurrentTable.get().set(0);
+        HttpMethod response = uploadResultPackage(segment.getName(), data, UploadType.INCREMENTAL_QUERY_LOAD);
+        if (response != null && response.getStatusCode() == HttpStatus.SC_OK) {
+          attempts = 0;
+          ledger.acknowledge(data);
+          int rowsForTable = countSpooledRowsSent(segment.getName(), rowsForCurrentTable.get().get());
+          if (!data.wasCutShort()) {
+            info("Completed sending data for [" + segment.getName() + "] - rows for table [" + rowsForTable + "] total rows sent: " + totalRowsSent.get());
+            Long expectedRows = spooledRowsExpected.remove(segment.getName());
+            if (expectedRows != null && rowsForTable != expectedRows) {
+              error("Data for [" + segment.getName() + "] may be corrupt.  Expected [" + expectedRows + "] rows, but got [" + rowsForTable + "]");
+            }
+          } else {
+            info("Continuing to send data for [" + segment.getName() + "] - rows for table [" + rowsForTable + "] total rows sent: " + totalRowsSent.get());
+          }
+          spool.acknowledge(segment);
+          acknowledged = true;
+        } else if (response != null && response.getStatusCode() == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+          if (uploadDisabled(response) || ++attempts >= DEFAULT_MAX_ATTEMPTS_TO_SEND_RESULTS || !backOff(attempts)) {
+            return;
+          }
+        } else {
+          String message;
+          if (response == null) {
+            message = "Error sending data to server";
+          } else {
+            message = "Received server error code: " + response.getStatusCode() + " " + response.getStatusText();
+          }
+          _dataExtractor.getDataExtractorLog().error("Exiting.  " + message);
+          throw new DataExtractorServerException(message);
+        }
+      } catch (IOException e) {
+        error("Error reading from the upload spool", e);
+        return;
+      } finally {
+        if (!acknowledged) {
+          spool.release(segment);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds rows the server acknowledged to the count for the table and returns the new count.  Segments left in the
+   * spool by an earlier run start a count of their own.
+   */
+  private int countSpooledRowsSent(String table, int rows) {
+    AtomicInteger rowsSent = spooledRowsSent.get(table);
+    if (rowsSent == null) {
+      spooledRowsSent.putIfAbsent(table, new AtomicInteger());
+      rowsSent = spooledRowsSent.get(table);
+    }
+    return rowsSent.addAndGet(rows);
+  }
+
+  /**
+   * Waits before sending again after the server says it's busy, twice as long after each busy response in a row, but
+   * not past the max run time.  Returns false if the wait was interrupted.
+   */
+  private boolean backOff(int attempts) {
+    long delay = Math.min(SERVICE_UNAVAILABLE_BACKOFF << Math.min(attempts - 1, 16), MAX_SERVICE_UNAVAILABLE_BACKOFF);
+    if (enforceMaxTime) {
+      delay = Math.max(0, Math.min(delay, maxCurrentTime - System.currentTimeMillis()));
+    }
+    info("The server is busy, waiting [" + delay + "] ms before sending again");
+    try {
+      Thread.sleep(delay);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
     }
   }
 
@@ -714,7 +1481,7 @@ public class DataExtractorClient {
     try {
       info("Creating CSVFileDataSource");
       dataSource = new CSVFileDataSource(name, source, _dataExtractor);
-      rowsForCurrentTable = 0;
+      rowsForCurrentTable.get().set(0);
     } catch (IOException e) {
       error("Error reading file data source", e, false);
       return false;
@@ -730,9 +1497,9 @@ public class DataExtractorClient {
       needToRerun = false;
       if (wasNotAbleToSendEntireResultSet(sendData(dataSource, UploadType.INITIAL_CSV))) {
         needToRerun = true;
-        info("Continuing to send data for [" + name + "] - total rows sent: " + totalRowsSent);
+        info("Continuing to send data for [" + name + "] - total rows sent: " + totalRowsSent.get());
       } else {
-        info("Completed sending data for [" + name + "] - total rows sent: " + totalRowsSent);
+        info("Completed sending data for [" + name + "] - total rows sent: " + totalRowsSent.get());
       }
     }
     return true;
@@ -755,9 +1522,6 @@ public class DataExtractorClient {
    */
   // todo reconcile this with the sendData that operates on a key/value pair.
   private boolean sendData(RowDataSource dataSource, UploadType uploadType) {
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    Gson gson = gsonBuilder.create();
-
     int attempts = 0;
     QueryResult data = null;
     while (attempts++ < DEFAULT_MAX_ATTEMPTS_TO_SEND_RESULTS && continueSendingData()) {
@@ -773,68 +1537,40 @@ public class DataExtractorClient {
         error("Error reading data source", e);
         return false;
       }
-      if (data.getRowCount() == 0) return true;
+      attachIdRanges(data);
+      if (data.getRowCount() == 0 && data.getIdRanges() == null) return true;
 
-      HttpMethod response;
-      try {
-        response = sendPostRequestToServer(createQueryResultPayload(data), uploadType);
-      } catch (Exception e) {
-        error("Error sending data to server for table [" + dataSource.getName() + "]", e);
-        response = null;
-      }
-      if (response != null && response.getStatusCode() == HttpStatus.SC_OK) {
-        UploadAcknowledge acknowledgement = null;
-        String responseBody;
-        try {
-          responseBody = restoreDoubleQuotes(response.getResponseBodyAsString());
-          acknowledgement = gson.fromJson(responseBody, UploadAcknowledge.class);
-        } catch (IOException e) {
-          error("Error getting response body", e);
-        }
-        if (acknowledgement != null) {
-          if (acknowledgement.getRowsUploaded() != data.getRowCount()) {
-            // We have a problem - the server thinks we sent a different number of row than the data object
-            // believes it has.
-            // TODO: What should we do?  Continue to send more data?  Try to resend the data?  If resend, we need
-            // TODO: some way to back out whatever data got written on the server in the previous send.
-            // TODO: We could simply notify the server about the problem and let it record it so we can look
-            // TODO: it later.  Not clear what's best.
-            error("Error in data transfer - data sent had [" + data.getRowCount() + "] rows, data received [" + acknowledgement.getRowsUploaded() + "] rows");
-          }
-          totalRowsSent += acknowledgement.getRowsUploaded();
-          rowsForCurrentTable += acknowledgement.getRowsUploaded();
-          querySummary.addQueryInfo(dataSource.getName(), acknowledgement.getRowsUploaded());
+      stamp(data);
+      if (ledger.isAcknowledged(data)) {
+        // The server acknowledged this batch during an earlier attempt
+        countAcknowledgedBatch(data);
+        if (!data.wasCutShort()) {
+          return true;
         }
+        continue;
+      }
+
+      HttpMethod response = uploadResultPackage(dataSource.getName(), data, uploadType);
 
+      if (response != null && response.getStatusCode() == HttpStatus.SC_OK) {
+        ledger.acknowledge(data);
         if (!data.wasCutShort()) {
-          info("Completed sending data for [" + dataSource.getName() + "] - rows for table [" + rowsForCurrentTable + "] total rows sent: " + totalRowsSent);
+          info("Completed sending data for [" + dataSource.getName() + "] - rows for table [" + rowsForCurrentTable.get().get() + "] total rows sent: " + totalRowsSent.get());
           if (dataSource.expectedRowsKnown()) {
             // Check to see if we got the number of rows we expected.
-            if (rowsForCurrentTable != dataSource.getExpectedRows()) {
-              error("Data for [" + dataSource.getName() + "] may be corrupt.  Expected [" + dataSource.getExpectedRows() + "] rows, but got [" + rowsForCurrentTable + "]");
+            if (rowsForCurrentTable.get().get() != dataSource.getExpectedRows()) {
+              error("Data for [" + dataSource.getName() + "] may be corrupt.  Expected [" + dataSource.getExpectedRows() + "] rows, but got [" + rowsForCurrentTable.get().get() + "]");
             }
           }
           return true;
         }
 
-        info("Continuing to send data for [" + dataSource.getName() + "] - rows for table [" + rowsForCurrentTable + "] total rows sent: " + totalRowsSent);
+        info("Continuing to send data for [" + dataSource.getName() + "] - rows for table [" + rowsForCurrentTable.get().get() + "] total rows sent: " + totalRowsSent.get());
         // If the send was successful, but there is more data, continue around the loop and send
         // more data.
       } else if (response != null && response.getStatusCode() == HttpStatus.SC_SERVICE_UNAVAILABLE) {
-        UploadAcknowledge acknowledgement = null;
-        String responseBody;
-        try {
-          responseBody = restoreDoubleQuotes(response.getResponseBodyAsString());
-          acknowledgement = gson.fromJson(responseBody, UploadAcknowledge.class);
-        } catch (IOException e) {
-          error("Error getting response body", e);
-        }
-        if (acknowledgement != null) {
-          if (UPLOAD_DISABLED.equals(acknowledgement.getMessage())) {
-            info(UPLOAD_DISABLED);
-            serverAcceptingData = false;
-            return true;
-          }
+        if (uploadDisabled(response)) {
+          return true;
         }
       } else {
         String message;
@@ -874,8 +1610,7 @@ public class DataExtractorClient {
   // a row source type. The row source method has error handling that is so specific to row source types that it didn't seem worthwhile to try
   // to generify that method. So we have this rather ugly copy/paste version.
   private boolean sendData(NameValuePair[] data, int numRowsInData, UploadType uploadType) {
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    Gson gson = gsonBuilder.create();
+    Gson gson = JsonCodecs.gson();
 
     int attempts = 0;
     while (attempts++ < DEFAULT_MAX_ATTEMPTS_TO_SEND_RESULTS && continueSendingData()) {
@@ -897,7 +1632,7 @@ public class DataExtractorClient {
           error("Error getting response body", e);
         }
         if (acknowledgement != null) {
-          totalRowsSent += acknowledgement.getRowsUploaded();
+          totalRowsSent.addAndGet(acknowledgement.getRowsUploaded());
           // if all of the data has been sent successfully, return now otherwise retry that data
           if (acknowledgement.getRowsUploaded() != numRowsInData) {
             error("Data for [" + data[0] + "] may be corrupt.  Expected [" + numRowsInData + "] rows, but got [" + acknowledgement.getRowsUploaded() + "]");
@@ -934,6 +1669,132 @@ public class DataExtractorClient {
     return true;
   }
 
+  /**
+   * Sends a result package to the server and counts the rows the server acknowledges.  If the server says the
+   * package is too large, it is split in half and the halves are sent instead.  Pieces are sent in order, and we stop
+   * at the first one that doesn't succeed.  Returns the response to the last request made, or null if a request
+   * couldn't be made at all.
+   */
+  private HttpMethod uploadResultPackage(String tableName, QueryResult data, UploadType uploadType) {
+    Gson gson = JsonCodecs.gson();
+    HttpMethod response = null;
+    Deque<QueryResult> pieces = new ArrayDeque<>();
+    pieces.push(data);
+    while (!pieces.isEmpty()) {
+      QueryResult piece = pieces.pop();
+      try {
+        response = sendPostRequestToServer(createQueryResultPayload(piece), uploadType);
+      } catch (RequestTooLargeException e) {
+        batchSizer.recordRequestTooLarge(e.getPayloadSize());
+        if (piece.getRowCount() < 2) {
+          error("Error sending data to server for table [" + tableName + "] - a single row is too large to send", e);
+          response = null;
+          break;
+        }
+        info("Payload of [" + piece.getRowCount() + "] rows for [" + tableName + "] was too large, splitting it.  Byte limit is now [" + batchSizer.getMaxBytes() + "]");
+        QueryResult[] halves = splitResultPackage(piece);
+        pieces.push(halves[1]);
+        pieces.push(halves[0]);
+        continue;
+      } catch (Exception e) {
+        error("Error sending data to server for table [" + tableName + "]", e);
+        response = null;
+        break;
+      }
+      if (response.getStatusCode() != HttpStatus.SC_OK) {
+        break;
+      }
+      batchSizer.recordSuccess();
+      UploadAcknowledge acknowledgement = null;
+      String responseBody;
+      try {
+        responseBody = restoreDoubleQuotes(response.getResponseBodyAsString());
+        acknowledgement = gson.fromJson(responseBody, UploadAcknowledge.class);
+      } catch (IOException e) {
+        error("Error getting response body", e);
+      }
+      if (acknowledgement != null) {
+        if (acknowledgement.getRowsUploaded() != piece.getRowCount()) {
+          // We have a problem - the server thinks we sent a different number of row than the data object
+          // believes it has.  The batch id and content hash that went with the data let the server tell whether
+          // it had seen this batch before, so we record the problem and leave sorting out the rows to it.
+          error("Error in data transfer - data sent had [" + piece.getRowCount() + "] rows, data received [" + acknowledgement.getRowsUploaded() + "] rows");
+        }
+        totalRowsSent.addAndGet(acknowledgement.getRowsUploaded());
+        rowsForCurrentTable.get().addAndGet(acknowledgement.getRowsUploaded());
+        querySummary.addQueryInfo(tableName, acknowledgement.getRowsUploaded());
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Gives the batch its id and content hash, if the server takes them.
+   */
+  private void stamp(QueryResult data) {
+    if (protocolVersion >= DataExtractionRunner.BATCH_ID_PROTOCOL_VERSION) {
+      ledger.stamp(data);
+    }
+  }
+
+  /**
+   * Counts a batch that isn't sent again, because the server acknowledged it on an earlier attempt, as sent.
+   */
+  private void countAcknowledgedBatch(QueryResult data) {
+    totalRowsSent.addAndGet(data.getRowCount());
+    rowsForCurrentTable.get().addAndGet(data.getRowCount());
+    querySummary.addQueryInfo(data.getName(), data.getRowCount());
+  }
+
+  /**
+   * Splits a result package in two, for resending when the whole package is too large for the server.  Only the
+   * second half carries the checksum and the cut short flag of the original, since the server should only treat
+   * the data as complete once the last of the rows has arrived, and only the first carries its ranges of IDs.  Each
+   * half is identified as a part of the original batch.
+   */
+  private QueryResult[] splitResultPackage(QueryResult data) {
+    int middle = data.getRows().size() / 2;
+    QueryResult first = copyResultPackageHeader(data, data.getRows().subList(0, middle));
+    first.setWasCutShort(true);
+    first.setIdRanges(data.getIdRanges());
+    QueryResult second = copyResultPackageHeader(data, data.getRows().subList(middle, data.getRows().size()));
+    second.setWasCutShort(data.wasCutShort());
+    second.setChecksum(data.getChecksum());
+    UploadLedger.stampPart(first, data, 1);
+    UploadLedger.stampPart(second, data, 2);
+    return new QueryResult[] {first, second};
+  }
+
+  /**
+   * If the server's 503 response says uploads are turned off, notes that we should stop sending and returns true.
+   */
+  private boolean uploadDisabled(HttpMethod response) {
+    UploadAcknowledge acknowledgement = null;
+    try {
+      String responseBody = restoreDoubleQuotes(response.getResponseBodyAsString());
+      acknowledgement = JsonCodecs.gson().fromJson(responseBody, UploadAcknowledge.class);
+    } catch (IOException e) {
+      error("Error getting response body", e);
+    }
+    if (acknowledgement != null && UPLOAD_DISABLED.equals(acknowledgement.getMessage())) {
+      info(UPLOAD_DISABLED);
+      serverAcceptingData = false;
+      return true;
+    }
+    return false;
+  }
+
+  private QueryResult copyResultPackageHeader(QueryResult data, List<QueryResult.ResultRow> rows) {
+    QueryResult copy = new QueryResult();
+    copy.setName(data.getName());
+    copy.setLakeOnly(data.isLakeOnly());
+    copy.setColumns(data.getColumns());
+    copy.setQueryTime(data.getQueryTime());
+    copy.setRows(new ArrayList<>(rows));
+    copy.setRowCount(rows.size());
+    return copy;
+  }
+
   private String restoreDoubleQuotes(String response) {
     return response.replaceAll("&#034;", "\"");
   }
@@ -1079,8 +1940,12 @@ public class DataExtractorClient {
 
   private NameValuePair[] createQueryResultPayload(QueryResult queryResult) {
     NameValuePair[] result = new NameValuePair[1];
-    Gson gson = new Gson();
-    String queryResultGson = gson.toJson(queryResult);
+    String queryResultGson;
+    if (protocolVersion >= DataExtractionRunner.COLUMNAR_PROTOCOL_VERSION) {
+      queryResultGson = ColumnarQueryResult.toJson(queryResult);
+    } else {
+      queryResultGson = JsonCodecs.gson().toJson(queryResult);
+    }
     // By default, data sent over html is encoded with ISO-8859-1.  Unfortunately, that charset
     // doesn't include Japanese or any of the Chinese character sets, plus numerous others.  To
     // handle those characters, we need to use UTF-8.  So, after we turn the data into Json, we
@@ -1098,14 +1963,14 @@ public class DataExtractorClient {
 
   private NameValuePair[] createQuerySummaryPayload(QueryConnectionSummary querySummary) {
     NameValuePair[] result = new NameValuePair[1];
-    Gson gson = new Gson();
+    Gson gson = JsonCodecs.gson();
     result[0] = new NameValuePair("results", gson.toJson(querySummary));
     return result;
   }
 
   private NameValuePair[] createExceptionPayload(String message, Exception e) {
     NameValuePair[] result = new NameValuePair[1];
-    Gson gson = new Gson();
+    Gson gson = JsonCodecs.gson();
     ExtractionException exception = new ExtractionException(message, e);
     result[0] = new NameValuePair("exception", gson.toJson(exception));
     return result;
@@ -1113,7 +1978,7 @@ public class DataExtractorClient {
 
   private NameValuePair[] createLogsPayload(InputStream logFile) {
     NameValuePair[] result = new NameValuePair[1];
-    Gson gson = new Gson();
+    Gson gson = JsonCodecs.gson();
     ExtractionLog logs = new ExtractionLog(logFile);
     logs.trimToMaxSize(MAX_CHARACTERS_TO_SEND);
     result[0] = new NameValuePair("logs", gson.toJson(logs));
@@ -1122,13 +1987,13 @@ public class DataExtractorClient {
 
   private NameValuePair[] createTestToolResultsPayload(TestToolResults results) {
     NameValuePair[] result = new NameValuePair[1];
-    Gson gson = new Gson();
+    Gson gson = JsonCodecs.gson();
     result[0] = new NameValuePair("results", gson.toJson(results));
     return result;
   }
 
   private TestToolCommands unpackTestToolCommands(InputStream stream) throws IOException {
-    Gson gson = new Gson();
+    Gson gson = JsonCodecs.gson();
     TestToolCommands commands = gson.fromJson(new InputStreamReader(stream), TestToolCommands.class);
     stream.close();
     return commands;
@@ -1140,10 +2005,162 @@ public class DataExtractorClient {
       info("Checksum matches for " + queryDefinition.getName());
       return null;
     }
-    PreparedStatement statement = _dataExtractor.createPreparedStatement(queryDefinition);
+    PreparedStatement statement;
+    List<long[]> ranges = changedIdRanges(queryDefinition, checksum);
+    if (ranges != null) {
+      info("Extracting [" + ranges.size() + "] changed ranges of IDs for " + queryDefinition.getName());
+      statement = _dataExtractor.createBucketedPreparedStatement(queryDefinition, ranges);
+      idRanges.put(queryDefinition.getName(), ranges);
+    } else {
+      idRanges.remove(queryDefinition.getName());
+      statement = _dataExtractor.createPreparedStatement(queryDefinition);
+    }
     return _dataExtractor.runAQuery(statement);
   }
 
+  /**
+   * Describes where the query starts reading its table: the watermark it's run from, and the ranges of IDs it's
+   * limited to.  "" if it reads the whole table.
+   */
+  private String queryStart(QueryDefinition queryDefinition) throws SQLException {
+    StringBuilder start = new StringBuilder();
+    List<String> arguments = _dataExtractor.getPreparedStatementArguments(queryDefinition);
+    if (!arguments.isEmpty()) {
+      start.append(arguments);
+    }
+    List<long[]> ranges = idRanges.get(queryDefinition.getName());
+    if (ranges != null) {
+      for (long[] range : ranges) {
+        start.append(Arrays.toString(range));
+      }
+    }
+    return start.toString();
+  }
+
+  /**
+   * Takes the checksum of each bucket of IDs of a table whose checksum has changed, and compares them with the ones
+   * kept from when the server last got the table.  Returns the ranges of IDs whose buckets changed, or null if the
+   * whole table has to be extracted: the table can't be checksummed by buckets, the server doesn't take ranged
+   * uploads, or there are no kept checksums to compare with.  In that last case the checksums are still taken, so
+   * the next change can be compared with them.
+   */
+  private List<long[]> changedIdRanges(QueryDefinition queryDefinition, Long checksum) {
+    if (!queryDefinition.canUseBuckets() || checksum == null || bucketChecksums == null
+      || protocolVersion < DataExtractionRunner.RANGED_UPLOAD_PROTOCOL_VERSION) {
+      return null;
+    }
+    try {
+      BucketChecksums.Buckets buckets = bucketChecksums.getLayout(queryDefinition.getName(), queryDefinition.getLastChecksum());
+      boolean compare = buckets != null;
+      if (!compare) {
+        buckets = layOutBuckets(queryDefinition);
+        if (buckets == null) {
+          return null;
+        }
+      }
+      for (int i = 0; i < buckets.count(); i++) {
+        try (PreparedStatement statement = _dataExtractor.createBucketChecksumPreparedStatement(queryDefinition, buckets.low(i), buckets.high(i));
+             ResultSet resultSet = _dataExtractor.runAQuery(statement).getResultSet()) {
+          buckets.setSum(i, resultSet.next() ? resultSet.getLong(1) : 0);
+        }
+      }
+      buckets.setChecksum(checksum);
+      bucketChecksums.taken(queryDefinition.getName(), buckets);
+      if (!compare) {
+        return null;
+      }
+      List<long[]> ranges = bucketChecksums.changedRanges(queryDefinition.getName(), buckets);
+      // The table changed but no bucket did; something moved between the checksums, so don't trust them.
+      return ranges.isEmpty() ? null : ranges;
+    } catch (SQLException e) {
+      error("Error getting bucket checksums: " + queryDefinition.getBucketChecksumSQL(_dataExtractor.getDBTag(), _dataExtractor.getDB()), e, false);
+      return null;
+    }
+  }
+
+  /**
+   * Lays the buckets out over the table's IDs as they are now.  Returns null if the table is empty.
+   */
+  private BucketChecksums.Buckets layOutBuckets(QueryDefinition queryDefinition) throws SQLException {
+    try (PreparedStatement statement = _dataExtractor.createBucketRangePreparedStatement(queryDefinition);
+         ResultSet resultSet = _dataExtractor.runAQuery(statement).getResultSet()) {
+      if (!resultSet.next()) {
+        return null;
+      }
+      long min = resultSet.getLong(1);
+      if (resultSet.wasNull()) {
+        return null;
+      }
+      return BucketChecksums.Buckets.layOut(min, resultSet.getLong(2));
+    }
+  }
+
+  /**
+   * Hands the query's ranges of IDs to its first result package.
+   */
+  private void attachIdRanges(QueryResult data) {
+    List<long[]> ranges = idRanges.remove(data.getName());
+    if (ranges != null) {
+      data.setIdRanges(ranges);
+    }
+  }
+
+  /**
+   * Takes the checksums for all of the queries before any of them run, several at a time on worker connections when
+   * more than one database thread is configured, and returns the queries whose data may have changed since the
+   * server last saw it.  The checksums are kept for the rest of the run, to be sent along with the results.
+   */
+  private List<QueryDefinition> skipUnchangedQueries(List<QueryDefinition> queries) {
+    List<QueryDefinition> needChecksums = new ArrayList<>();
+    for (QueryDefinition queryDefinition : queries) {
+      if (canCalculateChecksum(queryDefinition) && !checksums.containsKey(queryDefinition.getName())) {
+        needChecksums.add(queryDefinition);
+      }
+    }
+    int threads = Math.min(_dataExtractor.getDBThreads(), needChecksums.size());
+    if (threads > 1) {
+      info("Taking checksums for [" + needChecksums.size() + "] queries");
+      ExecutorService workers = Executors.newFixedThreadPool(threads);
+      List<Future<Long>> results = new ArrayList<>();
+      try {
+        for (final QueryDefinition queryDefinition : needChecksums) {
+          results.add(workers.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws SQLException {
+              _dataExtractor.borrowDBConnection();
+              try {
+                return getChecksum(queryDefinition);
+              } finally {
+                _dataExtractor.returnDBConnection();
+              }
+            }
+          }));
+        }
+      } finally {
+        workers.shutdown();
+      }
+      for (Future<Long> result : results) {
+        try {
+          waitFor(result);
+        } catch (SQLExceptionWrapper e) {
+          // Couldn't get a connection; the checksum is taken when the query runs instead
+          error("Error getting a database connection for checksums", e.getCause(), false);
+        }
+      }
+    }
+
+    List<QueryDefinition> changed = new ArrayList<>();
+    for (QueryDefinition queryDefinition : queries) {
+      if (checksumIndicatesDataHasntChanged(queryDefinition, getChecksum(queryDefinition))) {
+        info("Checksum matches for " + queryDefinition.getName());
+        markCompleted(queryDefinition);
+      } else {
+        changed.add(queryDefinition);
+      }
+    }
+    return changed;
+  }
+
   private boolean checksumIndicatesDataHasntChanged(QueryDefinition queryDefinition, Long checksum) {
     if (queryDefinition.getLastChecksum() == null || checksum == null || checksum == 0) return false;
 
@@ -1155,20 +2172,38 @@ public class DataExtractorClient {
             queryDefinition.getChecksumSQL().length() > 5;
   }
 
-  private Long getChecksum(QueryDefinition queryDefinition) {
+  /**
+   * Returns the checksum for the query's data, running the checksum query only the first time it's asked for during
+   * the run.  A thread that asks while another is taking it waits for that one.
+   */
+  private Long getChecksum(final QueryDefinition queryDefinition) {
     if (!canCalculateChecksum(queryDefinition)) return null;
 
-    try {
-      PreparedStatement checksumSQL = _dataExtractor.createChecksumPreparedStatement(queryDefinition);
-      DataExtractor.QueryRun run = _dataExtractor.runAQuery(checksumSQL);
-      ResultSet resultSet = run.getResultSet();
+    FutureTask<Long> checksum = new FutureTask<>(new Callable<Long>() {
+      @Override
+      public Long call() {
+        return takeChecksum(queryDefinition);
+      }
+    });
+    FutureTask<Long> taken = checksums.putIfAbsent(queryDefinition.getName(), checksum);
+    if (taken == null) {
+      checksum.run();
+      taken = checksum;
+    }
+    return waitFor(taken);
+  }
+
+  private Long takeChecksum(QueryDefinition queryDefinition) {
+    Long checksum = null;
+    try (PreparedStatement checksumSQL = _dataExtractor.createChecksumPreparedStatement(queryDefinition);
+         ResultSet resultSet = _dataExtractor.runAQuery(checksumSQL).getResultSet()) {
       if (resultSet.next()) {
-        return resultSet.getLong(1);
+        checksum = resultSet.getLong(1);
       }
     } catch (SQLException sqlException) {
       error("Error getting checksum: " + queryDefinition.getChecksumSQL(_dataExtractor.getDBTag(), _dataExtractor.getDB()), sqlException);
     }
-    return null;
+    return checksum;
   }
 
 
@@ -1194,7 +2229,7 @@ public class DataExtractorClient {
     if (printFullQueries) {
       for (QueryDefinition qDef : queryDefs) {
         try {
-          _dataExtractor.getDataExtractorLog().display("query name [" + qDef.getName() + "] latest update date [" + qDef.getLatestUpdateDate() + "]", false);
+          _dataExtractor.getDataExtractorLog().display("query name [" + qDef.getName() + "] latest update date [" + qDef.getLatestUpdateDate() + "] latest update id [" + qDef.getLatestUpdateId() + "]", false);
           String query = _dataExtractor.getPreparedStatementQuery(qDef);
           _dataExtractor.getDataExtractorLog().display(query, false);
         } catch (Throwable e) {
@@ -1240,9 +2275,7 @@ public class DataExtractorClient {
   }
 
   private List<QueryDefinition> convertResponseBodyToQueryDefinitions(InputStream stream) throws IOException {
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    gsonBuilder.registerTypeAdapter(ColumnDef.class, ColumnDef.createJSONDeserializer());
-    Gson gson = gsonBuilder.create();
+    Gson gson = JsonCodecs.gson();
 
     QueryDefinitionJSON vals = gson.fromJson(new InputStreamReader(stream), QueryDefinitionJSON.class);
     stream.close();
@@ -1312,64 +2345,88 @@ public class DataExtractorClient {
     }
   }
 
-  private HttpClient getClient() {
-    // We create a new client the first time we connect, and then after that we reuse it.  This will preserve any
-    // session cookies from the first connection.
-    if (desClient == null) {
-      desClient = new HttpClient(new MultiThreadedHttpConnectionManager());
+  private synchronized HttpTransport getTransport() {
+    // We create a new transport the first time we connect, and then after that we reuse it.  This will preserve any
+    // session cookies from the first connection, and lets requests reuse open connections.
+    if (transport == null) {
+      transport = new HttpTransport(_dataExtractor.getHttpConnectionTimeout(), _dataExtractor.getHttpSocketTimeout(),
+        _dataExtractor.getHttpMaxConnectionsPerHost());
 
-//      // Try to minimize the amount of junk that httpClient writes to the log
-      Logger.getLogger("org.apache.http.wire").setLevel(Level.FINEST);
-      Logger.getLogger("org.apache.http.headers").setLevel(Level.FINEST);
-      Logger.getLogger("org.apache.commons.httpclient").setLevel(Level.FINEST);
-      Logger.getLogger("global").setLevel(Level.FINEST);
+      // Try to minimize the amount of junk that httpClient writes to the log
+      Logger.getLogger("org.apache.http.wire").setLevel(Level.WARNING);
+      Logger.getLogger("org.apache.http.headers").setLevel(Level.WARNING);
+      Logger.getLogger("org.apache.commons.httpclient").setLevel(Level.WARNING);
+      Logger.getLogger("httpclient.wire").setLevel(Level.WARNING);
 
-      addProxyInfo(desClient);
+      addProxyInfo(transport.getHttpClient());
 
       // Now set up the auth cookie
 //      String authToken = getGwAuth();
 //      Cookie cookie = new Cookie(_dataExtractor.getDomain(), "gwAuth", authToken);
 //      cookie.setPath("/");
-//      desClient.getState().addCookie(cookie);
+//      transport.getHttpClient().getState().addCookie(cookie);
     }
 
-    return desClient;
+    return transport;
   }
 
 
-  private String getAccessTokenFromOktaHub() throws Exception {
-    return DESAuthorizer.getAccessTokenFromOktaHub("scp.data_extraction_service.user",
+  private AccessTokenManager.AccessToken getAccessTokenFromOktaHub() throws Exception {
+    OAuth2AccessToken token = DESAuthorizer.getAccessTokenFromOktaHub("scp.data_extraction_service.user",
             _dataExtractor.getOktaClientId(), _dataExtractor.getOktaClientSecret(),
-            _dataExtractor.getOktaHost()).getAccessToken();
+            _dataExtractor.getOktaHost());
+    return AccessTokenManager.AccessToken.expiringIn(token.getAccessToken(), token.getExpiresIn());
+  }
+
+
+  private synchronized AccessTokenManager getTokens() {
+    if (tokens == null) {
+      tokens = new AccessTokenManager(new AccessTokenManager.TokenSource() {
+        @Override
+        public AccessTokenManager.AccessToken fetch() throws Exception {
+          return getAccessTokenFromOktaHub();
+        }
+      }, _dataExtractor.getTokenCacheFile(), _dataExtractor.getOktaClientSecret(), _dataExtractor.getOktaClientId(),
+        _dataExtractor.getOktaHost());
+    }
+    return tokens;
   }
 
 
   private void sendRequest(final HttpMethod request) {
-    HttpClient client = getClient();
+    HttpTransport transport = getTransport();
 
     DataExtractorLog log = _dataExtractor.getDataExtractorLog();
     try {
-      if (_dataExtractor.getOktaClientToken() == null) {
+      String authToken;
+      try {
+        authToken = getTokens().getToken();
+      } catch (Exception e) {
+        log.errorToLogMsgToConsole("Error: Unable to authenticate.", ExceptionUtils.getStackTrace(e));
+        throw new InvalidResponseException("Error: Unable to authenticate.");
+      }
+      int statusCode = transport.execute(request, authToken);
+
+      // The token may have been revoked, or expired early.  Get a new one and try once more.
+      if (statusCode == HttpStatus.SC_UNAUTHORIZED) {
+        log.info("Server rejected the access token, requesting a new one");
+        request.releaseConnection();
         try {
-          String authToken = getAccessTokenFromOktaHub();
-          _dataExtractor.setOktaClientToken(authToken);
+          authToken = getTokens().refresh(authToken);
         } catch (Exception e) {
           log.errorToLogMsgToConsole("Error: Unable to authenticate.", ExceptionUtils.getStackTrace(e));
           throw new InvalidResponseException("Error: Unable to authenticate.");
         }
+        statusCode = transport.execute(request, authToken);
       }
-      request.addRequestHeader("Authorization", "Bearer " + _dataExtractor.getOktaClientToken());
-      client.executeMethod(request);
-      int statusCode = request.getStatusCode();
 
       // We don't give an error for SC_SERVICE_UNAVAILABLE - that can indicate that the server is not accepting
       // requests at the moment, and will be handled higher up
       if (statusCode != HttpStatus.SC_OK && statusCode != HttpStatus.SC_SERVICE_UNAVAILABLE) {
-        unsuccessfulConnectAttempt = true;
         String statusMessage = request.getStatusText() + ": " + statusCode;
         String desResponse = "DES response: " + request.getResponseBodyAsString();
 
-        if (statusCode == HttpStatus.SC_REQUEST_TOO_LONG) {
+        if (statusCode == HttpStatus.SC_REQUEST_TOO_LONG && request instanceof PostMethod) {
           NameValuePair results = ((PostMethod)request).getParameter("results");
           int size = -1;
           if (results != null) {
@@ -1379,8 +2436,13 @@ public class DataExtractorClient {
             }
           }
           statusMessage += " payload size [" + size + "]";
+          // Data uploads can recover from this by sending smaller payloads, so it isn't reported as an error here.
+          log.info(statusMessage + " " + desResponse);
+          throw new RequestTooLargeException(statusMessage + " " + desResponse, size);
         }
 
+        unsuccessfulConnectAttempt = true;
+
         log.errorToLogMsgToConsole(statusMessage, statusMessage);
         log.errorToLogMsgToConsole(desResponse, desResponse);
 
@@ -1527,7 +2589,7 @@ public class DataExtractorClient {
     List<NameValuePair> result = new ArrayList<>();
 //    result.add(new NameValuePair("username", getUsername()));
 //    result.add(new NameValuePair("password", getCompanyPassword()));
-    result.add(new NameValuePair("version", DataExtractionRunner.PROTOCOL_VERSION.toString()));
+    result.add(new NameValuePair("version", protocolVersion.toString()));
     if (command != null) {
       result.add(new NameValuePair("command", command.toString()));
     }
@@ -1544,6 +2606,20 @@ public class DataExtractorClient {
     }
   }
 
+  // This is thrown when the server responds that the payload we sent was too large
+  private class RequestTooLargeException extends InvalidResponseException {
+    private final int payloadSize;
+
+    private RequestTooLargeException(String message, int payloadSize) {
+      super(message);
+      this.payloadSize = payloadSize;
+    }
+
+    private int getPayloadSize() {
+      return payloadSize;
+    }
+  }
+
   public class CantAccessQueryInfoException extends RuntimeException {
     private CantAccessQueryInfoException(Exception e) {
       super(e);
@@ -1572,6 +2648,29 @@ public class DataExtractorClient {
     _dataExtractor.getDataExtractorLog().error(message);
   }
 
+  // A part of a customer csv file that has been validated, and the statistics on its columns.
+  private static class ValidatedRange {
+    private final CustomerCSVFileDataSource range;
+    private final ValidationStatistics statistics;
+
+    private ValidatedRange(CustomerCSVFileDataSource range, ValidationStatistics statistics) {
+      this.range = range;
+      this.statistics = statistics;
+    }
+  }
+
+  // Carries a SQLException from a worker thread back to the thread that is waiting on it.
+  private static class SQLExceptionWrapper extends RuntimeException {
+    private SQLExceptionWrapper(SQLException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+      return (SQLException) super.getCause();
+    }
+  }
+
   private class DataExtractorServerException extends RuntimeException {
     private DataExtractorServerException(String message) {
       super(message);
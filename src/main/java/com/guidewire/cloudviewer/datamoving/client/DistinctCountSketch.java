@@ -0,0 +1,72 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+/**
+ * Estimates how many distinct values it has been given, in a fixed 4KB however many there are: a HyperLogLog with
+ * 4096 registers, whose estimate is usually within about 2% of the true count.  For small counts it falls back on
+ * counting the empty registers, which is closer, but still an estimate: two values whose hashes land in the same
+ * register are counted once.
+ * <p/>
+ * Sketches of the parts of a file can be merged into the sketch of the whole file.  Not thread safe.
+ */
+class DistinctCountSketch {
+  // The first PRECISION bits of a value's hash pick its register
+  private static final int PRECISION = 12;
+  private static final int REGISTERS = 1 << PRECISION;
+  private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+  // The most leading zeros, plus one, seen in the rest of the hashes of the values that fell in each register
+  private final byte[] registers = new byte[REGISTERS];
+
+  void add(CharSequence value) {
+    long hash = hash(value);
+    int register = (int) (hash >>> (64 - PRECISION));
+    // The bit set at the bottom caps the rank at 64 - PRECISION + 1
+    int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+    if (rank > registers[register]) {
+      registers[register] = (byte) rank;
+    }
+  }
+
+  void merge(DistinctCountSketch other) {
+    for (int i = 0; i < REGISTERS; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  long estimate() {
+    double sum = 0;
+    int emptyRegisters = 0;
+    for (byte rank : registers) {
+      sum += 1.0 / (1L << rank);
+      if (rank == 0) {
+        emptyRegisters++;
+      }
+    }
+    double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+    // While many registers are still empty, counting them is the better estimate
+    if (estimate <= 2.5 * REGISTERS && emptyRegisters > 0) {
+      estimate = REGISTERS * Math.log((double) REGISTERS / emptyRegisters);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * A 64 bit FNV-1a hash of the characters, with MurmurHash3's finalizer to spread similar values (such as ids that
+   * only differ in the last digit) across the registers.
+   */
+  static long hash(CharSequence value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
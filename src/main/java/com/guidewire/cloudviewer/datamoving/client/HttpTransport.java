@@ -0,0 +1,76 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import java.io.IOException;
+
+/**
+ * The connection to the Guidewire server that requests go out over.  It keeps a pool of persistent (keep-alive)
+ * connections, so consecutive uploads reuse the same socket and TLS session instead of handshaking every time.
+ * The pool size per host and the connect and read timeouts come from the config file; see DataExtractor.
+ * <p/>
+ * Proxy settings are applied to getHttpClient() by the caller, and the bearer token is added to each request as it's
+ * executed.
+ */
+class HttpTransport {
+  // How long a pooled connection can sit unused before we close it rather than risk the server having dropped it
+  static final long IDLE_CONNECTION_TIMEOUT = 60000;
+
+  private final MultiThreadedHttpConnectionManager connectionManager;
+  private final HttpClient httpClient;
+
+  HttpTransport(int connectionTimeout, int socketTimeout, int maxConnectionsPerHost) {
+    connectionManager = new MultiThreadedHttpConnectionManager();
+    HttpConnectionManagerParams params = connectionManager.getParams();
+    params.setConnectionTimeout(connectionTimeout);
+    params.setSoTimeout(socketTimeout);
+    params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+    params.setMaxTotalConnections(maxConnectionsPerHost * 2);
+    params.setStaleCheckingEnabled(true);
+    params.setTcpNoDelay(true);
+
+    httpClient = new HttpClient(connectionManager);
+    // Don't wait forever for a connection from the pool if every connection is busy
+    httpClient.getParams().setConnectionManagerTimeout(connectionTimeout);
+  }
+
+  /**
+   * Makes sure the pool has a connection for each of this many requests at once, so that threads sending in parallel
+   * don't wait on each other for a connection and time out.  The pool only grows; the configured size is the least.
+   */
+  synchronized void reserveConnections(int concurrentRequests) {
+    HttpConnectionManagerParams params = connectionManager.getParams();
+    if (concurrentRequests > params.getDefaultMaxConnectionsPerHost()) {
+      params.setDefaultMaxConnectionsPerHost(concurrentRequests);
+    }
+    if (concurrentRequests * 2 > params.getMaxTotalConnections()) {
+      params.setMaxTotalConnections(concurrentRequests * 2);
+    }
+  }
+
+  int getMaxConnectionsPerHost() {
+    return connectionManager.getParams().getDefaultMaxConnectionsPerHost();
+  }
+
+  HttpClient getHttpClient() {
+    return httpClient;
+  }
+
+  /**
+   * Executes the request, adding the bearer token if there is one, and returns the status code.
+   */
+  int execute(HttpMethod request, String bearerToken) throws IOException {
+    connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT);
+    if (bearerToken != null) {
+      request.setRequestHeader("Authorization", "Bearer " + bearerToken);
+    }
+    return httpClient.executeMethod(request);
+  }
+
+  void shutdown() {
+    connectionManager.shutdown();
+  }
+}
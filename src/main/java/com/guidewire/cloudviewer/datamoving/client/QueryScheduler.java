@@ -0,0 +1,217 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.google.gson.reflect.TypeToken;
+import com.guidewire.cloudviewer.datamoving.JsonCodecs;
+import com.guidewire.tools.benchmarking.QueryDefinition;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides the order the incremental queries run in, using how long each one took, and how many rows it read, in
+ * earlier runs.  The history is kept in a file in the output directory between runs.
+ * <p/>
+ * The longest queries go first, so they aren't left to start just before the max run time passes; queries that look
+ * alike go in order of how long it has been since they last finished.  When the run has a time limit, a query
+ * expected to take longer than the time that's left (a giant table) only gets a slice of it per pass, and then the
+ * next pass picks it up where it left off.  The giants take turns that way, each making some progress, and the
+ * smaller tables behind them still get their turn.
+ */
+class QueryScheduler {
+  // The shortest slice a giant table gets
+  static final long MIN_SLICE = 60 * 1000;
+  // How many passes the spare time is spread over, so that the giants take turns
+  static final int GIANT_ROUNDS = 3;
+  // Weight of the latest run when averaging a query's rows and time
+  private static final double LATEST_RUN_WEIGHT = 0.5;
+
+  // What's kept for each query between runs
+  static class History {
+    private long rows;
+    private long millis;
+    private long lastCompleted;
+
+    long getRows() {
+      return rows;
+    }
+
+    long getMillis() {
+      return millis;
+    }
+
+    long getLastCompleted() {
+      return lastCompleted;
+    }
+  }
+
+  private static final Type HISTORY_TYPE = new TypeToken<Map<String, History>>() {}.getType();
+
+  private final File historyFile;
+  private final Map<String, History> history;
+  // Rows read and time spent by each query in this run, over all of its passes
+  private final Map<String, History> thisRun = new HashMap<>();
+  private final Set<String> completed = new HashSet<>();
+  private final Map<String, Long> slices = new HashMap<>();
+
+  QueryScheduler(File historyFile) {
+    this.historyFile = historyFile;
+    history = readHistory();
+  }
+
+  /**
+   * Returns the queries in the order they should run.  For a giant query, getSlice() afterwards gives how long it may
+   * run in this pass.
+   *
+   * @param remaining milliseconds left before the max run time passes, or 0 if there's no limit
+   * @param threads the number of queries that run at once
+   */
+  synchronized List<QueryDefinition> schedule(List<QueryDefinition> queries, long remaining, int threads) {
+    List<QueryDefinition> ordered = new ArrayList<>(queries);
+    Collections.sort(ordered, new Comparator<QueryDefinition>() {
+      @Override
+      public int compare(QueryDefinition a, QueryDefinition b) {
+        int byTime = Long.compare(estimate(b.getName()), estimate(a.getName()));
+        if (byTime != 0) {
+          return byTime;
+        }
+        return Long.compare(lastCompleted(a.getName()), lastCompleted(b.getName()));
+      }
+    });
+
+    slices.clear();
+    if (remaining <= 0) {
+      return ordered;
+    }
+    List<String> giants = new ArrayList<>();
+    long spare = remaining * Math.max(1, threads);
+    for (QueryDefinition queryDefinition : ordered) {
+      long estimate = estimate(queryDefinition.getName());
+      if (estimate > remaining) {
+        giants.add(queryDefinition.getName());
+      } else {
+        spare -= estimate;
+      }
+    }
+    if (!giants.isEmpty()) {
+      long slice = Math.max(MIN_SLICE, spare / giants.size() / GIANT_ROUNDS);
+      for (String name : giants) {
+        slices.put(name, slice);
+      }
+    }
+    return ordered;
+  }
+
+  /**
+   * Returns how many milliseconds the query may run in this pass, or 0 if it can run until it's done.
+   */
+  synchronized long getSlice(String name) {
+    Long slice = slices.get(name);
+    return slice == null ? 0 : slice;
+  }
+
+  /**
+   * Records the rows read and time spent by one pass of a query.
+   */
+  synchronized void record(String name, long rows, long millis) {
+    History run = thisRun.get(name);
+    if (run == null) {
+      run = new History();
+      thisRun.put(name, run);
+    }
+    run.rows += rows;
+    run.millis += millis;
+  }
+
+  /**
+   * Records that the query's data has all been read during this run.
+   */
+  synchronized void completed(String name) {
+    completed.add(name);
+  }
+
+  /**
+   * Folds this run into the history and writes it out.  A query that finished is averaged with its earlier runs; one
+   * that didn't is expected to take at least twice what it got this time.
+   */
+  synchronized void save() throws IOException {
+    long now = System.currentTimeMillis();
+    Set<String> names = new HashSet<>(thisRun.keySet());
+    names.addAll(completed);
+    for (String name : names) {
+      History past = history.get(name);
+      if (past == null) {
+        past = new History();
+        history.put(name, past);
+      }
+      History run = thisRun.get(name);
+      if (completed.contains(name)) {
+        past.lastCompleted = now;
+        if (run != null) {
+          past.rows = average(past.rows, run.rows);
+          past.millis = average(past.millis, run.millis);
+        }
+      } else if (run != null) {
+        past.rows = Math.max(past.rows, run.rows);
+        past.millis = Math.max(past.millis, run.millis * 2);
+      }
+    }
+
+    File tempFile = new File(historyFile.getPath() + ".tmp");
+    Files.write(tempFile.toPath(), JsonCodecs.gson().toJson(history, HISTORY_TYPE).getBytes(StandardCharsets.UTF_8));
+    Files.move(tempFile.toPath(), historyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  synchronized History getHistory(String name) {
+    return history.get(name);
+  }
+
+  // Queries we know nothing about sort with the quick ones; if one turns out to be slow, it moves up next time.
+  private long estimate(String name) {
+    History past = history.get(name);
+    return past == null ? 0 : past.millis;
+  }
+
+  private long lastCompleted(String name) {
+    History past = history.get(name);
+    return past == null ? 0 : past.lastCompleted;
+  }
+
+  private static long average(long past, long latest) {
+    if (past == 0) {
+      return latest;
+    }
+    return Math.round(past * (1 - LATEST_RUN_WEIGHT) + latest * LATEST_RUN_WEIGHT);
+  }
+
+  /**
+   * Reads the history file.  A missing or damaged file just means we start over without history.
+   */
+  private Map<String, History> readHistory() {
+    if (historyFile.exists()) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(historyFile), StandardCharsets.UTF_8))) {
+        Map<String, History> read = JsonCodecs.gson().fromJson(reader, HISTORY_TYPE);
+        if (read != null) {
+          return new HashMap<>(read);
+        }
+      } catch (IOException | RuntimeException e) {
+        // Start over
+      }
+    }
+    return new HashMap<>();
+  }
+}
@@ -0,0 +1,108 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+/**
+ * Decides how large each upload batch may be.  A batch is capped both by a number of rows and by an estimate of
+ * the size of the encoded payload, so that a table of wide rows doesn't exceed what the server will accept while a
+ * table of narrow rows isn't sent a handful of bytes at a time.
+ * <p/>
+ * The row cap is the configured maximum number of rows to send, and never goes above it.  The byte cap adapts in an
+ * additive-increase/multiplicative-decrease fashion: when the server rejects a payload as too large, it drops to half
+ * the size of the rejected payload, and after a run of successful uploads it grows by a fixed step, back up to where
+ * it started.  The sizer is shared by every upload thread, so its methods are synchronized.
+ */
+class UploadBatchSizer {
+  static final int DEFAULT_MAX_BYTES_PER_POST = 4 * 1024 * 1024;
+  static final int MIN_BYTES_PER_POST = 16 * 1024;
+  static final int SUCCESSES_BEFORE_INCREASE = 4;
+
+  // Rough number of encoded characters that the json for a single cell adds around the value itself: the quotes
+  // and the separating comma, url encoded.
+  static final int ENCODED_CELL_OVERHEAD = 9;
+
+  private final int maxRows;
+  private final int byteCeiling;
+  private final int byteStep;
+
+  private int maxBytes;
+  private int consecutiveSuccesses = 0;
+
+  UploadBatchSizer(int initialRows) {
+    this(initialRows, DEFAULT_MAX_BYTES_PER_POST);
+  }
+
+  UploadBatchSizer(int initialRows, int initialBytes) {
+    maxRows = Math.max(1, initialRows);
+    maxBytes = Math.max(MIN_BYTES_PER_POST, initialBytes);
+    byteCeiling = maxBytes;
+    byteStep = Math.max(MIN_BYTES_PER_POST, maxBytes / 8);
+  }
+
+  int getMaxRows() {
+    return maxRows;
+  }
+
+  synchronized int getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return true iff a batch with the given number of rows and estimated size has reached one of the caps.
+   */
+  synchronized boolean isFull(int rows, long estimatedBytes) {
+    return rows >= maxRows || estimatedBytes >= maxBytes;
+  }
+
+  /**
+   * Records that the server accepted a batch.  Every SUCCESSES_BEFORE_INCREASE consecutive successes, the byte cap
+   * grows.
+   */
+  synchronized void recordSuccess() {
+    consecutiveSuccesses++;
+    if (consecutiveSuccesses >= SUCCESSES_BEFORE_INCREASE) {
+      consecutiveSuccesses = 0;
+      maxBytes = Math.min(byteCeiling, maxBytes + byteStep);
+    }
+  }
+
+  /**
+   * Records that the server rejected a batch as too large.
+   *
+   * @param payloadSize the size of the rejected payload, or -1 if it isn't known.
+   */
+  synchronized void recordRequestTooLarge(int payloadSize) {
+    consecutiveSuccesses = 0;
+    int rejected = payloadSize > 0 ? Math.min(payloadSize, maxBytes) : maxBytes;
+    maxBytes = Math.max(MIN_BYTES_PER_POST, rejected / 2);
+  }
+
+  /**
+   * Estimates how many characters a value will take up once it has been written as json and url encoded, which is
+   * how it goes out in the "results" parameter.  Unreserved characters go through as-is, other ascii characters
+   * become a three character escape, and anything else becomes an escape for each of its UTF-8 bytes.
+   */
+  static int estimateEncodedLength(String value) {
+    if (value == null) {
+      return ENCODED_CELL_OVERHEAD;
+    }
+    int length = ENCODED_CELL_OVERHEAD;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+          c == '.' || c == '-' || c == '_' || c == '*' || c == ' ') {
+        length += 1;
+      } else if (c < 0x80) {
+        // Control characters, quotes and backslashes are escaped in the json before being url encoded.
+        length += (c < 0x20 || c == '"' || c == '\\') ? 6 : 3;
+      } else if (c < 0x800) {
+        length += 6;
+      } else if (Character.isHighSurrogate(c)) {
+        // The low surrogate that follows is counted along with this one.
+        length += 12;
+        i++;
+      } else {
+        length += 9;
+      }
+    }
+    return length;
+  }
+}
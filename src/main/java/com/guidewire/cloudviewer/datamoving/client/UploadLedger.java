@@ -0,0 +1,152 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.guidewire.cloudviewer.datamoving.QueryResult;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Gives each batch of rows sent to the server an identity that stays the same when the batch is sent again, and
+ * remembers which batches the server has acknowledged.
+ * <p/>
+ * A batch id is made of the run id, the table, where the source started reading the table, and the batch's sequence
+ * number from that start.  There's one run id per client, so the retries DataExtractionRunner makes all share it.  A
+ * query that starts from a later watermark than an earlier pass did reads different rows, so its batches get ids of
+ * their own rather than reusing the earlier ones.  The content hash is a SHA-256 of the rows.
+ * When a file upload is retried from the start, the same rows come out as the same batches, with the same ids and
+ * hashes, so the batches the server already acknowledged are skipped, and one whose acknowledgement was lost on the
+ * way back is sent with the id the server has already seen.  If a retry batches the rows differently (the batch size
+ * came down after a 413, say) the hashes don't match, and the batches go up as new ones.
+ */
+class UploadLedger {
+  private final String runId;
+  private final Map<String, Integer> sequences = new HashMap<>();
+  // Key of where each table's source started, for the tables whose source doesn't start from the beginning
+  private final Map<String, String> starts = new HashMap<>();
+  // Content hash of each acknowledged batch, by batch id
+  private final Map<String, String> acknowledged = new HashMap<>();
+
+  UploadLedger() {
+    this(UUID.randomUUID().toString());
+  }
+
+  UploadLedger(String runId) {
+    this.runId = runId;
+  }
+
+  String getRunId() {
+    return runId;
+  }
+
+  /**
+   * Starts the table's batch numbering over, for a data source that reads the table from the beginning.
+   */
+  synchronized void startTable(String table) {
+    startTable(table, null);
+  }
+
+  /**
+   * Starts the table's batch numbering over, for a data source that reads the table from the given start, such as
+   * the watermark and ranges of IDs a query is run with.  Null or "" is the beginning of the table.  Sources read from
+   * the same start get the same batch ids.
+   */
+  synchronized void startTable(String table, String start) {
+    sequences.remove(table);
+    if (start == null || start.isEmpty()) {
+      starts.remove(table);
+    } else {
+      starts.put(table, startKey(start));
+    }
+  }
+
+  /**
+   * Gives the batch the next id for its table, and its content hash.
+   */
+  synchronized void stamp(QueryResult data) {
+    Integer previous = sequences.get(data.getName());
+    int sequence = previous == null ? 1 : previous + 1;
+    sequences.put(data.getName(), sequence);
+    String start = starts.get(data.getName());
+    data.setBatchId(runId + ":" + data.getName() + (start == null ? "" : ":" + start) + ":" + sequence);
+    data.setContentHash(contentHash(data));
+  }
+
+  /**
+   * Stamps one piece of a batch that had to be split, with the batch's id and the piece's number.
+   */
+  static void stampPart(QueryResult part, QueryResult batch, int partNumber) {
+    if (batch.getBatchId() != null) {
+      part.setBatchId(batch.getBatchId() + "." + partNumber);
+      part.setContentHash(contentHash(part));
+    }
+  }
+
+  synchronized boolean isAcknowledged(QueryResult data) {
+    return data.getBatchId() != null && data.getContentHash().equals(acknowledged.get(data.getBatchId()));
+  }
+
+  synchronized void acknowledge(QueryResult data) {
+    if (data.getBatchId() != null) {
+      acknowledged.put(data.getBatchId(), data.getContentHash());
+    }
+  }
+
+  /**
+   * Hashes the table name and the rows.  Each value goes in with its length in front, so that moving characters from
+   * one value to the next changes the hash.
+   */
+  static String contentHash(QueryResult data) {
+    MessageDigest digest = sha256();
+    ByteBuffer length = ByteBuffer.allocate(4);
+    update(digest, length, data.getName());
+    if (data.getRows() != null) {
+      for (QueryResult.ResultRow row : data.getRows()) {
+        length.clear();
+        digest.update(length.putInt(row.getResults().size()).array());
+        for (String value : row.getResults()) {
+          update(digest, length, value);
+        }
+      }
+    }
+    return hex(digest.digest(), 32);
+  }
+
+  /**
+   * A short hash of where a source starts, to go in its batch ids.
+   */
+  static String startKey(String start) {
+    return hex(sha256().digest(start.getBytes(StandardCharsets.UTF_8)), 8);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private static String hex(byte[] bytes, int length) {
+    StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      hex.append(String.format("%02x", bytes[i]));
+    }
+    return hex.toString();
+  }
+
+  private static void update(MessageDigest digest, ByteBuffer length, String value) {
+    length.clear();
+    if (value == null) {
+      digest.update(length.putInt(-1).array());
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    digest.update(length.putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+}
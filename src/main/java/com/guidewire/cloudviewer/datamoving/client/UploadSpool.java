@@ -0,0 +1,255 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.guidewire.cloudviewer.datamoving.JsonCodecs;
+import com.guidewire.cloudviewer.datamoving.QueryResult;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An on-disk queue of result packages waiting to be uploaded.  The database side appends each package as it is read,
+ * so it can get through the result set and release the cursor without waiting on the server, and the upload side
+ * takes packages off in the order they were written.  Several threads can upload at once; each table's packages are
+ * still handed out one at a time and in order, since the server treats the last package of a table as the end of it.
+ * <p/>
+ * Each package is written to its own segment file.  A commit log records when a segment has been completely written
+ * and when the server has acknowledged it, so if a run ends early (the max run time passes, the server goes away, the
+ * process is killed) the next run picks up with the first segment that wasn't acknowledged.  A segment file without a
+ * matching entry in the log was never completely written and is thrown away.
+ */
+class UploadSpool {
+  static final String COMMIT_LOG = "commit.log";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".json";
+  private static final String WRITTEN = "WRITTEN";
+  private static final String ACKNOWLEDGED = "ACKED";
+
+  private final File directory;
+  private final File commitLogFile;
+  private final Deque<Segment> pending = new ArrayDeque<>();
+  private final Set<String> tablesInFlight = new HashSet<>();
+  private long nextSequence = 1;
+  private boolean writing = false;
+
+  UploadSpool(File directory) throws IOException {
+    this.directory = directory;
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Cannot create spool directory [" + directory.getAbsolutePath() + "]");
+    }
+    commitLogFile = new File(directory, COMMIT_LOG);
+    recover();
+  }
+
+  /**
+   * A result package in the spool.
+   */
+  static class Segment {
+    private final long sequence;
+    private final String name;
+    private final int rows;
+    private final File file;
+
+    private Segment(long sequence, String name, int rows, File file) {
+      this.sequence = sequence;
+      this.name = name;
+      this.rows = rows;
+      this.file = file;
+    }
+
+    long getSequence() {
+      return sequence;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    int getRows() {
+      return rows;
+    }
+  }
+
+  /**
+   * Marks the start of a run of appends.  Until finishWriting() is called, next() waits for more segments rather
+   * than reporting that the spool is empty.
+   */
+  synchronized void startWriting() {
+    writing = true;
+  }
+
+  synchronized void finishWriting() {
+    writing = false;
+    notifyAll();
+  }
+
+  /**
+   * Writes the package to a new segment and records it in the commit log.  When this returns, the package will
+   * survive the process going away.
+   */
+  Segment append(QueryResult result) throws IOException {
+    long sequence;
+    synchronized (this) {
+      sequence = nextSequence++;
+    }
+    File segmentFile = segmentFile(sequence);
+    File tempFile = new File(directory, segmentFile.getName() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tempFile)) {
+      Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+      JsonCodecs.gson().toJson(result, QueryResult.class, writer);
+      writer.flush();
+      out.getFD().sync();
+    }
+    Files.move(tempFile.toPath(), segmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    Segment segment = new Segment(sequence, result.getName(), result.getRowCount(), segmentFile);
+    synchronized (this) {
+      appendToCommitLog(WRITTEN + "\t" + sequence + "\t" + segment.rows + "\t" + segment.name);
+      pending.addLast(segment);
+      notifyAll();
+    }
+    return segment;
+  }
+
+  /**
+   * Returns the oldest segment that hasn't been acknowledged and whose table doesn't already have a segment being
+   * uploaded, waiting if there isn't one yet.  The segment stays in the spool until it is acknowledged, or released to
+   * be handed out again.  Returns null once the spool is empty and nothing more is being written.
+   */
+  synchronized Segment next() throws InterruptedException {
+    while (true) {
+      for (Segment segment : pending) {
+        if (!tablesInFlight.contains(segment.name)) {
+          tablesInFlight.add(segment.name);
+          return segment;
+        }
+      }
+      if (pending.isEmpty() && !writing) {
+        return null;
+      }
+      wait();
+    }
+  }
+
+  /**
+   * Gives back a segment from next() that wasn't uploaded, so that it can be handed out again.
+   */
+  synchronized void release(Segment segment) {
+    tablesInFlight.remove(segment.name);
+    notifyAll();
+  }
+
+  QueryResult read(Segment segment) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segment.file), StandardCharsets.UTF_8))) {
+      return JsonCodecs.gson().fromJson(reader, QueryResult.class);
+    }
+  }
+
+  /**
+   * Records that the server has the segment's data.  Once nothing is pending, the commit log is cleared so it doesn't
+   * grow from run to run.
+   */
+  synchronized void acknowledge(Segment segment) throws IOException {
+    appendToCommitLog(ACKNOWLEDGED + "\t" + segment.sequence);
+    pending.remove(segment);
+    tablesInFlight.remove(segment.name);
+    notifyAll();
+    if (!segment.file.delete() && segment.file.exists()) {
+      throw new IOException("Cannot delete spool segment [" + segment.file.getAbsolutePath() + "]");
+    }
+    if (pending.isEmpty() && !writing) {
+      Files.deleteIfExists(commitLogFile.toPath());
+      nextSequence = 1;
+    }
+  }
+
+  synchronized int pendingCount() {
+    return pending.size();
+  }
+
+  synchronized int pendingRows() {
+    int rows = 0;
+    for (Segment segment : pending) {
+      rows += segment.rows;
+    }
+    return rows;
+  }
+
+  File getDirectory() {
+    return directory;
+  }
+
+  private File segmentFile(long sequence) {
+    return new File(directory, String.format("%s%012d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+  }
+
+  private void appendToCommitLog(String line) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(commitLogFile, true)) {
+      out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+      out.getFD().sync();
+    }
+  }
+
+  /**
+   * Rebuilds the list of pending segments from the commit log.  A line cut off by a crash is ignored, as is any
+   * segment file the log doesn't know about.
+   */
+  private void recover() throws IOException {
+    Map<Long, Segment> written = new TreeMap<>();
+    if (commitLogFile.exists()) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(commitLogFile), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] fields = line.split("\t", 4);
+          try {
+            long sequence = Long.parseLong(fields[1]);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (WRITTEN.equals(fields[0]) && fields.length == 4) {
+              written.put(sequence, new Segment(sequence, fields[3], Integer.parseInt(fields[2]), segmentFile(sequence)));
+            } else if (ACKNOWLEDGED.equals(fields[0])) {
+              written.remove(sequence);
+            }
+          } catch (RuntimeException e) {
+            // A partial line from a write that didn't finish
+          }
+        }
+      }
+    }
+
+    Set<String> writtenFileNames = new HashSet<>();
+    for (Segment segment : written.values()) {
+      writtenFileNames.add(segment.file.getName());
+      if (segment.file.exists()) {
+        pending.addLast(segment);
+      }
+    }
+
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().startsWith(SEGMENT_PREFIX) && !writtenFileNames.contains(file.getName())) {
+          Files.deleteIfExists(file.toPath());
+        }
+      }
+    }
+
+    if (pending.isEmpty()) {
+      Files.deleteIfExists(commitLogFile.toPath());
+      nextSequence = 1;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.google.gson.stream.JsonWriter;
+import com.guidewire.tools.benchmarking.ColumnDef;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistics on each column of a customer csv file, gathered as it's validated, so that a customer fixing their data
+ * can see which columns are the problem and what's in them rather than reading the log a bad row at a time: how many
+ * values couldn't be read and why, how many were empty, about how many distinct values there were, and the lowest and
+ * highest of the numbers and dates.
+ * <p/>
+ * It's gathered in one pass, in a fixed amount of memory for each column however long the file is.  Each part of a
+ * file validated on its own thread gathers its own, and they're merged in the order of the file.  Not thread safe.
+ */
+class ValidationStatistics {
+  // The most kinds of error counted separately for a column; any others are counted together
+  static final int MAX_ERROR_TYPES = 20;
+  static final String OTHER_ERRORS = "Other errors";
+
+  private final String name;
+  private final List<Column> columns;
+  private long rows = 0;
+  private long rowsWithErrors = 0;
+
+  ValidationStatistics(String name, List<ColumnDef> columnDefs) {
+    this.name = name;
+    columns = new ArrayList<>(columnDefs.size());
+    for (ColumnDef columnDef : columnDefs) {
+      columns.add(new Column(columnDef));
+    }
+  }
+
+  /**
+   * Counts a row that was read, once its columns have been.
+   */
+  void row(boolean hadErrors) {
+    rows++;
+    if (hadErrors) {
+      rowsWithErrors++;
+    }
+  }
+
+  /**
+   * Counts a value read from the column at index: its text, which is "" if it was empty, and the value as the column
+   * read it (see ColumnDef.getValue()), which orders the numbers and dates.
+   */
+  void value(int index, String text, Object value) {
+    columns.get(index).value(text, value);
+  }
+
+  void error(int index, Exception e) {
+    columns.get(index).error(e);
+  }
+
+  /**
+   * Adds the statistics of the next part of the file.
+   */
+  void merge(ValidationStatistics next) {
+    rows += next.rows;
+    rowsWithErrors += next.rowsWithErrors;
+    for (int i = 0; i < columns.size(); i++) {
+      columns.get(i).merge(next.columns.get(i));
+    }
+  }
+
+  long getRows() {
+    return rows;
+  }
+
+  long getRowsWithErrors() {
+    return rowsWithErrors;
+  }
+
+  Column getColumn(int index) {
+    return columns.get(index);
+  }
+
+  void write(Writer out) throws IOException {
+    JsonWriter json = new JsonWriter(out);
+    json.setIndent("  ");
+    json.beginObject();
+    json.name("name").value(name);
+    json.name("rows").value(rows);
+    json.name("rowsWithErrors").value(rowsWithErrors);
+    json.name("columns").beginArray();
+    for (Column column : columns) {
+      column.write(json);
+    }
+    json.endArray();
+    json.endObject();
+    json.flush();
+  }
+
+  /**
+   * The statistics on one column.
+   */
+  static final class Column {
+    private final String name;
+    private final String type;
+    private long values = 0;
+    private long nulls = 0;
+    private long errors = 0;
+    private final Map<String, Long> errorsByType = new TreeMap<>();
+    private final DistinctCountSketch distinctValues = new DistinctCountSketch();
+    // The lowest and highest values, and their text, for numeric and date columns; dates by their times
+    private BigDecimal min;
+    private BigDecimal max;
+    private String minText;
+    private String maxText;
+
+    private Column(ColumnDef columnDef) {
+      name = columnDef.getName();
+      type = columnDef.getType();
+    }
+
+    private void value(String text, Object value) {
+      values++;
+      if (text == null || text.isEmpty()) {
+        nulls++;
+        return;
+      }
+      distinctValues.add(text);
+      BigDecimal ordered = orderedValue(value);
+      if (ordered != null) {
+        range(ordered, text, ordered, text);
+      }
+    }
+
+    /**
+     * The number to order a value by: a number's value, or a date's time.  Null for other values.
+     */
+    private static BigDecimal orderedValue(Object value) {
+      if (value instanceof BigDecimal) {
+        return (BigDecimal) value;
+      } else if (value instanceof Long || value instanceof Integer) {
+        return BigDecimal.valueOf(((Number) value).longValue());
+      } else if (value instanceof Date) {
+        return BigDecimal.valueOf(((Date) value).getTime());
+      }
+      return null;
+    }
+
+    private void range(BigDecimal low, String lowText, BigDecimal high, String highText) {
+      if (min == null || low.compareTo(min) < 0) {
+        min = low;
+        minText = lowText;
+      }
+      if (max == null || high.compareTo(max) > 0) {
+        max = high;
+        maxText = highText;
+      }
+    }
+
+    private void error(Exception e) {
+      values++;
+      errors++;
+      String errorType = errorType(e);
+      if (!errorsByType.containsKey(errorType) && errorsByType.size() >= MAX_ERROR_TYPES) {
+        errorType = OTHER_ERRORS;
+      }
+      Long count = errorsByType.get(errorType);
+      errorsByType.put(errorType, count == null ? 1 : count + 1);
+    }
+
+    private void merge(Column next) {
+      values += next.values;
+      nulls += next.nulls;
+      errors += next.errors;
+      for (Map.Entry<String, Long> errorType : next.errorsByType.entrySet()) {
+        String key = errorType.getKey();
+        if (!errorsByType.containsKey(key) && errorsByType.size() >= MAX_ERROR_TYPES) {
+          key = OTHER_ERRORS;
+        }
+        Long count = errorsByType.get(key);
+        errorsByType.put(key, count == null ? errorType.getValue() : count + errorType.getValue());
+      }
+      distinctValues.merge(next.distinctValues);
+      if (next.min != null) {
+        range(next.min, next.minText, next.max, next.maxText);
+      }
+    }
+
+    long getValues() {
+      return values;
+    }
+
+    long getNulls() {
+      return nulls;
+    }
+
+    long getErrors() {
+      return errors;
+    }
+
+    Map<String, Long> getErrorsByType() {
+      return errorsByType;
+    }
+
+    /**
+     * An estimate of the number of distinct values; see DistinctCountSketch.
+     */
+    long getDistinctValues() {
+      return distinctValues.estimate();
+    }
+
+    String getMin() {
+      return minText;
+    }
+
+    String getMax() {
+      return maxText;
+    }
+
+    private void write(JsonWriter json) throws IOException {
+      json.beginObject();
+      json.name("name").value(name);
+      json.name("type").value(type);
+      json.name("values").value(values);
+      json.name("nulls").value(nulls);
+      json.name("nullRate").value(values == 0 ? BigDecimal.ZERO : BigDecimal.valueOf(nulls).divide(BigDecimal.valueOf(values), 4, RoundingMode.HALF_UP));
+      json.name("errors").value(errors);
+      json.name("errorsByType").beginObject();
+      for (Map.Entry<String, Long> errorType : errorsByType.entrySet()) {
+        json.name(errorType.getKey()).value(errorType.getValue());
+      }
+      json.endObject();
+      json.name("distinctValues").value(getDistinctValues());
+      if (minText != null) {
+        json.name("min").value(minText);
+        json.name("max").value(maxText);
+      }
+      json.endObject();
+    }
+
+    /**
+     * The kind of error, for counting: its message up to the value it's about ("Unparseable number: ..."), or the
+     * whole message if it doesn't name the value ("Null value found for required field ...").
+     */
+    static String errorType(Exception e) {
+      String message = e.getMessage();
+      if (message == null || message.isEmpty()) {
+        return e.getClass().getSimpleName();
+      }
+      int end = message.indexOf(':');
+      return end > 0 ? message.substring(0, end) : message;
+    }
+  }
+}
@@ -43,4 +43,16 @@ public class BitColumn extends IntegerColumn {
       return Boolean.parseBoolean(result) ? "1" : "0";
     }
   }
+
+  // A bit is read as its text, "1" or "0", since it may be a boolean rather than a number
+  @Override
+  public Object getValue(RowDataSource row) throws SQLException, ParseException {
+    String result = getOutputResults(row);
+    return result.isEmpty() ? null : result;
+  }
+
+  @Override
+  public String formatValue(Object value) {
+    return value == null ? "" : (String) value;
+  }
 }
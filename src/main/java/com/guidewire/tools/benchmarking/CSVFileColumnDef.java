@@ -8,6 +8,7 @@ import com.google.gson.JsonParseException;
 import com.guidewire.cloudviewer.datamoving.RowDataSource;
 
 import java.lang.reflect.Type;
+import java.math.BigDecimal;
 import java.security.InvalidParameterException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -22,7 +23,6 @@ import java.util.Date;
  * column names to the column that we expect to have.
  */
 public class CSVFileColumnDef extends ColumnDef {
-  private final transient String stringReplacementRegex = "[_\\s]";
   protected ColumnStatus columnStatus; // Is the column required in all csv  files?
   protected String alias; // The set of names that we will accept in the header line of the file as being the name of this column
   protected ColumnDef actualColumnDef;  // the column def that stores the name, data type and optional format string
@@ -49,6 +49,11 @@ public class CSVFileColumnDef extends ColumnDef {
     actualColumnDef = ColumnDef.createDefinition(type, name, dateFormat);
   }
 
+  @Override
+  public CSVFileColumnDef copy() {
+    return new CSVFileColumnDef(getName(), getType(), getFormatString(), getAlias(), getColumnStatus());
+  }
+
   @Override
   public String getOutputResults(ResultSet row) throws SQLException {
     return actualColumnDef.getOutputResults(row);
@@ -59,6 +64,16 @@ public class CSVFileColumnDef extends ColumnDef {
     return actualColumnDef.getOutputResults(row);
   }
 
+  @Override
+  public Object getValue(RowDataSource row) throws SQLException, ParseException {
+    return actualColumnDef.getValue(row);
+  }
+
+  @Override
+  public String formatValue(Object value) {
+    return actualColumnDef.formatValue(value);
+  }
+
   @Override
   public String getDBColumnType() {
     return actualColumnDef.getDBColumnType();
@@ -83,7 +98,7 @@ public class CSVFileColumnDef extends ColumnDef {
   }
 
   private void setAlias(String value) {
-    alias = value.replaceAll(stringReplacementRegex, "");
+    alias = withoutSeparators(value);
   }
 
   @Override
@@ -123,12 +138,24 @@ public class CSVFileColumnDef extends ColumnDef {
     return actualColumnDef.getInt(val);
   }
 
+  @Override
+  public Long getLong(String val) throws ParseException {
+    val = trimAndValidateRequiredFieldValue(val);
+    return actualColumnDef.getLong(val);
+  }
+
   @Override
   public Double getDouble(String val) throws ParseException {
     val = trimAndValidateRequiredFieldValue(val);
     return actualColumnDef.getDouble(val);
   }
 
+  @Override
+  public BigDecimal getBigDecimal(String val) throws ParseException {
+    val = trimAndValidateRequiredFieldValue(val);
+    return actualColumnDef.getBigDecimal(val);
+  }
+
   @Override
   public Timestamp getTimestamp(String val) throws ParseException {
     val = trimAndValidateRequiredFieldValue(val);
@@ -186,21 +213,51 @@ public class CSVFileColumnDef extends ColumnDef {
     if (nameToTest == null) {
       return false;
     }
-
-    // Remove whitespace and _ characters
-    String toTest = nameToTest.replaceAll(stringReplacementRegex, "");
-    String columnDefNameToTest = actualColumnDef.getName().replaceAll(stringReplacementRegex, "");
-    return columnDefNameToTest.equalsIgnoreCase(toTest);
+    return matchingKey(actualColumnDef.getName()).equals(matchingKey(nameToTest));
   }
 
   public boolean aliasMatches(String nameToTest) {
     if (nameToTest == null) {
       return false;
     }
+    return matchingKey(alias).equals(matchingKey(nameToTest));
+  }
 
-    // Remove whitespace and _ characters
-    String toTest = nameToTest.replaceAll(stringReplacementRegex, "");
-    return alias.equalsIgnoreCase(toTest);
+  /**
+   * Returns the name as it's matched against the names and aliases of columns: without whitespace and _ characters, and
+   * with each character in one case, so that two names have the same key iff they're equal ignoring case once the
+   * whitespace and _ characters are removed.
+   */
+  static String matchingKey(String name) {
+    String withoutSeparators = withoutSeparators(name);
+    StringBuilder key = null;
+    for (int i = 0; i < withoutSeparators.length(); i++) {
+      char c = withoutSeparators.charAt(i);
+      // The characters String.equalsIgnoreCase() treats as equal all come to the same one this way
+      char folded = Character.toLowerCase(Character.toUpperCase(c));
+      if (folded != c && key == null) {
+        key = new StringBuilder(withoutSeparators.length()).append(withoutSeparators, 0, i);
+      }
+      if (key != null) {
+        key.append(folded);
+      }
+    }
+    return key == null ? withoutSeparators : key.toString();
+  }
+
+  // Removes the characters the regex [_\s] matches, without a regex
+  private static String withoutSeparators(String name) {
+    StringBuilder result = null;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean separator = c == '_' || c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f' || c == '\r';
+      if (separator && result == null) {
+        result = new StringBuilder(name.length()).append(name, 0, i);
+      } else if (!separator && result != null) {
+        result.append(c);
+      }
+    }
+    return result == null ? name : result.toString();
   }
 
   protected void applyTo(CSVFileColumnDef baseColumnDef) {
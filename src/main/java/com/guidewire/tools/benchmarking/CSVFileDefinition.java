@@ -3,7 +3,7 @@ package com.guidewire.tools.benchmarking;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.guidewire.cloudviewer.datamoving.CSVFileDefinitionJSON;
-import org.apache.commons.csv.CSVRecord;
+import com.guidewire.cloudviewer.datamoving.JsonCodecs;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -13,8 +13,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -28,8 +30,13 @@ public class CSVFileDefinition {
   private String dataTableName;
   private List<CSVFileColumnDef> columnDefs;
   private transient List<String> unaliasedNamesInHeaderRowOrder;
+  // For each of getColumns(), the index of the field of the header row that holds it, or -1 if the file doesn't have it
+  private transient int[] fieldIndexesForColumns;
   private QueryDefinition queryDefinition;
   private transient Map<String, CSVFileColumnDef> columnNameToColumnDefMap = new HashMap<>();
+  // The column definitions by the matching keys (see CSVFileColumnDef.matchingKey()) of their names and aliases, built
+  // when a header row is first validated
+  private transient Map<String, CSVFileColumnDef> columnDefsByMatchingKey;
 
   public CSVFileDefinition(String dataTableName, List<CSVFileColumnDef> columnDefs) {
     this.dataTableName = dataTableName;
@@ -51,11 +58,37 @@ public class CSVFileDefinition {
     return noUnmatchedColumns && allRequiredColumns;
   }
 
-  public void parseRow( Map<String, String> columnNameToValueMap, CSVRecord row) {
-    int i = 0;
-    for (String columnName : unaliasedNamesInHeaderRowOrder) {
-      columnNameToValueMap.put(columnName, row.get(i++));
+  /**
+   * Returns, for each of getColumns(), the index of the field in the rows of the file that holds it, or -1 if the file
+   * doesn't have the column.  Set by validateHeaderRow().
+   */
+  public int[] getFieldIndexesForColumns() {
+    return fieldIndexesForColumns;
+  }
+
+  /**
+   * Returns a copy of this definition, with copies of its columns, for reading another part of the same file on another
+   * thread.  The header row it was validated against carries over to the copy.
+   */
+  public CSVFileDefinition copyForAnotherThread() {
+    CSVFileDefinition copy = new CSVFileDefinition(dataTableName);
+    copy.queryDefinition.setName(getName());
+    copy.queryDefinition.setLakeOnly(queryDefinition.isLakeOnly());
+    Map<ColumnDef, ColumnDef> columnCopies = new IdentityHashMap<>();
+    for (CSVFileColumnDef columnDef : columnDefs) {
+      CSVFileColumnDef columnCopy = columnDef.copy();
+      columnCopies.put(columnDef, columnCopy);
+      copy.columnDefs.add(columnCopy);
+      copy.columnNameToColumnDefMap.put(columnCopy.getName(), columnCopy);
     }
+    // The query's columns are either the same ones, or ones of their own
+    for (ColumnDef column : getColumns()) {
+      ColumnDef columnCopy = columnCopies.get(column);
+      copy.queryDefinition.addColumn(columnCopy != null ? columnCopy : column.copy());
+    }
+    copy.unaliasedNamesInHeaderRowOrder = unaliasedNamesInHeaderRowOrder;
+    copy.fieldIndexesForColumns = fieldIndexesForColumns;
+    return copy;
   }
 
   // getters and setters
@@ -83,6 +116,7 @@ public class CSVFileDefinition {
   public void addColumnDef(CSVFileColumnDef columnDef) {
     columnDefs.add(columnDef);
     columnNameToColumnDefMap.put(columnDef.getName(), columnDef);
+    columnDefsByMatchingKey = null;
     queryDefinition.addColumn(columnDef);
   }
 
@@ -141,7 +175,7 @@ public class CSVFileDefinition {
   // methods for unpacking the JSON into the file definition
   public static List<CSVFileDefinition> convertResponseBodyToCSVFileDefinitions(InputStream stream) {
     GsonBuilder gsonBuilder = new GsonBuilder();
-    gsonBuilder.registerTypeAdapter(ColumnDef.class, ColumnDef.createJSONDeserializer());
+    gsonBuilder.registerTypeAdapter(ColumnDef.class, JsonCodecs.columnDefAdapter());
     gsonBuilder.registerTypeAdapter(CSVFileColumnDef.class, CSVFileColumnDef.createCSVJSONDeserializer());
     Gson gson = gsonBuilder.create();
     CSVFileDefinitionJSON vals = gson.fromJson(new InputStreamReader(stream), CSVFileDefinitionJSON.class);
@@ -167,9 +201,13 @@ public class CSVFileDefinition {
 
   // Currently only used by tests, returns the index of the column in the csv file that corresponds to the column name
   public int getColumnIndexForColumnName(String nameToFind) {
+    if (nameToFind == null) {
+      return -1;
+    }
+    String keyToFind = CSVFileColumnDef.matchingKey(nameToFind);
     int index = 0;
     for (String name : unaliasedNamesInHeaderRowOrder) {
-      if (getColumnDefForColumnName(name).nameMatches(nameToFind)) {
+      if (CSVFileColumnDef.matchingKey(name).equals(keyToFind)) {
         return index;
       }
       index++;
@@ -187,6 +225,7 @@ public class CSVFileDefinition {
     for (CSVFileColumnDef columnDef : columnDefs) {
         columnNameToColumnDefMap.put(columnDef.getName(), columnDef);
     }
+    columnDefsByMatchingKey = null;
   }
 
   private void setQueryDefinition(String dataTableName) {
@@ -244,11 +283,18 @@ public class CSVFileDefinition {
   private boolean convertAliasesToNames(Map<String, Integer> columnNames, DataExtractor extractor) {
     boolean noUnmatchedColumns = true;
     unaliasedNamesInHeaderRowOrder = new ArrayList<>(columnNames.size());
+    fieldIndexesForColumns = new int[getColumns().size()];
+    Arrays.fill(fieldIndexesForColumns, -1);
+    Map<String, Integer> columnIndexes = indexColumnsByName();
     StringBuilder unmatchedColumnsError = new StringBuilder();
     for (Map.Entry<String, Integer> columnName : columnNames.entrySet()) {
       CSVFileColumnDef columnDefForNameOrAlias = findColumnDefForNameOrAlias(columnName.getKey(), unmatchedColumnsError);
       if (columnDefForNameOrAlias != null) {
         unaliasedNamesInHeaderRowOrder.add(columnDefForNameOrAlias.getName());
+        Integer columnIndex = columnIndexes.get(columnDefForNameOrAlias.getName());
+        if (columnIndex != null) {
+          fieldIndexesForColumns[columnIndex] = columnName.getValue();
+        }
       } else {
         noUnmatchedColumns = false;
         if (unmatchedColumnsError.length() > 0) {
@@ -267,11 +313,43 @@ public class CSVFileDefinition {
     return noUnmatchedColumns;
   }
 
+  // The index in getColumns() of each column, by name; the first, if two have the same name
+  private Map<String, Integer> indexColumnsByName() {
+    List<ColumnDef> columns = getColumns();
+    Map<String, Integer> columnIndexes = new HashMap<>(columns.size() * 2);
+    for (int i = 0; i < columns.size(); i++) {
+      if (!columnIndexes.containsKey(columns.get(i).getName())) {
+        columnIndexes.put(columns.get(i).getName(), i);
+      }
+    }
+    return columnIndexes;
+  }
+
+  // A header matches the first column definition whose name or alias it matches, so the first one with a key keeps it
+  private Map<String, CSVFileColumnDef> getColumnDefsByMatchingKey() {
+    if (columnDefsByMatchingKey == null) {
+      Map<String, CSVFileColumnDef> byMatchingKey = new HashMap<>(columnDefs.size() * 4);
+      for (CSVFileColumnDef columnDef : columnDefs) {
+        String nameKey = CSVFileColumnDef.matchingKey(columnDef.getName());
+        if (!byMatchingKey.containsKey(nameKey)) {
+          byMatchingKey.put(nameKey, columnDef);
+        }
+        String aliasKey = CSVFileColumnDef.matchingKey(columnDef.getAlias());
+        if (!byMatchingKey.containsKey(aliasKey)) {
+          byMatchingKey.put(aliasKey, columnDef);
+        }
+      }
+      columnDefsByMatchingKey = byMatchingKey;
+    }
+    return columnDefsByMatchingKey;
+  }
+
   private CSVFileColumnDef findColumnDefForNameOrAlias(String columnName, StringBuilder unmatchedColumnsError) {
-    for (CSVFileColumnDef columnDef : columnDefs) {
-      if (columnDef.nameMatches(columnName) ||
-              columnDef.aliasMatches(columnName))
+    if (columnName != null) {
+      CSVFileColumnDef columnDef = getColumnDefsByMatchingKey().get(CSVFileColumnDef.matchingKey(columnName));
+      if (columnDef != null) {
         return columnDef;
+      }
     }
     if (unmatchedColumnsError.length() == 0) {
       unmatchedColumnsError = new StringBuilder("The file contains columns that are not recognized for this filetype : ");
@@ -37,8 +37,7 @@ public class CSVFileDefinitionModifier {
   private List<CSVFileColumnDef> copyBaseDefColumns(CSVFileDefinition baseDefinition) {
     List<CSVFileColumnDef> newColumnDefs = new ArrayList<CSVFileColumnDef>(baseDefinition.getColumnDefs().size());
     for (CSVFileColumnDef baseColumnDef : baseDefinition.getColumnDefs()) {
-      newColumnDefs.add(new CSVFileColumnDef(baseColumnDef.getName(), baseColumnDef.getType(), baseColumnDef.getFormatString(),
-              baseColumnDef.getAlias(), baseColumnDef.getColumnStatus()));
+      newColumnDefs.add(baseColumnDef.copy());
     }
     return newColumnDefs;
   }
@@ -1,13 +1,8 @@
 package com.guidewire.tools.benchmarking;
 
 import com.guidewire.cloudviewer.datamoving.RowDataSource;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
 
-import java.lang.reflect.Type;
+import java.math.BigDecimal;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -84,6 +79,21 @@ public abstract class ColumnDef {
   public abstract String getOutputResults(ResultSet row) throws SQLException;
   public abstract String getOutputResults(RowDataSource row) throws SQLException, ParseException;
 
+  /**
+   * Reads the column's value from the row as the column types it - a Long for integer columns, a BigDecimal for
+   * decimals, a Date for dates and a Timestamp for datetimes - and as its text for the others.  Returns null for a null
+   * value.  formatValue() gives the text getOutputResults() would have, so that when both are wanted the value is only
+   * read once.
+   */
+  public Object getValue(RowDataSource row) throws SQLException, ParseException {
+    String result = getOutputResults(row);
+    return result == null || result.isEmpty() ? null : result;
+  }
+
+  public String formatValue(Object value) {
+    return value == null ? "" : (String) value;
+  }
+
   public String getName() {
     return name;
   }
@@ -120,6 +130,14 @@ public abstract class ColumnDef {
     throw new UnknownColumnTypeException("Unknown type: " + type + "; valid types are INTEGER, STRING, DATETIME, and DECIMAL");
   }
 
+  /**
+   * Returns a new column definition like this one, for use on another thread, so that nothing a column keeps while it
+   * reads values (such as the format a date column's values have been in) is shared.
+   */
+  public ColumnDef copy() {
+    return createDefinition(getType(), getName(), getFormatString());
+  }
+
   public static ColumnDef createDefinition(String type, String name) {
     return createDefinition(type, name, null);
   }
@@ -159,9 +177,15 @@ public abstract class ColumnDef {
   public Integer getInt(String val) throws ParseException {
     throw new UnsupportedOperationException("Cannot get int from this column definition");
   }
+  public Long getLong(String val) throws ParseException {
+    throw new UnsupportedOperationException("Cannot get long from this column definition");
+  }
   public Double getDouble(String val) throws ParseException {
     throw new UnsupportedOperationException("Cannot get double from this column definition");
   }
+  public BigDecimal getBigDecimal(String val) throws ParseException {
+    throw new UnsupportedOperationException("Cannot get decimal from this column definition");
+  }
   public Timestamp getTimestamp(String s) throws ParseException {
     throw new UnsupportedOperationException("Cannot get timestamp from this column definition");
   }
@@ -196,27 +220,4 @@ public abstract class ColumnDef {
       super(s);
     }
   }
-
-  public static ColumnDefDeserializer createJSONDeserializer() {
-    return new ColumnDefDeserializer();
-  }
-
-  public static class ColumnDefDeserializer implements JsonDeserializer<ColumnDef> {
-    @Override
-    public ColumnDef deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-      try {
-        JsonObject jsonObject = (JsonObject)json;
-        String type = jsonObject.get("type").getAsString();
-        String name = jsonObject.get("name").getAsString();
-        String formatting = null;
-        if (jsonObject.get("formatString") != null) {
-          formatting = ((JsonObject) json).get("formatString").getAsString();
-        }
-        return ColumnDef.createDefinition(type, name, formatting);
-      } catch (Throwable t) {
-        t.printStackTrace();
-        return null;
-      }
-    }
-  }
 }
@@ -0,0 +1,211 @@
+package com.guidewire.tools.benchmarking;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * A SimpleDateFormat pattern made only of fixed-width numeric fields (yyyy, MM, dd, HH, mm, ss and SSS), literals and
+ * an optional RFC 822 time zone (Z), compiled to read dates straight from their digits, without a Calendar and without
+ * throwing.
+ * <p/>
+ * It only reads values that are exactly the width of the pattern and that SimpleDateFormat would read the same way:
+ * anything else - a lenient month 13, a time in a daylight saving gap or overlap, a year before 1900 - isn't a match,
+ * and the caller falls back to the SimpleDateFormat.  Patterns with any other fields can't be compiled.
+ * <p/>
+ * Immutable, so it can be shared between threads.
+ */
+final class CompiledDateFormat {
+  static final long NO_MATCH = Long.MIN_VALUE;
+
+  private static final byte LITERAL = 0;
+  private static final byte YEAR = 1;
+  private static final byte MONTH = 2;
+  private static final byte DAY = 3;
+  private static final byte HOUR = 4;
+  private static final byte MINUTE = 5;
+  private static final byte SECOND = 6;
+  private static final byte MILLISECOND = 7;
+  private static final byte ZONE_SIGN = 8;
+  private static final byte ZONE_HOUR = 9;
+  private static final byte ZONE_MINUTE = 10;
+
+  private static final String FIELD_LETTERS = "yMdHmsSZ";
+  private static final int[] FIELD_WIDTHS = {4, 2, 2, 2, 2, 2, 3, 1};
+
+  // What's at each position of a matching value, and the literal characters
+  private final byte[] kinds;
+  private final char[] literals;
+  private final boolean hasYear;
+  private final boolean hasMonth;
+  private final boolean hasDay;
+  private final boolean hasZone;
+  private final ZoneRules rules;
+
+  private CompiledDateFormat(byte[] kinds, char[] literals, boolean[] seen, TimeZone timeZone) {
+    this.kinds = kinds;
+    this.literals = literals;
+    hasYear = seen[YEAR - 1];
+    hasMonth = seen[MONTH - 1];
+    hasDay = seen[DAY - 1];
+    hasZone = seen[FIELD_LETTERS.indexOf('Z')];
+    rules = timeZone.toZoneId().getRules();
+  }
+
+  /**
+   * Compiles the SimpleDateFormat pattern, for values without a zone of their own in timeZone, or returns null if the
+   * pattern has fields other than the fixed-width numeric ones.
+   */
+  static CompiledDateFormat compile(String pattern, TimeZone timeZone) {
+    StringBuilder kinds = new StringBuilder();
+    StringBuilder literals = new StringBuilder();
+    boolean[] seen = new boolean[FIELD_LETTERS.length()];
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      int end = i + 1;
+      while (end < pattern.length() && pattern.charAt(end) == c) {
+        end++;
+      }
+      if (c == '\'') {
+        return null;
+      }
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+        int field = FIELD_LETTERS.indexOf(c);
+        if (field < 0 || seen[field] || end - i != FIELD_WIDTHS[field]) {
+          return null;
+        }
+        seen[field] = true;
+        if (c == 'Z') {
+          append(kinds, literals, ZONE_SIGN, 1);
+          append(kinds, literals, ZONE_HOUR, 2);
+          append(kinds, literals, ZONE_MINUTE, 2);
+        } else {
+          append(kinds, literals, (byte) (field + 1), end - i);
+        }
+      } else {
+        for (int j = i; j < end; j++) {
+          kinds.append((char) LITERAL);
+          literals.append(c);
+        }
+      }
+      i = end;
+    }
+    byte[] kindBytes = new byte[kinds.length()];
+    for (int j = 0; j < kindBytes.length; j++) {
+      kindBytes[j] = (byte) kinds.charAt(j);
+    }
+    return new CompiledDateFormat(kindBytes, literals.toString().toCharArray(), seen, timeZone);
+  }
+
+  private static void append(StringBuilder kinds, StringBuilder literals, byte kind, int width) {
+    for (int j = 0; j < width; j++) {
+      kinds.append((char) kind);
+      literals.append('\0');
+    }
+  }
+
+  /**
+   * Returns the epoch milliseconds of the value, or NO_MATCH if it isn't exactly in this format.
+   */
+  long parse(String s) {
+    if (s.length() != kinds.length) {
+      return NO_MATCH;
+    }
+    int year = 0;
+    int month = 0;
+    int day = 0;
+    int hour = 0;
+    int minute = 0;
+    int second = 0;
+    int millisecond = 0;
+    int zoneSign = 0;
+    int zoneHour = 0;
+    int zoneMinute = 0;
+    for (int i = 0; i < kinds.length; i++) {
+      char c = s.charAt(i);
+      byte kind = kinds[i];
+      if (kind == LITERAL) {
+        if (c != literals[i]) {
+          return NO_MATCH;
+        }
+        continue;
+      }
+      if (kind == ZONE_SIGN) {
+        if (c == '+') {
+          zoneSign = 1;
+        } else if (c == '-') {
+          zoneSign = -1;
+        } else {
+          return NO_MATCH;
+        }
+        continue;
+      }
+      int digit = c - '0';
+      if (digit < 0 || digit > 9) {
+        return NO_MATCH;
+      }
+      switch (kind) {
+        case YEAR:
+          year = year * 10 + digit;
+          break;
+        case MONTH:
+          month = month * 10 + digit;
+          break;
+        case DAY:
+          day = day * 10 + digit;
+          break;
+        case HOUR:
+          hour = hour * 10 + digit;
+          break;
+        case MINUTE:
+          minute = minute * 10 + digit;
+          break;
+        case SECOND:
+          second = second * 10 + digit;
+          break;
+        case MILLISECOND:
+          millisecond = millisecond * 10 + digit;
+          break;
+        case ZONE_HOUR:
+          zoneHour = zoneHour * 10 + digit;
+          break;
+        default:
+          zoneMinute = zoneMinute * 10 + digit;
+          break;
+      }
+    }
+    // SimpleDateFormat's defaults for the fields the pattern doesn't have
+    if (!hasYear) {
+      year = 1970;
+    }
+    if (!hasMonth) {
+      month = 1;
+    }
+    if (!hasDay) {
+      day = 1;
+    }
+    if (year < 1900 || month < 1 || month > 12 || day < 1 || hour > 23 || minute > 59 || second > 59
+        || zoneHour > 23 || zoneMinute > 59) {
+      return NO_MATCH;
+    }
+    LocalDate date = LocalDate.of(year, month, 1);
+    if (day > date.lengthOfMonth()) {
+      return NO_MATCH;
+    }
+    long seconds = (date.toEpochDay() + day - 1) * 86400L + hour * 3600 + minute * 60 + second;
+    if (hasZone) {
+      seconds -= zoneSign * (zoneHour * 3600 + zoneMinute * 60);
+    } else {
+      List<ZoneOffset> offsets = rules.getValidOffsets(LocalDateTime.of(year, month, day, hour, minute, second));
+      if (offsets.size() != 1) {
+        return NO_MATCH;
+      }
+      seconds -= offsets.get(0).getTotalSeconds();
+    }
+    return seconds * 1000 + millisecond;
+  }
+}
@@ -43,6 +43,7 @@ class ConfigParserHandler extends DefaultHandler {
   public static final String DATABASE_ATTR_DB_TAG = "db_tag";
   public static final String DATABASE_ATTR_ORACLE_SCHEMA = "oracle_schema";
   public static final String DATABASE_ATTR_ENCRYPT = "encrypt";
+  public static final String DATABASE_ATTR_THREADS = "threads";
 
   public static final String GUIDEWIRE_ELEMENT = "guidewire";
   public static final String GUIDEWIRE_ATTR_USERNAME = "userName";
@@ -57,6 +58,10 @@ class ConfigParserHandler extends DefaultHandler {
   public static final String GUIDEWIRE_ATTR_DOMAIN = "domain";
   public static final String GUIDEWIRE_ATTR_PASSWORD = "password";
   public static final String GUIDEWIRE_ATTR_GWAUTH = "gwAuth";
+  public static final String GUIDEWIRE_ATTR_CONNECTION_TIMEOUT = "connectionTimeout";
+  public static final String GUIDEWIRE_ATTR_SOCKET_TIMEOUT = "socketTimeout";
+  public static final String GUIDEWIRE_ATTR_MAX_CONNECTIONS_PER_HOST = "maxConnectionsPerHost";
+  public static final String GUIDEWIRE_ATTR_ENCRYPT = "encrypt";
 
   public static final String QUERY_CONFIG_FILE_ELEMENT = "query_config_file";
   public static final String QUERY_CONFIG_FILE_ATTR_NAME = "name";
@@ -163,6 +168,9 @@ class ConfigParserHandler extends DefaultHandler {
       if (attributeHelper.has(DATABASE_ATTR_ORACLE_SCHEMA)) {
         _dataExtractor.setDBTag(attributeHelper.get(DATABASE_ATTR_ORACLE_SCHEMA));
       }
+      if (attributeHelper.has(DATABASE_ATTR_THREADS)) {
+        _dataExtractor.setDBThreads(attributeHelper.get(DATABASE_ATTR_THREADS));
+      }
 
       // If the encrypt attribute is set to true, we must decrypt the DB user password
       if (attributeHelper.has(DATABASE_ATTR_ENCRYPT) && attributeHelper.get(DATABASE_ATTR_ENCRYPT).equalsIgnoreCase("true")) {
@@ -218,8 +226,23 @@ class ConfigParserHandler extends DefaultHandler {
       if (attributeHelper.has(GUIDEWIRE_ATTR_OKTA_SECRET)) {
         _dataExtractor.setOktaClientSecret(attributeHelper.get(GUIDEWIRE_ATTR_OKTA_SECRET));
       }
+      if (attributeHelper.has(GUIDEWIRE_ATTR_CONNECTION_TIMEOUT)) {
+        _dataExtractor.setHttpConnectionTimeout(attributeHelper.get(GUIDEWIRE_ATTR_CONNECTION_TIMEOUT));
+      }
+      if (attributeHelper.has(GUIDEWIRE_ATTR_SOCKET_TIMEOUT)) {
+        _dataExtractor.setHttpSocketTimeout(attributeHelper.get(GUIDEWIRE_ATTR_SOCKET_TIMEOUT));
+      }
+      if (attributeHelper.has(GUIDEWIRE_ATTR_MAX_CONNECTIONS_PER_HOST)) {
+        _dataExtractor.setHttpMaxConnectionsPerHost(attributeHelper.get(GUIDEWIRE_ATTR_MAX_CONNECTIONS_PER_HOST));
+      }
       _dataExtractor.setGuidewirePassword(attributeHelper.get(GUIDEWIRE_ATTR_PASSWORD));
       _dataExtractor.setGwAuth(attributeHelper.get(GUIDEWIRE_ATTR_GWAUTH));
+
+      // As for the database, encrypt="true" means the proxy password and the Okta client secret are encrypted
+      if (attributeHelper.has(GUIDEWIRE_ATTR_ENCRYPT) && attributeHelper.get(GUIDEWIRE_ATTR_ENCRYPT).equalsIgnoreCase("true")) {
+        _dataExtractor.decryptProxyPassword();
+        _dataExtractor.decryptOktaClientSecret();
+      }
     }
 
     else if (attributeHelper.elementEquals(QUERY_CONFIG_FILE_ELEMENT)) {
@@ -528,7 +551,8 @@ class ConfigParserHandler extends DefaultHandler {
         DATABASE_ATTR_DBTYPE,
         DATABASE_ATTR_DB_TAG,
         DATABASE_ATTR_ORACLE_SCHEMA,
-        DATABASE_ATTR_ENCRYPT);
+        DATABASE_ATTR_ENCRYPT,
+        DATABASE_ATTR_THREADS);
 
       addElementAndAttributes(map, GUIDEWIRE_ELEMENT,
         GUIDEWIRE_ATTR_USERNAME,
@@ -545,7 +569,11 @@ class ConfigParserHandler extends DefaultHandler {
         GUIDEWIRE_ATTR_GWAUTH,
         GUIDEWIRE_ATTR_OKTA_HOST,
         GUIDEWIRE_ATTR_OKTA_ID,
-        GUIDEWIRE_ATTR_OKTA_SECRET
+        GUIDEWIRE_ATTR_OKTA_SECRET,
+        GUIDEWIRE_ATTR_CONNECTION_TIMEOUT,
+        GUIDEWIRE_ATTR_SOCKET_TIMEOUT,
+        GUIDEWIRE_ATTR_MAX_CONNECTIONS_PER_HOST,
+        GUIDEWIRE_ATTR_ENCRYPT
               );
 
       addElementAndAttributes(map, QUERY_CONFIG_FILE_ELEMENT,
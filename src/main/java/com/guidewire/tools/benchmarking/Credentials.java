@@ -0,0 +1,196 @@
+package com.guidewire.tools.benchmarking;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+
+/**
+ * Holds the passwords and secrets from the config file.  Encrypted ones are decrypted in the background as soon as the
+ * parser hands them over, each on its own thread, since deriving the key for each one (PBKDF2, in
+ * DataExtractionRunner.generateSecretKey()) is what takes the time at startup.  Asking for a secret only waits if it
+ * hasn't been decrypted yet.
+ * <p/>
+ * The secrets are kept as char arrays so that clear() can wipe them; a String handed out by get() can't be wiped, but
+ * the JDBC driver, httpclient and the OAuth client all want Strings.
+ */
+class Credentials {
+  static final String DB_PASSWORD = "database password";
+  static final String PROXY_PASSWORD = "proxy password";
+  static final String OKTA_CLIENT_SECRET = "Okta client secret";
+
+  private static final int NONCE_SIZE = 12;
+  private static final int TAG_BITS = 128;
+
+  private static final ExecutorService DECRYPTION_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "credential-decryption");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * A secret as it came from the config file, and what it is once decrypted.
+   */
+  private static class Secret {
+    private final String configured;
+    private final CompletableFuture<char[]> value;
+
+    private Secret(String configured, CompletableFuture<char[]> value) {
+      this.configured = configured;
+      this.value = value;
+    }
+  }
+
+  private final DataExtractorLog _dataExtractorLog;
+  private final Map<String, Secret> secrets = new HashMap<>();
+
+  Credentials(DataExtractorLog dataExtractorLog) {
+    _dataExtractorLog = dataExtractorLog;
+  }
+
+  synchronized void set(String name, String value) {
+    remove(name);
+    if (value != null) {
+      secrets.put(name, new Secret(value, CompletableFuture.completedFuture(value.toCharArray())));
+    }
+  }
+
+  /**
+   * Starts decrypting the secret that was set, encrypted, under this name.
+   */
+  synchronized void decrypt(String name, final String phrase) {
+    Secret secret = secrets.get(name);
+    if (secret == null) {
+      return;
+    }
+    final String encrypted = secret.configured;
+    remove(name);
+    secrets.put(name, new Secret(encrypted, CompletableFuture.supplyAsync(new Supplier<char[]>() {
+      @Override
+      public char[] get() {
+        try {
+          return toChars(decryptText(phrase, encrypted));
+        } catch (GeneralSecurityException | RuntimeException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    }, DECRYPTION_EXECUTOR)));
+  }
+
+  synchronized boolean has(String name) {
+    return secrets.containsKey(name);
+  }
+
+  /**
+   * Returns the secret, waiting for it to be decrypted if need be.  One that can't be decrypted is logged, and left as
+   * it was in the config file, as it always has been.
+   */
+  String get(String name) {
+    Secret secret;
+    synchronized (this) {
+      secret = secrets.get(name);
+    }
+    if (secret == null) {
+      return null;
+    }
+    try {
+      return new String(secret.value.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return secret.configured;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause();
+      synchronized (this) {
+        if (secrets.get(name) == secret) {
+          _dataExtractorLog.info("Error decrypting " + name + ", got " + cause.getClass().getSimpleName() + " [" + cause.getLocalizedMessage() + "]");
+          set(name, secret.configured);
+        }
+      }
+      return secret.configured;
+    }
+  }
+
+  /**
+   * Wipes all of the secrets.
+   */
+  synchronized void clear() {
+    for (String name : secrets.keySet().toArray(new String[0])) {
+      remove(name);
+    }
+  }
+
+  private void remove(String name) {
+    Secret secret = secrets.remove(name);
+    if (secret != null) {
+      // One still being decrypted is wiped when it's done
+      secret.value.thenAccept(new Consumer<char[]>() {
+        @Override
+        public void accept(char[] chars) {
+          Arrays.fill(chars, '\0');
+        }
+      });
+    }
+  }
+
+  /**
+   * Encrypts the text, as for the -encrypt option: the nonce size, the nonce, and the AES/GCM cipher text, in base 64.
+   */
+  static String encryptText(String phrase, String text) throws GeneralSecurityException {
+    byte[] iv = new byte[NONCE_SIZE];
+    new SecureRandom().nextBytes(iv);
+    Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+    aes.init(Cipher.ENCRYPT_MODE, DataExtractionRunner.generateSecretKey(phrase, iv), new GCMParameterSpec(TAG_BITS, iv));
+    byte[] encrypted = aes.doFinal(text.getBytes(StandardCharsets.UTF_8));
+
+    ByteBuffer byteBuffer = ByteBuffer.allocate(4 + iv.length + encrypted.length);
+    byteBuffer.putInt(iv.length);
+    byteBuffer.put(iv);
+    byteBuffer.put(encrypted);
+    return Base64.getEncoder().encodeToString(byteBuffer.array());
+  }
+
+  /**
+   * Decrypts what encryptText() returns.
+   */
+  static byte[] decryptText(String phrase, String encrypted) throws GeneralSecurityException {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(Base64.getDecoder().decode(encrypted));
+    int nonceSize = byteBuffer.getInt();
+    if (nonceSize < 12 || nonceSize >= 16) {
+      throw new IllegalArgumentException("Nonce size is incorrect. Make sure that the incoming data is an AES encrypted file.");
+    }
+    byte[] iv = new byte[nonceSize];
+    byteBuffer.get(iv);
+    byte[] cipherBytes = new byte[byteBuffer.remaining()];
+    byteBuffer.get(cipherBytes);
+    Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
+    aes.init(Cipher.DECRYPT_MODE, DataExtractionRunner.generateSecretKey(phrase, iv), new GCMParameterSpec(TAG_BITS, iv));
+    return aes.doFinal(cipherBytes);
+  }
+
+  // Decodes the UTF-8 bytes, wiping them and anything decoded along the way
+  private static char[] toChars(byte[] bytes) {
+    CharBuffer charBuffer = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes));
+    char[] chars = Arrays.copyOfRange(charBuffer.array(), charBuffer.position(), charBuffer.limit());
+    Arrays.fill(charBuffer.array(), '\0');
+    Arrays.fill(bytes, (byte) 0);
+    return chars;
+  }
+}
@@ -11,25 +11,27 @@ import com.guidewire.tools.PropertiesUtils;
 import org.apache.commons.cli.HelpFormatter;
 import org.xml.sax.SAXException;
 
-import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static com.guidewire.tools.benchmarking.DecCommandLine.*;
 
@@ -38,6 +40,11 @@ import static com.guidewire.tools.benchmarking.DecCommandLine.*;
  * DataExtractionRunner takes in the users commands, creates the necessary objects and performs the actions for the user.
  * To execute the commands, the DER will catch exceptions and reattempt in order to get around temporary
  * conditions (DB or web maintenance, server resets, etc.)
+ * <p/>
+ * With -daemon, an on line update is done over and over in the one process, so the configuration, the connections to
+ * the server and the database, and the access token are set up once rather than on every run from cron.  Stopping the
+ * process (SIGTERM, Ctrl-C) lets the update in progress wind down as it would at the max run time, sending its
+ * summary, before the process exits.
  */
 public class DataExtractionRunner {
 
@@ -53,14 +60,35 @@ public class DataExtractionRunner {
    * This int is the version of the protocol.  Any time any object that is being shipped between the client and the
    * server changes, this version must be bumped and the server code receiving the request must handle both the new
    * version and previous versions.
+   *
+   * Version 2 sends QueryResults in the columnar format written by ColumnarQueryResult.  The client starts out at
+   * LEGACY_PROTOCOL_VERSION and only moves up once the server's client info says it accepts the newer version.
+   *
+   * Version 3 adds idRanges to a QueryResult, for a table sent by ranges of IDs: the server replaces only the rows in
+   * those ranges instead of the whole table.
+   *
+   * Version 4 adds batchId and contentHash to a QueryResult, so the server can tell a batch sent again from a new one.
    */
-  public static final Integer PROTOCOL_VERSION = 1;
+  public static final Integer PROTOCOL_VERSION = 4;
+  public static final Integer LEGACY_PROTOCOL_VERSION = 1;
+  public static final Integer COLUMNAR_PROTOCOL_VERSION = 2;
+  public static final Integer RANGED_UPLOAD_PROTOCOL_VERSION = 3;
+  public static final Integer BATCH_ID_PROTOCOL_VERSION = 4;
 
   private final DecCommandLine _decCommandLine;
   private final DataExtractor _dataExtractor;
   private final Properties _properties;
   private final DataExtractorClient _dataExtractorClient;
 
+  // How long a stopped daemon gets to finish the update in progress before the process exits anyway
+  private static final long DAEMON_STOP_TIMEOUT_MILLI = 2 * 60 * 1000;
+  // Counted down when the process is asked to stop, which also cuts short any wait between runs or retries
+  private final CountDownLatch _stopRequested = new CountDownLatch(1);
+  // Counted down once the daemon has wound down
+  private final CountDownLatch _daemonStopped = new CountDownLatch(1);
+  // The client info only needs to be sent once per process
+  private boolean _clientInfoLogged = false;
+
 
   /**
    * Constructor
@@ -149,8 +177,19 @@ public class DataExtractionRunner {
 
   /////////////////////////////////             Execution
   
+  // Keys derived by generateSecretKey(), by a digest of the password and iv, most recently used last
+  private static final int SECRET_KEYS_KEPT = 16;
+  private static final Map<String, SecretKey> _secretKeys = new LinkedHashMap<String, SecretKey>(SECRET_KEYS_KEPT, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, SecretKey> eldest) {
+      return size() > SECRET_KEYS_KEPT;
+    }
+  };
+
   /**
-   * Function to generate a 128 bit key from the given password and iv
+   * Function to generate a 128 bit key from the given password and iv.  Deriving the key is deliberately slow, so the
+   * keys are kept for the life of the process: decrypting the same secret, or the token cache, again doesn't derive it
+   * again.
    * @param password
    * @param iv
    * @return Secret key
@@ -158,10 +197,24 @@ public class DataExtractionRunner {
    * @throws InvalidKeySpecException
    */
   public static SecretKey generateSecretKey(String password, byte [] iv) throws InvalidKeySpecException, NoSuchAlgorithmException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    digest.update(password.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    String id = Base64.getEncoder().encodeToString(digest.digest(iv));
+    synchronized (_secretKeys) {
+      SecretKey secretKey = _secretKeys.get(id);
+      if (secretKey != null) {
+        return secretKey;
+      }
+    }
     KeySpec spec = new PBEKeySpec(password.toCharArray(), iv, 65536, 128); // AES-128
     SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
     byte[] key = secretKeyFactory.generateSecret(spec).getEncoded();
-    return new SecretKeySpec(key, "AES");
+    SecretKey secretKey = new SecretKeySpec(key, "AES");
+    synchronized (_secretKeys) {
+      _secretKeys.put(id, secretKey);
+    }
+    return secretKey;
   }
 
   private int execute() throws Exception{
@@ -181,36 +234,32 @@ public class DataExtractionRunner {
     if (_decCommandLine.hasOption(ENCRYPT)) {
       String toEncrypt = _decCommandLine.getOptionValue(ENCRYPT);
 
-      SecureRandom secureRandom = new SecureRandom();
-      byte[] iv = new byte[12];
-      secureRandom.nextBytes(iv);
-      SecretKey secretKey = generateSecretKey(PHRASE, iv);
-      Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
-      GCMParameterSpec parameterSpec = new GCMParameterSpec(128, iv);
-      aes.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
-      byte[] dbPasswordBytes = toEncrypt.getBytes(StandardCharsets.UTF_8);
-      byte[] encrypted = aes.doFinal(dbPasswordBytes);
-
-      ByteBuffer byteBuffer = ByteBuffer.allocate(4 + iv.length + encrypted.length);
-      byteBuffer.putInt(iv.length);
-      byteBuffer.put(iv);
-      byteBuffer.put(encrypted);
-      System.out.println("The encrypted string is [" + Base64.getEncoder().encodeToString(byteBuffer.array()) + "]");
+      System.out.println("The encrypted string is [" + Credentials.encryptText(PHRASE, toEncrypt) + "]");
       return 0;
     }
 
 
+    if (_decCommandLine.hasOption(DAEMON)) {
+      return runAsDaemon();
+    }
+    return executeWithRetries(_decCommandLine.getStartTime());
+  }
+
+
+  /**
+   * Runs the user's request, retrying after a pause if it fails, and returns the exit code.
+   */
+  private int executeWithRetries(final long startTime) throws InterruptedException {
     int exitCode = -1;
     boolean done = false;
     int retries = 0;
 
     int numberOfRetries = _decCommandLine.getNumberOfRetries();
-    final long startTime = _decCommandLine.getStartTime();
     final long maxRunTime = _decCommandLine.getMaxRunTimeMilli();
     int retryIntervalMilli = _decCommandLine.getRetryIntervalMilli();
     int retryMultiplier = _decCommandLine.getRetryMultiplier();
 
-    while (!done && retries++ < numberOfRetries) {
+    while (!done && retries++ < numberOfRetries && !stopRequested()) {
       System.out.println("Attempting to run commands.  Attempt: " + retries);
 
       DataExtractor.ExecuteResults result = execute(startTime, maxRunTime);
@@ -224,7 +273,9 @@ public class DataExtractionRunner {
           System.out.println("Maximum run time will be exceeded by waiting for another retry so halting after [" + retries + "] retries.");
           break;
         }
-        Thread.sleep(retryIntervalMilli);
+        if (_stopRequested.await(retryIntervalMilli, TimeUnit.MILLISECONDS)) {
+          break;
+        }
         retryIntervalMilli = retryIntervalMilli * retryMultiplier;
       }
     }
@@ -234,6 +285,64 @@ public class DataExtractionRunner {
   }
 
 
+  /**
+   * Does an on line update every daemon interval, measured from the start of one update to the start of the next,
+   * plus a random jitter so that many clients don't all hit the server at once.  Runs until the process is stopped,
+   * then releases the connections and returns the exit code of the last update.
+   */
+  private int runAsDaemon() throws InterruptedException {
+    if (!_decCommandLine.hasOption(ON_LINE_UPDATE)) {
+      _dataExtractor.getDataExtractorLog().error("-" + DAEMON + " is only valid with -" + ON_LINE_UPDATE);
+      _dataExtractor.getDataExtractorLog().closeLogFile();
+      return 1;
+    }
+
+    Runtime.getRuntime().addShutdownHook(new Thread("daemon-shutdown") {
+      @Override
+      public void run() {
+        System.out.println("Stopping after the update in progress");
+        _stopRequested.countDown();
+        _dataExtractorClient.stop();
+        try {
+          _daemonStopped.await(DAEMON_STOP_TIMEOUT_MILLI, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          // Exit now
+        }
+      }
+    });
+
+    long intervalMilli = _decCommandLine.getDaemonIntervalMilli();
+    long jitterMilli = _decCommandLine.getDaemonJitterMilli();
+    Random random = new Random();
+    int exitCode = 0;
+    try {
+      while (!stopRequested()) {
+        long startTime = System.currentTimeMillis();
+        _dataExtractor.getDataExtractorLog().startNextRun();
+        _dataExtractor.checkDBConnection();
+        _dataExtractorClient.startNextRun(startTime);
+        exitCode = executeWithRetries(startTime);
+
+        long wait = Math.max(0, startTime + intervalMilli - System.currentTimeMillis()) + (long) (random.nextDouble() * jitterMilli);
+        System.out.println("Next on line update in [" + (wait / 1000) + "] seconds");
+        if (_stopRequested.await(wait, TimeUnit.MILLISECONDS)) {
+          break;
+        }
+      }
+    } finally {
+      _dataExtractorClient.shutdown();
+      _dataExtractor.closeDBConnection();
+      _daemonStopped.countDown();
+    }
+    return exitCode;
+  }
+
+
+  private boolean stopRequested() {
+    return _stopRequested.getCount() == 0;
+  }
+
+
   /**
    * The main code for executing the user request.  Creates a DataExtractor and runs the appropriate command depending
    * on the command line options specified by the user.  Returns false if there was an error and the operation should
@@ -273,7 +382,10 @@ public class DataExtractionRunner {
       }
 
       // at this point we know we're going to call DES, so log the client info
-      _dataExtractorClient.logClientInfo();
+      if (!_clientInfoLogged) {
+        _dataExtractorClient.logClientInfo();
+        _clientInfoLogged = true;
+      }
 
       if (_decCommandLine.hasOption(TEST_CONNECTION)) {
         return doTestConnection();
@@ -320,10 +432,7 @@ public class DataExtractionRunner {
     int returnCode = 0;
     if (_dataExtractor.getDataExtractorLog().hasErrorMessages()) {
       returnCode = 3;
-      _dataExtractor.getDataExtractorLog().displayToStdOut("The following errors occurred during execution.  Please check the log file for more details.");
-      for (String error : _dataExtractor.getDataExtractorLog().getErrorMessages()) {
-        _dataExtractor.getDataExtractorLog().displayToStdOut("ERROR: " + error);
-      }
+      _dataExtractor.getDataExtractorLog().displayErrorSummary();
     }
     _dataExtractor.getDataExtractorLog().closeLogFile();
     DataExtractor.ExecuteResults er = _dataExtractor.new ExecuteResults();
@@ -411,6 +520,9 @@ public class DataExtractionRunner {
         return er;
       }
 
+      // The files are checked in order, and the ones before any that can't be sent are sent, several tables at once
+      Map<String, List<File>> filesByTable = new LinkedHashMap<>();
+      boolean allFilesCanBeSent = true;
       for (File f : csvFiles) {
         // Get the table name out of the file name.  We assume that the table name starts after
         // the first _ and runs until the .csv in the name.  So for a file amica_foo_bar.csv, the
@@ -418,24 +530,34 @@ public class DataExtractionRunner {
         String fileName = f.getName();
         int indexOfUnderscore = fileName.indexOf('_');
         String tableName = fileName.substring(indexOfUnderscore + 1, fileName.length() - 4);
-        if (!sendInitialCsvFile(f, tableName)) {
-          if (_dataExtractor.getDataExtractorLog().hasErrorMessages()) {
-            _dataExtractor.getDataExtractorLog().displayToStdOut("The following errors occurred during execution.  Please check the log file for more details.");
-            for (String error : _dataExtractor.getDataExtractorLog().getErrorMessages()) {
-              _dataExtractor.getDataExtractorLog().displayToStdOut(error);
-            }
-          }
-          _dataExtractor.getDataExtractorLog().closeLogFile();
-          _dataExtractorClient.sendSummary(DataExtractorClient.UploadType.INITIAL_CSV);
-          DataExtractor.ExecuteResults er = _dataExtractor.new ExecuteResults();
-          er.complete = true;
-          er.returnCode = 1;
-          return er;
+        if (!canSendInitialCsvFile(f, tableName)) {
+          allFilesCanBeSent = false;
+          break;
+        }
+        if (!filesByTable.containsKey(tableName)) {
+          filesByTable.put(tableName, new ArrayList<File>());
         }
+        filesByTable.get(tableName).add(f);
+      }
+      if (!filesByTable.isEmpty()) {
+        _dataExtractorClient.runFromFiles(filesByTable, _decCommandLine.getUploadThreads());
+      }
+
+      if (!allFilesCanBeSent) {
+        if (_dataExtractor.getDataExtractorLog().hasErrorMessages()) {
+          _dataExtractor.getDataExtractorLog().displayErrorSummary();
+        }
+        _dataExtractor.getDataExtractorLog().closeLogFile();
+        _dataExtractorClient.sendSummary(DataExtractorClient.UploadType.INITIAL_CSV);
+        DataExtractor.ExecuteResults er = _dataExtractor.new ExecuteResults();
+        er.complete = true;
+        er.returnCode = 1;
+        return er;
       }
 
       // Send the final summary.
       _dataExtractorClient.sendSummary(DataExtractorClient.UploadType.INITIAL_CSV);
+      _dataExtractor.getDataExtractorLog().displayErrorSummary();
     }
 
     DataExtractor.ExecuteResults er = _dataExtractor.new ExecuteResults();
@@ -465,10 +587,7 @@ public class DataExtractionRunner {
     int returnCode = 0;
     if (_dataExtractor.getDataExtractorLog().hasErrorMessages()) {
       returnCode = 3;
-      _dataExtractor.getDataExtractorLog().displayToStdOut("The following errors occurred during execution.  Please check the log file for more details.");
-      for (String error : _dataExtractor.getDataExtractorLog().getErrorMessages()) {
-        _dataExtractor.getDataExtractorLog().displayToStdOut(error);
-      }
+      _dataExtractor.getDataExtractorLog().displayErrorSummary();
     }
     DataExtractor.ExecuteResults er = _dataExtractor.new ExecuteResults();
     er.complete = true;
@@ -565,10 +684,7 @@ public class DataExtractionRunner {
     int returnCode = 0;
     if (_dataExtractor.getDataExtractorLog().hasErrorMessages()) {
       returnCode = 3;
-      _dataExtractor.getDataExtractorLog().displayToStdOut("The following errors occurred during execution.  Please check the log file for more details.");
-      for (String error : _dataExtractor.getDataExtractorLog().getErrorMessages()) {
-        _dataExtractor.getDataExtractorLog().displayToStdOut("ERROR: " + error);
-      }
+      _dataExtractor.getDataExtractorLog().displayErrorSummary();
     }
     _dataExtractor.getDataExtractorLog().closeLogFile();
     DataExtractor.ExecuteResults er = _dataExtractor.new ExecuteResults();
@@ -677,11 +793,23 @@ public class DataExtractionRunner {
   }
 
   private boolean sendInitialCsvFile(File csvFile, String name) throws FileNotFoundException {
+    if (!canSendInitialCsvFile(csvFile, name)) {
+      _dataExtractor.getDataExtractorLog().closeLogFile();
+      return false;
+    }
+    InputStream stream = new FileInputStream(csvFile);
+    _dataExtractorClient.runFromFile(name, stream);
+    return true;
+  }
+
+  /**
+   * Checks that a csv file for an initial upload exists, and that its name starts with the customer it's from.
+   */
+  private boolean canSendInitialCsvFile(File csvFile, String name) {
     String fileName = csvFile.getName();
     int underscoreIndex = fileName.indexOf('_');
     if (underscoreIndex == -1) {
       _dataExtractor.getDataExtractorLog().info("File [" + fileName + "] should have a customer name as a prefix.");
-      _dataExtractor.getDataExtractorLog().closeLogFile();
       return false;
     }
     String clientShortName = fileName.substring(0, underscoreIndex);
@@ -690,11 +818,8 @@ public class DataExtractionRunner {
     _dataExtractor.getDataExtractorLog().info("Sending data to [" + name + "] from csv file [" + csvFile + "]");
     if (csvFile.exists() == false) {
       _dataExtractor.getDataExtractorLog().info("File [" + fileName + "] cannot be found for csv import");
-      _dataExtractor.getDataExtractorLog().closeLogFile();
       return false;
     }
-    InputStream stream = new FileInputStream(csvFile);
-    _dataExtractorClient.runFromFile(name, stream);
     return true;
   }
 
@@ -734,7 +859,8 @@ public class DataExtractionRunner {
 
       _dataExtractor.getDataExtractorLog().info("Validating customer csv file [" + customerCsvFile.getName() + "]");
       try {
-        _dataExtractorClient.validateCustomerCsvFile(customerCSVFileDataSource);
+        // Statistics on the columns go alongside the bad file
+        _dataExtractorClient.validateCustomerCsvFile(customerCSVFileDataSource, new File(customerCsvFile.getPath().concat(".stats.json")));
       } catch (Exception e) {
         _dataExtractor.getDataExtractorLog().error("Errors found while validating csvfile");
       }
@@ -788,6 +914,7 @@ public class DataExtractionRunner {
       }
       _dataExtractorClient.sendSummary(DataExtractorClient.UploadType.CUSTOMER_CSV);
     }
+    _dataExtractor.getDataExtractorLog().displayErrorSummary();
     return createExecuteResults(returnCode);
 
   }
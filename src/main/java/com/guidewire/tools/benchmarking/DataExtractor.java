@@ -12,24 +12,18 @@ import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.lang.time.DateUtils;
 import org.xml.sax.SAXException;
 
-import javax.crypto.*;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
 import java.sql.*;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -60,6 +54,8 @@ public class DataExtractor {
   public static final String ORACLE = "oracle";
   public static final String SQLSERVER = "sqlserver";
   private static final String ORACLE_TEST_QUERY = "select 1 from dual";
+  // How long checkDBConnection() waits for the database to answer
+  private static final int DB_CONNECTION_CHECK_SECONDS = 10;
   protected static final String CLIENT_VERSION_PROPERTY = "guidewire.extractor.version";
 
   // The next set of static final objects contain the values for various fields as they are set in
@@ -74,9 +70,11 @@ public class DataExtractor {
   private static final String UNCONFIGED_GUIDEWIRE_PASSWORD = "GUIDEWIRE_PASSWORD";
 
   private Connection dbConnection = null;
+  // Connections for queries running on worker threads; see borrowDBConnection().
+  private final BlockingDeque<Connection> idleWorkerConnections = new LinkedBlockingDeque<>();
+  private final ThreadLocal<Connection> workerConnection = new ThreadLocal<>();
   private String dbURL;
   private String dbUserID;
-  private String dbUserPassword;
   private String db = "";
   private List<QueryDefinition> queries = new ArrayList<>();
   private List<CSVFileDefinition> customerFileDefinitions = new ArrayList<>();
@@ -95,6 +93,8 @@ public class DataExtractor {
 
   private DataExtractorLog _dataExtractorLog = new DataExtractorLog();
   private String _phrase;
+  // The database password, the proxy password and the Okta client secret
+  private final Credentials _credentials = new Credentials(_dataExtractorLog);
 
   private String dbTag = "";
   private String dbType = "";
@@ -106,21 +106,30 @@ public class DataExtractor {
   private String gwAuth;
   private String oktaHost;
   private String oktaClientId;
-  private String oktaClientSecret;
-  private String oktaClientToken;
 
 
   // The following set of variables is used only when the customer needs to connect through a proxy
   private String proxyHost = null;
   private String proxyPort = null;
   private String proxyUsername = null;
-  private String proxyPassword = null;
   private String proxyDomain = null;
   private int proxyAuthenticationSchema = NO_PROXY_AUTH;
   public static final int NO_PROXY_AUTH = -1;
   public static final int PROXY_AUTH_BASIC = 1;
   public static final int PROXY_AUTH_NTLM = 2;
 
+  // Settings for the pool of http connections to the Guidewire server.  Timeouts are in milliseconds.
+  public static final int DEFAULT_HTTP_CONNECTION_TIMEOUT = 30000;
+  public static final int DEFAULT_HTTP_SOCKET_TIMEOUT = 300000;
+  public static final int DEFAULT_HTTP_MAX_CONNECTIONS_PER_HOST = 4;
+  private int httpConnectionTimeout = DEFAULT_HTTP_CONNECTION_TIMEOUT;
+  private int httpSocketTimeout = DEFAULT_HTTP_SOCKET_TIMEOUT;
+  private int httpMaxConnectionsPerHost = DEFAULT_HTTP_MAX_CONNECTIONS_PER_HOST;
+
+  // How many incremental queries run at once, each on its own database connection.
+  public static final int DEFAULT_DB_THREADS = 1;
+  private int dbThreads = DEFAULT_DB_THREADS;
+
 
   // The tableNameMap maps queries to the names of the tables that they query to get their createTime
   // fields.  This allows us to construct a query to get the earliest value for the createTime field,
@@ -164,19 +173,36 @@ public class DataExtractor {
   }
 
   public String getOktaClientSecret() {
-    return oktaClientSecret;
+    return _credentials.get(Credentials.OKTA_CLIENT_SECRET);
   }
 
   public void setOktaClientSecret(String oktaClientSecret) {
-    this.oktaClientSecret = oktaClientSecret;
+    _credentials.set(Credentials.OKTA_CLIENT_SECRET, oktaClientSecret);
+  }
+
+  public void decryptOktaClientSecret() {
+    _credentials.decrypt(Credentials.OKTA_CLIENT_SECRET, _phrase);
+  }
+
+  /**
+   * The file where the Okta access token is kept between runs; see AccessTokenManager.
+   */
+  public File getTokenCacheFile() {
+    return new File(getOutputDir(), "token.cache");
   }
 
-  public String getOktaClientToken() {
-    return oktaClientToken;
+  /**
+   * The file where the rows and time each query took are kept between runs; see QueryScheduler.
+   */
+  public File getQueryHistoryFile() {
+    return new File(getOutputDir(), "query_history.json");
   }
 
-  public void setOktaClientToken(String oktaClientToken) {
-    this.oktaClientToken = oktaClientToken;
+  /**
+   * The file where the checksums of each bucket of IDs are kept between runs; see BucketChecksums.
+   */
+  public File getBucketChecksumFile() {
+    return new File(getOutputDir(), "checksum_buckets.json");
   }
 
   protected class ExecuteResults {
@@ -211,6 +237,7 @@ public class DataExtractor {
 
 
   public void finalize() {
+    _credentials.clear();
     _dataExtractorLog.closeLogFile();
   }
 
@@ -344,7 +371,7 @@ public class DataExtractor {
     if (dbUserPassword != null && dbUserPassword.equals(UNCONFIGED_DB_PASSWORD)) {
       _dataExtractorLog.error("The database password field in the config file still contains the default value.  Please check your config file to make sure it has been correctly configured.");
     }
-    this.dbUserPassword = dbUserPassword;
+    _credentials.set(Credentials.DB_PASSWORD, dbUserPassword);
   }
 
 
@@ -352,56 +379,15 @@ public class DataExtractor {
    * for testing
    */
   public String getDbUserPassword() {
-    return dbUserPassword;
+    return _credentials.get(Credentials.DB_PASSWORD);
   }
 
 
+  /**
+   * Starts decrypting the database password in the background; see Credentials.
+   */
   public void decryptDBUserPassword() {
-    if (dbUserPassword != null) {
-      byte[] passwordBytes = Base64.getDecoder().decode(dbUserPassword);
-
-      // Note that we set up the cipher before we parse the config file - this is necessary because if there is encryption, the
-      // cipher will need to be available when the parser calls for it.
-      //
-      try {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(passwordBytes);
-        int nonceSize = byteBuffer.getInt();
-        if(nonceSize < 12 || nonceSize >= 16) {
-          throw new IllegalArgumentException("Nonce size is incorrect. Make sure that the incoming data is an AES encrypted file.");
-        }
-        byte[] iv = new byte[nonceSize];
-        byteBuffer.get(iv);
-        SecretKey secretKey = DataExtractionRunner.generateSecretKey(_phrase, iv);
-        byte[] cipherBytes = new byte[byteBuffer.remaining()];
-        byteBuffer.get(cipherBytes);
-        Cipher aes = Cipher.getInstance("AES/GCM/NoPadding");
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(128, iv);
-        aes.init(Cipher.DECRYPT_MODE, secretKey, parameterSpec);
-        byte[] decryptedResult = aes.doFinal(cipherBytes);
-        dbUserPassword = new String(decryptedResult, StandardCharsets.UTF_8);
-      } catch (NoSuchAlgorithmException e) {
-        _dataExtractorLog.info("Parser Configuration error. Could not configure encryption, got NoSuchAlgorithmException [" + e.getLocalizedMessage() + "]");
-        e.printStackTrace();
-      } catch (NoSuchPaddingException e) {
-        _dataExtractorLog.info("Parser Configuration error. Could not configure encryption, got NoSuchPaddingException [" + e.getLocalizedMessage() + "]");
-        e.printStackTrace();
-      } catch (InvalidKeyException e) {
-        _dataExtractorLog.info("Parser Configuration error. Could not configure encryption got InvalidKeyException [" + e.getLocalizedMessage() + "]");
-        e.printStackTrace();
-      } catch (IllegalBlockSizeException e) {
-        _dataExtractorLog.info("Error decrypting password, got IllegalBlockSizeException [" + e.getLocalizedMessage() + "]");
-        e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
-      } catch (BadPaddingException e) {
-        _dataExtractorLog.info("Error decrypting password, got BadPaddingException [" + e.getLocalizedMessage() + "]");
-        e.printStackTrace();
-      } catch (InvalidAlgorithmParameterException e) {
-        _dataExtractorLog.info("Error decrypting password, got InvalidAlgorithmParameterException [" + e.getLocalizedMessage() + "]");
-        e.printStackTrace();
-      } catch (InvalidKeySpecException e) {
-        _dataExtractorLog.info("Error decrypting password, got InvalidKeySpecException [" + e.getLocalizedMessage() + "]");
-        e.printStackTrace();
-      }
-    }
+    _credentials.decrypt(Credentials.DB_PASSWORD, _phrase);
   }
 
   public String getUploadURL() {
@@ -459,11 +445,15 @@ public class DataExtractor {
   }
 
   public String getProxyPassword() {
-    return proxyPassword;
+    return _credentials.get(Credentials.PROXY_PASSWORD);
   }
 
   public void setProxyPassword(String password) {
-    proxyPassword = password;
+    _credentials.set(Credentials.PROXY_PASSWORD, password);
+  }
+
+  public void decryptProxyPassword() {
+    _credentials.decrypt(Credentials.PROXY_PASSWORD, _phrase);
   }
 
   public String getProxyDomain() {
@@ -491,6 +481,51 @@ public class DataExtractor {
     }
   }
 
+  public int getDBThreads() {
+    return dbThreads;
+  }
+
+  public void setDBThreads(String threads) {
+    dbThreads = parsePositiveIntSetting("database threads", threads, DEFAULT_DB_THREADS);
+  }
+
+  public int getHttpConnectionTimeout() {
+    return httpConnectionTimeout;
+  }
+
+  public void setHttpConnectionTimeout(String timeout) {
+    httpConnectionTimeout = parsePositiveIntSetting("connection timeout", timeout, DEFAULT_HTTP_CONNECTION_TIMEOUT);
+  }
+
+  public int getHttpSocketTimeout() {
+    return httpSocketTimeout;
+  }
+
+  public void setHttpSocketTimeout(String timeout) {
+    httpSocketTimeout = parsePositiveIntSetting("socket timeout", timeout, DEFAULT_HTTP_SOCKET_TIMEOUT);
+  }
+
+  public int getHttpMaxConnectionsPerHost() {
+    return httpMaxConnectionsPerHost;
+  }
+
+  public void setHttpMaxConnectionsPerHost(String connections) {
+    httpMaxConnectionsPerHost = parsePositiveIntSetting("max connections per host", connections, DEFAULT_HTTP_MAX_CONNECTIONS_PER_HOST);
+  }
+
+  private int parsePositiveIntSetting(String setting, String value, int defaultValue) {
+    try {
+      int result = Integer.parseInt(value.trim());
+      if (result > 0) {
+        return result;
+      }
+    } catch (NumberFormatException nfe) {
+      // fall through to the error below
+    }
+    _dataExtractorLog.error("Error with " + setting + " [" + value + "] - value must be a positive integer.  Using default value of " + defaultValue);
+    return defaultValue;
+  }
+
 
   public String getGuidewirePassword() {
     return guidewirePassword;
@@ -525,13 +560,13 @@ public class DataExtractor {
 
   private boolean isReadyToQueryOracle() {
     return (!dbURL.contains("USERID") || dbUserID != null) &&
-            (!dbURL.contains("PASSWORD") || dbUserPassword != null);
+            (!dbURL.contains("PASSWORD") || _credentials.has(Credentials.DB_PASSWORD));
   }
 
   private boolean isReadyToQuerySQLServer() {
     return db != null &&
             dbUserID != null &&
-            dbUserPassword != null;
+            _credentials.has(Credentials.DB_PASSWORD);
   }
 
 
@@ -720,6 +755,14 @@ public class DataExtractor {
   }
 
 
+  /**
+   * The directory where result packages wait to be uploaded; see UploadSpool.
+   */
+  public File getSpoolDir() {
+    return new File(getOutputDir(), "spool");
+  }
+
+
   public void setOutputDir(String location) {
     DataExtractorLog.verifyDirectoryExistsAndIsWritable(location);
     outputDir = location;
@@ -761,11 +804,82 @@ public class DataExtractor {
 
 
   private Connection getDBConnection() {
+    Connection connection = workerConnection.get();
+    if (connection != null) {
+      return connection;
+    }
     ensureDBConnection();
     return dbConnection;
   }
 
 
+  /**
+   * Gives the current thread a database connection of its own, reusing one returned by an earlier worker if there
+   * is one.  Until returnDBConnection() is called, every query this thread runs goes through that connection rather
+   * than the shared one.
+   */
+  public void borrowDBConnection() throws SQLException {
+    Connection connection = idleWorkerConnections.pollFirst();
+    while (connection != null && connection.isClosed()) {
+      connection = idleWorkerConnections.pollFirst();
+    }
+    if (connection == null) {
+      connection = createDBConnection();
+    }
+    workerConnection.set(connection);
+  }
+
+
+  public void returnDBConnection() {
+    Connection connection = workerConnection.get();
+    workerConnection.remove();
+    if (connection != null) {
+      idleWorkerConnections.addFirst(connection);
+    }
+  }
+
+
+  public void closeWorkerDBConnections() {
+    Connection connection;
+    while ((connection = idleWorkerConnections.pollFirst()) != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        _dataExtractorLog.error("Error closing database connection");
+      }
+    }
+  }
+
+
+  /**
+   * Drops the main database connection if it has gone stale, as it can while a long-running process waits between
+   * runs, so that the next query opens a new one.
+   */
+  public void checkDBConnection() {
+    try {
+      if (dbConnection != null && !dbConnection.isClosed() && !dbConnection.isValid(DB_CONNECTION_CHECK_SECONDS)) {
+        _dataExtractorLog.info("Database connection is no longer valid, reconnecting");
+        closeDBConnection();
+      }
+    } catch (SQLException e) {
+      closeDBConnection();
+    }
+  }
+
+
+  public void closeDBConnection() {
+    closeWorkerDBConnections();
+    if (dbConnection != null) {
+      try {
+        dbConnection.close();
+      } catch (SQLException e) {
+        _dataExtractorLog.error("Error closing database connection");
+      }
+      dbConnection = null;
+    }
+  }
+
+
   private void ensureDBConnection() {
     try {
       if (dbConnection == null || dbConnection.isClosed()) {
@@ -790,13 +904,13 @@ public class DataExtractor {
 
     pattern = Pattern.compile("PASSWORD");
     matcher = pattern.matcher(url);
-    matcher.replaceAll(dbUserPassword);
+    matcher.replaceAll(getDbUserPassword());
     ensureDriverFor(url);
-    return DriverManager.getConnection(url, getDBUserID(), dbUserPassword);
+    return DriverManager.getConnection(url, getDBUserID(), getDbUserPassword());
   }
 
   private String getDbConnectionString() {
-    return "url [" + getDBURL() + "] user [" + getDBUserID() + "] password [" + dbUserPassword + "]";
+    return "url [" + getDBURL() + "] user [" + getDBUserID() + "] password [" + getDbUserPassword() + "]";
   }
 
   private void ensureDriverFor(String urlString) throws SQLException {
@@ -841,7 +955,13 @@ public class DataExtractor {
   public List<String> getPreparedStatementArguments(QueryDefinition queryDefinition) throws SQLException {
     List<String> results = new ArrayList<>();
     if (queryDefinition.isIncremental() && queryDefinition.getLatestUpdateDate() != null) {
-      results.add(queryDateFormatter.format(queryDefinition.getLatestUpdateDate()));
+      synchronized (queryDateFormatter) {
+        results.add(queryDateFormatter.format(queryDefinition.getLatestUpdateDate()));
+        if (queryDefinition.usesKeyWatermark()) {
+          results.add(queryDateFormatter.format(queryDefinition.getLatestUpdateDate()));
+          results.add(queryDefinition.getLatestUpdateId().toString());
+        }
+      }
     }
     return results;
   }
@@ -852,6 +972,21 @@ public class DataExtractor {
   }
 
 
+  public PreparedStatement createBucketRangePreparedStatement(QueryDefinition queryDefinition) throws SQLException {
+    return queryDefinition.getBucketRangeStatement(getDBConnection(), getDBTag(), getDB());
+  }
+
+
+  public PreparedStatement createBucketChecksumPreparedStatement(QueryDefinition queryDefinition, long low, long high) throws SQLException {
+    return queryDefinition.getBucketChecksumStatement(getDBConnection(), low, high, getDBTag(), getDB());
+  }
+
+
+  public PreparedStatement createBucketedPreparedStatement(QueryDefinition queryDefinition, List<long[]> ranges) throws SQLException {
+    return queryDefinition.getBucketedStatement(getDBConnection(), ranges, getDBTag(), getDB());
+  }
+
+
   private boolean needsEarliestDateQuery(QueryDefinition queryDefinition) {
     String table = tableNameMap.get(queryDefinition.getName());
     return queryDefinition.isChunk() && (table != null && "none".equals(table) == false);
@@ -13,6 +13,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import org.apache.commons.lang.time.DateUtils;
 
 
@@ -22,11 +24,19 @@ public class DataExtractorLog {
   private static final String LOG_FILE_SUFFIX = ".log";
   private static final DateFormat _logNameDateformat = new SimpleDateFormat("yyyyMMdd-HHmmss");
   private static final DateFormat _formatter = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss.SSS Z");
+  // The most error messages kept for the summary at the end of a run; all of them go to the log file
+  static final int MAX_ERROR_MESSAGES_KEPT = 1000;
 
   private File _logFile;
   private BufferedWriter _logWriter;
   private String _logDir = "logs";
-  private List<String> _errorMessages = new ArrayList<>();
+  // The uploader can log from its own thread while queries are being extracted, so the errors are recorded, and
+  // display() is, synchronized on this.  _errorMessages holds the first MAX_ERROR_MESSAGES_KEPT of _errorCount errors.
+  private final List<String> _errorMessages = new ArrayList<String>();
+  private int _errorCount = 0;
+  // The number of values of each column, by "table.column", that couldn't be read
+  private final Map<String, Integer> _columnErrorCounts = new TreeMap<String, Integer>();
+  private boolean _errorSummaryDisplayed = false;
 
 
   /**
@@ -48,6 +58,23 @@ public class DataExtractorLog {
   }
 
 
+  /**
+   * Gets ready for another run in the same process: if the last run's log file was closed, the errors it recorded are
+   * cleared and a new log file is started.
+   */
+  void startNextRun() {
+    if (_logWriter == null) {
+      synchronized (this) {
+        _errorMessages.clear();
+        _errorCount = 0;
+        _columnErrorCounts.clear();
+        _errorSummaryDisplayed = false;
+      }
+      createLogFile();
+    }
+  }
+
+
   void closeLogFile() {
     try {
       if (_logWriter != null) {
@@ -123,13 +150,61 @@ public class DataExtractorLog {
   }
 
 
-  boolean hasErrorMessages() {
-    return _errorMessages.isEmpty() == false;
+  synchronized boolean hasErrorMessages() {
+    return _errorCount > 0;
+  }
+
+
+  /**
+   * Returns the first MAX_ERROR_MESSAGES_KEPT error messages; see getErrorCount() for how many there were.
+   */
+  public synchronized List<String> getErrorMessages() {
+    return new ArrayList<String>(_errorMessages);
+  }
+
+
+  public synchronized int getErrorCount() {
+    return _errorCount;
   }
 
 
-  public List<String> getErrorMessages() {
-    return _errorMessages;
+  /**
+   * Counts a value of the column that couldn't be read, for the summary of errors.
+   */
+  public synchronized void columnError(String tableName, String columnName) {
+    String column = tableName + "." + columnName;
+    Integer count = _columnErrorCounts.get(column);
+    _columnErrorCounts.put(column, count == null ? 1 : count + 1);
+  }
+
+
+  synchronized Map<String, Integer> getColumnErrorCounts() {
+    return new TreeMap<String, Integer>(_columnErrorCounts);
+  }
+
+
+  /**
+   * Prints the errors kept, how many more there were, and the errors by column, once at the end of a run.  It's only
+   * printed again if there have been errors since.
+   */
+  public synchronized void displayErrorSummary() {
+    if (_errorCount == 0 || _errorSummaryDisplayed) {
+      return;
+    }
+    _errorSummaryDisplayed = true;
+    displayToStdOut("The following errors occurred during execution.  Please check the log file for more details.");
+    for (String error : _errorMessages) {
+      displayToStdOut("ERROR: " + error);
+    }
+    if (_errorCount > _errorMessages.size()) {
+      displayToStdOut("... and " + (_errorCount - _errorMessages.size()) + " more errors; all " + _errorCount + " are in the log file.");
+    }
+    if (!_columnErrorCounts.isEmpty()) {
+      displayToStdOut("Values that could not be read, by column:");
+      for (Map.Entry<String, Integer> column : _columnErrorCounts.entrySet()) {
+        displayToStdOut("  " + column.getKey() + ": " + column.getValue());
+      }
+    }
   }
 
 
@@ -149,18 +224,27 @@ public class DataExtractorLog {
   public void errorToLogMsgToConsole(String logMsg, String consoleMsg) {
     display("ERROR: " + logMsg, false);
     display("ERROR: " + consoleMsg);
-    _errorMessages.add(consoleMsg);
+    addError(consoleMsg);
   }
 
   public void error(String msg) {
     display("ERROR: " + msg);
-    _errorMessages.add(msg);
+    addError(msg);
+  }
+
+  /**
+   * Logs an error about a row of data.  Unlike error(), it isn't printed as it happens, since a file with a lot of bad
+   * rows would print them all; it's printed with the summary of errors at the end of the run.
+   */
+  public void rowError(String msg) {
+    display("ERROR: " + msg, false);
+    addError(msg);
   }
 
   public void error(Exception e) {
     ExtractionException exception = new ExtractionException("", e);
     display("ERROR: " + e.toString());
-    _errorMessages.add(e.toString());
+    addError(e.toString());
     for (String row : exception.getStackTrace().split("\n")) {
       display("ERROR:   " + row);
     }
@@ -174,11 +258,20 @@ public class DataExtractorLog {
     }
     display("ERROR: " + msg, false);
     displayToStdOut(msg);
-    _errorMessages.add(msg);
+    addError(msg);
+  }
+
+
+  private synchronized void addError(String msg) {
+    _errorCount++;
+    if (_errorMessages.size() < MAX_ERROR_MESSAGES_KEPT) {
+      _errorMessages.add(msg);
+    }
+    _errorSummaryDisplayed = false;
   }
 
 
-  public void display(String msg, boolean writeToStdOut) {
+  public synchronized void display(String msg, boolean writeToStdOut) {
     try {
       if (_logWriter != null) {
         _logWriter.append("[" + getTimestamp() + "] " + msg);
@@ -9,6 +9,7 @@ import java.sql.Types;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 /**
  * Class description...
@@ -18,14 +19,25 @@ import java.util.Date;
 public class DateColumn extends ColumnDef {
   protected static final String YYYYMMDD = "yyyyMMdd";
   String formatString = YYYYMMDD;
-  transient SimpleDateFormat format = new SimpleDateFormat(YYYYMMDD);
+  // SimpleDateFormat isn't thread safe, so each thread has its own; values are read with the compiled format when they
+  // can be
+  transient final TimeZone timeZone = TimeZone.getDefault();
+  transient final ThreadLocal<SimpleDateFormat> format = new ThreadLocal<SimpleDateFormat>() {
+    @Override
+    protected SimpleDateFormat initialValue() {
+      SimpleDateFormat format = new SimpleDateFormat(formatString);
+      format.setTimeZone(timeZone);
+      return format;
+    }
+  };
+  transient CompiledDateFormat compiledFormat;
 
   public DateColumn(String name, String type, String simpleDateFormatString) {
     super(name, type);
     if (simpleDateFormatString != null && !"".equals(simpleDateFormatString)) {
       formatString = simpleDateFormatString;
-      format = new SimpleDateFormat(formatString);
     }
+    compiledFormat = CompiledDateFormat.compile(formatString, timeZone);
   }
 
   @Override
@@ -34,7 +46,7 @@ public class DateColumn extends ColumnDef {
     if (row.wasNull()) {
       return "";
     }
-    return format.format(columnData);
+    return format.get().format(columnData);
   }
 
   @Override
@@ -43,7 +55,18 @@ public class DateColumn extends ColumnDef {
     if (row.wasNull()) {
       return "";
     }
-    return format.format(columnData);
+    return format.get().format(columnData);
+  }
+
+  @Override
+  public Object getValue(RowDataSource row) throws SQLException, ParseException {
+    Date columnData = row.getDate(getName());
+    return row.wasNull() ? null : columnData;
+  }
+
+  @Override
+  public String formatValue(Object value) {
+    return value == null ? "" : format.get().format((Date) value);
   }
 
   @Override
@@ -55,7 +78,15 @@ public class DateColumn extends ColumnDef {
   public Date getDate(String s) throws ParseException {
     if (wasNull(s)) return null;
 
-    return format.parse(s);
+    return dateFor(s);
+  }
+
+  private Date dateFor(String s) throws ParseException {
+    long millis = compiledFormat != null ? compiledFormat.parse(s) : CompiledDateFormat.NO_MATCH;
+    if (millis != CompiledDateFormat.NO_MATCH) {
+      return new Date(millis);
+    }
+    return format.get().parse(s);
   }
 
   @Override
@@ -67,7 +98,7 @@ public class DateColumn extends ColumnDef {
   public void setArgument(int i, PreparedStatement sql, String s) throws SQLException {
     if (s.length() > 0) {
       try {
-        Date date = format.parse(s);
+        Date date = dateFor(s);
         sql.setDate(i, new java.sql.Date(date.getTime()));
       } catch (ParseException e) {
         e.printStackTrace();
@@ -8,10 +8,12 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Class description...
@@ -30,11 +32,29 @@ public class DateTimeColumn extends ColumnDef {
   // This format string gets changed if a client specifies a different one. We store this in the CSVFileDefinition so that we maintain
   // the format string for a client in their config.
   private String formatString = YYYYMMDD_HHMMSS_SSSZ;
+  private transient boolean useTimestampWithTimezone = false;
+  // The formats to parse with, in the order they're tried.  Each one is compiled if it can be, and the SimpleDateFormats,
+  // which aren't thread safe, are made on each thread as they're needed.
+  private transient final TimeZone timeZone = TimeZone.getDefault();
+  private transient final List<String> patterns = new ArrayList<String>(10);
+  private transient CompiledDateFormat[] compiledFormats;
   // The default format is the one we expect to use for our output. So even if a client specifies a format, we only want to use that
   // format to parse the input. When we output the date as a string we want to use this format.
-  private transient SimpleDateFormat defaultFormat = new SimpleDateFormat(formatString);
-  private transient boolean useTimestampWithTimezone = false;
-  private transient List<SimpleDateFormat> formats = new ArrayList<SimpleDateFormat>(10);
+  private transient int defaultFormatIndex;
+  private transient final ThreadLocal<List<SimpleDateFormat>> formats = new ThreadLocal<List<SimpleDateFormat>>() {
+    @Override
+    protected List<SimpleDateFormat> initialValue() {
+      List<SimpleDateFormat> formats = new ArrayList<SimpleDateFormat>(patterns.size());
+      for (String pattern : patterns) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(timeZone);
+        formats.add(format);
+      }
+      return formats;
+    }
+  };
+  // The format the values read so far have been in, which is tried first; -1 until a value has been read
+  private transient volatile int pinnedFormatIndex = -1;
 
   public DateTimeColumn(String name, String type, String formattingString) {
     super(name, type);
@@ -42,19 +62,23 @@ public class DateTimeColumn extends ColumnDef {
   }
 
   private void setUpDateFormatters(String formattingString) {
-    defaultFormat = new SimpleDateFormat(formatString);
     if (formattingString != null && !"".equals(formattingString)) {
-      formats.add(new SimpleDateFormat(formattingString));
+      patterns.add(formattingString);
       formatString = formattingString;
     }
-    formats.add(defaultFormat);
-    formats.add(new SimpleDateFormat(YYYYMMDD_HHMMSS_SSS));
-    formats.add(new SimpleDateFormat(DDMMYYYY_HHMMSS_SS));
-    formats.add(new SimpleDateFormat(YYYY_MM_DD));
-    formats.add(new SimpleDateFormat(YYYY_MM_DD_HHMMSS_SSSZ));
-    formats.add(new SimpleDateFormat(MM_DD_YYYY_HHMMSS_SSSZ));
-    formats.add(new SimpleDateFormat(YYYY_MM_DD_HHMMSS_SSS));
-    formats.add(new SimpleDateFormat(MM_DD_YYYY_HHMMSS_SSS));
+    defaultFormatIndex = patterns.size();
+    patterns.add(YYYYMMDD_HHMMSS_SSSZ);
+    patterns.add(YYYYMMDD_HHMMSS_SSS);
+    patterns.add(DDMMYYYY_HHMMSS_SS);
+    patterns.add(YYYY_MM_DD);
+    patterns.add(YYYY_MM_DD_HHMMSS_SSSZ);
+    patterns.add(MM_DD_YYYY_HHMMSS_SSSZ);
+    patterns.add(YYYY_MM_DD_HHMMSS_SSS);
+    patterns.add(MM_DD_YYYY_HHMMSS_SSS);
+    compiledFormats = new CompiledDateFormat[patterns.size()];
+    for (int i = 0; i < compiledFormats.length; i++) {
+      compiledFormats[i] = CompiledDateFormat.compile(patterns.get(i), timeZone);
+    }
   }
 
   public void setUseTimestamWithTimezone(boolean use) {
@@ -72,7 +96,7 @@ public class DateTimeColumn extends ColumnDef {
       return "";
     }
     Date date = new Date(timestamp.getTime());
-    return defaultFormat.format(date);
+    return getDateFormats().get(defaultFormatIndex).format(date);
   }
 
   @Override
@@ -82,7 +106,18 @@ public class DateTimeColumn extends ColumnDef {
       return "";
     }
     Date date = new Date(timestamp.getTime());
-    return defaultFormat.format(date);
+    return getDateFormats().get(defaultFormatIndex).format(date);
+  }
+
+  @Override
+  public Object getValue(RowDataSource row) throws SQLException, ParseException {
+    Timestamp timestamp = row.getTimestamp(getName());
+    return row.wasNull() ? null : timestamp;
+  }
+
+  @Override
+  public String formatValue(Object value) {
+    return value == null ? "" : getDateFormats().get(defaultFormatIndex).format(new Date(((Date) value).getTime()));
   }
 
   @Override
@@ -99,7 +134,7 @@ public class DateTimeColumn extends ColumnDef {
   public Timestamp getTimestamp(String s) throws ParseException {
     if (wasNull(s)) return null;
 
-    return new Timestamp(dateFor(s).getTime());
+    return new Timestamp(millisFor(s));
   }
 
   @Override
@@ -129,19 +164,57 @@ public class DateTimeColumn extends ColumnDef {
   }
 
   public Date dateFor(String s) throws ParseException {
-    Date result = null;
-    ParseException latestParseException = null;
-    for (SimpleDateFormat format : formats) {
-      try {
-        result = format.parse(s);
-      } catch (ParseException pe) {
-        latestParseException = pe;
+    return new Date(millisFor(s));
+  }
+
+  /**
+   * Reads the value in the first of the formats that reads all of it, trying the one the last value was in first.
+   * If none of them does, it's read by the last format that reads the start of it, as it always has been.
+   */
+  private long millisFor(String s) throws ParseException {
+    int pinned = pinnedFormatIndex;
+    if (pinned >= 0) {
+      long millis = millisFor(pinned, s);
+      if (millis != CompiledDateFormat.NO_MATCH) {
+        return millis;
+      }
+    }
+    for (int i = 0; i < compiledFormats.length; i++) {
+      if (i != pinned) {
+        long millis = millisFor(i, s);
+        if (millis != CompiledDateFormat.NO_MATCH) {
+          pinnedFormatIndex = i;
+          return millis;
+        }
       }
     }
-    if (result == null) {
-      throw latestParseException;
+    List<SimpleDateFormat> formats = getDateFormats();
+    ParsePosition position = new ParsePosition(0);
+    int errorIndex = -1;
+    for (int i = formats.size() - 1; i >= 0; i--) {
+      position.setIndex(0);
+      Date result = formats.get(i).parse(s, position);
+      if (result != null) {
+        return result.getTime();
+      }
+      if (errorIndex < 0) {
+        errorIndex = position.getErrorIndex();
+      }
+    }
+    throw new ParseException("Unparseable date: \"" + s + "\"", errorIndex);
+  }
+
+  private long millisFor(int formatIndex, String s) {
+    CompiledDateFormat compiledFormat = compiledFormats[formatIndex];
+    if (compiledFormat != null) {
+      long millis = compiledFormat.parse(s);
+      if (millis != CompiledDateFormat.NO_MATCH) {
+        return millis;
+      }
     }
-    return result;
+    ParsePosition position = new ParsePosition(0);
+    Date result = getDateFormats().get(formatIndex).parse(s, position);
+    return result != null && position.getIndex() == s.length() ? result.getTime() : CompiledDateFormat.NO_MATCH;
   }
 
   @Override
@@ -153,7 +226,10 @@ public class DateTimeColumn extends ColumnDef {
     return true;
   }
 
+  /**
+   * Returns this thread's formats, in the order they're tried.
+   */
   protected List<SimpleDateFormat> getDateFormats() {
-    return formats;
+    return formats.get();
   }
 }
@@ -19,6 +19,9 @@ public class DecCommandLine {
   private static final int INITIAL_RETRY_INTERVAL = 5 * 60;
   private static final int NUMBER_OF_RETRIES = 2;
   private static final int RETRY_INTERVAL_MULTIPLIER = 2;
+  private static final int DEFAULT_DAEMON_INTERVAL = 60;
+  private static final int DEFAULT_DAEMON_JITTER = 5 * 60;
+  private static final int DEFAULT_UPLOAD_THREADS = 4;
 
   // command line options
   static final String CLIENT = "client";
@@ -28,6 +31,9 @@ public class DecCommandLine {
   static final String CUSTOMER_CSV_LOCAL_FILE_DEFINITION = "customer_csv_validate_local_file_def";
   static final String CUSTOMER_CSV_TYPE = "customer_csv_type";
   static final String CUSTOMER_CSV_VALIDATE = "customer_csv_validate";
+  static final String DAEMON = "daemon";
+  static final String DAEMON_INTERVAL = "daemoninterval";
+  static final String DAEMON_JITTER = "daemonjitter";
   static final String ENCRYPT = "encrypt";
   static final String FILE = "file";
   static final String HELP = "help";
@@ -43,6 +49,7 @@ public class DecCommandLine {
   static final String TEST_CONNECTION = "testconnection";
   static final String TEST_MODE_ONLY = "testmodeonly";
   static final String TOP = "top";
+  static final String UPLOAD_THREADS = "uploadthreads";
   static final String USE_LOCAL_QUERIES = "uselocalqueries";
   static final String VERIFY = "verify";
   static final String VERSION = "version";
@@ -64,6 +71,9 @@ public class DecCommandLine {
   private final long _maxRunTimeMilli;
   private final int _retryIntervalMilli;
   private final int _retryMultiplier;
+  private final long _daemonIntervalMilli;
+  private final long _daemonJitterMilli;
+  private final int _uploadThreads;
 
 
   private int getIntOption(String option, int defaultValue) {
@@ -104,6 +114,11 @@ public class DecCommandLine {
     _maxRunTimeMilli = _commandLine.hasOption(ON_LINE_UPDATE) && maxRunTimeInMinutes != DEFAULT_MAX_RUNTIME ?
       maxRunTimeInMinutes * 60 * 1000 :
       DEFAULT_MAX_RUNTIME;
+
+    // The daemon interval is in minutes and the jitter in seconds
+    _daemonIntervalMilli = getIntOption(DAEMON_INTERVAL, DEFAULT_DAEMON_INTERVAL) * 60L * 1000;
+    _daemonJitterMilli = getIntOption(DAEMON_JITTER, DEFAULT_DAEMON_JITTER) * 1000L;
+    _uploadThreads = getIntOption(UPLOAD_THREADS, DEFAULT_UPLOAD_THREADS);
   }
 
 
@@ -127,6 +142,18 @@ public class DecCommandLine {
     return _retryMultiplier;
   }
 
+  long getDaemonIntervalMilli() {
+    return _daemonIntervalMilli;
+  }
+
+  long getDaemonJitterMilli() {
+    return _daemonJitterMilli;
+  }
+
+  int getUploadThreads() {
+    return _uploadThreads;
+  }
+
 
   boolean hasOption(String option) {
     return _commandLine.hasOption(option);
@@ -162,6 +189,9 @@ public class DecCommandLine {
     options.addOption(MAX_RUN_TIME, true, "Maximum time (in minutes) that the client should run.  This option is only in effect for on line update.");
     options.addOption("d", NO_DATABASE_CONNECTION_INFO, false, "Don't send database connection info to Guidewire");
     options.addOption("e", ENCRYPT, true, "Encrypt the argument");
+    options.addOption(DAEMON, false, "Keep running, doing an on line update every -" + DAEMON_INTERVAL + " minutes until stopped.  This option is only in effect for on line update.");
+    options.addOption(DAEMON_INTERVAL, true, "Time in minutes from the start of one on line update to the start of the next in daemon mode.  Defaults to " + DEFAULT_DAEMON_INTERVAL + ".");
+    options.addOption(DAEMON_JITTER, true, "Up to this many seconds, chosen at random, are added to each wait in daemon mode.  Defaults to " + DEFAULT_DAEMON_JITTER + ".");
     return options;
   }
 
@@ -174,6 +204,7 @@ public class DecCommandLine {
     options.addOption("s", SINCE, true, "queries for values created since date provided");
     options.addOption("csv", CSV_FILE, true, "CSV file to upload");
     options.addOption("n", NAME, true, "name of table to upload CSV file to");
+    options.addOption(UPLOAD_THREADS, true, "The most tables to upload CSV files to at once, when -" + CSV_FILE + " is a prefix for a set of files.  Defaults to " + DEFAULT_UPLOAD_THREADS + ".");
     options.addOption(USE_LOCAL_QUERIES, false, "Use the queries from the local configuration rather than contacting the Guidewire server for queries.  This option is only valid with the -query option.");
     options.addOption(OMIT_TEST_TOOLS, false, "Do not run the test tools that are usually run as part of a test connection");
     options.addOption(LOG_QUERY_NAMES_ONLY, false, "Causes a test connection to only write the names of queries to the log, rather than the entire query");
@@ -182,7 +213,7 @@ public class DecCommandLine {
 
     options.addOption("c", CUSTOMER_CSV, true, "Upload a customer .csv file");
     options.addOption("ctype", CUSTOMER_CSV_TYPE, true, "The type of the customer .csv file");
-    options.addOption("cv", CUSTOMER_CSV_VALIDATE, true, "Validate a customer .csv file");
+    options.addOption("cv", CUSTOMER_CSV_VALIDATE, true, "Validate a customer .csv file, writing the bad rows to <file>.bad and statistics on its columns to <file>.stats.json");
     options.addOption("cvfd", CUSTOMER_CSV_LOCAL_FILE_DEFINITION, true, "A local file with the file definitions to validate a customer .csv file. Only valid in Validate mode");
     options.addOption("ccfdu", CUSTOMER_CSV_FILE_DEF_UPLOAD, true, "CSV file definition to read and upload");
 
@@ -2,43 +2,51 @@ package com.guidewire.tools.benchmarking;
 
 import com.guidewire.cloudviewer.datamoving.RowDataSource;
 
+import java.math.BigDecimal;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
-import java.text.NumberFormat;
 import java.text.ParseException;
-import java.util.Locale;
 
 /**
  * Class description...
+ *
+ * Values are read and written as BigDecimals, so that amounts don't go through a double (see NumericText).
  */
 public class DecimalColumn extends ColumnDef {
-  private transient NumberFormat formatter;
 
   public DecimalColumn(String name, String type) {
     super(name, type);
-    formatter = NumberFormat.getNumberInstance(Locale.US);
-    formatter.setGroupingUsed(false);
-    formatter.setMaximumFractionDigits(10);
   }
 
   @Override
   public String getOutputResults(ResultSet row) throws SQLException {
-    Double value = row.getDouble(getName());
+    BigDecimal value = row.getBigDecimal(getName());
     if (row.wasNull() || value == null) {
       return "";
     }
-    return getOutputResults(value);
+    return NumericText.format(value);
   }
 
   @Override
   public String getOutputResults(RowDataSource row) throws SQLException, ParseException {
-    Double value = row.getDouble(getName());
+    BigDecimal value = row.getBigDecimal(getName());
     if (row.wasNull() || value == null) {
       return "";
     }
-    return getOutputResults(value);
+    return NumericText.format(value);
+  }
+
+  @Override
+  public Object getValue(RowDataSource row) throws SQLException, ParseException {
+    BigDecimal value = row.getBigDecimal(getName());
+    return row.wasNull() ? null : value;
+  }
+
+  @Override
+  public String formatValue(Object value) {
+    return value == null ? "" : NumericText.format((BigDecimal) value);
   }
 
   @Override
@@ -47,7 +55,7 @@ public class DecimalColumn extends ColumnDef {
   }
 
   public String getOutputResults(double value) throws SQLException {
-    return formatter.format(value);
+    return NumericText.format(value);
   }
 
   @Override
@@ -55,7 +63,15 @@ public class DecimalColumn extends ColumnDef {
     if (wasNull(s)) {
       return null;
     }
-    return formatter.parse(s).doubleValue();
+    return NumericText.parseDecimal(s).doubleValue();
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String s) throws ParseException {
+    if (wasNull(s)) {
+      return null;
+    }
+    return NumericText.parseDecimal(s);
   }
 
   @Override
@@ -71,11 +87,11 @@ public class DecimalColumn extends ColumnDef {
   @Override
   public void setArgument(int i, PreparedStatement sql, String s) throws SQLException {
     try {
-      Double val = getDouble(s);
+      BigDecimal val = getBigDecimal(s);
       if (val == null) {
         sql.setNull(i, Types.DECIMAL);
       } else {
-        sql.setDouble(i, val);
+        sql.setBigDecimal(i, val);
       }
     } catch (ParseException e) {
       sql.setInt(i, -999);
@@ -6,27 +6,22 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
-import java.text.NumberFormat;
 import java.text.ParseException;
-import java.util.Locale;
 
 /**
  * Class description...
  *
+ * Values are read and written as longs, so that IDs past the range of an int aren't truncated (see NumericText).
  */
 public class IntegerColumn extends ColumnDef {
 
-  private transient NumberFormat formatter;
-
   public IntegerColumn(String name, String type) {
     super(name, type);
-    formatter = NumberFormat.getNumberInstance(Locale.US);
-    formatter.setGroupingUsed(false);
   }
 
   @Override
   public String getOutputResults(ResultSet row) throws SQLException {
-    int result = row.getInt(getName());
+    long result = row.getLong(getName());
     if (row.wasNull()) {
       return "";
     }
@@ -35,27 +30,45 @@ public class IntegerColumn extends ColumnDef {
 
   @Override
   public String getOutputResults(RowDataSource row) throws SQLException, ParseException {
-    Integer result = row.getInt(getName());
+    Long result = row.getLong(getName());
     if (row.wasNull() || result == null) {
       return "";
     }
     return getOutputResults(result);
   }
 
+  @Override
+  public Object getValue(RowDataSource row) throws SQLException, ParseException {
+    Long result = row.getLong(getName());
+    return row.wasNull() ? null : result;
+  }
+
+  @Override
+  public String formatValue(Object value) {
+    return value == null ? "" : getOutputResults(((Long) value).longValue());
+  }
+
   @Override
   public String getDBColumnType() {
-    return "INT(11)";
+    return ID.equals(getType()) ? "BIGINT" : "INT(11)";
   }
 
-  String getOutputResults(int result) {
-    return formatter.format(result);
+  String getOutputResults(long result) {
+    return Long.toString(result);
   }
 
   @Override
   public Integer getInt(String s) throws ParseException {
     if (wasNull(s)) return null;
 
-    return formatter.parse(s).intValue();
+    return NumericText.parseInt(s);
+  }
+
+  @Override
+  public Long getLong(String s) throws ParseException {
+    if (wasNull(s)) return null;
+
+    return NumericText.parseLong(s);
   }
 
   @Override
@@ -71,11 +84,11 @@ public class IntegerColumn extends ColumnDef {
   @Override
   public void setArgument(int i, PreparedStatement sql, String s) throws SQLException {
     try {
-      Integer val = getInt(s);
+      Long val = getLong(s);
       if (val == null) {
-        sql.setNull(i, Types.INTEGER);
+        sql.setNull(i, ID.equals(getType()) ? Types.BIGINT : Types.INTEGER);
       } else {
-        sql.setInt(i, val);
+        sql.setLong(i, val);
       }
     } catch (ParseException e) {
       sql.setInt(i, -999);
@@ -0,0 +1,204 @@
+package com.guidewire.tools.benchmarking;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.ParseException;
+
+/**
+ * Strict parsing and formatting of the values of INTEGER, ID and DECIMAL columns, straight from their characters.
+ * <p/>
+ * Unlike NumberFormat, a value is only read if all of it is a number, so "12abc" is an error rather than 12.  Spaces
+ * around it, and the stray quotes a mismatched quote in a csv file leaves there (see badDataMismatchedQuotes4.csv), are
+ * ignored.  Decimals are read exactly, as BigDecimals, rather than through a double, and whole numbers as longs.
+ * Nothing here keeps any state, so the columns can be shared between threads.
+ */
+final class NumericText {
+  // The most fraction digits a decimal is written with, as NumberFormat.setMaximumFractionDigits did
+  static final int MAX_FRACTION_DIGITS = 10;
+  // The most digits read into a long before falling back to BigDecimal's own parsing
+  private static final int MAX_COMPACT_DIGITS = 18;
+
+  private NumericText() {
+  }
+
+  /**
+   * Reads a whole number: an optional sign and digits, optionally followed by a fraction of only zeros ("12.00").
+   */
+  static long parseLong(CharSequence s) throws ParseException {
+    int start = start(s);
+    int end = end(s, start);
+    int i = start;
+    boolean negative = false;
+    if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+      negative = s.charAt(i) == '-';
+      i++;
+    }
+    int digitsStart = i;
+    // Kept negative, so that Long.MIN_VALUE can be read
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = s.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        break;
+      }
+      if (value < (Long.MIN_VALUE + digit) / 10) {
+        throw outOfRange(s, start);
+      }
+      value = value * 10 - digit;
+    }
+    if (i == digitsStart) {
+      throw unparseable(s, i);
+    }
+    if (i < end && s.charAt(i) == '.') {
+      i++;
+      while (i < end && s.charAt(i) == '0') {
+        i++;
+      }
+    }
+    if (i != end) {
+      throw unparseable(s, i);
+    }
+    if (negative) {
+      return value;
+    }
+    if (value == Long.MIN_VALUE) {
+      throw outOfRange(s, start);
+    }
+    return -value;
+  }
+
+  static int parseInt(CharSequence s) throws ParseException {
+    long value = parseLong(s);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw outOfRange(s, start(s));
+    }
+    return (int) value;
+  }
+
+  /**
+   * Reads a decimal: an optional sign, digits with an optional decimal point, and an optional exponent.
+   */
+  static BigDecimal parseDecimal(CharSequence s) throws ParseException {
+    int start = start(s);
+    int end = end(s, start);
+    int i = start;
+    boolean negative = false;
+    if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+      negative = s.charAt(i) == '-';
+      i++;
+    }
+    long unscaled = 0;
+    int significantDigits = 0;
+    int scale = 0;
+    boolean anyDigits = false;
+    boolean point = false;
+    for (; i < end; i++) {
+      char c = s.charAt(i);
+      int digit = c - '0';
+      if (digit >= 0 && digit <= 9) {
+        if (significantDigits == MAX_COMPACT_DIGITS) {
+          return parseBigDecimal(s, start, end);
+        }
+        anyDigits = true;
+        unscaled = unscaled * 10 + digit;
+        if (unscaled != 0) {
+          significantDigits++;
+        }
+        if (point) {
+          scale++;
+        }
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+    if (!anyDigits) {
+      throw unparseable(s, i);
+    }
+    if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+      return parseBigDecimal(s, start, end);
+    }
+    if (i != end) {
+      throw unparseable(s, i);
+    }
+    return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+  }
+
+  private static BigDecimal parseBigDecimal(CharSequence s, int start, int end) throws ParseException {
+    try {
+      return new BigDecimal(s.subSequence(start, end).toString());
+    } catch (NumberFormatException e) {
+      throw unparseable(s, start);
+    }
+  }
+
+  /**
+   * Writes the decimal without an exponent or grouping, rounded to MAX_FRACTION_DIGITS and without trailing zeros.
+   */
+  static String format(BigDecimal value) {
+    return format(value, RoundingMode.HALF_EVEN);
+  }
+
+  /**
+   * Writes the double as NumberFormat did: its shortest decimal digits rounded half even, except that a tie is
+   * decided by the exact binary value.
+   */
+  static String format(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return Double.toString(value);
+    }
+    BigDecimal shortest = BigDecimal.valueOf(value);
+    RoundingMode roundingMode = RoundingMode.HALF_EVEN;
+    if (shortest.scale() > MAX_FRACTION_DIGITS) {
+      int exactComparedToShortest = new BigDecimal(value).abs().compareTo(shortest.abs());
+      if (exactComparedToShortest > 0) {
+        roundingMode = RoundingMode.HALF_UP;
+      } else if (exactComparedToShortest < 0) {
+        roundingMode = RoundingMode.HALF_DOWN;
+      }
+    }
+    return format(shortest, roundingMode);
+  }
+
+  private static String format(BigDecimal value, RoundingMode roundingMode) {
+    if (value.scale() > MAX_FRACTION_DIGITS) {
+      value = value.setScale(MAX_FRACTION_DIGITS, roundingMode);
+    }
+    if (value.signum() == 0) {
+      return "0";
+    }
+    if (value.scale() > 0) {
+      value = value.stripTrailingZeros();
+    }
+    return value.toPlainString();
+  }
+
+  private static int start(CharSequence s) {
+    int start = 0;
+    while (start < s.length() && isIgnoredAround(s.charAt(start))) {
+      start++;
+    }
+    return start;
+  }
+
+  private static int end(CharSequence s, int start) {
+    int end = s.length();
+    while (end > start && isIgnoredAround(s.charAt(end - 1))) {
+      end--;
+    }
+    return end;
+  }
+
+  private static boolean isIgnoredAround(char c) {
+    return c == '"' || Character.isWhitespace(c);
+  }
+
+  private static ParseException unparseable(CharSequence s, int errorOffset) {
+    return new ParseException("Unparseable number: \"" + s + "\"", errorOffset);
+  }
+
+  private static ParseException outOfRange(CharSequence s, int errorOffset) {
+    return new ParseException("Number out of range: \"" + s + "\"", errorOffset);
+  }
+}
@@ -28,6 +28,7 @@ import java.util.regex.Pattern;
  *    countSQL - a query to get a count of how many rows it expects
  *    checksumSQL - A query to get a value uniquely calculated on the entire dataset
  *    latestUpdateDate - an indicator of when the most recent data is, allowing us to incrementally query beyond it
+ *    latestUpdateId - the id of the last row the server has at latestUpdateDate, for queries that use &SINCE_KEY_SQL
  *    lastChecksum - a calculation on the whole dataset allowing us to check if the data has changed at all useful for data which doesn't have updateTime information
  *    isCatchUp - a flag to indicate if this query needs to run on the entire data set during an incremental update
  *    versionsToExclude - a collection of strings representing the versions of the application for which this query is not valid (table does not exist)
@@ -36,10 +37,25 @@ import java.util.regex.Pattern;
  *    chunk - whether the query can be chunked at all
  *    earliestDate - the date to start the chunking of a full query
  *    daysForEachChunk - a means of controlling the size of each chunk
+ *
+ * An incremental query limits itself to new data with either &SINCE_SQL(AND t.updateTime > ?), which takes the rows
+ * updated after latestUpdateDate, or &SINCE_KEY_SQL(AND t.updateTime, t.ID), which takes the rows after the
+ * (latestUpdateDate, latestUpdateId) pair.  The second doesn't miss or repeat rows that share an update time with the
+ * last row the server has, so a big batch of updates with one timestamp can be split across uploads.  A query that
+ * uses it should order by t.&SORT_BY_COLUMN, t.ID.
+ *
+ * A query without update times can be checksummed in buckets of IDs instead of all at once.  It marks where the IDs
+ * are limited with &BUCKET_SQL(WHERE t.ID), in both the query and its checksumSQL, and gives a bucketRangeSQL that
+ * returns the lowest and highest ID.  The checksum of each bucket can then be compared with the one taken the last
+ * time the table was sent, and just the ranges of IDs that changed extracted.  Everywhere else &BUCKET_SQL is removed.
  */
 public class QueryDefinition {
 
   private static final int DEFAULT_DAYS_PER_QUERY_CHUNK = 30;
+  // &SINCE_KEY_SQL(<prefix> <update time column>, <id column>)
+  private static final String SINCE_KEY_SQL = "&SINCE_KEY_SQL\\(([^,)]*?)(\\S+)\\s*,\\s*([^)\\s]+)\\s*\\)";
+  // &BUCKET_SQL(<prefix> <id column>)
+  private static final String BUCKET_SQL = "&BUCKET_SQL\\(([^)]*?)(\\S+)\\s*\\)";
 
   private String name;
   String originalSQL;
@@ -47,7 +63,9 @@ public class QueryDefinition {
   List<ColumnDef> columns = new ArrayList<>();
   private String countSQL = null;
   private String checksumSQL = "";
+  private String bucketRangeSQL = null;
   private Date latestUpdateDate = null;
+  private Long latestUpdateId = null;
   private Long lastChecksum;
   private boolean isCatchUp = false;
   private Set<Integer> versionsToExclude = new HashSet<>();
@@ -100,9 +118,11 @@ public class QueryDefinition {
       originalSQL.append("    &INTEGER(tl.priority, priority)\n");
     }
     originalSQL.append("  &FROM\n");
-    originalSQL.append("    &DB_TAG" + typecodeTable + " tl");
+    originalSQL.append("    &DB_TAG" + typecodeTable + " tl\n");
+    originalSQL.append("  &BUCKET_SQL(WHERE tl.ID)");
     result.setOriginalSQL(originalSQL.toString());
-    result.setChecksumSQL("&CHECKSUM_AGG(" + typecodeTable + ")");
+    result.setChecksumSQL("&CHECKSUM_AGG(" + typecodeTable + ") &BUCKET_SQL(WHERE ID)");
+    result.setBucketRangeSQL("&USEDB_SQL SELECT MIN(ID), MAX(ID) FROM &DB_TAG" + typecodeTable);
     return result;
   }
 
@@ -114,6 +134,14 @@ public class QueryDefinition {
     checksumSQL = sql;
   }
 
+  public String getBucketRangeSQL() {
+    return bucketRangeSQL;
+  }
+
+  public void setBucketRangeSQL(String sql) {
+    bucketRangeSQL = sql;
+  }
+
   public static Date getDefaultEarliestDate() {
     Calendar calendar = Calendar.getInstance();
     calendar.set(2000, Calendar.JANUARY, 1, 0, 0, 0);
@@ -160,6 +188,14 @@ public class QueryDefinition {
     latestUpdateDate = date;
   }
 
+  public Long getLatestUpdateId() {
+    return latestUpdateId;
+  }
+
+  public void setLatestUpdateId(Long id) {
+    latestUpdateId = id;
+  }
+
 
   /**
    * Substitutes values from the supplied properties into the query.  The substitution
@@ -196,6 +232,9 @@ public class QueryDefinition {
     if (checksumSQL != null) {
       checksumSQL = MiscUtils.transform(checksumSQL, properties);
     }
+    if (bucketRangeSQL != null) {
+      bucketRangeSQL = MiscUtils.transform(bucketRangeSQL, properties);
+    }
   }
 
   public PreparedStatement getTransformedQuery(Connection connection, String dbTag, String db) throws SQLException {
@@ -203,7 +242,9 @@ public class QueryDefinition {
   }
 
   public String getTransformedSQL(String dbTag, String db) {
-    return MiscUtils.transform(transformedSQL, getDBTagAndNameProperties(dbTag, db));
+    Properties properties = getDBTagAndNameProperties(dbTag, db);
+    properties.setProperty(BUCKET_SQL, "");
+    return MiscUtils.transform(transformedSQL, properties);
   }
 
   public String getName() {
@@ -225,6 +266,10 @@ public class QueryDefinition {
     PreparedStatement result = createPreparedStatement(connection, getCountSQL(since, dbTag, db));
     if (isIncremental() && since != null) {
       result.setDate(1, new java.sql.Date(since.getTime()));
+      if (usesKeyWatermark(countSQL)) {
+        result.setDate(2, new java.sql.Date(since.getTime()));
+        result.setLong(3, latestUpdateId);
+      }
     }
     return result;
   }
@@ -237,14 +282,19 @@ public class QueryDefinition {
     Properties properties = getDBTagAndNameProperties(dbTag, db);
     if (isIncremental() && since != null) {
       properties.setProperty("&SINCE_SQL\\((.+\\)?)\\s*?\\)", "$1");
+      addSinceKeySubstitution(properties);
     } else {
       properties.setProperty("&SINCE_SQL\\((.+\\)?)\\s*?\\)", "");
+      properties.setProperty(SINCE_KEY_SQL, "");
     }
+    properties.setProperty(BUCKET_SQL, "");
     return MiscUtils.transform(countSQL, properties);
   }
 
   public String getChecksumSQL(String dbTag, String db) {
-    return MiscUtils.transform(checksumSQL, getDBTagAndNameProperties(dbTag, db));
+    Properties properties = getDBTagAndNameProperties(dbTag, db);
+    properties.setProperty(BUCKET_SQL, "");
+    return MiscUtils.transform(checksumSQL, properties);
   }
 
   private Properties getDBTagAndNameProperties(String dbTag, String db) {
@@ -391,6 +441,8 @@ public class QueryDefinition {
 
     Properties substitution = new Properties();
     substitution.setProperty("&SINCE_SQL\\((.+\\)?)\\s*?\\)", "");
+    substitution.setProperty(SINCE_KEY_SQL, "");
+    substitution.setProperty(BUCKET_SQL, "");
     substitution.setProperty("&SORT_BY_COLUMN", "createtime");
     substitution.setProperty("&CHUNK_SQL_NULL\\((.+)\\s*?\\)", "");
     if (earlier == null) {
@@ -440,6 +492,8 @@ public class QueryDefinition {
     substitution.setProperty("&CHUNK_SQL_END\\((.+)\\s*?\\)", "");
     substitution.setProperty("&CHUNK_SQL_NULL\\((.+)\\s*?\\)", "$1");
     substitution.setProperty("&SINCE_SQL\\((.+\\)?)\\s*?\\)", "");
+    substitution.setProperty(SINCE_KEY_SQL, "");
+    substitution.setProperty(BUCKET_SQL, "");
     substitution.setProperty("&SORT_BY_COLUMN", "updatetime");
     String sql = new String(getTransformedSQL(dbTag, db));
     return MiscUtils.transform(sql, substitution);
@@ -468,13 +522,98 @@ public class QueryDefinition {
   public PreparedStatement getIncrementalStatement(Connection connection, Date since, String dbTag, String db) throws SQLException {
     PreparedStatement statement = createPreparedStatement(connection, getIncrementalSQL(dbTag, db));
     statement.setTimestamp(1, new Timestamp(since.getTime()));
+    if (usesKeyWatermark()) {
+      statement.setTimestamp(2, new Timestamp(since.getTime()));
+      statement.setLong(3, latestUpdateId);
+    }
     return statement;
   }
 
+  /**
+   * True if the query picks up after the (update time, id) pair rather than just the update time.  That takes an id
+   * from the server; without one, &SINCE_KEY_SQL falls back to comparing update times.
+   */
+  public boolean usesKeyWatermark() {
+    return usesKeyWatermark(transformedSQL);
+  }
+
+  private boolean usesKeyWatermark(String sql) {
+    return latestUpdateId != null && sql != null && sql.contains("&SINCE_KEY_SQL");
+  }
+
+  private void addSinceKeySubstitution(Properties substitution) {
+    if (latestUpdateId != null) {
+      substitution.setProperty(SINCE_KEY_SQL, "$1($2 > ? OR ($2 = ? AND $3 > ?))");
+    } else {
+      substitution.setProperty(SINCE_KEY_SQL, "$1$2 > ?");
+    }
+  }
+
   public PreparedStatement getChecksumStatement(Connection connection, String dbTag, String db) throws SQLException {
     return createPreparedStatement(connection, getChecksumSQL(dbTag, db));
   }
 
+  /**
+   * True if the query's data can be checksummed, and extracted, a range of IDs at a time.
+   */
+  public boolean canUseBuckets() {
+    return !isIncremental() && bucketRangeSQL != null && transformedSQL != null && transformedSQL.contains("&BUCKET_SQL")
+      && checksumSQL != null && checksumSQL.contains("&BUCKET_SQL");
+  }
+
+  /**
+   * Returns a statement giving the lowest and highest ID in the table, for laying out the buckets.
+   */
+  public PreparedStatement getBucketRangeStatement(Connection connection, String dbTag, String db) throws SQLException {
+    return createPreparedStatement(connection, MiscUtils.transform(bucketRangeSQL, getDBTagAndNameProperties(dbTag, db)));
+  }
+
+  public String getBucketChecksumSQL(String dbTag, String db) {
+    Properties substitution = new Properties();
+    substitution.setProperty(BUCKET_SQL, "$1$2 BETWEEN ? AND ?");
+    return MiscUtils.transform(MiscUtils.transform(checksumSQL, getDBTagAndNameProperties(dbTag, db)), substitution);
+  }
+
+  /**
+   * Returns a statement giving the checksum of the rows with IDs from low to high, inclusive.
+   */
+  public PreparedStatement getBucketChecksumStatement(Connection connection, long low, long high, String dbTag, String db) throws SQLException {
+    PreparedStatement statement = createPreparedStatement(connection, getBucketChecksumSQL(dbTag, db));
+    statement.setLong(1, low);
+    statement.setLong(2, high);
+    return statement;
+  }
+
+  /**
+   * Returns the query limited to the given number of ranges of IDs.
+   */
+  public String getBucketedSQL(int ranges, String dbTag, String db) {
+    StringBuilder condition = new StringBuilder("$1(");
+    for (int i = 0; i < ranges; i++) {
+      if (i > 0) {
+        condition.append(" OR ");
+      }
+      condition.append("$2 BETWEEN ? AND ?");
+    }
+    condition.append(")");
+    Properties substitution = new Properties();
+    substitution.setProperty(BUCKET_SQL, condition.toString());
+    return MiscUtils.transform(MiscUtils.transform(transformedSQL, getDBTagAndNameProperties(dbTag, db)), substitution);
+  }
+
+  /**
+   * Returns a statement for the rows whose IDs fall in the ranges, each given as its low and high ID, inclusive.
+   */
+  public PreparedStatement getBucketedStatement(Connection connection, List<long[]> ranges, String dbTag, String db) throws SQLException {
+    PreparedStatement statement = createPreparedStatement(connection, getBucketedSQL(ranges.size(), dbTag, db));
+    int arg = 1;
+    for (long[] range : ranges) {
+      statement.setLong(arg++, range[0]);
+      statement.setLong(arg++, range[1]);
+    }
+    return statement;
+  }
+
   /**
    * This method actually removes the chunking code, leaving the code which queries since a
    * particular date.
@@ -488,6 +627,8 @@ public class QueryDefinition {
     substitution.setProperty("&CHUNK_SQL_END\\((.+)\\s*?\\)", "");
     substitution.setProperty("&CHUNK_SQL_NULL\\((.+)\\s*?\\)", "");
     substitution.setProperty("&SINCE_SQL\\((.+\\)?)\\s*?\\)", "$1");
+    addSinceKeySubstitution(substitution);
+    substitution.setProperty(BUCKET_SQL, "");
     substitution.setProperty("&SORT_BY_COLUMN", "updatetime");
     String sql = new String(getTransformedSQL(dbTag, db));
     return MiscUtils.transform(sql, substitution);
@@ -498,6 +639,8 @@ public class QueryDefinition {
     substitution.setProperty("&CHUNK_SQL_START\\((.+)\\s*?\\)", "");
     substitution.setProperty("&CHUNK_SQL_END\\((.+)\\s*?\\)", "");
     substitution.setProperty("&SINCE_SQL\\((.+\\)?)\\s*?\\)", "");
+    substitution.setProperty(SINCE_KEY_SQL, "");
+    substitution.setProperty(BUCKET_SQL, "");
     substitution.setProperty("&CHUNK_SQL_NULL\\((.+)\\s*?\\)", "");
     return connection.prepareStatement(MiscUtils.transform(sql, substitution));
   }
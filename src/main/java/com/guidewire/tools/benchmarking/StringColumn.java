@@ -7,8 +7,6 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.text.ParseException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Class description...
@@ -16,10 +14,7 @@ import java.util.regex.Pattern;
  * @author rvernick
  */
 public class StringColumn extends ColumnDef {
-  transient String backslashRepresentation = "<%gwrebkslsh%>";
-  transient Pattern backslash = Pattern.compile(backslashRepresentation);
-  transient Pattern trailingBackslash = Pattern.compile("\\\\");
-  transient Pattern carriageReturn = Pattern.compile("\r");
+  static final String BACKSLASH_REPRESENTATION = "<%gwrebkslsh%>";
 
   public StringColumn(String name, String type) {
     super(name, type);
@@ -51,16 +46,63 @@ public class StringColumn extends ColumnDef {
     return "VARCHAR(256)";
   }
 
+  /**
+   * Replaces backslashes with BACKSLASH_REPRESENTATION and carriage returns with newlines, in one pass.  Most values
+   * have neither, and are returned as they are.
+   */
   protected String escapeSpecialCharacters(String string) {
-    Matcher backslashMatcher = trailingBackslash.matcher(string);
-    String backslashEscaped = backslashMatcher.replaceAll(backslashRepresentation);
-    Matcher cr = carriageReturn.matcher(backslashEscaped);
-    return cr.replaceAll("\n");
+    int first = indexOfSpecialCharacter(string);
+    if (first < 0) {
+      return string;
+    }
+    StringBuilder escaped = new StringBuilder(string.length() + BACKSLASH_REPRESENTATION.length());
+    escapeSpecialCharacters(string, first, escaped);
+    return escaped.toString();
+  }
+
+  /**
+   * Appends the escaped value to the builder, for callers that put a row together in one.
+   */
+  protected void escapeSpecialCharacters(CharSequence string, StringBuilder to) {
+    escapeSpecialCharacters(string, 0, to);
+  }
+
+  private static void escapeSpecialCharacters(CharSequence string, int from, StringBuilder to) {
+    int start = 0;
+    for (int i = from; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c == '\\' || c == '\r') {
+        to.append(string, start, i).append(c == '\\' ? BACKSLASH_REPRESENTATION : "\n");
+        start = i + 1;
+      }
+    }
+    to.append(string, start, string.length());
+  }
+
+  private static int indexOfSpecialCharacter(String string) {
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c == '\\' || c == '\r') {
+        return i;
+      }
+    }
+    return -1;
   }
 
   protected String unescapeSpecialCharacters(String s) {
-    Matcher escapedBackslashes = backslash.matcher(s);
-    return escapedBackslashes.replaceAll("\\\\");
+    int next = s.indexOf(BACKSLASH_REPRESENTATION);
+    if (next < 0) {
+      return s;
+    }
+    StringBuilder unescaped = new StringBuilder(s.length());
+    int start = 0;
+    while (next >= 0) {
+      unescaped.append(s, start, next).append('\\');
+      start = next + BACKSLASH_REPRESENTATION.length();
+      next = s.indexOf(BACKSLASH_REPRESENTATION, start);
+    }
+    unescaped.append(s, start, s.length());
+    return unescaped.toString();
   }
 
   @Override
@@ -0,0 +1,127 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import org.testng.annotations.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+
+@Test(groups="unit")
+public class BackgroundWriterTest {
+
+  public void testWritesEverythingByClose() throws Exception {
+    StringWriter out = new StringWriter();
+    StringBuilder expected = new StringBuilder();
+    BufferedWriter writer = new BufferedWriter(new BackgroundWriter(out, "test"), 16);
+    for (int i = 0; i < 10000; i++) {
+      String line = "row " + i + ",\"value " + i + "\"";
+      writer.write(line);
+      writer.newLine();
+      expected.append(line).append(System.lineSeparator());
+    }
+    writer.close();
+    assertEquals(out.toString(), expected.toString());
+  }
+
+  public void testWriteFailureThrown() throws Exception {
+    final IOException failure = new IOException("disk full");
+    Writer failing = new Writer() {
+      @Override
+      public void write(char[] buffer, int offset, int length) throws IOException {
+        throw failure;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    BackgroundWriter writer = new BackgroundWriter(failing, "test");
+    writer.write("row");
+    try {
+      writer.close();
+      fail("The write failure should have been thrown");
+    } catch (IOException e) {
+      assertSame(e, failure);
+    }
+  }
+
+  public void testWriteFailureWithQueueFull() throws Exception {
+    final IOException failure = new IOException("disk full");
+    final CountDownLatch queueFull = new CountDownLatch(1);
+    Writer failing = new Writer() {
+      @Override
+      public void write(char[] buffer, int offset, int length) throws IOException {
+        try {
+          queueFull.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        throw failure;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    final BackgroundWriter writer = new BackgroundWriter(failing, "test");
+    // One chunk being written, and the queue behind it full
+    for (int i = 0; i <= BackgroundWriter.MAX_PENDING_CHUNKS; i++) {
+      writer.write("row " + i);
+    }
+    queueFull.countDown();
+
+    ExecutorService closer = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> close = closer.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          writer.close();
+          return null;
+        }
+      });
+      try {
+        close.get(10, TimeUnit.SECONDS);
+        fail("The write failure should have been thrown");
+      } catch (ExecutionException e) {
+        assertSame(e.getCause(), failure);
+      } catch (TimeoutException e) {
+        fail("close() should not wait forever after a write fails");
+      }
+    } finally {
+      closer.shutdownNow();
+    }
+  }
+
+  public void testClosedWriterNotWritable() throws Exception {
+    BackgroundWriter writer = new BackgroundWriter(new StringWriter(), "test");
+    writer.close();
+    writer.close();
+    try {
+      writer.write("row");
+      fail("A closed writer should not be writable");
+    } catch (IOException expected) {
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import com.guidewire.tools.benchmarking.ColumnDef;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+
+@Test(groups="unit")
+public class ColumnSlotsTest {
+
+  private final List<ColumnDef> columns = Arrays.asList(
+      ColumnDef.createDefinition("INTEGER", "ID"),
+      ColumnDef.createDefinition("STRING", "PolicyNumber"),
+      ColumnDef.createDefinition("STRING", "State"));
+
+  public void testSlotsByName() {
+    ColumnSlots<ColumnDef> slots = new ColumnSlots<>(columns);
+    assertEquals(slots.size(), 3);
+    // In order, with the columns' own names, as ColumnDef.getOutputResults() asks for them
+    for (int i = 0; i < columns.size(); i++) {
+      assertEquals(slots.slotOf(columns.get(i).getName()), i);
+      assertSame(slots.column(i), columns.get(i));
+    }
+    // Out of order, and with names that are equal but not the same
+    assertEquals(slots.slotOf(new String("State")), 2);
+    assertEquals(slots.slotOf(new String("ID")), 0);
+    assertEquals(slots.slotOf(columns.get(1).getName()), 1);
+    assertEquals(slots.slotOf("County"), -1);
+  }
+
+  public void testSlotsReusedForEachRow() {
+    ColumnSlots<ColumnDef> slots = new ColumnSlots<>(columns);
+    String[] values = slots.startRow();
+    values[0] = "1";
+    values[2] = "CA";
+    assertEquals(slots.value(slots.slotOf("State")), "CA");
+
+    assertSame(slots.startRow(), values);
+    assertNull(slots.value(0));
+    assertNull(slots.value(2));
+  }
+}
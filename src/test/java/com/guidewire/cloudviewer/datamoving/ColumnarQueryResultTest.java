@@ -0,0 +1,142 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.guidewire.tools.benchmarking.ColumnDef;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class ColumnarQueryResultTest {
+
+  private QueryResult createQueryResult(String[]... rows) {
+    QueryResult result = new QueryResult();
+    result.setName("cc_claim");
+    List<ColumnDef> columns = new ArrayList<ColumnDef>();
+    columns.add(ColumnDef.createDefinition(ColumnDef.ID, "ID"));
+    columns.add(ColumnDef.createDefinition(ColumnDef.TYPECODE, "State"));
+    columns.add(ColumnDef.createDefinition(ColumnDef.DATETIME, "updateTime"));
+    columns.add(ColumnDef.createDefinition(ColumnDef.STRING, "Description"));
+    result.setColumns(columns);
+    for (String[] values : rows) {
+      QueryResult.ResultRow row = QueryResult.newResultRow(values.length);
+      for (String value : values) {
+        row.add(value);
+      }
+      result.addRow(row);
+    }
+    result.setRowCount(rows.length);
+    result.setChecksum(99L);
+    result.setQueryTime(5L);
+    result.setBatchId("run:cc_claim:1");
+    result.setContentHash("abc123");
+    result.setIdRanges(Collections.singletonList(new long[] {Long.MIN_VALUE, 250}));
+    return result;
+  }
+
+  private void assertRoundTrip(QueryResult result) {
+    QueryResult read = ColumnarQueryResult.fromJson(ColumnarQueryResult.toJson(result));
+    assertEquals(read.getName(), result.getName());
+    assertEquals(read.getColumns(), result.getColumns());
+    assertEquals(read.getRowCount(), result.getRows().size());
+    assertEquals(read.getChecksum(), result.getChecksum());
+    assertEquals(read.getQueryTime(), result.getQueryTime());
+    assertEquals(read.getBatchId(), result.getBatchId());
+    assertEquals(read.getContentHash(), result.getContentHash());
+    if (result.getIdRanges() != null) {
+      assertEquals(read.getIdRanges().size(), result.getIdRanges().size());
+      for (int i = 0; i < result.getIdRanges().size(); i++) {
+        assertEquals(read.getIdRanges().get(i), result.getIdRanges().get(i));
+      }
+    }
+    assertEquals(read.wasCutShort(), result.wasCutShort());
+    for (int i = 0; i < result.getRows().size(); i++) {
+      assertEquals(read.getRows().get(i).getResults(), result.getRows().get(i).getResults(), "row " + i);
+    }
+  }
+
+  private JsonObject columnData(QueryResult result, int column) {
+    JsonObject json = JsonParser.parseString(ColumnarQueryResult.toJson(result)).getAsJsonObject();
+    return json.getAsJsonArray("data").get(column).getAsJsonObject();
+  }
+
+  public void testRoundTrip() {
+    QueryResult result = createQueryResult(
+      new String[] {"1000", "open", "20200301 10:00:00.000-0800", "first"},
+      new String[] {"1001", "closed", "20200301 10:00:01.500-0800", ""},
+      new String[] {"", "open", "", "third \"quoted\""},
+      new String[] {"1005", "", "20200401 10:00:00.000-0700", "日本"});
+    assertRoundTrip(result);
+  }
+
+  public void testEmptyResult() {
+    assertRoundTrip(createQueryResult());
+  }
+
+  public void testEncodings() {
+    QueryResult result = createQueryResult(
+      new String[] {"1000", "open", "20200301 10:00:00.000-0800", "a"},
+      new String[] {"1001", "open", "20200301 10:00:01.000-0800", "b"},
+      new String[] {"1003", "closed", "20200301 10:00:03.000-0800", "c"});
+
+    JsonObject id = columnData(result, 0);
+    assertEquals(id.get("encoding").getAsString(), ColumnarQueryResult.DELTA);
+    assertFalse(id.has("nulls"));
+    JsonArray ids = id.getAsJsonArray("values");
+    assertEquals(ids.get(0).getAsLong(), 1000L);
+    assertEquals(ids.get(1).getAsLong(), 1L);
+    assertEquals(ids.get(2).getAsLong(), 2L);
+
+    JsonObject state = columnData(result, 1);
+    assertEquals(state.get("encoding").getAsString(), ColumnarQueryResult.DICTIONARY);
+    assertEquals(state.getAsJsonArray("dictionary").size(), 2);
+
+    JsonObject updateTime = columnData(result, 2);
+    assertEquals(updateTime.get("encoding").getAsString(), ColumnarQueryResult.TIMESTAMP_DELTA);
+    assertEquals(updateTime.getAsJsonArray("values").get(1).getAsLong(), 1000L);
+    assertEquals(updateTime.getAsJsonArray("offsets").get(0).getAsInt(), -480);
+    assertFalse(updateTime.has("offsetIndexes"));
+
+    assertEquals(columnData(result, 3).get("encoding").getAsString(), ColumnarQueryResult.PLAIN);
+  }
+
+  public void testValuesThatWouldChangeFallBackToPlain() {
+    QueryResult result = createQueryResult(
+      new String[] {"007", "open", "2020-03-01 10:00:00.000", "a"},
+      new String[] {"8", "open", "20200301 10:00:01.000-0800", "b"});
+    assertEquals(columnData(result, 0).get("encoding").getAsString(), ColumnarQueryResult.PLAIN);
+    assertEquals(columnData(result, 2).get("encoding").getAsString(), ColumnarQueryResult.PLAIN);
+    assertRoundTrip(result);
+  }
+
+  public void testNullsOmittedFromValues() {
+    QueryResult result = createQueryResult(
+      new String[] {"1", "", "", ""},
+      new String[] {"2", "", "", "x"});
+    JsonObject description = columnData(result, 3);
+    assertTrue(description.has("nulls"));
+    assertEquals(description.getAsJsonArray("values").size(), 1);
+    assertRoundTrip(result);
+  }
+
+  public void testSmallerThanRowFormat() {
+    String[][] rows = new String[1000][];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = new String[] {Integer.toString(100000 + i), i % 3 == 0 ? "open" : "closed",
+        "20200301 10:00:0" + (i % 10) + ".000-0800", ""};
+    }
+    QueryResult result = createQueryResult(rows);
+    int columnar = ColumnarQueryResult.toJson(result).length();
+    int rowFormat = JsonCodecs.gson().toJson(result).length();
+    assertTrue(columnar * 4 < rowFormat, "columnar [" + columnar + "] row format [" + rowFormat + "]");
+  }
+}
@@ -0,0 +1,113 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.guidewire.tools.benchmarking.ColumnDef;
+import com.guidewire.tools.benchmarking.DateTimeColumn;
+import com.guidewire.tools.benchmarking.IntegerColumn;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+
+@Test(groups="unit")
+public class JsonCodecsTest {
+
+  private QueryResult createQueryResult() {
+    QueryResult result = new QueryResult();
+    result.setName("cc_claim");
+    List<ColumnDef> columns = new ArrayList<ColumnDef>();
+    columns.add(ColumnDef.createDefinition(ColumnDef.ID, "ID"));
+    columns.add(ColumnDef.createDefinition(ColumnDef.STRING, "Description"));
+    columns.add(ColumnDef.createDefinition(ColumnDef.DATETIME, "updateTime", "yyyy-MM-dd HH:mm:ss.SSS"));
+    result.setColumns(columns);
+    QueryResult.ResultRow row = QueryResult.newResultRow(3);
+    row.add("1");
+    row.add("quotes \" and <html> & unicode 日");
+    row.add("20200101 10:11:12.123-0700");
+    result.addRow(row);
+    row = QueryResult.newResultRow(3);
+    row.add("2");
+    row.add(null);
+    row.add("20200101 10:11:12.124-0700");
+    result.addRow(row);
+    result.setRowCount(2);
+    result.setWasCutShort(true);
+    result.setChecksum(12345L);
+    result.setQueryTime(17L);
+    result.setBatchId("run:cc_claim:3");
+    result.setContentHash("abc123");
+    result.setIdRanges(Arrays.asList(new long[] {1, 100}, new long[] {301, Long.MAX_VALUE}));
+    return result;
+  }
+
+  public void testQueryResult_SameJsonAsReflection() {
+    QueryResult result = createQueryResult();
+    String reflected = new Gson().toJson(result);
+    String streamed = JsonCodecs.gson().toJson(result);
+    assertEquals(JsonParser.parseString(streamed), JsonParser.parseString(reflected));
+  }
+
+  public void testQueryResult_RoundTrip() {
+    QueryResult result = createQueryResult();
+    QueryResult read = JsonCodecs.gson().fromJson(JsonCodecs.gson().toJson(result), QueryResult.class);
+
+    assertEquals(read.getName(), "cc_claim");
+    assertEquals(read.getColumns(), result.getColumns());
+    assertTrue(read.getColumns().get(0) instanceof IntegerColumn);
+    assertTrue(read.getColumns().get(2) instanceof DateTimeColumn);
+    assertEquals(read.getColumns().get(2).getFormatString(), "yyyy-MM-dd HH:mm:ss.SSS");
+    assertEquals(read.getRows().size(), 2);
+    assertEquals(read.getRows().get(0).getResults(), result.getRows().get(0).getResults());
+    assertEquals(read.getRows().get(1).getResults(), Arrays.asList("2", null, "20200101 10:11:12.124-0700"));
+    assertEquals(read.getRowCount(), 2);
+    assertTrue(read.wasCutShort());
+    assertEquals(read.getChecksum(), Long.valueOf(12345L));
+    assertEquals(read.getQueryTime(), Long.valueOf(17L));
+    assertEquals(read.getBatchId(), "run:cc_claim:3");
+    assertEquals(read.getContentHash(), "abc123");
+    assertEquals(read.getIdRanges().size(), 2);
+    assertEquals(read.getIdRanges().get(1), new long[] {301, Long.MAX_VALUE});
+  }
+
+  public void testQueryResult_NullsOmitted() {
+    QueryResult result = new QueryResult();
+    String streamed = JsonCodecs.gson().toJson(result);
+    assertEquals(JsonParser.parseString(streamed), JsonParser.parseString(new Gson().toJson(result)));
+    QueryResult read = JsonCodecs.gson().fromJson(streamed, QueryResult.class);
+    assertNull(read.getChecksum());
+    assertNull(read.getName());
+    assertNull(read.getBatchId());
+    assertNull(read.getIdRanges());
+  }
+
+  public void testUploadAcknowledge_ReadIgnoresUnknownFields() {
+    UploadAcknowledge acknowledge = JsonCodecs.gson().fromJson(
+      "{\"message\":\"ok\",\"rowsUploaded\":1000,\"success\":true,\"extra\":{\"a\":[1,2]}}", UploadAcknowledge.class);
+    assertEquals(acknowledge.getMessage(), "ok");
+    assertEquals(acknowledge.getRowsUploaded(), 1000);
+    assertTrue(acknowledge.isSuccess());
+
+    acknowledge = JsonCodecs.gson().fromJson("{\"message\":null,\"rowsUploaded\":0}", UploadAcknowledge.class);
+    assertNull(acknowledge.getMessage());
+    assertFalse(acknowledge.isSuccess());
+  }
+
+  public void testColumnDef_UnknownTypeThrows() {
+    try {
+      JsonCodecs.gson().fromJson("{\"name\":\"x\",\"type\":\"BLOB\"}", ColumnDef.class);
+      fail("A column of an unknown type should not be read");
+    } catch (JsonParseException expected) {
+      assertTrue(expected.getMessage().contains("BLOB"), expected.getMessage());
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package com.guidewire.cloudviewer.datamoving;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+
+@Test(groups="unit")
+public class MappedCSVParserTest {
+
+  private static MappedCSVParser parse(String csv) throws IOException {
+    return MappedCSVParser.parse(csv.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static List<String> values(MappedCSVParser.Record record) {
+    List<String> values = new ArrayList<>();
+    for (String value : record) {
+      values.add(value);
+    }
+    return values;
+  }
+
+  private static List<List<String>> readAll(MappedCSVParser parser) {
+    List<List<String>> records = new ArrayList<>();
+    MappedCSVParser.Record record;
+    while ((record = parser.nextRecord()) != null) {
+      records.add(values(record));
+    }
+    return records;
+  }
+
+  public void testHeader() throws Exception {
+    MappedCSVParser parser = parse("﻿ policyNumber , LOB\r\n1,Homeowners\r\n");
+    assertEquals(new ArrayList<>(parser.getHeaderMap().keySet()), Arrays.asList("policyNumber", "LOB"));
+    assertEquals(parser.getHeaderMap().get("LOB"), Integer.valueOf(1));
+    assertEquals(readAll(parser), Arrays.asList(Arrays.asList("1", "Homeowners")));
+
+    assertTrue(parse("").getHeaderMap().isEmpty());
+    try {
+      parse("a,b,a\n");
+      fail("duplicate names in the header");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("duplicate name: \"a\""));
+    }
+  }
+
+  public void testFields() throws Exception {
+    MappedCSVParser parser = parse("a,b,c,d\n" +
+        "  plain  ,\"quoted, with \"\"quotes\"\"\" , \"multi\r\nline\",\n" +
+        "\n" +
+        "\r\n" +
+        "café,,\"\",x\"y\n" +
+        "last,row,no,newline");
+    List<List<String>> records = readAll(parser);
+    assertEquals(records.size(), 3, "empty lines are skipped");
+    assertEquals(records.get(0), Arrays.asList("plain", "quoted, with \"quotes\"", "multi\r\nline", ""));
+    assertEquals(records.get(1), Arrays.asList("café", "", "", "x\"y"));
+    assertEquals(records.get(2), Arrays.asList("last", "row", "no", "newline"));
+  }
+
+  public void testConsistency() throws Exception {
+    MappedCSVParser parser = parse("a,b\n1,2\n1,2,3\n1\n");
+    assertTrue(parser.nextRecord().isConsistent());
+    assertFalse(parser.nextRecord().isConsistent());
+    MappedCSVParser.Record record = parser.nextRecord();
+    assertFalse(record.isConsistent());
+    assertEquals(record.size(), 1);
+    assertNull(parser.nextRecord());
+  }
+
+  public void testErrors() throws Exception {
+    MappedCSVParser parser = parse("a,b\n\"1\"2,3\n4,5\n\"6,7\n");
+    try {
+      parser.nextRecord();
+      fail("characters after a closing quote");
+    } catch (RuntimeException e) {
+      assertTrue(e.toString().contains("(line 2) invalid char between encapsulated token and delimiter"), e.toString());
+    }
+    // Carries on after the character in error
+    assertEquals(values(parser.nextRecord()), Arrays.asList("", "3"));
+    assertEquals(values(parser.nextRecord()), Arrays.asList("4", "5"));
+    try {
+      parser.nextRecord();
+      fail("unfinished quote");
+    } catch (RuntimeException e) {
+      assertEquals(e.toString(), "java.lang.RuntimeException: java.io.IOException: (startline 4) EOF reached before encapsulated token finished");
+    }
+    assertNull(parser.nextRecord());
+  }
+
+  public void testMappedInWindows() throws Exception {
+    StringBuilder csv = new StringBuilder("﻿id,name,notes\n");
+    for (int i = 0; i < 500; i++) {
+      csv.append(i).append(",name ").append(i).append(",\"notes, for\n").append(i).append("\"\n");
+    }
+    File file = Files.createTempFile("mapped", ".csv").toFile();
+    file.deleteOnExit();
+    Files.write(file.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+    // A window much smaller than the file, and smaller than some records
+    try (MappedCSVParser parser = MappedCSVParser.open(file, 16)) {
+      assertEquals(new ArrayList<>(parser.getHeaderMap().keySet()), Arrays.asList("id", "name", "notes"));
+      List<List<String>> records = readAll(parser);
+      assertEquals(records.size(), 500);
+      for (int i = 0; i < 500; i++) {
+        assertEquals(records.get(i), Arrays.asList(Integer.toString(i), "name " + i, "notes, for\n" + i));
+      }
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package com.guidewire.cloudviewer.datamoving;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.guidewire.cloudviewer.datamoving.client.DataExtractorClient;
 import com.guidewire.tools.benchmarking.CSVFileColumnDef;
 import com.guidewire.tools.benchmarking.CSVFileDefinition;
@@ -15,10 +18,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class description...
@@ -269,6 +278,114 @@ public class PolicyCSVFileDataSourceTest {
     validateErrorDataToBadFile(errors, badDataStrings);
   }
 
+  public void testRangesReadLikeTheWholeFile() throws Exception {
+    String[] files = {getTestPolicies(), getBadPolicyData(), getMismatchedQuoteData(), getMismatchedQuoteData2(), getMismatchedQuoteData3()};
+    for (String file : files) {
+      File wholeFile = copyOfTestFile(file);
+      CustomerCSVFileDataSource whole = getDataSourceWithBadFileOption(wholeFile, getTestCSVFileDefinition());
+      List<String> wholeRows = readRows(whole);
+      whole.close();
+
+      // A range for each record
+      File rangesFile = copyOfTestFile(file);
+      CustomerCSVFileDataSource inRanges = getDataSourceWithBadFileOption(rangesFile, getTestCSVFileDefinition());
+      Iterator<CustomerCSVFileDataSource> ranges = inRanges.ranges(1);
+      List<CustomerCSVFileDataSource> read = new ArrayList<>();
+      List<String> rangeRows = new ArrayList<>();
+      while (ranges.hasNext()) {
+        CustomerCSVFileDataSource range = ranges.next();
+        rangeRows.addAll(readRows(range));
+        range.close();
+        read.add(range);
+      }
+      Assert.assertTrue(file, read.size() > 1);
+      for (CustomerCSVFileDataSource range : read) {
+        inRanges.appendRange(range);
+      }
+      inRanges.close();
+
+      Assert.assertEquals(file, wholeRows, rangeRows);
+      Assert.assertEquals(file, whole.getExtractor().getDataExtractorLog().getErrorMessages(), inRanges.getExtractor().getDataExtractorLog().getErrorMessages());
+      Assert.assertEquals(file, readDataFromBadFile(new File(wholeFile.getPath() + ".bad")), readDataFromBadFile(new File(rangesFile.getPath() + ".bad")));
+    }
+  }
+
+  public void testValidateInParallel() throws Exception {
+    File wholeFile = copyOfTestFile(getBadPolicyData());
+    CustomerCSVFileDataSource whole = getDataSourceWithBadFileOption(wholeFile, getTestCSVFileDefinition());
+    new DataExtractorClient(whole.getExtractor(), 0, 0).buildResultPackage(whole);
+
+    File file = copyOfTestFile(getBadPolicyData());
+    CustomerCSVFileDataSource source = getDataSourceWithBadFileOption(file, getTestCSVFileDefinition());
+    Assert.assertTrue(new DataExtractorClient(source.getExtractor(), 0, 0).validateCustomerCsvFile(source));
+    Assert.assertEquals(whole.getExtractor().getDataExtractorLog().getErrorMessages(), source.getExtractor().getDataExtractorLog().getErrorMessages());
+    List<String> badRows = readDataFromBadFile(new File(file.getPath() + ".bad"));
+    Assert.assertEquals(readDataFromBadFile(new File(wholeFile.getPath() + ".bad")), badRows);
+    Assert.assertTrue(badRows.toString().contains("P110800,100002,Not a date"));
+  }
+
+  public void testValidationStatistics() throws Exception {
+    File file = copyOfTestFile(getBadPolicyData());
+    File statisticsFile = new File(file.getPath() + ".stats.json");
+    statisticsFile.deleteOnExit();
+    CustomerCSVFileDataSource source = getDataSourceWithBadFileOption(file, getTestCSVFileDefinition());
+    Assert.assertTrue(new DataExtractorClient(source.getExtractor(), 0, 0).validateCustomerCsvFile(source, statisticsFile));
+
+    JsonObject statistics = JsonParser.parseString(new String(Files.readAllBytes(statisticsFile.toPath()), StandardCharsets.UTF_8)).getAsJsonObject();
+    Assert.assertEquals(8, statistics.get("rows").getAsLong());
+    Assert.assertEquals(2, statistics.get("rowsWithErrors").getAsLong());
+    Map<String, JsonObject> columns = new HashMap<>();
+    for (JsonElement column : statistics.getAsJsonArray("columns")) {
+      columns.put(column.getAsJsonObject().get("name").getAsString(), column.getAsJsonObject());
+    }
+    JsonObject locationId = columns.get("locationId");
+    Assert.assertEquals(0, locationId.get("errors").getAsLong());
+    Assert.assertEquals(8, locationId.get("distinctValues").getAsLong());
+    Assert.assertEquals("100001", locationId.get("min").getAsString());
+    Assert.assertEquals("100010", locationId.get("max").getAsString());
+    JsonObject effectiveDate = columns.get("policyEffectiveDate");
+    Assert.assertEquals(1, effectiveDate.getAsJsonObject("errorsByType").get("Unparseable date").getAsLong());
+    Assert.assertTrue(effectiveDate.has("min"));
+    JsonObject latitude = columns.get("latitude");
+    Assert.assertEquals(1, latitude.getAsJsonObject("errorsByType").get("Unparseable number").getAsLong());
+    Assert.assertEquals(7, latitude.get("nulls").getAsLong());
+    Assert.assertEquals(8, columns.get("addressLine2").get("nulls").getAsLong());
+  }
+
+  // Reads the rows as DataExtractorClient does, returning the row number and values of the good ones
+  private List<String> readRows(CustomerCSVFileDataSource source) throws Exception {
+    List<String> rows = new ArrayList<>();
+    while (source.next()) {
+      if (!source.rowSuccessfullyRead()) {
+        continue;
+      }
+      StringBuilder row = new StringBuilder().append(source.getCurrentRowNumber());
+      boolean bad = false;
+      for (ColumnDef column : source.getColumns()) {
+        try {
+          row.append(',').append(column.getOutputResults(source));
+        } catch (Exception e) {
+          bad = true;
+          source.error("Row [" + source.getCurrentRowNumber() + "], column [" + column.getName() + "]: " + e.getLocalizedMessage());
+        }
+      }
+      if (bad) {
+        source.writeToBadFile(source.getExtractor());
+      } else {
+        rows.add(row.toString());
+      }
+    }
+    return rows;
+  }
+
+  private File copyOfTestFile(String filename) throws IOException {
+    File copy = File.createTempFile("policies", ".csv");
+    copy.deleteOnExit();
+    new File(copy.getPath() + ".bad").deleteOnExit();
+    Files.copy(getTestInputStream(filename), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return copy;
+  }
+
   private List<String> buildBadDataPolicyNumberList(int policyNumberIndex, List<String> dataStrings) {
     List<String> policyNumbers = new ArrayList<>(dataStrings.size());
     for (String dataString : dataStrings) {
@@ -0,0 +1,155 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class AccessTokenManagerTest {
+  private File cacheFile;
+
+  private static class CountingSource implements AccessTokenManager.TokenSource {
+    private int fetches = 0;
+    private long lifetime = 3600 * 1000;
+
+    @Override
+    public AccessTokenManager.AccessToken fetch() {
+      fetches++;
+      return new AccessTokenManager.AccessToken("token" + fetches, System.currentTimeMillis() + lifetime);
+    }
+  }
+
+  @BeforeMethod
+  public void createCacheFile() throws IOException {
+    File directory = Files.createTempDirectory("tokens").toFile();
+    directory.deleteOnExit();
+    cacheFile = new File(directory, "token.cache");
+    cacheFile.deleteOnExit();
+  }
+
+  private AccessTokenManager createManager(CountingSource source, String secret) {
+    return new AccessTokenManager(source, cacheFile, secret, "clientId", "https://okta.example.com");
+  }
+
+  public void testTokenIsReused() throws Exception {
+    CountingSource source = new CountingSource();
+    AccessTokenManager manager = createManager(source, "secret");
+    assertEquals(manager.getToken(), "token1");
+    assertEquals(manager.getToken(), "token1");
+    assertEquals(source.fetches, 1);
+    manager.shutdown();
+  }
+
+  public void testCachedTokenUsedByNextProcess() throws Exception {
+    CountingSource source = new CountingSource();
+    createManager(source, "secret").getToken();
+    assertTrue(cacheFile.exists());
+    assertFalse(new String(Files.readAllBytes(cacheFile.toPath()), StandardCharsets.ISO_8859_1).contains("token1"));
+
+    CountingSource nextSource = new CountingSource();
+    assertEquals(createManager(nextSource, "secret").getToken(), "token1");
+    assertEquals(nextSource.fetches, 0);
+  }
+
+  public void testCacheIgnoredWhenSecretChanges() throws Exception {
+    createManager(new CountingSource(), "secret").getToken();
+    CountingSource nextSource = new CountingSource();
+    createManager(nextSource, "new secret").getToken();
+    assertEquals(nextSource.fetches, 1);
+  }
+
+  public void testExpiringTokenNotUsed() throws Exception {
+    CountingSource source = new CountingSource();
+    source.lifetime = AccessTokenManager.EXPIRY_MARGIN / 2;
+    createManager(source, "secret").getToken();
+
+    CountingSource nextSource = new CountingSource();
+    createManager(nextSource, "secret").getToken();
+    assertEquals(nextSource.fetches, 1);
+  }
+
+  public void testDamagedCacheIgnored() throws Exception {
+    Files.write(cacheFile.toPath(), new byte[] {0, 0, 0, 12, 1, 2, 3});
+    CountingSource source = new CountingSource();
+    assertEquals(createManager(source, "secret").getToken(), "token1");
+    assertEquals(source.fetches, 1);
+  }
+
+  public void testRefreshAfterRejection() throws Exception {
+    CountingSource source = new CountingSource();
+    AccessTokenManager manager = createManager(source, "secret");
+    String rejected = manager.getToken();
+    assertEquals(manager.refresh(rejected), "token2");
+    // A second thread that was rejected with the old token gets the new one without another fetch
+    assertEquals(manager.refresh(rejected), "token2");
+    assertEquals(source.fetches, 2);
+    assertEquals(manager.getToken(), "token2");
+  }
+
+  /**
+   * While the background refresh waits on Okta, the current token is still handed out straight away.
+   */
+  public void testBackgroundRefreshDoesNotBlockGetToken() throws Exception {
+    final CountDownLatch fetching = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    CountingSource source = new CountingSource() {
+      @Override
+      public AccessTokenManager.AccessToken fetch() {
+        if (super.fetches > 0) {
+          fetching.countDown();
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return super.fetch();
+      }
+    };
+    final AccessTokenManager manager = createManager(source, "secret");
+    assertEquals(manager.getToken(), "token1");
+
+    final Exception[] failure = new Exception[1];
+    Thread refresher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        manager.refreshInBackground();
+      }
+    });
+    refresher.start();
+    try {
+      assertTrue(fetching.await(5, TimeUnit.SECONDS));
+      Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            manager.getToken();
+          } catch (Exception e) {
+            failure[0] = e;
+          }
+        }
+      });
+      reader.start();
+      reader.join(1000);
+      assertFalse(reader.isAlive(), "getToken() waited for the background fetch");
+      assertNull(failure[0]);
+    } finally {
+      release.countDown();
+      refresher.join();
+    }
+    assertEquals(manager.getToken(), "token2");
+    manager.shutdown();
+  }
+}
@@ -0,0 +1,113 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class BucketChecksumsTest {
+
+  private File checksumFile;
+
+  @BeforeMethod
+  public void createChecksumFile() throws IOException {
+    File directory = Files.createTempDirectory("checksums").toFile();
+    directory.deleteOnExit();
+    checksumFile = new File(directory, "checksum_buckets.json");
+    checksumFile.deleteOnExit();
+  }
+
+  // Takes checksums in the layout, with the given sums, as if from the database
+  private BucketChecksums.Buckets take(BucketChecksums.Buckets layout, long checksum, long... sums) {
+    for (int i = 0; i < sums.length; i++) {
+      layout.setSum(i, sums[i]);
+    }
+    layout.setChecksum(checksum);
+    return layout;
+  }
+
+  // Keeps checksums for cc_claim, from a layout of IDs 1 to 320, as if the table had been completely sent
+  private void keep(long checksum, long... sums) throws IOException {
+    BucketChecksums checksums = new BucketChecksums(checksumFile);
+    checksums.taken("cc_claim", take(BucketChecksums.Buckets.layOut(1, 320), checksum, sums));
+    checksums.completed("cc_claim");
+    checksums.save();
+  }
+
+  private long[] sums(int changed, int... alsoChanged) {
+    long[] sums = new long[BucketChecksums.BUCKETS];
+    for (int i = 0; i < sums.length; i++) {
+      sums[i] = i;
+    }
+    sums[changed] = -1;
+    for (int bucket : alsoChanged) {
+      sums[bucket] = -1;
+    }
+    return sums;
+  }
+
+  public void testLayout() {
+    BucketChecksums.Buckets buckets = BucketChecksums.Buckets.layOut(1, 320);
+    assertEquals(buckets.count(), BucketChecksums.BUCKETS);
+    assertEquals(buckets.low(0), Long.MIN_VALUE);
+    assertEquals(buckets.high(0), 10L);
+    assertEquals(buckets.low(1), 11L);
+    assertEquals(buckets.high(1), 20L);
+    assertEquals(buckets.low(31), 311L);
+    assertEquals(buckets.high(31), Long.MAX_VALUE);
+
+    buckets = BucketChecksums.Buckets.layOut(5, 7);
+    assertEquals(buckets.count(), 3, "no more buckets than IDs");
+    assertEquals(buckets.high(1), 6L);
+  }
+
+  public void testOnlyChangedRanges() throws Exception {
+    keep(100, sums(0, 0));
+    BucketChecksums checksums = new BucketChecksums(checksumFile);
+    BucketChecksums.Buckets latest = take(checksums.getLayout("cc_claim", 100L), 101, sums(3, 4, 5, 31));
+    List<long[]> ranges = checksums.changedRanges("cc_claim", latest);
+    assertEquals(ranges.size(), 3);
+    assertEquals(ranges.get(0), new long[] {Long.MIN_VALUE, 10});
+    assertEquals(ranges.get(1), new long[] {31, 60});
+    assertEquals(ranges.get(2), new long[] {311, Long.MAX_VALUE});
+  }
+
+  public void testNotComparedUnlessServerHasThem() throws Exception {
+    keep(100, sums(0));
+    BucketChecksums checksums = new BucketChecksums(checksumFile);
+    assertNull(checksums.getLayout("cc_claim", 99L));
+    assertNull(checksums.getLayout("cc_claim", null));
+    assertNull(checksums.getLayout("cc_policy", 100L));
+    assertNotNull(checksums.getLayout("cc_claim", 100L));
+  }
+
+  public void testKeptOnlyOnceCompleted() throws Exception {
+    keep(100, sums(0));
+    BucketChecksums checksums = new BucketChecksums(checksumFile);
+    checksums.taken("cc_claim", take(checksums.getLayout("cc_claim", 100L), 101, sums(1)));
+    checksums.save();
+    assertNotNull(new BucketChecksums(checksumFile).getLayout("cc_claim", 100L), "the table wasn't completely sent");
+
+    checksums.completed("cc_claim");
+    checksums.save();
+    checksums = new BucketChecksums(checksumFile);
+    assertNull(checksums.getLayout("cc_claim", 100L));
+    assertTrue(checksums.changedRanges("cc_claim", take(checksums.getLayout("cc_claim", 101L), 101, sums(1))).isEmpty());
+  }
+
+  public void testDamagedFileIgnored() throws Exception {
+    Files.write(checksumFile.toPath(), "{\"cc_claim\": {\"sums\": [".getBytes(StandardCharsets.UTF_8));
+    assertNull(new BucketChecksums(checksumFile).getLayout("cc_claim", 100L));
+  }
+}
@@ -1,8 +1,34 @@
 package com.guidewire.cloudviewer.datamoving.client;
 
+import com.guidewire.cloudviewer.datamoving.ColumnarQueryResult;
+import com.guidewire.cloudviewer.datamoving.QueryResult;
+import com.guidewire.tools.benchmarking.DataExtractionRunner;
 import com.guidewire.tools.benchmarking.DataExtractor;
+import com.guidewire.tools.benchmarking.QueryDefinition;
 import com.guidewire.util.TestUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.NameValuePair;
 import org.mockito.invocation.InvocationOnMock;
@@ -15,7 +41,6 @@ import static org.testng.Assert.assertEquals;
 @Test(groups="unit")
 public class DataExtractorClientTest {
 
-
   /**
    * If the DataExtractor has a client string set, it should get set in the post params
    */
@@ -46,5 +71,283 @@ public class DataExtractorClientTest {
     assertEquals(nameValuePairHolder.value.getValue(), client);
   }
 
-}
+  /**
+   * Another pass runs only the queries that haven't completed, even though it gets fresh query definitions, and the
+   * next run starts over with all of them.
+   */
+  public void testQueriesForPass_OnlyIncompleteQueriesRerun() throws Exception {
+    FakeDataExtractor dataExtractor = new FakeDataExtractor();
+    dataExtractor.setQueries(queries("a", "b", "c"));
+    DataExtractorClient dataExtractorClient = new DataExtractorClient(dataExtractor, 0, 0);
+    dataExtractorClient.startQueries();
+    assertEquals(names(dataExtractorClient.queriesForPass()), "[a, b, c]");
+
+    dataExtractorClient.markCompleted(dataExtractor.getQueries().get(1));
+    dataExtractor.setQueries(queries("a", "b", "c"));
+    assertEquals(names(dataExtractorClient.queriesForPass()), "[a, c]");
+
+    dataExtractorClient.startQueries();
+    assertEquals(names(dataExtractorClient.queriesForPass()), "[a, b, c]");
+  }
 
+  /**
+   * The checksums are all taken, on worker connections, before the queries whose data changed are returned, and each
+   * is taken once a run however many passes there are.
+   */
+  public void testQueriesForPass_ChecksumsTakenOnceUpFront() throws Exception {
+    FakeDataExtractor dataExtractor = new FakeDataExtractor();
+    dataExtractor.setDBThreads("2");
+    dataExtractor.checksums.put("unchanged", 1L);
+    dataExtractor.checksums.put("changed", 2L);
+    dataExtractor.setQueries(checksummedQueries());
+    DataExtractorClient dataExtractorClient = new DataExtractorClient(dataExtractor, 0, 0);
+    dataExtractorClient.startQueries();
+
+    assertEquals(names(dataExtractorClient.queriesForPass()), "[changed, unchecked]");
+    assertEquals(sorted(dataExtractor.checksumsTaken), "[changed, unchanged]");
+    assertEquals(dataExtractor.connectionsBorrowed.get(), 2);
+
+    // The unchanged query was completed by its checksum, and the changed one's is remembered
+    dataExtractor.setQueries(checksummedQueries());
+    assertEquals(names(dataExtractorClient.queriesForPass()), "[changed, unchecked]");
+    assertEquals(sorted(dataExtractor.checksumsTaken), "[changed, unchanged]");
+
+    dataExtractorClient.startQueries();
+    dataExtractorClient.queriesForPass();
+    assertEquals(sorted(dataExtractor.checksumsTaken), "[changed, changed, unchanged, unchanged]");
+  }
+
+  /**
+   * The files for a table get batch ids in one sequence, so that a server that keeps each batch once by its id doesn't
+   * take the second file's batches for the first's.
+   */
+  public void testRunFromFiles_BatchIdsContinueAcrossFiles() throws Exception {
+    UploadServer server = new UploadServer();
+    try {
+      FakeDataExtractor dataExtractor = new FakeDataExtractor();
+      dataExtractor.setUploadURL(server.getURL());
+      dataExtractor.cacheToken();
+      DataExtractorClient dataExtractorClient = new DataExtractorClient(dataExtractor, 0, 0);
+      dataExtractorClient.negotiateProtocolVersion(DataExtractionRunner.BATCH_ID_PROTOCOL_VERSION);
+
+      Map<String, List<File>> filesByTable = new LinkedHashMap<>();
+      filesByTable.put("cc_claim", Arrays.asList(dataExtractor.csvFile("1", "2"), dataExtractor.csvFile("3", "4", "5")));
+      dataExtractorClient.runFromFiles(filesByTable, 1);
+
+      assertEquals(server.batchIds.size(), 2);
+      assertEquals(server.stored.size(), 2, "batch ids " + server.batchIds);
+      assertEquals(server.rows, Arrays.asList("1", "2", "3", "4", "5"));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static List<QueryDefinition> checksummedQueries() {
+    List<QueryDefinition> queries = queries("unchanged", "changed", "unchecked");
+    queries.get(0).setChecksumSQL("select checksum from unchanged");
+    queries.get(0).setLastChecksum(1L);
+    queries.get(1).setChecksumSQL("select checksum from changed");
+    queries.get(1).setLastChecksum(5L);
+    return queries;
+  }
+
+  private static String sorted(List<String> values) {
+    List<String> copy;
+    synchronized (values) {
+      copy = new ArrayList<>(values);
+    }
+    Collections.sort(copy);
+    return copy.toString();
+  }
+
+  private static List<QueryDefinition> queries(String... names) {
+    List<QueryDefinition> queries = new ArrayList<>();
+    for (String name : names) {
+      QueryDefinition queryDefinition = new QueryDefinition();
+      queryDefinition.setName(name);
+      queries.add(queryDefinition);
+    }
+    return queries;
+  }
+
+  private static String names(List<QueryDefinition> queries) {
+    List<String> names = new ArrayList<>();
+    for (QueryDefinition queryDefinition : queries) {
+      names.add(queryDefinition.getName());
+    }
+    return names.toString();
+  }
+
+  /**
+   * Stands in for the server when sending csv files: passes the csv check, and keeps each batch uploaded once, by its
+   * batch id alone.
+   */
+  private static class UploadServer {
+    private final HttpServer server;
+    final List<String> batchIds = Collections.synchronizedList(new ArrayList<String>());
+    final Map<String, QueryResult> stored = Collections.synchronizedMap(new HashMap<String, QueryResult>());
+    final List<String> rows = Collections.synchronizedList(new ArrayList<String>());
+
+    UploadServer() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/query.htm", new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+          respond(exchange, "true");
+        }
+      });
+      server.createContext("/upload.htm", new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+          QueryResult data = ColumnarQueryResult.fromJson(URLDecoder.decode(formParameter(exchange, "results"), "UTF-8"));
+          batchIds.add(data.getBatchId());
+          if (!stored.containsKey(data.getBatchId())) {
+            stored.put(data.getBatchId(), data);
+            for (QueryResult.ResultRow row : data.getRows()) {
+              rows.add(row.getResults().get(0));
+            }
+          }
+          respond(exchange, "{\"rowsUploaded\":" + data.getRowCount() + ",\"success\":true}");
+        }
+      });
+      server.createContext("/", new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+          respond(exchange, "");
+        }
+      });
+      server.start();
+    }
+
+    String getURL() {
+      return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    void stop() {
+      server.stop(0);
+    }
+
+    private static String formParameter(HttpExchange exchange, String name) throws IOException {
+      String body;
+      try (InputStream in = exchange.getRequestBody()) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          bytes.write(buffer, 0, read);
+        }
+        body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+      }
+      for (String parameter : body.split("&")) {
+        int equals = parameter.indexOf('=');
+        if (equals > 0 && URLDecoder.decode(parameter.substring(0, equals), "UTF-8").equals(name)) {
+          return URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+        }
+      }
+      return null;
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+  }
+
+  /**
+   * A DataExtractor that keeps the files kept between runs in a directory of its own, and whose checksum queries
+   * return the checksums set for their queries, without a database.
+   */
+  private static class FakeDataExtractor extends DataExtractor {
+    private final File directory;
+    final Map<String, Long> checksums = new HashMap<>();
+    final List<String> checksumsTaken = Collections.synchronizedList(new ArrayList<String>());
+    final AtomicInteger connectionsBorrowed = new AtomicInteger();
+
+    FakeDataExtractor() throws IOException {
+      directory = Files.createTempDirectory("extractor").toFile();
+      directory.deleteOnExit();
+    }
+
+    @Override
+    public File getQueryHistoryFile() {
+      return new File(directory, "query_history.json");
+    }
+
+    @Override
+    public File getBucketChecksumFile() {
+      return new File(directory, "checksum_buckets.json");
+    }
+
+    @Override
+    public File getTokenCacheFile() {
+      return new File(directory, "token.cache");
+    }
+
+    /**
+     * Caches a token for the client to use, so it doesn't go to Okta for one.
+     */
+    void cacheToken() throws Exception {
+      AccessTokenManager tokens = new AccessTokenManager(new AccessTokenManager.TokenSource() {
+        @Override
+        public AccessTokenManager.AccessToken fetch() {
+          return new AccessTokenManager.AccessToken("token", System.currentTimeMillis() + 3600 * 1000);
+        }
+      }, getTokenCacheFile(), getOktaClientSecret(), getOktaClientId(), getOktaHost());
+      tokens.getToken();
+      tokens.shutdown();
+    }
+
+    /**
+     * Writes a csv file of the kind runFromFiles() sends, with the given IDs as its rows.
+     */
+    File csvFile(String... ids) throws IOException {
+      List<String> lines = new ArrayList<>();
+      lines.add("Expected Rows: " + ids.length + ",");
+      lines.add("<data start>,");
+      lines.add("ID,publicID");
+      lines.add("ID,STRING");
+      for (String id : ids) {
+        lines.add(id + ",demo_sample:" + id);
+      }
+      lines.add("<data end>,");
+      File file = File.createTempFile("cc_claim", ".csv", directory);
+      file.deleteOnExit();
+      Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+      return file;
+    }
+
+    @Override
+    protected boolean isReadyToQuery() {
+      return true;
+    }
+
+    @Override
+    public void borrowDBConnection() {
+      connectionsBorrowed.incrementAndGet();
+    }
+
+    @Override
+    public void returnDBConnection() {
+    }
+
+    @Override
+    public PreparedStatement createChecksumPreparedStatement(final QueryDefinition queryDefinition) throws SQLException {
+      ResultSet resultSet = mock(ResultSet.class);
+      when(resultSet.next()).thenReturn(true, false);
+      when(resultSet.getLong(1)).thenReturn(checksums.get(queryDefinition.getName()));
+      PreparedStatement statement = mock(PreparedStatement.class);
+      when(statement.execute()).thenAnswer(new Answer<Boolean>() {
+        @Override
+        public Boolean answer(InvocationOnMock invocationOnMock) {
+          checksumsTaken.add(queryDefinition.getName());
+          return true;
+        }
+      });
+      when(statement.getResultSet()).thenReturn(resultSet);
+      return statement;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class DistinctCountSketchTest {
+
+  public void testSmallCounts() {
+    DistinctCountSketch sketch = new DistinctCountSketch();
+    assertEquals(sketch.estimate(), 0L);
+    for (int i = 0; i < 100; i++) {
+      sketch.add("P1" + (i % 10));
+    }
+    assertEquals(sketch.estimate(), 10L);
+  }
+
+  public void testLargeCountsWithinTwoPercent() {
+    DistinctCountSketch sketch = new DistinctCountSketch();
+    int distinct = 200000;
+    for (int i = 0; i < distinct; i++) {
+      sketch.add(Integer.toString(100000 + i));
+      sketch.add(Integer.toString(100000 + i));
+    }
+    long estimate = sketch.estimate();
+    assertTrue(Math.abs(estimate - distinct) < distinct * 0.02, "Estimated " + estimate);
+  }
+
+  public void testMergedLikeOneSketch() {
+    DistinctCountSketch whole = new DistinctCountSketch();
+    DistinctCountSketch first = new DistinctCountSketch();
+    DistinctCountSketch second = new DistinctCountSketch();
+    for (int i = 0; i < 50000; i++) {
+      String value = "value " + i;
+      whole.add(value);
+      (i < 30000 ? first : second).add(value);
+      // Values in both parts are only counted once
+      if (i % 7 == 0) {
+        first.add(value);
+        second.add(value);
+      }
+    }
+    first.merge(second);
+    assertEquals(first.estimate(), whole.estimate());
+  }
+}
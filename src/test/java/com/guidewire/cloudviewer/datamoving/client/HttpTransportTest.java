@@ -0,0 +1,105 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+
+
+@Test(groups="unit")
+public class HttpTransportTest {
+  // The default pool size per host in the config file
+  private static final int MAX_CONNECTIONS_PER_HOST = 4;
+  private static final int UPLOADERS = MAX_CONNECTIONS_PER_HOST * 2;
+
+  private HttpServer server;
+  private CountDownLatch allConnected;
+  private ExecutorService serverThreads;
+
+  @BeforeMethod
+  public void startServer() throws IOException {
+    allConnected = new CountDownLatch(UPLOADERS);
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), UPLOADERS);
+    // Each request is held open until every uploader has one open at once, as they would while sending big batches
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        allConnected.countDown();
+        try {
+          allConnected.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        exchange.sendResponseHeaders(200, -1);
+        exchange.close();
+      }
+    });
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.start();
+  }
+
+  @AfterMethod
+  public void stopServer() {
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  public void testMoreUploadersThanTheConfiguredPool() throws Exception {
+    HttpTransport transport = new HttpTransport(1000, 10000, MAX_CONNECTIONS_PER_HOST);
+    transport.reserveConnections(UPLOADERS);
+    assertEquals(transport.getMaxConnectionsPerHost(), UPLOADERS);
+
+    ExecutorService uploaders = Executors.newFixedThreadPool(UPLOADERS);
+    try {
+      List<Future<Integer>> uploads = new ArrayList<>();
+      for (int i = 0; i < UPLOADERS; i++) {
+        uploads.add(uploaders.submit(send(transport)));
+      }
+      // Without enough connections the uploaders past the pool size time out waiting for one
+      for (Future<Integer> upload : uploads) {
+        assertEquals(upload.get(), Integer.valueOf(200));
+      }
+    } finally {
+      uploaders.shutdownNow();
+      transport.shutdown();
+    }
+  }
+
+  public void testReservingFewerConnectionsKeepsTheConfiguredPool() {
+    HttpTransport transport = new HttpTransport(1000, 10000, MAX_CONNECTIONS_PER_HOST);
+    transport.reserveConnections(2);
+    assertEquals(transport.getMaxConnectionsPerHost(), MAX_CONNECTIONS_PER_HOST);
+    transport.shutdown();
+  }
+
+  private Callable<Integer> send(final HttpTransport transport) {
+    return new Callable<Integer>() {
+      @Override
+      public Integer call() throws IOException {
+        GetMethod request = new GetMethod("http://localhost:" + server.getAddress().getPort() + "/upload");
+        try {
+          return transport.execute(request, null);
+        } finally {
+          request.releaseConnection();
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,135 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.guidewire.tools.benchmarking.QueryDefinition;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class QuerySchedulerTest {
+  private static final long MINUTE = 60 * 1000;
+
+  private File historyFile;
+
+  @BeforeMethod
+  public void createHistoryFile() throws IOException {
+    File directory = Files.createTempDirectory("history").toFile();
+    directory.deleteOnExit();
+    historyFile = new File(directory, "query_history.json");
+    historyFile.deleteOnExit();
+  }
+
+  private List<QueryDefinition> queries(String... names) {
+    List<QueryDefinition> queries = new ArrayList<>();
+    for (String name : names) {
+      QueryDefinition queryDefinition = new QueryDefinition();
+      queryDefinition.setName(name);
+      queries.add(queryDefinition);
+    }
+    return queries;
+  }
+
+  private List<String> names(List<QueryDefinition> queries) {
+    List<String> names = new ArrayList<>();
+    for (QueryDefinition queryDefinition : queries) {
+      names.add(queryDefinition.getName());
+    }
+    return names;
+  }
+
+  // Saves a run in which each query took the given number of minutes and finished
+  private void saveRun(String[] names, long[] minutes) throws IOException {
+    QueryScheduler scheduler = new QueryScheduler(historyFile);
+    for (int i = 0; i < names.length; i++) {
+      scheduler.record(names[i], 100, minutes[i] * MINUTE);
+      scheduler.completed(names[i]);
+    }
+    scheduler.save();
+  }
+
+  public void testWithoutHistoryKeepsServerOrder() {
+    QueryScheduler scheduler = new QueryScheduler(historyFile);
+    List<QueryDefinition> ordered = scheduler.schedule(queries("cc_claim", "cc_policy", "cc_contact"), 0, 1);
+    assertEquals(names(ordered), Arrays.asList("cc_claim", "cc_policy", "cc_contact"));
+    assertEquals(scheduler.getSlice("cc_claim"), 0L);
+  }
+
+  public void testLongestQueriesFirst() throws Exception {
+    saveRun(new String[] {"cc_claim", "cc_policy", "cc_contact"}, new long[] {1, 10, 5});
+    QueryScheduler scheduler = new QueryScheduler(historyFile);
+    List<QueryDefinition> ordered = scheduler.schedule(queries("cc_claim", "cc_policy", "cc_contact"), 0, 1);
+    assertEquals(names(ordered), Arrays.asList("cc_policy", "cc_contact", "cc_claim"));
+  }
+
+  public void testStalestFirstWhenTimesMatch() throws Exception {
+    saveRun(new String[] {"cc_claim"}, new long[] {0});
+    Thread.sleep(5);
+    saveRun(new String[] {"cc_policy"}, new long[] {0});
+    QueryScheduler scheduler = new QueryScheduler(historyFile);
+    List<QueryDefinition> ordered = scheduler.schedule(queries("cc_policy", "cc_claim", "cc_contact"), 0, 1);
+    assertEquals(names(ordered), Arrays.asList("cc_contact", "cc_claim", "cc_policy"));
+  }
+
+  public void testGiantsGetSlices() throws Exception {
+    saveRun(new String[] {"cc_claim", "cc_policy", "cc_contact", "cc_address"}, new long[] {300, 200, 10, 20});
+    QueryScheduler scheduler = new QueryScheduler(historyFile);
+    scheduler.schedule(queries("cc_claim", "cc_policy", "cc_contact", "cc_address"), 120 * MINUTE, 1);
+    // 90 spare minutes shared by the two giants over GIANT_ROUNDS passes
+    long slice = 90 * MINUTE / 2 / QueryScheduler.GIANT_ROUNDS;
+    assertEquals(scheduler.getSlice("cc_claim"), slice);
+    assertEquals(scheduler.getSlice("cc_policy"), slice);
+    assertEquals(scheduler.getSlice("cc_contact"), 0L);
+    assertEquals(scheduler.getSlice("cc_address"), 0L);
+
+    scheduler.schedule(queries("cc_claim", "cc_policy"), 0, 1);
+    assertEquals(scheduler.getSlice("cc_claim"), 0L, "no slices without a time limit");
+  }
+
+  public void testSliceHasAMinimum() throws Exception {
+    saveRun(new String[] {"cc_claim", "cc_policy"}, new long[] {300, 10});
+    QueryScheduler scheduler = new QueryScheduler(historyFile);
+    scheduler.schedule(queries("cc_claim", "cc_policy"), 10 * MINUTE, 1);
+    assertEquals(scheduler.getSlice("cc_claim"), QueryScheduler.MIN_SLICE);
+  }
+
+  public void testUnfinishedQueryExpectedToTakeLonger() throws Exception {
+    QueryScheduler scheduler = new QueryScheduler(historyFile);
+    scheduler.record("cc_claim", 1000, 10 * MINUTE);
+    scheduler.record("cc_claim", 500, 5 * MINUTE);
+    scheduler.save();
+
+    QueryScheduler.History history = new QueryScheduler(historyFile).getHistory("cc_claim");
+    assertEquals(history.getRows(), 1500L);
+    assertEquals(history.getMillis(), 30 * MINUTE);
+    assertEquals(history.getLastCompleted(), 0L);
+  }
+
+  public void testCompletedRunsAveraged() throws Exception {
+    saveRun(new String[] {"cc_claim"}, new long[] {10});
+    saveRun(new String[] {"cc_claim"}, new long[] {20});
+    QueryScheduler.History history = new QueryScheduler(historyFile).getHistory("cc_claim");
+    assertEquals(history.getMillis(), 15 * MINUTE);
+    assertTrue(history.getLastCompleted() > 0);
+  }
+
+  public void testDamagedHistoryIgnored() throws Exception {
+    Files.write(historyFile.toPath(), "{\"cc_claim\": [".getBytes(StandardCharsets.UTF_8));
+    QueryScheduler scheduler = new QueryScheduler(historyFile);
+    assertNull(scheduler.getHistory("cc_claim"));
+    scheduler.completed("cc_claim");
+    scheduler.save();
+    assertTrue(new QueryScheduler(historyFile).getHistory("cc_claim").getLastCompleted() > 0);
+  }
+}
@@ -0,0 +1,73 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class UploadBatchSizerTest {
+
+  public void testIsFull_RowsOrBytes() {
+    UploadBatchSizer sizer = new UploadBatchSizer(100, 1024 * 1024);
+    assertFalse(sizer.isFull(99, 1000));
+    assertTrue(sizer.isFull(100, 1000));
+    assertTrue(sizer.isFull(1, 1024 * 1024));
+  }
+
+  public void testRequestTooLarge_HalvesRejectedSize() {
+    UploadBatchSizer sizer = new UploadBatchSizer(100, 1024 * 1024);
+    sizer.recordRequestTooLarge(512 * 1024);
+    assertEquals(sizer.getMaxBytes(), 256 * 1024);
+    // unknown payload size halves the current limit
+    sizer.recordRequestTooLarge(-1);
+    assertEquals(sizer.getMaxBytes(), 128 * 1024);
+  }
+
+  public void testRequestTooLarge_NeverBelowMinimum() {
+    UploadBatchSizer sizer = new UploadBatchSizer(100, 1024 * 1024);
+    for (int i = 0; i < 20; i++) {
+      sizer.recordRequestTooLarge(-1);
+    }
+    assertEquals(sizer.getMaxBytes(), UploadBatchSizer.MIN_BYTES_PER_POST);
+  }
+
+  public void testSuccess_BytesGrowAdditivelyUpToCeiling() {
+    UploadBatchSizer sizer = new UploadBatchSizer(100, 1024 * 1024);
+    sizer.recordRequestTooLarge(1024 * 1024);
+    int reducedBytes = sizer.getMaxBytes();
+    for (int i = 0; i < UploadBatchSizer.SUCCESSES_BEFORE_INCREASE - 1; i++) {
+      sizer.recordSuccess();
+    }
+    assertEquals(sizer.getMaxRows(), 100);
+    assertEquals(sizer.getMaxBytes(), reducedBytes);
+
+    sizer.recordSuccess();
+    assertTrue(sizer.getMaxBytes() > reducedBytes);
+
+    for (int i = 0; i < 1000; i++) {
+      sizer.recordSuccess();
+    }
+    assertEquals(sizer.getMaxBytes(), 1024 * 1024);
+  }
+
+  public void testSuccess_RowsNeverAboveConfiguredMaximum() {
+    UploadBatchSizer sizer = new UploadBatchSizer(100, 1024 * 1024);
+    for (int i = 0; i < 1000; i++) {
+      sizer.recordSuccess();
+    }
+    assertEquals(sizer.getMaxRows(), 100);
+    assertTrue(sizer.isFull(100, 1000));
+  }
+
+  public void testEstimateEncodedLength() {
+    int overhead = UploadBatchSizer.ENCODED_CELL_OVERHEAD;
+    assertEquals(UploadBatchSizer.estimateEncodedLength(null), overhead);
+    assertEquals(UploadBatchSizer.estimateEncodedLength("abc 123"), overhead + 7);
+    assertEquals(UploadBatchSizer.estimateEncodedLength("a/b"), overhead + 5);
+    assertEquals(UploadBatchSizer.estimateEncodedLength("é"), overhead + 6);
+    assertEquals(UploadBatchSizer.estimateEncodedLength("日"), overhead + 9);
+  }
+}
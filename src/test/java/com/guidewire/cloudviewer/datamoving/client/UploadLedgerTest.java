@@ -0,0 +1,174 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.guidewire.cloudviewer.datamoving.QueryResult;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class UploadLedgerTest {
+
+  /**
+   * Stands in for the server: keeps each batch once, by batch id and content hash, and can be told to lose the
+   * acknowledgement of a batch it has stored, as a dropped connection would.
+   */
+  private static class DedupingServer {
+    private final Map<String, String> stored = new HashMap<>();
+    private final List<String> rows = new ArrayList<>();
+    private int received = 0;
+    private int failAfterStoring = -1;
+
+    boolean upload(QueryResult data) {
+      received++;
+      String key = data.getBatchId() + "/" + data.getContentHash();
+      if (!stored.containsKey(key)) {
+        stored.put(key, data.getBatchId());
+        for (QueryResult.ResultRow row : data.getRows()) {
+          rows.add(row.getResults().get(0));
+        }
+      }
+      return received != failAfterStoring;
+    }
+  }
+
+  private List<QueryResult> batches(String name, int count, int rowsPerBatch) {
+    List<QueryResult> batches = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      QueryResult result = new QueryResult();
+      result.setName(name);
+      for (int j = 0; j < rowsPerBatch; j++) {
+        QueryResult.ResultRow row = QueryResult.newResultRow(1);
+        row.add(Integer.toString(i * rowsPerBatch + j));
+        result.addRow(row);
+      }
+      result.setRowCount(rowsPerBatch);
+      batches.add(result);
+    }
+    return batches;
+  }
+
+  // Sends the batches the way DataExtractorClient.sendData() does, stopping at the first failure
+  private boolean send(UploadLedger ledger, DedupingServer server, List<QueryResult> batches) {
+    ledger.startTable(batches.get(0).getName());
+    for (QueryResult data : batches) {
+      ledger.stamp(data);
+      if (ledger.isAcknowledged(data)) {
+        continue;
+      }
+      if (!server.upload(data)) {
+        return false;
+      }
+      ledger.acknowledge(data);
+    }
+    return true;
+  }
+
+  public void testBatchIds() {
+    UploadLedger ledger = new UploadLedger("run1");
+    List<QueryResult> claims = batches("cc_claim", 2, 1);
+    List<QueryResult> policies = batches("cc_policy", 1, 1);
+    ledger.stamp(claims.get(0));
+    ledger.stamp(policies.get(0));
+    ledger.stamp(claims.get(1));
+    assertEquals(claims.get(0).getBatchId(), "run1:cc_claim:1");
+    assertEquals(claims.get(1).getBatchId(), "run1:cc_claim:2");
+    assertEquals(policies.get(0).getBatchId(), "run1:cc_policy:1");
+
+    ledger.startTable("cc_claim");
+    QueryResult again = batches("cc_claim", 1, 1).get(0);
+    ledger.stamp(again);
+    assertEquals(again.getBatchId(), "run1:cc_claim:1");
+    assertEquals(again.getContentHash(), claims.get(0).getContentHash());
+  }
+
+  public void testContentHash() {
+    QueryResult first = batches("cc_claim", 1, 2).get(0);
+    QueryResult second = batches("cc_claim", 1, 2).get(0);
+    assertEquals(UploadLedger.contentHash(first), UploadLedger.contentHash(second));
+
+    second.getRows().get(1).getResults().set(0, "10");
+    assertFalse(UploadLedger.contentHash(first).equals(UploadLedger.contentHash(second)));
+
+    // "0","1" and "01",null hold the same characters but aren't the same rows
+    second.getRows().get(0).getResults().set(0, "01");
+    second.getRows().get(1).getResults().set(0, null);
+    assertFalse(UploadLedger.contentHash(first).equals(UploadLedger.contentHash(second)));
+  }
+
+  public void testRetryResendsOnlyUnacknowledgedBatches() {
+    UploadLedger ledger = new UploadLedger();
+    DedupingServer server = new DedupingServer();
+    // The server stores the third batch, but the acknowledgement never makes it back
+    server.failAfterStoring = 3;
+    assertFalse(send(ledger, server, batches("cc_claim", 5, 10)));
+    assertEquals(server.received, 3);
+
+    // Retry from the start of the file, as DataExtractionRunner does
+    assertTrue(send(ledger, server, batches("cc_claim", 5, 10)));
+    assertEquals(server.received, 6, "batches 1 and 2 aren't resent; batch 3 is, and the server drops it");
+    assertEquals(server.stored.size(), 5);
+    assertEquals(server.rows.size(), 50);
+  }
+
+  /**
+   * Each pass of an incremental query starts from the watermark the server advanced to after the last one, so it reads
+   * new rows, which mustn't be taken for the batches of the last pass, even by a server that only goes by batch id.
+   */
+  public void testPassesFromAdvancingWatermarks() {
+    UploadLedger ledger = new UploadLedger("run1");
+    Map<String, QueryResult> byBatchId = new HashMap<>();
+    List<QueryResult> firstPass = batches("cc_claim", 2, 10);
+    ledger.startTable("cc_claim", "[2026-10-19 10:00:00.000]");
+    for (QueryResult data : firstPass) {
+      ledger.stamp(data);
+      assertFalse(ledger.isAcknowledged(data));
+      byBatchId.put(data.getBatchId(), data);
+      ledger.acknowledge(data);
+    }
+
+    List<QueryResult> secondPass = batches("cc_claim", 4, 5);
+    ledger.startTable("cc_claim", "[2026-10-19 11:00:00.000]");
+    for (QueryResult data : secondPass) {
+      ledger.stamp(data);
+      assertFalse(ledger.isAcknowledged(data));
+      assertFalse(byBatchId.containsKey(data.getBatchId()), data.getBatchId() + " was already used");
+      byBatchId.put(data.getBatchId(), data);
+    }
+    assertEquals(byBatchId.size(), 6);
+    assertEquals(secondPass.get(0).getBatchId(),
+      "run1:cc_claim:" + UploadLedger.startKey("[2026-10-19 11:00:00.000]") + ":1");
+
+    // Run again from the first pass's watermark, the same rows get the same ids, and are skipped
+    ledger.startTable("cc_claim", "[2026-10-19 10:00:00.000]");
+    for (QueryResult data : batches("cc_claim", 2, 10)) {
+      ledger.stamp(data);
+      assertTrue(ledger.isAcknowledged(data));
+    }
+  }
+
+  public void testBatchedDifferentlyIsSentAgain() {
+    UploadLedger ledger = new UploadLedger();
+    DedupingServer server = new DedupingServer();
+    assertTrue(send(ledger, server, batches("cc_claim", 2, 10)));
+    assertTrue(send(ledger, server, batches("cc_claim", 4, 5)));
+    assertEquals(server.received, 6);
+  }
+
+  public void testSplitPartsIdentified() {
+    UploadLedger ledger = new UploadLedger("run1");
+    QueryResult batch = batches("cc_claim", 1, 2).get(0);
+    ledger.stamp(batch);
+    QueryResult part = batches("cc_claim", 1, 1).get(0);
+    UploadLedger.stampPart(part, batch, 2);
+    assertEquals(part.getBatchId(), "run1:cc_claim:1.2");
+    assertEquals(part.getContentHash(), UploadLedger.contentHash(part));
+  }
+}
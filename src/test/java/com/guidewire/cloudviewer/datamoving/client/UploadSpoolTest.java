@@ -0,0 +1,157 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.guidewire.cloudviewer.datamoving.QueryResult;
+import com.guidewire.tools.benchmarking.ColumnDef;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class UploadSpoolTest {
+  private File directory;
+
+  @BeforeMethod
+  public void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("spool").toFile();
+  }
+
+  @AfterMethod
+  public void deleteDirectory() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  private QueryResult createQueryResult(String name, int rows) {
+    QueryResult result = new QueryResult();
+    result.setName(name);
+    List<ColumnDef> columns = new ArrayList<ColumnDef>();
+    columns.add(ColumnDef.createDefinition(ColumnDef.ID, "ID"));
+    result.setColumns(columns);
+    for (int i = 0; i < rows; i++) {
+      QueryResult.ResultRow row = QueryResult.newResultRow(1);
+      row.add(Integer.toString(i));
+      result.addRow(row);
+    }
+    result.setRowCount(rows);
+    return result;
+  }
+
+  public void testAppendNextAcknowledge() throws Exception {
+    UploadSpool spool = new UploadSpool(directory);
+    spool.append(createQueryResult("cc_claim", 3));
+    spool.append(createQueryResult("cc_policy", 2));
+    assertEquals(spool.pendingCount(), 2);
+    assertEquals(spool.pendingRows(), 5);
+
+    UploadSpool.Segment segment = spool.next();
+    assertEquals(segment.getName(), "cc_claim");
+    spool.release(segment);
+    assertEquals(spool.next(), segment, "released segment is handed out again");
+    QueryResult read = spool.read(segment);
+    assertEquals(read.getName(), "cc_claim");
+    assertEquals(read.getRows().size(), 3);
+    spool.acknowledge(segment);
+
+    segment = spool.next();
+    assertEquals(segment.getName(), "cc_policy");
+    spool.acknowledge(segment);
+    assertNull(spool.next());
+    assertFalse(new File(directory, UploadSpool.COMMIT_LOG).exists());
+    assertEquals(directory.listFiles().length, 0);
+  }
+
+  public void testTableSegmentsHandedOutInOrder() throws Exception {
+    UploadSpool spool = new UploadSpool(directory);
+    spool.append(createQueryResult("cc_claim", 1));
+    spool.append(createQueryResult("cc_claim", 2));
+    spool.append(createQueryResult("cc_policy", 3));
+
+    UploadSpool.Segment firstClaim = spool.next();
+    assertEquals(firstClaim.getName(), "cc_claim");
+    // The second cc_claim segment waits for the first, so another uploader gets cc_policy
+    UploadSpool.Segment policy = spool.next();
+    assertEquals(policy.getName(), "cc_policy");
+    spool.acknowledge(firstClaim);
+
+    UploadSpool.Segment secondClaim = spool.next();
+    assertEquals(secondClaim.getName(), "cc_claim");
+    assertEquals(secondClaim.getRows(), 2);
+  }
+
+  public void testNextWaitsWhileWriting() throws Exception {
+    final UploadSpool spool = new UploadSpool(directory);
+    spool.startWriting();
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+          spool.append(createQueryResult("cc_claim", 1));
+          spool.finishWriting();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    writer.start();
+    UploadSpool.Segment segment = spool.next();
+    assertEquals(segment.getName(), "cc_claim");
+    spool.acknowledge(segment);
+    writer.join();
+    assertNull(spool.next());
+  }
+
+  public void testResumesFromFirstUnacknowledgedSegment() throws Exception {
+    UploadSpool spool = new UploadSpool(directory);
+    spool.acknowledge(spool.append(createQueryResult("cc_claim", 1)));
+    spool.append(createQueryResult("cc_policy", 2));
+    spool.append(createQueryResult("cc_contact", 3));
+
+    UploadSpool reopened = new UploadSpool(directory);
+    assertEquals(reopened.pendingCount(), 2);
+    assertEquals(reopened.pendingRows(), 5);
+    UploadSpool.Segment segment = reopened.next();
+    assertEquals(segment.getName(), "cc_policy");
+    assertEquals(reopened.read(segment).getRows().size(), 2);
+    reopened.acknowledge(segment);
+
+    UploadSpool.Segment last = reopened.append(createQueryResult("cc_address", 4));
+    assertTrue(last.getSequence() > segment.getSequence());
+    assertEquals(reopened.next().getName(), "cc_contact");
+  }
+
+  public void testDiscardsIncompleteWrites() throws Exception {
+    UploadSpool spool = new UploadSpool(directory);
+    spool.append(createQueryResult("cc_claim", 1));
+    // A segment that was written but never logged, and a log line cut off part way through
+    File orphan = new File(directory, "segment-000000000002.json");
+    Files.write(orphan.toPath(), "{\"name\":\"cc_policy\"".getBytes(StandardCharsets.UTF_8));
+    try (FileOutputStream out = new FileOutputStream(new File(directory, UploadSpool.COMMIT_LOG), true)) {
+      out.write("WRITTEN\t2\t".getBytes(StandardCharsets.UTF_8));
+    }
+
+    UploadSpool reopened = new UploadSpool(directory);
+    assertEquals(reopened.pendingCount(), 1);
+    assertEquals(reopened.next().getName(), "cc_claim");
+    assertFalse(orphan.exists());
+  }
+}
@@ -0,0 +1,81 @@
+package com.guidewire.cloudviewer.datamoving.client;
+
+import com.guidewire.tools.benchmarking.CSVFileColumnDef;
+import com.guidewire.tools.benchmarking.ColumnDef;
+import org.testng.annotations.Test;
+
+import java.io.StringWriter;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class ValidationStatisticsTest {
+
+  public void testErrorTypes() {
+    assertEquals(ValidationStatistics.Column.errorType(new ParseException("Unparseable number: \"12a\"", 2)), "Unparseable number");
+    assertEquals(ValidationStatistics.Column.errorType(new ParseException("Null value found for required field city of type STRING", 0)),
+      "Null value found for required field city of type STRING");
+    assertEquals(ValidationStatistics.Column.errorType(new NullPointerException()), "NullPointerException");
+  }
+
+  public void testErrorTypesBounded() {
+    ValidationStatistics statistics = new ValidationStatistics("policy", Arrays.asList(ColumnDef.createDefinition(ColumnDef.STRING, "city")));
+    for (int i = 0; i < ValidationStatistics.MAX_ERROR_TYPES + 10; i++) {
+      statistics.error(0, new ParseException("Error " + i, 0));
+    }
+    ValidationStatistics.Column city = statistics.getColumn(0);
+    assertEquals(city.getErrors(), ValidationStatistics.MAX_ERROR_TYPES + 10L);
+    assertEquals(city.getErrorsByType().size(), ValidationStatistics.MAX_ERROR_TYPES + 1);
+    assertEquals(city.getErrorsByType().get(ValidationStatistics.OTHER_ERRORS), Long.valueOf(10));
+  }
+
+  public void testPartsMergedInOrder() throws Exception {
+    ValidationStatistics whole = new ValidationStatistics("policy", Arrays.asList(ColumnDef.createDefinition(ColumnDef.STRING, "city")));
+    ValidationStatistics first = new ValidationStatistics("policy", Arrays.asList(ColumnDef.createDefinition(ColumnDef.STRING, "city")));
+    ValidationStatistics second = new ValidationStatistics("policy", Arrays.asList(ColumnDef.createDefinition(ColumnDef.STRING, "city")));
+    first.value(0, "Buffalo", "Buffalo");
+    first.value(0, "", null);
+    first.row(false);
+    first.row(false);
+    second.value(0, "Buffalo", "Buffalo");
+    second.error(0, new ParseException("Unparseable date: \"x\"", 0));
+    second.row(false);
+    second.row(true);
+    whole.merge(first);
+    whole.merge(second);
+
+    assertEquals(whole.getRows(), 4L);
+    assertEquals(whole.getRowsWithErrors(), 1L);
+    ValidationStatistics.Column city = whole.getColumn(0);
+    assertEquals(city.getValues(), 4L);
+    assertEquals(city.getNulls(), 1L);
+    assertEquals(city.getErrors(), 1L);
+    assertEquals(city.getDistinctValues(), 1L);
+    assertNull(city.getMin());
+
+    StringWriter json = new StringWriter();
+    whole.write(json);
+    assertTrue(json.toString().contains("\"nullRate\": 0.2500"), json.toString());
+    assertTrue(json.toString().contains("\"Unparseable date\": 1"), json.toString());
+  }
+
+  public void testMinAndMaxFromTypedValues() {
+    ColumnDef amount = new CSVFileColumnDef("amount", ColumnDef.INTEGER_BRACKET, "amount", CSVFileColumnDef.ColumnStatus.REQUIRED);
+    ValidationStatistics statistics = new ValidationStatistics("policy", Arrays.<ColumnDef>asList(amount));
+    statistics.value(0, "20", 20L);
+    statistics.value(0, "3", 3L);
+    statistics.value(0, "100", 100L);
+    statistics.value(0, "", null);
+
+    ValidationStatistics.Column column = statistics.getColumn(0);
+    assertEquals(column.getValues(), 4L);
+    assertEquals(column.getNulls(), 1L);
+    assertEquals(column.getMin(), "3");
+    assertEquals(column.getMax(), "100");
+  }
+}
@@ -4,6 +4,7 @@ import com.guidewire.cloudviewer.datamoving.RowDataSource;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.ParseException;
@@ -29,6 +30,14 @@ public class BitColumnTest {
     Assert.assertEquals(outputResults, "0");
   }
 
+  public void testGetValueReadsBoolean() throws SQLException, ParseException {
+    BitColumn column = (BitColumn) ColumnDef.createDefinition(ColumnDef.BIT, "test");
+
+    Object value = column.getValue(rowDataSource(true));
+    Assert.assertEquals(value, "1");
+    Assert.assertEquals(column.formatValue(value), "1");
+  }
+
 
   private RowDataSource rowDataSource(boolean value) {
     return new RowDataSource() {
@@ -72,11 +81,21 @@ public class BitColumnTest {
         return null;
       }
 
+      @Override
+      public BigDecimal getBigDecimal(String value) {
+        return null;
+      }
+
       @Override
       public Integer getInt(String integer) throws ParseException {
         throw new ParseException("ParseException", 0);
       }
 
+      @Override
+      public Long getLong(String value) throws ParseException {
+        throw new ParseException("ParseException", 0);
+      }
+
       @Override
       public String getString(String s) {
         return value ? "true" : "false";
@@ -0,0 +1,60 @@
+package com.guidewire.tools.benchmarking;
+
+import org.testng.annotations.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+
+@Test(groups="unit")
+public class CompiledDateFormatTest {
+  private static final TimeZone LOS_ANGELES = TimeZone.getTimeZone("America/Los_Angeles");
+
+  private static long simpleDateFormatMillis(String pattern, String value) throws Exception {
+    SimpleDateFormat format = new SimpleDateFormat(pattern);
+    format.setTimeZone(LOS_ANGELES);
+    return format.parse(value).getTime();
+  }
+
+  public void testCompiles() {
+    assertNotNull(CompiledDateFormat.compile("yyyyMMdd HH:mm:ss.SSSZ", LOS_ANGELES));
+    assertNotNull(CompiledDateFormat.compile("dd.MM.yyyy", LOS_ANGELES));
+    assertNull(CompiledDateFormat.compile("ddMMMyyyy:HH:mm:ss", LOS_ANGELES), "month names");
+    assertNull(CompiledDateFormat.compile("yyMMdd", LOS_ANGELES), "two digit years");
+    assertNull(CompiledDateFormat.compile("yyyy-MM-dd'T'HH:mm", LOS_ANGELES), "quoted literals");
+    assertNull(CompiledDateFormat.compile("MM/dd/yyyy hh:mm a", LOS_ANGELES), "12 hour times");
+  }
+
+  public void testReadsLikeSimpleDateFormat() throws Exception {
+    String[][] values = {
+        {"yyyyMMdd HH:mm:ss.SSSZ", "20150330 15:18:42.123-0700"},
+        {"yyyyMMdd HH:mm:ss.SSSZ", "19991231 23:59:59.999+0530"},
+        {"yyyy-MM-dd HH:mm:ss.SSS", "2015-03-30 15:18:42.123"},
+        {"yyyy-MM-dd HH:mm:ss.SSS", "2015-01-30 15:18:42.123"},
+        {"MM/dd/yyyy HH:mm:ss.SSS", "02/29/2016 00:00:00.000"},
+        {"yyyy-MM-dd", "2015-11-01"},
+        {"HH:mm", "12:30"},
+    };
+    for (String[] value : values) {
+      CompiledDateFormat format = CompiledDateFormat.compile(value[0], LOS_ANGELES);
+      assertEquals(format.parse(value[1]), simpleDateFormatMillis(value[0], value[1]), value[1]);
+    }
+  }
+
+  public void testLeavesTheRestToSimpleDateFormat() {
+    CompiledDateFormat format = CompiledDateFormat.compile("yyyy-MM-dd HH:mm:ss.SSS", LOS_ANGELES);
+    assertEquals(format.parse("2015-03-30 15:18:42"), CompiledDateFormat.NO_MATCH, "too short");
+    assertEquals(format.parse("2015-03-30 15:18:42.1234"), CompiledDateFormat.NO_MATCH, "too long");
+    assertEquals(format.parse("2015/03/30 15:18:42.123"), CompiledDateFormat.NO_MATCH, "other literals");
+    assertEquals(format.parse("2015-13-30 15:18:42.123"), CompiledDateFormat.NO_MATCH, "lenient month");
+    assertEquals(format.parse("2015-02-29 15:18:42.123"), CompiledDateFormat.NO_MATCH, "lenient day");
+    assertEquals(format.parse("1850-03-30 15:18:42.123"), CompiledDateFormat.NO_MATCH, "before 1900");
+    assertEquals(format.parse("2015-03-08 02:30:00.000"), CompiledDateFormat.NO_MATCH, "in the daylight saving gap");
+    assertEquals(format.parse("2015-11-01 01:30:00.000"), CompiledDateFormat.NO_MATCH, "in the daylight saving overlap");
+    assertEquals(CompiledDateFormat.compile("yyyyMMddZ", LOS_ANGELES).parse("20150330 0700"), CompiledDateFormat.NO_MATCH, "no zone sign");
+  }
+}
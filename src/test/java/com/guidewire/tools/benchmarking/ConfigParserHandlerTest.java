@@ -34,6 +34,10 @@ public class ConfigParserHandlerTest {
     assertEquals(dataExtractor.getGwAuth(), null);
     assertEquals(dataExtractor.getCasHost(), "gw-loginservice-prod.guidewire.net");
     assertEquals(dataExtractor.getDomain(), "cbs.guidewire.com");
+    assertEquals(dataExtractor.getHttpConnectionTimeout(), DataExtractor.DEFAULT_HTTP_CONNECTION_TIMEOUT);
+    assertEquals(dataExtractor.getHttpSocketTimeout(), DataExtractor.DEFAULT_HTTP_SOCKET_TIMEOUT);
+    assertEquals(dataExtractor.getHttpMaxConnectionsPerHost(), DataExtractor.DEFAULT_HTTP_MAX_CONNECTIONS_PER_HOST);
+    assertEquals(dataExtractor.getDBThreads(), DataExtractor.DEFAULT_DB_THREADS);
   }
 
 
@@ -59,6 +63,25 @@ public class ConfigParserHandlerTest {
   }
 
 
+  /**
+   * Http connection settings are read from the guidewire element, and bad values fall back to the defaults
+   */
+  public void testHttpAttributes() throws Exception {
+    DataExtractor dataExtractor = dataExtractor("testHttpAttributes");
+    assertEquals(dataExtractor.getHttpConnectionTimeout(), 1000);
+    assertEquals(dataExtractor.getHttpSocketTimeout(), 2000);
+    assertEquals(dataExtractor.getHttpMaxConnectionsPerHost(), DataExtractor.DEFAULT_HTTP_MAX_CONNECTIONS_PER_HOST);
+  }
+
+
+  /**
+   * The number of queries to run at once comes from the database element
+   */
+  public void testDBThreads() throws Exception {
+    assertEquals(dataExtractor("testDBThreads").getDBThreads(), 6);
+  }
+
+
   /**
    * If there's no "." in the dbTag, we add one
    */
@@ -0,0 +1,61 @@
+package com.guidewire.tools.benchmarking;
+
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class CredentialsTest {
+
+  public void testEncryptedRoundTrip() throws Exception {
+    String encrypted = Credentials.encryptText(DataExtractionRunner.PHRASE, "s3crét");
+    assertEquals(new String(Credentials.decryptText(DataExtractionRunner.PHRASE, encrypted), StandardCharsets.UTF_8), "s3crét");
+  }
+
+  public void testSecretsDecryptedInTheBackground() throws Exception {
+    Credentials credentials = new Credentials(new DataExtractorLog());
+    credentials.set(Credentials.DB_PASSWORD, Credentials.encryptText(DataExtractionRunner.PHRASE, "dbpassword"));
+    credentials.set(Credentials.PROXY_PASSWORD, Credentials.encryptText(DataExtractionRunner.PHRASE, "proxypassword"));
+    credentials.set(Credentials.OKTA_CLIENT_SECRET, "not encrypted");
+    credentials.decrypt(Credentials.DB_PASSWORD, DataExtractionRunner.PHRASE);
+    credentials.decrypt(Credentials.PROXY_PASSWORD, DataExtractionRunner.PHRASE);
+
+    assertTrue(credentials.has(Credentials.DB_PASSWORD));
+    assertEquals(credentials.get(Credentials.DB_PASSWORD), "dbpassword");
+    assertEquals(credentials.get(Credentials.PROXY_PASSWORD), "proxypassword");
+    assertEquals(credentials.get(Credentials.OKTA_CLIENT_SECRET), "not encrypted");
+
+    credentials.clear();
+    assertFalse(credentials.has(Credentials.DB_PASSWORD));
+    assertNull(credentials.get(Credentials.DB_PASSWORD));
+  }
+
+  public void testUndecryptableSecretLeftAsConfigured() {
+    Credentials credentials = new Credentials(new DataExtractorLog());
+    String notEncrypted = Base64.getEncoder().encodeToString("plain password".getBytes(StandardCharsets.UTF_8));
+    credentials.set(Credentials.DB_PASSWORD, notEncrypted);
+    credentials.decrypt(Credentials.DB_PASSWORD, DataExtractionRunner.PHRASE);
+    assertEquals(credentials.get(Credentials.DB_PASSWORD), notEncrypted);
+    assertEquals(credentials.get(Credentials.DB_PASSWORD), notEncrypted);
+
+    credentials.set(Credentials.PROXY_PASSWORD, "not base 64!");
+    credentials.decrypt(Credentials.PROXY_PASSWORD, DataExtractionRunner.PHRASE);
+    assertEquals(credentials.get(Credentials.PROXY_PASSWORD), "not base 64!");
+  }
+
+  public void testSecretKeyDerivedOnce() throws Exception {
+    byte[] iv = "twelve bytes".getBytes(StandardCharsets.UTF_8);
+    assertSame(DataExtractionRunner.generateSecretKey(DataExtractionRunner.PHRASE, iv),
+        DataExtractionRunner.generateSecretKey(DataExtractionRunner.PHRASE, iv.clone()));
+    assertFalse(DataExtractionRunner.generateSecretKey(DataExtractionRunner.PHRASE, iv)
+        .equals(DataExtractionRunner.generateSecretKey("another phrase", iv)));
+  }
+}
@@ -10,7 +10,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Test the parsing of CustomerCSVFileDefinition config files
@@ -97,6 +101,36 @@ public class CustomerCSVFileDefinitionXMLParserTest {
     }
   }
 
+  public void testHeaderMatchedByNameOrAliasIgnoringCaseAndSeparators() throws Exception {
+    List<CSVFileColumnDef> columnDefs = new ArrayList<>();
+    columnDefs.add(new CSVFileColumnDef("policyNumber", "STRING", "pol_num", CSVFileColumnDef.ColumnStatus.REQUIRED));
+    columnDefs.add(new CSVFileColumnDef("locationId", "INTEGER", "Policy Location ID", CSVFileColumnDef.ColumnStatus.REQUIRED));
+    // Has the other column's alias as its name, so a header of pol_num is the first column's
+    columnDefs.add(new CSVFileColumnDef("pol_num", "STRING", "secondnumber", CSVFileColumnDef.ColumnStatus.NOTREQUIRED));
+    CSVFileDefinition fileDefinition = new CSVFileDefinition("policy", columnDefs);
+
+    Map<String, Integer> header = new LinkedHashMap<>();
+    header.put("POLICY_LOCATION_ID", 0);
+    header.put(" Pol Num ", 1);
+    header.put("Second\tNumber", 2);
+    Assert.assertTrue(fileDefinition.validateHeaderRow(header, new DataExtractor()));
+    Assert.assertEquals(0, fileDefinition.getColumnIndexForColumnName("location_id"));
+    Assert.assertEquals(1, fileDefinition.getColumnIndexForColumnName("PolicyNumber"));
+    Assert.assertEquals(2, fileDefinition.getColumnIndexForColumnName("polnum"));
+    Assert.assertEquals(-1, fileDefinition.getColumnIndexForColumnName("city"));
+    Assert.assertTrue(Arrays.equals(new int[] {1, 0, 2}, fileDefinition.getFieldIndexesForColumns()));
+
+    header.put("Unknown", 3);
+    Assert.assertFalse(fileDefinition.validateHeaderRow(header, new DataExtractor()));
+  }
+
+  public void testMatchingKeyIgnoresCaseAndSeparators() {
+    Assert.assertEquals("policyeffectivestartdate", CSVFileColumnDef.matchingKey("Policy_Effective Start\tDate"));
+    Assert.assertEquals(CSVFileColumnDef.matchingKey("STRASSE"), CSVFileColumnDef.matchingKey("strasse"));
+    String key = "alreadyakey";
+    Assert.assertSame(key, CSVFileColumnDef.matchingKey(key));
+  }
+
   public void testGetAsXMLReturnsCorrectXML() throws Exception {
     CSVFileDefinition baseFileDefinition = readFileDefFromXMLFile("base_csvfiledefinition.xml");
     String asXML = baseFileDefinition.getAsXML();
@@ -0,0 +1,73 @@
+package com.guidewire.tools.benchmarking;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+
+@Test(groups="unit")
+public class DataExtractorLogTest {
+
+  public void testErrorMessagesCapped() {
+    DataExtractorLog log = new DataExtractorLog();
+    for (int i = 0; i < DataExtractorLog.MAX_ERROR_MESSAGES_KEPT + 5; i++) {
+      log.rowError("bad row " + i);
+    }
+    assertTrue(log.hasErrorMessages());
+    assertEquals(log.getErrorCount(), DataExtractorLog.MAX_ERROR_MESSAGES_KEPT + 5);
+    assertEquals(log.getErrorMessages().size(), DataExtractorLog.MAX_ERROR_MESSAGES_KEPT);
+    assertEquals(log.getErrorMessages().get(0), "bad row 0");
+  }
+
+  public void testColumnErrorCounts() {
+    DataExtractorLog log = new DataExtractorLog();
+    log.columnError("policy", "premium");
+    log.columnError("policy", "premium");
+    log.columnError("policy", "effectivedate");
+
+    Map<String, Integer> counts = log.getColumnErrorCounts();
+    assertEquals(counts.size(), 2);
+    assertEquals(counts.get("policy.premium"), Integer.valueOf(2));
+    assertEquals(counts.get("policy.effectivedate"), Integer.valueOf(1));
+  }
+
+  public void testSummaryDisplayedOnce() {
+    DataExtractorLog log = new DataExtractorLog();
+    for (int i = 0; i < DataExtractorLog.MAX_ERROR_MESSAGES_KEPT + 5; i++) {
+      log.rowError("bad row " + i);
+    }
+    log.columnError("policy", "premium");
+
+    String summary = displayErrorSummary(log);
+    assertTrue(summary.contains("ERROR: bad row 0"));
+    assertFalse(summary.contains("bad row " + DataExtractorLog.MAX_ERROR_MESSAGES_KEPT));
+    assertTrue(summary.contains("... and 5 more errors"));
+    assertTrue(summary.contains("policy.premium: 1"));
+    assertEquals(displayErrorSummary(log), "");
+
+    log.error("another");
+    assertTrue(displayErrorSummary(log).contains("ERROR: bad row 0"));
+  }
+
+  public void testNoSummaryWithoutErrors() {
+    assertEquals(displayErrorSummary(new DataExtractorLog()), "");
+  }
+
+  private String displayErrorSummary(DataExtractorLog log) {
+    PrintStream out = System.out;
+    ByteArrayOutputStream displayed = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(displayed, true));
+    try {
+      log.displayErrorSummary();
+    } finally {
+      System.setOut(out);
+    }
+    return displayed.toString();
+  }
+}
@@ -120,5 +120,26 @@ public class DataExtractorRunnerTest {
     }
   }
 
-}
 
+  /**
+   * The daemon interval is given in minutes and the jitter in seconds.
+   */
+  public void testDaemonOptions() throws Exception {
+    DecCommandLine commandLine = new DecCommandLine(new String[] {"-onlineupdate", "-daemon", "-daemoninterval", "15", "-daemonjitter", "30"});
+    assertTrue(commandLine.hasOption(DecCommandLine.DAEMON));
+    assertEquals(commandLine.getDaemonIntervalMilli(), 15 * 60 * 1000L);
+    assertEquals(commandLine.getDaemonJitterMilli(), 30 * 1000L);
+
+    commandLine = new DecCommandLine(new String[] {"-onlineupdate"});
+    assertFalse(commandLine.hasOption(DecCommandLine.DAEMON));
+    assertEquals(commandLine.getDaemonIntervalMilli(), 60 * 60 * 1000L);
+    assertEquals(commandLine.getDaemonJitterMilli(), 5 * 60 * 1000L);
+  }
+
+  public void testUploadThreadsOption() throws Exception {
+    assertEquals(new DecCommandLine(new String[] {"-csvFile", "data/amica", "-uploadthreads", "8"}).getUploadThreads(), 8);
+    assertEquals(new DecCommandLine(new String[] {"-csvFile", "data/amica"}).getUploadThreads(), 4);
+    assertEquals(new DecCommandLine(new String[] {"-csvFile", "data/amica", "-uploadthreads", "0"}).getUploadThreads(), 4);
+  }
+
+}
@@ -8,6 +8,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created with IntelliJ IDEA.
@@ -41,6 +45,60 @@ public class DateTimeColumnTest {
     }
   }
 
+  public void testReadsTheWholeValue() throws ParseException {
+    DateTimeColumn column = (DateTimeColumn)ColumnDef.createDefinition(ColumnDef.DATETIME, "test");
+    SimpleDateFormat local = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    // Not just the date, which the yyyy-MM-dd format reads the start of
+    Assert.assertEquals(local.parse("2015-03-30 15:18:42.123"), column.dateFor("2015-03-30 15:18:42.123"));
+    Assert.assertEquals(local.parse("2015-03-30 00:00:00.000"), column.dateFor("2015-03-30"));
+    // With its zone, rather than as a local time
+    Assert.assertEquals(1427753922123L, column.dateFor("20150330 15:18:42.123-0700").getTime());
+    Assert.assertEquals(1427753922123L, column.dateFor("2015-03-30 22:18:42.123+0000").getTime());
+    // Back and forth between formats, and lenient values only SimpleDateFormat reads
+    Assert.assertEquals(local.parse("2015-03-30 15:18:42.123"), column.dateFor("03/30/2015 15:18:42.123"));
+    Assert.assertEquals(local.parse("2016-01-30 15:18:42.123"), column.dateFor("2015-13-30 15:18:42.123"));
+    Assert.assertEquals(local.parse("2015-03-30 15:18:42.123"), column.dateFor("20150330 15:18:42.123"));
+    try {
+      column.dateFor("not a date");
+      Assert.fail("not a date");
+    } catch (ParseException expected) {
+    }
+  }
+
+  public void testParsesOnManyThreads() throws Exception {
+    final DateTimeColumn column = (DateTimeColumn)ColumnDef.createDefinition(ColumnDef.DATETIME, "test", "dd.MM.yyyy HH:mm:ss");
+    final SimpleDateFormat format = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int t = 0; t < 4; t++) {
+        final int thread = t;
+        results.add(pool.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            SimpleDateFormat expected = (SimpleDateFormat) format.clone();
+            SimpleDateFormat other = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            for (int i = 0; i < 2000; i++) {
+              String value = String.format("%02d.%02d.%d 1%d:%02d:%02d", i % 28 + 1, i % 12 + 1, 1990 + thread, i % 10, i % 60, thread);
+              Date date = expected.parse(value);
+              // Every few values in another of the formats
+              String valueRead = i % 3 == 0 ? other.format(date) : value;
+              if (!date.equals(column.dateFor(valueRead))) {
+                return false;
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        Assert.assertTrue(result.get());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
   private void validateDateTimeFormats(DateTimeColumn column, List<SimpleDateFormat> dateFormats) {
     Date date = new Date();
     for (SimpleDateFormat format : dateFormats) {
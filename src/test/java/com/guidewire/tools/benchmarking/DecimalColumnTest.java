@@ -3,6 +3,7 @@ package com.guidewire.tools.benchmarking;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.math.BigDecimal;
 import java.util.concurrent.locks.Condition;
 
 /**
@@ -30,4 +31,11 @@ public class DecimalColumnTest {
     Assert.assertEquals(column.getOutputResults(0.01234567890123), "0.0123456789");
   }
 
+  public void testValuesAreExact() throws Exception {
+    DecimalColumn column = (DecimalColumn)ColumnDef.createDefinition(ColumnDef.DECIMAL, "test");
+
+    Assert.assertEquals(column.getBigDecimal("12345678901234567.89"), new BigDecimal("12345678901234567.89"));
+    Assert.assertEquals(column.getDouble("100000.23"), 100000.23);
+    Assert.assertNull(column.getBigDecimal(" "));
+  }
 }
@@ -3,6 +3,8 @@ package com.guidewire.tools.benchmarking;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.text.ParseException;
+
 /**
  * Class description...
  */
@@ -14,4 +16,20 @@ public class IntegerColumnTest {
     
     Assert.assertEquals(column.getOutputResults(100000), "100000");
   }
+
+  public void testIdsAreLongs() throws Exception {
+    IntegerColumn column = (IntegerColumn)ColumnDef.createDefinition(ColumnDef.ID, "ID");
+
+    Assert.assertEquals(column.getLong("3000000000"), Long.valueOf(3000000000L));
+    Assert.assertEquals(column.getOutputResults(3000000000L), "3000000000");
+    Assert.assertEquals(column.getDBColumnType(), "BIGINT");
+  }
+
+  public void testTrailingCharactersAreAnError() throws Exception {
+    try {
+      ColumnDef.createDefinition(ColumnDef.INTEGER, "test").getInt("12abc");
+      Assert.fail("read 12abc");
+    } catch (ParseException expected) {
+    }
+  }
 }
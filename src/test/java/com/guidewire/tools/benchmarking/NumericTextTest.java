@@ -0,0 +1,77 @@
+package com.guidewire.tools.benchmarking;
+
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.text.ParseException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+
+@Test(groups="unit")
+public class NumericTextTest {
+
+  private static void assertUnparseable(String value, boolean decimal) {
+    try {
+      if (decimal) {
+        NumericText.parseDecimal(value);
+      } else {
+        NumericText.parseLong(value);
+      }
+      fail("read \"" + value + "\"");
+    } catch (ParseException expected) {
+    }
+  }
+
+  public void testParseLong() throws Exception {
+    assertEquals(NumericText.parseLong("0"), 0L);
+    assertEquals(NumericText.parseLong(" -42 "), -42L);
+    assertEquals(NumericText.parseLong("+7"), 7L);
+    assertEquals(NumericText.parseLong("12.000"), 12L);
+    assertEquals(NumericText.parseLong("100006\""), 100006L);
+    assertEquals(NumericText.parseLong("9223372036854775807"), Long.MAX_VALUE);
+    assertEquals(NumericText.parseLong("-9223372036854775808"), Long.MIN_VALUE);
+    // IDs past the range of an int
+    assertEquals(NumericText.parseLong("3000000000"), 3000000000L);
+    for (String value : new String[] {"", " ", "-", "12abc", "1,234", "1.5", "1e3", "9223372036854775808", "--1"}) {
+      assertUnparseable(value, false);
+    }
+  }
+
+  public void testParseInt() throws Exception {
+    assertEquals(NumericText.parseInt("-2147483648"), Integer.MIN_VALUE);
+    try {
+      NumericText.parseInt("3000000000");
+      fail("out of the range of an int");
+    } catch (ParseException e) {
+      assertEquals(e.getMessage(), "Number out of range: \"3000000000\"");
+    }
+  }
+
+  public void testParseDecimal() throws Exception {
+    assertEquals(NumericText.parseDecimal("100000.23"), new BigDecimal("100000.23"));
+    assertEquals(NumericText.parseDecimal(" -0.10 "), new BigDecimal("-0.10"));
+    assertEquals(NumericText.parseDecimal(".5"), new BigDecimal("0.5"));
+    assertEquals(NumericText.parseDecimal("0.000000000001"), new BigDecimal("1E-12"));
+    // Past the digits of a long, and with exponents
+    assertEquals(NumericText.parseDecimal("12345678901234567890.123456789"), new BigDecimal("12345678901234567890.123456789"));
+    assertEquals(NumericText.parseDecimal("1.5E3"), new BigDecimal("1.5E3"));
+    for (String value : new String[] {"", ".", "-", "1.2.3", "12abc", "1,234.5", "1e", "$5"}) {
+      assertUnparseable(value, true);
+    }
+  }
+
+  public void testFormat() {
+    assertEquals(NumericText.format(new BigDecimal("100000.2300")), "100000.23");
+    assertEquals(NumericText.format(new BigDecimal("1E+3")), "1000");
+    assertEquals(NumericText.format(new BigDecimal("0.000")), "0");
+    assertEquals(NumericText.format(new BigDecimal("-0.012345678905")), "-0.0123456789");
+    assertEquals(NumericText.format(new BigDecimal("0.00000000015")), "0.0000000002");
+    assertEquals(NumericText.format(1234567.123456789), "1234567.123456789");
+    assertEquals(NumericText.format(-2.5), "-2.5");
+    // Ties at the tenth fraction digit go by the double's exact value, as with NumberFormat
+    assertEquals(NumericText.format(0.00000000005), "0.0000000001");
+    assertEquals(NumericText.format(0.00000000015), "0.0000000001");
+  }
+}
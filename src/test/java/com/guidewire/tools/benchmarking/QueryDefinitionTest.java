@@ -224,6 +224,57 @@ public class QueryDefinitionTest {
     Assert.assertEquals(query.getIncrementalSQL("dbtag", ""), " \n \n \n exposure.updatetime > ? dbtag");
   }
 
+  public void testIncrementalSQLWithKeyWatermark() throws Exception {
+    QueryDefinition query = new QueryDefinition();
+    query.setOriginalSQL("WHERE trn.id > 0 &SINCE_KEY_SQL(AND trn.updateTime, trn.ID) order by trn.&SORT_BY_COLUMN, trn.ID");
+    query.setLatestUpdateId(42L);
+
+    Assert.assertTrue(query.usesKeyWatermark());
+    Assert.assertEquals(query.getIncrementalSQL("", ""),
+      "WHERE trn.id > 0 AND (trn.updateTime > ? OR (trn.updateTime = ? AND trn.ID > ?)) order by trn.updatetime, trn.ID");
+  }
+
+  public void testKeyWatermarkWithoutIdComparesUpdateTime() throws Exception {
+    QueryDefinition query = new QueryDefinition();
+    query.setOriginalSQL("&SINCE_KEY_SQL( WHERE exposure.updatetime ,exposure.id )");
+
+    Assert.assertFalse(query.usesKeyWatermark());
+    Assert.assertEquals(query.getIncrementalSQL("", ""), " WHERE exposure.updatetime > ?");
+  }
+
+  public void testChunkedSQLRemovesKeyWatermark() throws Exception {
+    QueryDefinition query = new QueryDefinition();
+    query.setOriginalSQL("WHERE trn.id > 0 &SINCE_KEY_SQL(AND trn.updateTime, trn.ID) order by trn.&SORT_BY_COLUMN");
+    query.setLatestUpdateId(42L);
+
+    Assert.assertEquals(query.getChunkedSQL(null, null, "", ""), "WHERE trn.id > 0  order by trn.createtime");
+    Assert.assertEquals(query.getNullChunkedSQL("", ""), "WHERE trn.id > 0  order by trn.updatetime");
+  }
+
+  public void testBucketSQL() throws Exception {
+    QueryDefinition query = QueryDefinition.createBaseTypecodeQuery("cctl_lossType", null);
+    Assert.assertTrue(query.canUseBuckets());
+    Assert.assertEquals(query.getBucketChecksumSQL("", ""), "&CHECKSUM_AGG(cctl_lossType) WHERE ID BETWEEN ? AND ?");
+    Assert.assertTrue(query.getBucketedSQL(2, "", "").endsWith("cctl_lossType tl\n  WHERE (tl.ID BETWEEN ? AND ? OR tl.ID BETWEEN ? AND ?)"));
+    Assert.assertFalse(query.getTransformedSQL("", "").contains("&BUCKET_SQL"));
+    Assert.assertTrue(query.getTransformedSQL("", "").trim().endsWith("cctl_lossType tl"));
+    Assert.assertEquals(query.getChecksumSQL("", "").trim(), "&CHECKSUM_AGG(cctl_lossType)");
+
+    query.setIncremental(true);
+    Assert.assertFalse(query.canUseBuckets(), "incremental queries have update times to go by");
+  }
+
+  public void testBucketSQLRemovedElsewhere() throws Exception {
+    QueryDefinition query = new QueryDefinition();
+    query.setOriginalSQL("FROM cc_claim clm &BUCKET_SQL(WHERE clm.ID) &SINCE_SQL(AND clm.updateTime > ?)");
+    query.setCountSQL("SELECT COUNT(*) FROM cc_claim &BUCKET_SQL(WHERE ID)");
+
+    Assert.assertFalse(query.canUseBuckets(), "no bucketRangeSQL");
+    Assert.assertEquals(query.getIncrementalSQL("", ""), "FROM cc_claim clm  AND clm.updateTime > ?");
+    Assert.assertEquals(query.getChunkedSQL(null, null, "", ""), "FROM cc_claim clm  ");
+    Assert.assertEquals(query.getCountSQL(null, "", ""), "SELECT COUNT(*) FROM cc_claim ");
+  }
+
   public void testLakeOnly() throws Exception {
     Assert.assertTrue(TestUtil.getQueryDefinition("lakeOnly_default").isLakeOnly());
     Assert.assertTrue(TestUtil.getQueryDefinition("lakeOnly_true").isLakeOnly());
@@ -36,6 +36,20 @@ public class StringColumnTest {
     Assert.assertEquals(threeBackslash, column.unescapeSpecialCharacters(column.escapeSpecialCharacters(threeBackslash)));
   }
 
+  public void testEscapedInOnePass() throws Exception {
+    StringColumn column = (StringColumn)ColumnDef.createDefinition(ColumnDef.STRING, "name");
+    String plain = "nothing to escape, \"quoted\"\n";
+    Assert.assertSame(column.escapeSpecialCharacters(plain), plain);
+    Assert.assertSame(column.unescapeSpecialCharacters(plain), plain);
+
+    Assert.assertEquals(column.escapeSpecialCharacters("a\\b\r\nc\\"), "a<%gwrebkslsh%>b\n\nc<%gwrebkslsh%>");
+    Assert.assertEquals(column.unescapeSpecialCharacters("<%gwrebkslsh%>a<%gwrebkslsh%><%gwrebkslsh%>"), "\\a\\\\");
+
+    StringBuilder row = new StringBuilder("1,");
+    column.escapeSpecialCharacters("C:\\temp\r", row);
+    Assert.assertEquals(row.toString(), "1,C:<%gwrebkslsh%>temp\n");
+  }
+
   public void testCSVReaderRoundTripWithRandomCharacterStrings() throws Exception {
     StringWriter stringWriter = new StringWriter();
     CSVWriter csvWriter = new CSVWriter(stringWriter);